@@ -1,13 +1,34 @@
 package me.arminb.hws.pl241;
 
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
 import me.arminb.hws.pl241.frontend.FileReader;
 import me.arminb.hws.pl241.frontend.Parser;
+import me.arminb.hws.pl241.optimization.Optimizer;
+import me.arminb.hws.pl241.pass.OptimizationLevel;
 
 import java.nio.charset.StandardCharsets;
 
 public class Main {
     public static void main(String[] args) {
-        FileReader.initialize("test.pl241", StandardCharsets.US_ASCII);
+        String fileName = "test.pl241";
+        OptimizationLevel optimizationLevel = OptimizationLevel.O2;
+        boolean boundsChecking = false;
+        for (String arg : args) {
+            if (arg.equals("-bounds-check")) {
+                boundsChecking = true;
+            } else if (arg.startsWith("-budget=")) {
+                Optimizer.getInstance().setWorkBudget(Long.parseLong(arg.substring("-budget=".length())));
+            } else if (OptimizationLevel.isOption(arg)) {
+                optimizationLevel = OptimizationLevel.fromOption(arg);
+            } else {
+                fileName = arg;
+            }
+        }
+
+        FileReader.initialize(fileName, StandardCharsets.US_ASCII);
+        Parser.getInstance().setBoundsChecking(boundsChecking);
         Parser.getInstance().parse();
+        Optimizer.getInstance().optimize(optimizationLevel);
+        ControlFlowGraph.generateGraphFiles();
     }
 }
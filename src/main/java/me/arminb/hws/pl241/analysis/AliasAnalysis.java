@@ -0,0 +1,118 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.Symbol;
+import me.arminb.hws.pl241.symbol.SymbolTable;
+
+// Disambiguates LOAD and STORE instructions. Every memory instruction is annotated with the variable it accesses, and
+// every variable has its own storage, so accesses to different variables never alias. Accesses to the same array are
+// told apart by their ADDA offsets. FILL and COPY instructions write a range of their destination array, which has no
+// single offset, so they may alias every access to it
+public class AliasAnalysis {
+    private ControlFlowGraph controlFlowGraph;
+
+    public AliasAnalysis(ControlFlowGraph controlFlowGraph) {
+        this.controlFlowGraph = controlFlowGraph;
+    }
+
+    // returns the variable or array accessed by a LOAD or STORE instruction, or the array written by a FILL or COPY
+    public static Symbol getLocation(ControlFlowGraph controlFlowGraph, Instruction instruction) {
+        if (instruction.getAffectedVariable() == null || (instruction.getOpCode() != OpCode.LOAD
+                && instruction.getOpCode() != OpCode.STORE && instruction.getOpCode() != OpCode.FILL
+                && instruction.getOpCode() != OpCode.COPY)) {
+            return null;
+        }
+        return SymbolTable.getInstance().get(instruction.getAffectedVariable(), controlFlowGraph.getName());
+    }
+
+    // returns the array read by a COPY instruction
+    public static Symbol getSourceLocation(ControlFlowGraph controlFlowGraph, Instruction instruction) {
+        if (instruction.getOpCode() != OpCode.COPY) {
+            return null;
+        }
+        return SymbolTable.getInstance().get(instruction.getOperand1().getValue(), controlFlowGraph.getName());
+    }
+
+    public Symbol getSourceLocation(Instruction instruction) {
+        return getSourceLocation(controlFlowGraph, instruction);
+    }
+
+    public Symbol getLocation(Instruction instruction) {
+        return getLocation(controlFlowGraph, instruction);
+    }
+
+    public static Result getAddress(Instruction instruction) {
+        if (instruction.getOpCode() == OpCode.LOAD) {
+            return instruction.getOperand1();
+        } else if (instruction.getOpCode() == OpCode.STORE) {
+            return instruction.getOperand2();
+        }
+        return null;
+    }
+
+    // returns the offset of the accessed element from the base address of its variable, or null if it is unknown
+    public LinearExpression getOffset(Instruction instruction) {
+        Symbol location = getLocation(instruction);
+        if (location == null) {
+            return null;
+        }
+        if (!location.isArray()) {
+            return LinearExpression.constant(0);
+        }
+        Result address = getAddress(instruction);
+        if (address == null || address.getType() != Result.Type.VALUE) {
+            return null;
+        }
+        Instruction addressInstruction = controlFlowGraph.getInstruction(address.getValue());
+        if (addressInstruction == null || addressInstruction.getOpCode() != OpCode.ADDA) {
+            return null;
+        }
+        return LinearExpression.of(controlFlowGraph, addressInstruction.getOperand2());
+    }
+
+    public boolean mayAlias(Instruction first, Instruction second) {
+        return mayAlias(first, second, false);
+    }
+
+    // offsets that are not constant refer to SSA values which can hold a different value in each iteration of a
+    // loop. They can only be compared if both instructions see the same instance of those values
+    public boolean mayAlias(Instruction first, Instruction second, boolean onlyConstantOffsets) {
+        Symbol firstLocation = getLocation(first);
+        Symbol secondLocation = getLocation(second);
+        if (firstLocation == null || secondLocation == null) {
+            return true;
+        }
+        if (firstLocation != secondLocation) {
+            return false;
+        }
+        LinearExpression firstOffset = getOffset(first);
+        LinearExpression secondOffset = getOffset(second);
+        if (firstOffset == null || secondOffset == null) {
+            return true;
+        }
+        if (onlyConstantOffsets && (!firstOffset.isConstant() || !secondOffset.isConstant())) {
+            return true;
+        }
+        LinearExpression difference = firstOffset.minus(secondOffset);
+        return !difference.isConstant() || difference.getConstant() == 0;
+    }
+
+    // true if both instructions access exactly the same element. As in mayAlias, offsets that are not constant are
+    // only meaningful if both instructions see the same instance of their values
+    public boolean mustAlias(Instruction first, Instruction second) {
+        Symbol firstLocation = getLocation(first);
+        if (firstLocation == null || firstLocation != getLocation(second)) {
+            return false;
+        }
+        LinearExpression firstOffset = getOffset(first);
+        LinearExpression secondOffset = getOffset(second);
+        return firstOffset != null && firstOffset.equals(secondOffset);
+    }
+
+    public ControlFlowGraph getControlFlowGraph() {
+        return controlFlowGraph;
+    }
+}
@@ -0,0 +1,124 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Scanner;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Call graph over all CFGs. Built-in functions are not part of it since they are lowered to READ and WRITE
+// instructions by the parser
+public class CallGraph {
+    private Map<ControlFlowGraph, Set<ControlFlowGraph>> callees;
+    private Map<ControlFlowGraph, Set<ControlFlowGraph>> callers;
+    private Map<ControlFlowGraph, List<Instruction>> callSites;
+
+    public CallGraph() {
+        callees = new LinkedHashMap<>();
+        callers = new LinkedHashMap<>();
+        callSites = new LinkedHashMap<>();
+        for (ControlFlowGraph controlFlowGraph : ControlFlowGraph.getAll()) {
+            callees.put(controlFlowGraph, new LinkedHashSet<>());
+            callers.put(controlFlowGraph, new LinkedHashSet<>());
+            callSites.put(controlFlowGraph, new ArrayList<>());
+        }
+        for (ControlFlowGraph controlFlowGraph : ControlFlowGraph.getAll()) {
+            for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+                for (Instruction instruction : basicBlock.getInstructions()) {
+                    if (instruction.getOpCode() != OpCode.CALL) {
+                        continue;
+                    }
+                    ControlFlowGraph callee = getCallee(instruction);
+                    if (callee == null) {
+                        continue;
+                    }
+                    callees.get(controlFlowGraph).add(callee);
+                    callers.get(callee).add(controlFlowGraph);
+                    callSites.get(callee).add(instruction);
+                }
+            }
+        }
+    }
+
+    public static ControlFlowGraph getCallee(Instruction callInstruction) {
+        return ControlFlowGraph.get(Scanner.getInstance().identifierToString(callInstruction.getOperand1().getValue()));
+    }
+
+    public Set<ControlFlowGraph> getCallees(ControlFlowGraph controlFlowGraph) {
+        return callees.get(controlFlowGraph);
+    }
+
+    public Set<ControlFlowGraph> getCallers(ControlFlowGraph controlFlowGraph) {
+        return callers.get(controlFlowGraph);
+    }
+
+    // call instructions in all CFGs that call the given CFG
+    public List<Instruction> getCallSites(ControlFlowGraph controlFlowGraph) {
+        return callSites.get(controlFlowGraph);
+    }
+
+    // strongly connected components in bottom-up order, i.e. callees come before their callers
+    public List<List<ControlFlowGraph>> getBottomUpOrder() {
+        return new TarjanVisitor().run();
+    }
+
+    public boolean isRecursive(ControlFlowGraph controlFlowGraph) {
+        for (List<ControlFlowGraph> component : getBottomUpOrder()) {
+            if (component.contains(controlFlowGraph)) {
+                return component.size() > 1 || callees.get(controlFlowGraph).contains(controlFlowGraph);
+            }
+        }
+        return false;
+    }
+
+    private class TarjanVisitor {
+        private int counter = 0;
+        private Map<ControlFlowGraph, Integer> indices = new HashMap<>();
+        private Map<ControlFlowGraph, Integer> lowLinks = new HashMap<>();
+        private List<ControlFlowGraph> stack = new ArrayList<>();
+        private List<List<ControlFlowGraph>> components = new ArrayList<>();
+
+        private List<List<ControlFlowGraph>> run() {
+            for (ControlFlowGraph controlFlowGraph : callees.keySet()) {
+                if (!indices.containsKey(controlFlowGraph)) {
+                    visit(controlFlowGraph);
+                }
+            }
+            return components;
+        }
+
+        private void visit(ControlFlowGraph controlFlowGraph) {
+            indices.put(controlFlowGraph, counter);
+            lowLinks.put(controlFlowGraph, counter);
+            counter++;
+            stack.add(controlFlowGraph);
+
+            for (ControlFlowGraph callee : callees.get(controlFlowGraph)) {
+                if (!indices.containsKey(callee)) {
+                    visit(callee);
+                    lowLinks.put(controlFlowGraph, Math.min(lowLinks.get(controlFlowGraph), lowLinks.get(callee)));
+                } else if (stack.contains(callee)) {
+                    lowLinks.put(controlFlowGraph, Math.min(lowLinks.get(controlFlowGraph), indices.get(callee)));
+                }
+            }
+
+            if (lowLinks.get(controlFlowGraph).equals(indices.get(controlFlowGraph))) {
+                List<ControlFlowGraph> component = new ArrayList<>();
+                ControlFlowGraph member;
+                do {
+                    member = stack.remove(stack.size() - 1);
+                    component.add(member);
+                } while (member != controlFlowGraph);
+                components.add(component);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.symbol.Symbol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Tests whether two memory instructions in the body of a nest of two loops may access the same element in different
+// iterations, for given directions in which the counters of the two iterations differ. The offsets of both accesses
+// have to be linear in the counters with the same coefficients, and everything else they add has to be invariant in
+// the nest. Then the accesses meet if the coefficients times the differences of the counters add up to the difference
+// of their constants. The differences are bounded by the number of values each counter takes, if it is known, and
+// are enumerated for the counter with the smaller range. Anything that doesn't fit is assumed to depend
+public class DependenceAnalysis {
+    private static final long MAX_ENUMERATED_VALUES = 1 << 16;
+
+    public enum Direction {
+        LESS,
+        EQUAL,
+        GREATER
+    }
+
+    private ControlFlowGraph controlFlowGraph;
+    private AliasAnalysis aliasAnalysis;
+    private Loop nest;
+    private Integer outerCounter;
+    private Integer innerCounter;
+    private Map<Integer, Integer> valueCounts;
+
+    // the value counts of the counters are null if they are not known
+    public DependenceAnalysis(AliasAnalysis aliasAnalysis, Loop nest, Instruction outerCounter,
+                              Integer outerValueCount, Instruction innerCounter, Integer innerValueCount) {
+        this.controlFlowGraph = aliasAnalysis.getControlFlowGraph();
+        this.aliasAnalysis = aliasAnalysis;
+        this.nest = nest;
+        this.outerCounter = outerCounter.getIndex();
+        this.innerCounter = innerCounter.getIndex();
+        this.valueCounts = new HashMap<>();
+        valueCounts.put(this.outerCounter, outerValueCount);
+        valueCounts.put(this.innerCounter, innerValueCount);
+    }
+
+    // true if the first instruction may access the element of the second one in another iteration, where the outer
+    // and the inner counter of the iteration of the first one compare to those of the second one in the given
+    // directions
+    public boolean mayDepend(Instruction first, Instruction second, Direction outerDirection,
+                             Direction innerDirection) {
+        Symbol firstLocation = aliasAnalysis.getLocation(first);
+        Symbol secondLocation = aliasAnalysis.getLocation(second);
+        if (firstLocation == null || secondLocation == null) {
+            return true;
+        }
+        if (firstLocation != secondLocation) {
+            return false;
+        }
+        LinearExpression firstOffset = aliasAnalysis.getOffset(first);
+        LinearExpression secondOffset = aliasAnalysis.getOffset(second);
+        if (firstOffset == null || secondOffset == null) {
+            return true;
+        }
+        for (Integer value : firstOffset.getCoefficients().keySet()) {
+            if (!value.equals(outerCounter) && !value.equals(innerCounter) && !isInvariant(value)) {
+                return true;
+            }
+        }
+        // the invariant parts of the offsets have to cancel out
+        LinearExpression difference = secondOffset.minus(firstOffset);
+        if (!difference.isConstant()) {
+            return true;
+        }
+
+        long outerCoefficient = firstOffset.getCoefficient(outerCounter);
+        long innerCoefficient = firstOffset.getCoefficient(innerCounter);
+        long[] outerRange = getRange(outerCounter, outerDirection);
+        long[] innerRange = getRange(innerCounter, innerDirection);
+        if (outerRange == null || innerRange == null) {
+            return false;
+        }
+        return hasSolution(outerCoefficient, outerRange, innerCoefficient, innerRange, difference.getConstant());
+    }
+
+    private boolean isInvariant(Integer value) {
+        Instruction definition = controlFlowGraph.getInstruction(value);
+        return definition != null && !nest.contains(definition.getBasicBlock());
+    }
+
+    // the range of the difference of the counter between two iterations in the given direction, null if it is
+    // empty. Unknown ends are Long.MIN_VALUE or Long.MAX_VALUE
+    private long[] getRange(Integer counter, Direction direction) {
+        Integer valueCount = valueCounts.get(counter);
+        long maxDifference = valueCount == null ? Long.MAX_VALUE : valueCount - 1;
+        switch (direction) {
+            case LESS:
+                return maxDifference < 1 ? null : new long[] {maxDifference == Long.MAX_VALUE ? Long.MIN_VALUE
+                        : -maxDifference, -1};
+            case GREATER:
+                return maxDifference < 1 ? null : new long[] {1, maxDifference};
+            default:
+                return new long[] {0, 0};
+        }
+    }
+
+    // true if coefficient1 * x + coefficient2 * y = constant for some x and y in the ranges
+    private static boolean hasSolution(long coefficient1, long[] range1, long coefficient2, long[] range2,
+                                       long constant) {
+        if (coefficient2 == 0) {
+            if (coefficient1 == 0) {
+                return constant == 0;
+            }
+            return constant % coefficient1 == 0 && contains(range1, constant / coefficient1);
+        }
+        if (coefficient1 == 0 || !isEnumerable(range1)) {
+            if (coefficient1 != 0 && isEnumerable(range2)) {
+                return hasSolution(coefficient2, range2, coefficient1, range1, constant);
+            }
+            if (coefficient1 != 0) {
+                return true;
+            }
+            return constant % coefficient2 == 0 && contains(range2, constant / coefficient2);
+        }
+        for (long x = range1[0]; x <= range1[1]; x++) {
+            long remainder = constant - coefficient1 * x;
+            if (remainder % coefficient2 == 0 && contains(range2, remainder / coefficient2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEnumerable(long[] range) {
+        return range[0] != Long.MIN_VALUE && range[1] != Long.MAX_VALUE
+                && range[1] - range[0] < MAX_ENUMERATED_VALUES;
+    }
+
+    private static boolean contains(long[] range, long value) {
+        return value >= range[0] && value <= range[1];
+    }
+}
@@ -0,0 +1,214 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Computes dominators with the iterative algorithm of Cooper, Harvey and Kennedy. The parser builds domination
+// information while parsing, but it gets stale as soon as the shape of a CFG changes
+public class DominatorTree {
+    private ControlFlowGraph controlFlowGraph;
+    private List<BasicBlock> reversePostOrder;
+    private Map<BasicBlock, Integer> postOrderNumbers;
+    private Map<BasicBlock, BasicBlock> immediateDominators;
+    private Map<BasicBlock, List<BasicBlock>> children;
+    private Map<BasicBlock, Set<BasicBlock>> dominanceFrontiers;
+
+    public DominatorTree(ControlFlowGraph controlFlowGraph) {
+        this.controlFlowGraph = controlFlowGraph;
+        computeReversePostOrder();
+        computeImmediateDominators();
+        computeDominanceFrontiers();
+    }
+
+    private void computeReversePostOrder() {
+        List<BasicBlock> postOrder = new ArrayList<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        // iterative depth first search, each stack entry is a block and the index of the next successor to visit
+        List<BasicBlock> blockStack = new ArrayList<>();
+        List<Integer> successorStack = new ArrayList<>();
+        blockStack.add(controlFlowGraph.getEntryBlock());
+        successorStack.add(0);
+        visited.add(controlFlowGraph.getEntryBlock());
+        while (!blockStack.isEmpty()) {
+            int top = blockStack.size() - 1;
+            BasicBlock basicBlock = blockStack.get(top);
+            List<BasicBlock> successors = basicBlock.getSuccessors();
+            int successorIndex = successorStack.get(top);
+            if (successorIndex < successors.size()) {
+                successorStack.set(top, successorIndex + 1);
+                BasicBlock successor = successors.get(successorIndex);
+                if (visited.add(successor)) {
+                    blockStack.add(successor);
+                    successorStack.add(0);
+                }
+            } else {
+                postOrder.add(basicBlock);
+                blockStack.remove(top);
+                successorStack.remove(top);
+            }
+        }
+
+        postOrderNumbers = new HashMap<>();
+        reversePostOrder = new ArrayList<>();
+        for (int i = postOrder.size() - 1; i >= 0; i--) {
+            postOrderNumbers.put(postOrder.get(i), i);
+            reversePostOrder.add(postOrder.get(i));
+        }
+    }
+
+    private void computeImmediateDominators() {
+        immediateDominators = new HashMap<>();
+        BasicBlock entryBlock = controlFlowGraph.getEntryBlock();
+        immediateDominators.put(entryBlock, entryBlock);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock basicBlock : reversePostOrder) {
+                if (basicBlock == entryBlock) {
+                    continue;
+                }
+                BasicBlock newImmediateDominator = null;
+                for (BasicBlock predecessor : basicBlock.getPredecessors()) {
+                    if (!immediateDominators.containsKey(predecessor)) {
+                        continue;
+                    }
+                    if (newImmediateDominator == null) {
+                        newImmediateDominator = predecessor;
+                    } else {
+                        newImmediateDominator = intersect(predecessor, newImmediateDominator);
+                    }
+                }
+                if (newImmediateDominator != immediateDominators.get(basicBlock)) {
+                    immediateDominators.put(basicBlock, newImmediateDominator);
+                    changed = true;
+                }
+            }
+        }
+
+        children = new HashMap<>();
+        for (BasicBlock basicBlock : reversePostOrder) {
+            children.put(basicBlock, new ArrayList<>());
+        }
+        for (BasicBlock basicBlock : reversePostOrder) {
+            if (basicBlock != entryBlock) {
+                children.get(immediateDominators.get(basicBlock)).add(basicBlock);
+            }
+        }
+    }
+
+    private BasicBlock intersect(BasicBlock first, BasicBlock second) {
+        while (first != second) {
+            while (postOrderNumbers.get(first) < postOrderNumbers.get(second)) {
+                first = immediateDominators.get(first);
+            }
+            while (postOrderNumbers.get(second) < postOrderNumbers.get(first)) {
+                second = immediateDominators.get(second);
+            }
+        }
+        return first;
+    }
+
+    private void computeDominanceFrontiers() {
+        dominanceFrontiers = new HashMap<>();
+        for (BasicBlock basicBlock : reversePostOrder) {
+            dominanceFrontiers.put(basicBlock, new LinkedHashSet<>());
+        }
+        for (BasicBlock basicBlock : reversePostOrder) {
+            List<BasicBlock> predecessors = basicBlock.getPredecessors();
+            if (predecessors.size() < 2) {
+                continue;
+            }
+            for (BasicBlock predecessor : predecessors) {
+                if (!isReachable(predecessor)) {
+                    continue;
+                }
+                BasicBlock runner = predecessor;
+                while (runner != immediateDominators.get(basicBlock)) {
+                    dominanceFrontiers.get(runner).add(basicBlock);
+                    runner = immediateDominators.get(runner);
+                }
+            }
+        }
+    }
+
+    public boolean isReachable(BasicBlock basicBlock) {
+        return postOrderNumbers.containsKey(basicBlock);
+    }
+
+    // returns null for the entry block
+    public BasicBlock getImmediateDominator(BasicBlock basicBlock) {
+        BasicBlock immediateDominator = immediateDominators.get(basicBlock);
+        return immediateDominator == basicBlock ? null : immediateDominator;
+    }
+
+    public List<BasicBlock> getChildren(BasicBlock basicBlock) {
+        return children.get(basicBlock);
+    }
+
+    public Set<BasicBlock> getDominanceFrontier(BasicBlock basicBlock) {
+        return dominanceFrontiers.get(basicBlock);
+    }
+
+    public boolean dominates(BasicBlock dominator, BasicBlock basicBlock) {
+        if (!isReachable(basicBlock) || !isReachable(dominator)) {
+            return false;
+        }
+        BasicBlock runner = basicBlock;
+        while (true) {
+            if (runner == dominator) {
+                return true;
+            }
+            BasicBlock immediateDominator = immediateDominators.get(runner);
+            if (immediateDominator == runner) {
+                return false;
+            }
+            runner = immediateDominator;
+        }
+    }
+
+    // reachable blocks in reverse post order. Every block comes before its successors except for back edges
+    public List<BasicBlock> getReversePostOrder() {
+        return reversePostOrder;
+    }
+
+    // blocks in dominator tree pre-order
+    public List<BasicBlock> getPreOrder() {
+        List<BasicBlock> preOrder = new ArrayList<>();
+        List<BasicBlock> stack = new ArrayList<>();
+        stack.add(controlFlowGraph.getEntryBlock());
+        while (!stack.isEmpty()) {
+            BasicBlock basicBlock = stack.remove(stack.size() - 1);
+            preOrder.add(basicBlock);
+            List<BasicBlock> blockChildren = children.get(basicBlock);
+            for (int i = blockChildren.size() - 1; i >= 0; i--) {
+                stack.add(blockChildren.get(i));
+            }
+        }
+        return preOrder;
+    }
+
+    // replaces the domination information kept in basic blocks, which is used for the domination tree graph file
+    public void updateBasicBlocks() {
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            basicBlock.resetImmediateDominations();
+            if (children.containsKey(basicBlock)) {
+                for (BasicBlock child : children.get(basicBlock)) {
+                    basicBlock.addImmediateDomination(child);
+                }
+            }
+        }
+    }
+
+    public ControlFlowGraph getControlFlowGraph() {
+        return controlFlowGraph;
+    }
+}
@@ -0,0 +1,114 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.Symbol;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Side effect summaries of functions: the global variables and arrays a call may store to or load from, including
+// the effects of everything it calls. Locals can't be reached by a callee since PL241 has no pointers
+public class FunctionSummary {
+    private CallGraph callGraph;
+    private Map<ControlFlowGraph, Set<Symbol>> modifiedGlobals;
+    private Map<ControlFlowGraph, Set<Symbol>> referencedGlobals;
+    private Map<ControlFlowGraph, Boolean> performsIO;
+
+    public FunctionSummary(CallGraph callGraph) {
+        this.callGraph = callGraph;
+        modifiedGlobals = new HashMap<>();
+        referencedGlobals = new HashMap<>();
+        performsIO = new HashMap<>();
+
+        // callees come first, so members of other components are already summarized
+        for (List<ControlFlowGraph> component : callGraph.getBottomUpOrder()) {
+            for (ControlFlowGraph controlFlowGraph : component) {
+                summarizeLocally(controlFlowGraph);
+            }
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (ControlFlowGraph controlFlowGraph : component) {
+                    for (ControlFlowGraph callee : callGraph.getCallees(controlFlowGraph)) {
+                        changed |= modifiedGlobals.get(controlFlowGraph).addAll(modifiedGlobals.get(callee));
+                        changed |= referencedGlobals.get(controlFlowGraph).addAll(referencedGlobals.get(callee));
+                        if (performsIO.get(callee) && !performsIO.get(controlFlowGraph)) {
+                            performsIO.put(controlFlowGraph, true);
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void summarizeLocally(ControlFlowGraph controlFlowGraph) {
+        Set<Symbol> modified = new LinkedHashSet<>();
+        Set<Symbol> referenced = new LinkedHashSet<>();
+        boolean io = false;
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == OpCode.STORE || instruction.getOpCode() == OpCode.LOAD) {
+                    Symbol location = AliasAnalysis.getLocation(controlFlowGraph, instruction);
+                    if (location == null || !location.isGlobal()) {
+                        continue;
+                    }
+                    if (instruction.getOpCode() == OpCode.STORE) {
+                        modified.add(location);
+                    } else {
+                        referenced.add(location);
+                    }
+                } else if (instruction.getOpCode() == OpCode.FILL || instruction.getOpCode() == OpCode.COPY) {
+                    Symbol location = AliasAnalysis.getLocation(controlFlowGraph, instruction);
+                    if (location != null && location.isGlobal()) {
+                        modified.add(location);
+                    }
+                    Symbol source = AliasAnalysis.getSourceLocation(controlFlowGraph, instruction);
+                    if (source != null && source.isGlobal()) {
+                        referenced.add(source);
+                    }
+                } else if (instruction.getOpCode() == OpCode.READ || instruction.getOpCode() == OpCode.WRITE ||
+                        instruction.getOpCode() == OpCode.WRITENL) {
+                    io = true;
+                }
+            }
+        }
+        modifiedGlobals.put(controlFlowGraph, modified);
+        referencedGlobals.put(controlFlowGraph, referenced);
+        performsIO.put(controlFlowGraph, io);
+    }
+
+    public CallGraph getCallGraph() {
+        return callGraph;
+    }
+
+    public Set<Symbol> getModifiedGlobals(ControlFlowGraph controlFlowGraph) {
+        return modifiedGlobals.get(controlFlowGraph);
+    }
+
+    public Set<Symbol> getReferencedGlobals(ControlFlowGraph controlFlowGraph) {
+        return referencedGlobals.get(controlFlowGraph);
+    }
+
+    public boolean performsIO(ControlFlowGraph controlFlowGraph) {
+        return performsIO.get(controlFlowGraph);
+    }
+
+    // true if the call instruction may store to the given location
+    public boolean mayModify(Instruction callInstruction, Symbol location) {
+        ControlFlowGraph callee = CallGraph.getCallee(callInstruction);
+        return callee == null || modifiedGlobals.get(callee).contains(location);
+    }
+
+    // true if the call instruction may load from the given location
+    public boolean mayReference(Instruction callInstruction, Symbol location) {
+        ControlFlowGraph callee = CallGraph.getCallee(callInstruction);
+        return callee == null || referencedGlobals.get(callee).contains(location);
+    }
+}
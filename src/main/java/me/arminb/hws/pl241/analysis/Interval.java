@@ -0,0 +1,171 @@
+package me.arminb.hws.pl241.analysis;
+
+// A range of integer values [lower, upper]. Bounds are kept as longs so that arithmetic can detect overflow. A result
+// that doesn't fit into an integer may wrap around, so it becomes the full range
+public class Interval {
+    public static final Interval EMPTY = new Interval(1, 0);
+    public static final Interval FULL = new Interval(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+    private final long lower;
+    private final long upper;
+
+    private Interval(long lower, long upper) {
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    public static Interval constant(long value) {
+        return of(value, value);
+    }
+
+    // result of an arithmetic operation
+    public static Interval of(long lower, long upper) {
+        if (lower > upper) {
+            return EMPTY;
+        }
+        if (lower < Integer.MIN_VALUE || upper > Integer.MAX_VALUE) {
+            return FULL;
+        }
+        return new Interval(lower, upper);
+    }
+
+    // bounds that lie outside of the integer range are cut off instead
+    public static Interval bounded(long lower, long upper) {
+        return of(Math.max(lower, Integer.MIN_VALUE), Math.min(upper, Integer.MAX_VALUE));
+    }
+
+    public boolean isEmpty() {
+        return lower > upper;
+    }
+
+    public boolean isConstant() {
+        return lower == upper;
+    }
+
+    public long getLower() {
+        return lower;
+    }
+
+    public long getUpper() {
+        return upper;
+    }
+
+    public boolean isWithin(long lower, long upper) {
+        return isEmpty() || (this.lower >= lower && this.upper <= upper);
+    }
+
+    public boolean contains(long value) {
+        return lower <= value && value <= upper;
+    }
+
+    public Interval union(Interval other) {
+        if (isEmpty()) {
+            return other;
+        }
+        if (other.isEmpty()) {
+            return this;
+        }
+        return of(Math.min(lower, other.lower), Math.max(upper, other.upper));
+    }
+
+    public Interval intersect(Interval other) {
+        if (isEmpty() || other.isEmpty()) {
+            return EMPTY;
+        }
+        return of(Math.max(lower, other.lower), Math.min(upper, other.upper));
+    }
+
+    // moves the bounds that grew since the previous interval to the end of the integer range
+    public Interval widen(Interval next) {
+        if (isEmpty()) {
+            return next;
+        }
+        if (next.isEmpty()) {
+            return this;
+        }
+        return of(next.lower < lower ? Integer.MIN_VALUE : lower, next.upper > upper ? Integer.MAX_VALUE : upper);
+    }
+
+    public Interval plus(Interval other) {
+        if (isEmpty() || other.isEmpty()) {
+            return EMPTY;
+        }
+        return of(lower + other.lower, upper + other.upper);
+    }
+
+    public Interval minus(Interval other) {
+        if (isEmpty() || other.isEmpty()) {
+            return EMPTY;
+        }
+        return of(lower - other.upper, upper - other.lower);
+    }
+
+    public Interval negate() {
+        if (isEmpty()) {
+            return EMPTY;
+        }
+        return of(-upper, -lower);
+    }
+
+    public Interval times(Interval other) {
+        if (isEmpty() || other.isEmpty()) {
+            return EMPTY;
+        }
+        long[] products = {lower * other.lower, lower * other.upper, upper * other.lower, upper * other.upper};
+        return of(min(products), max(products));
+    }
+
+    // integer division rounds towards zero. A divisor that may be zero gives the full range
+    public Interval divide(Interval other) {
+        if (isEmpty() || other.isEmpty()) {
+            return EMPTY;
+        }
+        if (other.contains(0)) {
+            return FULL;
+        }
+        long[] quotients = {lower / other.lower, lower / other.upper, upper / other.lower, upper / other.upper};
+        return of(min(quotients), max(quotients));
+    }
+
+    private static long min(long[] values) {
+        long retValue = values[0];
+        for (long value : values) {
+            retValue = Math.min(retValue, value);
+        }
+        return retValue;
+    }
+
+    private static long max(long[] values) {
+        long retValue = values[0];
+        for (long value : values) {
+            retValue = Math.max(retValue, value);
+        }
+        return retValue;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Interval)) {
+            return false;
+        }
+        Interval other = (Interval) obj;
+        if (isEmpty() || other.isEmpty()) {
+            return isEmpty() && other.isEmpty();
+        }
+        return lower == other.lower && upper == other.upper;
+    }
+
+    @Override
+    public int hashCode() {
+        return isEmpty() ? 0 : Long.hashCode(31 * lower + upper);
+    }
+
+    @Override
+    public String toString() {
+        if (isEmpty()) {
+            return "[]";
+        }
+        return "[" + (lower == Integer.MIN_VALUE ? "-inf" : lower) + ", "
+                + (upper == Integer.MAX_VALUE ? "inf" : upper) + "]";
+    }
+}
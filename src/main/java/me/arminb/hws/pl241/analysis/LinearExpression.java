@@ -0,0 +1,152 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// A value written as constant + sum of coefficient * value, where values are results of instructions that can't be
+// decomposed any further. Used to compare array offsets built by Result.getArrayRelativeAddress()
+public class LinearExpression {
+    private static final int MAX_DEPTH = 16;
+
+    private Integer constant;
+    private Map<Integer, Integer> coefficients; // instruction index -> coefficient
+
+    private LinearExpression(Integer constant) {
+        this.constant = constant;
+        this.coefficients = new TreeMap<>();
+    }
+
+    public static LinearExpression constant(Integer constant) {
+        return new LinearExpression(constant);
+    }
+
+    public static LinearExpression value(Integer instructionIndex) {
+        LinearExpression linearExpression = new LinearExpression(0);
+        linearExpression.coefficients.put(instructionIndex, 1);
+        return linearExpression;
+    }
+
+    // returns null if the result is not a constant or a value
+    public static LinearExpression of(ControlFlowGraph controlFlowGraph, Result result) {
+        return of(controlFlowGraph, result, 0);
+    }
+
+    private static LinearExpression of(ControlFlowGraph controlFlowGraph, Result result, int depth) {
+        if (result == null) {
+            return null;
+        }
+        if (result.getType() == Result.Type.CONSTANT) {
+            return constant(result.getValue());
+        }
+        if (result.getType() != Result.Type.VALUE) {
+            return null;
+        }
+
+        Instruction instruction = controlFlowGraph.getInstruction(result.getValue());
+        if (instruction == null || depth >= MAX_DEPTH || instruction.getOperand1() == null ||
+                instruction.getOperand2() == null || instruction.getOperand1().getType() == Result.Type.ADDRESS) {
+            return value(result.getValue());
+        }
+
+        OpCode opCode = instruction.getOpCode();
+        if (opCode != OpCode.ADD && opCode != OpCode.SUB && opCode != OpCode.MUL && opCode != OpCode.LSH) {
+            return value(result.getValue());
+        }
+
+        LinearExpression left = of(controlFlowGraph, instruction.getOperand1(), depth + 1);
+        LinearExpression right = of(controlFlowGraph, instruction.getOperand2(), depth + 1);
+        if (left == null || right == null) {
+            return value(result.getValue());
+        }
+        if (opCode == OpCode.ADD) {
+            return left.plus(right);
+        } else if (opCode == OpCode.SUB) {
+            return left.minus(right);
+        } else if (opCode == OpCode.LSH) {
+            // a left shift by a constant is a multiplication
+            if (right.isConstant() && right.getConstant() >= 0 && right.getConstant() <= 30) {
+                return left.times(1 << right.getConstant());
+            }
+        } else if (left.isConstant()) {
+            return right.times(left.getConstant());
+        } else if (right.isConstant()) {
+            return left.times(right.getConstant());
+        }
+        return value(result.getValue());
+    }
+
+    public LinearExpression plus(LinearExpression other) {
+        LinearExpression retExpression = new LinearExpression(constant + other.constant);
+        retExpression.coefficients.putAll(coefficients);
+        for (Map.Entry<Integer, Integer> entry : other.coefficients.entrySet()) {
+            retExpression.addCoefficient(entry.getKey(), entry.getValue());
+        }
+        return retExpression;
+    }
+
+    public LinearExpression minus(LinearExpression other) {
+        return plus(other.times(-1));
+    }
+
+    public LinearExpression times(Integer factor) {
+        LinearExpression retExpression = new LinearExpression(constant * factor);
+        for (Map.Entry<Integer, Integer> entry : coefficients.entrySet()) {
+            retExpression.addCoefficient(entry.getKey(), entry.getValue() * factor);
+        }
+        return retExpression;
+    }
+
+    private void addCoefficient(Integer instructionIndex, Integer coefficient) {
+        Integer newCoefficient = coefficients.getOrDefault(instructionIndex, 0) + coefficient;
+        if (newCoefficient == 0) {
+            coefficients.remove(instructionIndex);
+        } else {
+            coefficients.put(instructionIndex, newCoefficient);
+        }
+    }
+
+    public boolean isConstant() {
+        return coefficients.isEmpty();
+    }
+
+    public Integer getConstant() {
+        return constant;
+    }
+
+    public Map<Integer, Integer> getCoefficients() {
+        return coefficients;
+    }
+
+    public Integer getCoefficient(Integer instructionIndex) {
+        return coefficients.getOrDefault(instructionIndex, 0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof LinearExpression)) {
+            return false;
+        }
+        LinearExpression other = (LinearExpression) obj;
+        return constant.equals(other.constant) && coefficients.equals(other.coefficients);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * constant.hashCode() + coefficients.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder retString = new StringBuilder();
+        for (Map.Entry<Integer, Integer> entry : coefficients.entrySet()) {
+            retString.append(entry.getValue() + "*(" + entry.getKey() + ") + ");
+        }
+        retString.append("#" + constant);
+        return retString.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// A natural loop. All back edges to the same header belong to one loop
+public class Loop {
+    private BasicBlock header;
+    private Set<BasicBlock> blocks;
+    private List<BasicBlock> latches;
+    private Loop parent;
+    private List<Loop> children;
+
+    public Loop(BasicBlock header) {
+        this.header = header;
+        blocks = new LinkedHashSet<>();
+        latches = new ArrayList<>();
+        children = new ArrayList<>();
+        blocks.add(header);
+    }
+
+    public BasicBlock getHeader() {
+        return header;
+    }
+
+    public Set<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public boolean contains(BasicBlock basicBlock) {
+        return blocks.contains(basicBlock);
+    }
+
+    public boolean contains(Loop loop) {
+        return blocks.containsAll(loop.getBlocks());
+    }
+
+    // the blocks with a back edge to the header
+    public List<BasicBlock> getLatches() {
+        return latches;
+    }
+
+    public Loop getParent() {
+        return parent;
+    }
+
+    public void setParent(Loop parent) {
+        this.parent = parent;
+    }
+
+    public List<Loop> getChildren() {
+        return children;
+    }
+
+    public int getDepth() {
+        return parent == null ? 1 : parent.getDepth() + 1;
+    }
+
+    // the predecessors of the header that are not part of the loop
+    public List<BasicBlock> getEntryBlocks() {
+        List<BasicBlock> entryBlocks = new ArrayList<>();
+        for (BasicBlock predecessor : header.getPredecessors()) {
+            if (!contains(predecessor)) {
+                entryBlocks.add(predecessor);
+            }
+        }
+        return entryBlocks;
+    }
+
+    // the only entry block if the header is its only successor, otherwise null
+    public BasicBlock getPreheader() {
+        List<BasicBlock> entryBlocks = getEntryBlocks();
+        if (entryBlocks.size() != 1 || entryBlocks.get(0).getSuccessors().size() != 1) {
+            return null;
+        }
+        return entryBlocks.get(0);
+    }
+
+    // the blocks outside of the loop that are entered from the loop
+    public Set<BasicBlock> getExitBlocks() {
+        Set<BasicBlock> exitBlocks = new LinkedHashSet<>();
+        for (BasicBlock basicBlock : blocks) {
+            for (BasicBlock successor : basicBlock.getSuccessors()) {
+                if (!contains(successor)) {
+                    exitBlocks.add(successor);
+                }
+            }
+        }
+        return exitBlocks;
+    }
+
+    @Override
+    public String toString() {
+        return "Loop(" + header + ")";
+    }
+}
@@ -0,0 +1,119 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Finds the natural loops of a CFG from the back edges of its dominator tree and nests them
+public class LoopInfo {
+    private ControlFlowGraph controlFlowGraph;
+    private DominatorTree dominatorTree;
+    private List<Loop> loops;
+    private Map<BasicBlock, Loop> innermostLoops;
+
+    public LoopInfo(ControlFlowGraph controlFlowGraph, DominatorTree dominatorTree) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.dominatorTree = dominatorTree;
+        findLoops();
+        nestLoops();
+    }
+
+    private void findLoops() {
+        Map<BasicBlock, Loop> headerLoops = new LinkedHashMap<>();
+        for (BasicBlock header : dominatorTree.getReversePostOrder()) {
+            for (BasicBlock predecessor : header.getPredecessors()) {
+                if (!dominatorTree.isReachable(predecessor) || !dominatorTree.dominates(header, predecessor)) {
+                    continue;
+                }
+                if (!headerLoops.containsKey(header)) {
+                    headerLoops.put(header, new Loop(header));
+                }
+                Loop loop = headerLoops.get(header);
+                loop.getLatches().add(predecessor);
+
+                // the loop body is everything that reaches the latch without going through the header
+                List<BasicBlock> worklist = new ArrayList<>();
+                if (loop.getBlocks().add(predecessor)) {
+                    worklist.add(predecessor);
+                }
+                while (!worklist.isEmpty()) {
+                    for (BasicBlock bodyPredecessor : worklist.remove(worklist.size() - 1).getPredecessors()) {
+                        if (dominatorTree.isReachable(bodyPredecessor) && loop.getBlocks().add(bodyPredecessor)) {
+                            worklist.add(bodyPredecessor);
+                        }
+                    }
+                }
+            }
+        }
+        loops = new ArrayList<>(headerLoops.values());
+    }
+
+    private void nestLoops() {
+        // a loop is nested in the smallest other loop that contains its header
+        innermostLoops = new HashMap<>();
+        for (Loop loop : loops) {
+            Loop parent = null;
+            for (Loop other : loops) {
+                if (other != loop && other.contains(loop.getHeader()) && other.contains(loop)
+                        && (parent == null || parent.getBlocks().size() > other.getBlocks().size())) {
+                    parent = other;
+                }
+            }
+            loop.setParent(parent);
+            if (parent != null) {
+                parent.getChildren().add(loop);
+            }
+            for (BasicBlock basicBlock : loop.getBlocks()) {
+                Loop innermostLoop = innermostLoops.get(basicBlock);
+                if (innermostLoop == null || innermostLoop.getBlocks().size() > loop.getBlocks().size()) {
+                    innermostLoops.put(basicBlock, loop);
+                }
+            }
+        }
+    }
+
+    // outer loops come before the loops nested in them
+    public List<Loop> getLoops() {
+        return loops;
+    }
+
+    public List<Loop> getLoopsInnermostFirst() {
+        List<Loop> innermostFirst = new ArrayList<>();
+        for (Loop loop : loops) {
+            if (loop.getParent() == null) {
+                addInnermostFirst(loop, innermostFirst);
+            }
+        }
+        return innermostFirst;
+    }
+
+    private void addInnermostFirst(Loop loop, List<Loop> innermostFirst) {
+        for (Loop child : loop.getChildren()) {
+            addInnermostFirst(child, innermostFirst);
+        }
+        innermostFirst.add(loop);
+    }
+
+    // returns null if the block is not in a loop
+    public Loop getLoop(BasicBlock basicBlock) {
+        return innermostLoops.get(basicBlock);
+    }
+
+    public int getLoopDepth(BasicBlock basicBlock) {
+        Loop loop = getLoop(basicBlock);
+        return loop == null ? 0 : loop.getDepth();
+    }
+
+    public ControlFlowGraph getControlFlowGraph() {
+        return controlFlowGraph;
+    }
+
+    public DominatorTree getDominatorTree() {
+        return dominatorTree;
+    }
+}
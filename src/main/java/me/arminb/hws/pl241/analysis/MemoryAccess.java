@@ -0,0 +1,107 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.symbol.Symbol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A version of a memory location in memory SSA. Stores and calls define new versions, loads use them and memory phis
+// merge them at join blocks. Every location also has a version that is live on entry of the function
+public class MemoryAccess {
+    public enum Kind {
+        ENTRY,
+        DEF,
+        USE,
+        PHI
+    }
+
+    private final Kind kind;
+    private final Symbol location;
+    private final BasicBlock basicBlock;
+    private final Instruction instruction; // null for entry and phi accesses
+    private Integer version; // null for uses
+    private MemoryAccess definingAccess; // for defs and uses
+    private List<MemoryAccess> operands; // for phis, one operand per predecessor of the block
+
+    public MemoryAccess(Kind kind, Symbol location, BasicBlock basicBlock, Instruction instruction) {
+        this.kind = kind;
+        this.location = location;
+        this.basicBlock = basicBlock;
+        this.instruction = instruction;
+        this.operands = new ArrayList<>();
+        if (kind == Kind.PHI) {
+            for (int i = 0; i < basicBlock.getPredecessors().size(); i++) {
+                operands.add(null);
+            }
+        }
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Symbol getLocation() {
+        return location;
+    }
+
+    public BasicBlock getBasicBlock() {
+        return basicBlock;
+    }
+
+    public Instruction getInstruction() {
+        return instruction;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
+    public MemoryAccess getDefiningAccess() {
+        return definingAccess;
+    }
+
+    public void setDefiningAccess(MemoryAccess definingAccess) {
+        this.definingAccess = definingAccess;
+    }
+
+    public List<MemoryAccess> getOperands() {
+        return operands;
+    }
+
+    public MemoryAccess getOperand(BasicBlock predecessor) {
+        return operands.get(basicBlock.getPredecessorIndex(predecessor));
+    }
+
+    public boolean isDefinition() {
+        return kind != Kind.USE;
+    }
+
+    public String getVersionName() {
+        return location.getName() + "_" + version;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case ENTRY:
+                return getVersionName() + " = liveOnEntry";
+            case PHI:
+                StringBuilder retString = new StringBuilder(getVersionName() + " = MemPhi(");
+                for (int i = 0; i < operands.size(); i++) {
+                    retString.append(operands.get(i) == null ? "null" : operands.get(i).getVersionName());
+                    retString.append(i == operands.size() - 1 ? ")" : ", ");
+                }
+                return retString.toString();
+            case DEF:
+                return getVersionName() + " = MemDef(" + definingAccess.getVersionName() + ") at " + instruction.getIndex();
+            default:
+                return "MemUse(" + definingAccess.getVersionName() + ") at " + instruction.getIndex();
+        }
+    }
+}
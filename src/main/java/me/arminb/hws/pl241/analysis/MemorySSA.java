@@ -0,0 +1,326 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.Symbol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Memory SSA with a separate version chain for every variable and array kept in memory. A STORE defines a new
+// version of the location it is annotated with, and a CALL defines new versions of the globals its callee may
+// modify. A FILL defines a new version of its array, and a COPY uses its source array before it defines a new version
+// of its destination. Memory phis are placed at the iterated dominance frontier of the definitions, the same way phi instructions
+// are placed for scalars
+public class MemorySSA {
+    private static final int MAX_WALK_STEPS = 1000;
+
+    private ControlFlowGraph controlFlowGraph;
+    private DominatorTree dominatorTree;
+    private FunctionSummary functionSummary;
+    private AliasAnalysis aliasAnalysis;
+    private Set<Symbol> locations;
+    private Map<Symbol, MemoryAccess> entryAccesses;
+    private Map<BasicBlock, Map<Symbol, MemoryAccess>> phiAccesses;
+    private Map<Instruction, List<MemoryAccess>> instructionAccesses;
+    private Map<Symbol, Integer> versionCounters;
+    private int walkSteps;
+
+    public MemorySSA(ControlFlowGraph controlFlowGraph, DominatorTree dominatorTree, FunctionSummary functionSummary,
+                     AliasAnalysis aliasAnalysis) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.dominatorTree = dominatorTree;
+        this.functionSummary = functionSummary;
+        this.aliasAnalysis = aliasAnalysis;
+        locations = new LinkedHashSet<>();
+        entryAccesses = new HashMap<>();
+        phiAccesses = new HashMap<>();
+        instructionAccesses = new LinkedHashMap<>();
+        versionCounters = new HashMap<>();
+
+        Map<Symbol, Set<BasicBlock>> definitionBlocks = createAccesses();
+        placePhis(definitionBlocks);
+        rename(controlFlowGraph.getEntryBlock(), new HashMap<>());
+    }
+
+    // creates accesses of memory instructions and returns the blocks that define each location
+    private Map<Symbol, Set<BasicBlock>> createAccesses() {
+        Map<Symbol, Set<BasicBlock>> definitionBlocks = new HashMap<>();
+        for (BasicBlock basicBlock : dominatorTree.getReversePostOrder()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                List<MemoryAccess> accesses = new ArrayList<>();
+                if (instruction.getOpCode() == OpCode.LOAD || instruction.getOpCode() == OpCode.STORE) {
+                    Symbol location = aliasAnalysis.getLocation(instruction);
+                    if (location == null) {
+                        continue;
+                    }
+                    MemoryAccess.Kind kind = instruction.getOpCode() == OpCode.LOAD ?
+                            MemoryAccess.Kind.USE : MemoryAccess.Kind.DEF;
+                    accesses.add(new MemoryAccess(kind, location, basicBlock, instruction));
+                } else if (instruction.getOpCode() == OpCode.FILL || instruction.getOpCode() == OpCode.COPY) {
+                    Symbol source = aliasAnalysis.getSourceLocation(instruction);
+                    if (source != null) {
+                        accesses.add(new MemoryAccess(MemoryAccess.Kind.USE, source, basicBlock, instruction));
+                    }
+                    Symbol location = aliasAnalysis.getLocation(instruction);
+                    if (location != null) {
+                        accesses.add(new MemoryAccess(MemoryAccess.Kind.DEF, location, basicBlock, instruction));
+                    }
+                } else if (instruction.getOpCode() == OpCode.CALL) {
+                    ControlFlowGraph callee = CallGraph.getCallee(instruction);
+                    if (callee == null) {
+                        continue;
+                    }
+                    // the call reads the globals of the callee before it may change them
+                    for (Symbol location : functionSummary.getReferencedGlobals(callee)) {
+                        accesses.add(new MemoryAccess(MemoryAccess.Kind.USE, location, basicBlock, instruction));
+                    }
+                    for (Symbol location : functionSummary.getModifiedGlobals(callee)) {
+                        accesses.add(new MemoryAccess(MemoryAccess.Kind.DEF, location, basicBlock, instruction));
+                    }
+                }
+
+                for (MemoryAccess access : accesses) {
+                    locations.add(access.getLocation());
+                    if (access.getKind() == MemoryAccess.Kind.DEF) {
+                        if (!definitionBlocks.containsKey(access.getLocation())) {
+                            definitionBlocks.put(access.getLocation(), new LinkedHashSet<>());
+                        }
+                        definitionBlocks.get(access.getLocation()).add(basicBlock);
+                    }
+                }
+                if (!accesses.isEmpty()) {
+                    instructionAccesses.put(instruction, accesses);
+                }
+            }
+        }
+
+        for (Symbol location : locations) {
+            MemoryAccess entryAccess = new MemoryAccess(MemoryAccess.Kind.ENTRY, location,
+                    controlFlowGraph.getEntryBlock(), null);
+            entryAccess.setVersion(nextVersion(location));
+            entryAccesses.put(location, entryAccess);
+        }
+        return definitionBlocks;
+    }
+
+    private void placePhis(Map<Symbol, Set<BasicBlock>> definitionBlocks) {
+        for (Symbol location : locations) {
+            if (!definitionBlocks.containsKey(location)) {
+                continue;
+            }
+            List<BasicBlock> worklist = new ArrayList<>(definitionBlocks.get(location));
+            Set<BasicBlock> hasPhi = new HashSet<>();
+            while (!worklist.isEmpty()) {
+                BasicBlock basicBlock = worklist.remove(worklist.size() - 1);
+                for (BasicBlock frontierBlock : dominatorTree.getDominanceFrontier(basicBlock)) {
+                    if (hasPhi.add(frontierBlock)) {
+                        if (!phiAccesses.containsKey(frontierBlock)) {
+                            phiAccesses.put(frontierBlock, new LinkedHashMap<>());
+                        }
+                        MemoryAccess phiAccess = new MemoryAccess(MemoryAccess.Kind.PHI, location, frontierBlock, null);
+                        phiAccesses.get(frontierBlock).put(location, phiAccess);
+                        worklist.add(frontierBlock);
+                    }
+                }
+            }
+        }
+    }
+
+    // walks the dominator tree and connects every access to the version that reaches it
+    private void rename(BasicBlock basicBlock, Map<Symbol, MemoryAccess> currentVersions) {
+        Map<Symbol, MemoryAccess> blockVersions = new HashMap<>(currentVersions);
+
+        for (MemoryAccess phiAccess : getPhis(basicBlock)) {
+            phiAccess.setVersion(nextVersion(phiAccess.getLocation()));
+            blockVersions.put(phiAccess.getLocation(), phiAccess);
+        }
+
+        for (Instruction instruction : basicBlock.getInstructions()) {
+            if (!instructionAccesses.containsKey(instruction)) {
+                continue;
+            }
+            for (MemoryAccess access : instructionAccesses.get(instruction)) {
+                access.setDefiningAccess(getVersion(blockVersions, access.getLocation()));
+                if (access.getKind() == MemoryAccess.Kind.DEF) {
+                    access.setVersion(nextVersion(access.getLocation()));
+                    blockVersions.put(access.getLocation(), access);
+                }
+            }
+        }
+
+        for (BasicBlock successor : basicBlock.getSuccessors()) {
+            List<BasicBlock> predecessors = successor.getPredecessors();
+            for (MemoryAccess phiAccess : getPhis(successor)) {
+                for (int i = 0; i < predecessors.size(); i++) {
+                    if (predecessors.get(i) == basicBlock) {
+                        phiAccess.getOperands().set(i, getVersion(blockVersions, phiAccess.getLocation()));
+                    }
+                }
+            }
+        }
+
+        for (BasicBlock child : dominatorTree.getChildren(basicBlock)) {
+            rename(child, blockVersions);
+        }
+    }
+
+    private MemoryAccess getVersion(Map<Symbol, MemoryAccess> versions, Symbol location) {
+        if (versions.containsKey(location)) {
+            return versions.get(location);
+        }
+        return entryAccesses.get(location);
+    }
+
+    private Integer nextVersion(Symbol location) {
+        Integer version = versionCounters.getOrDefault(location, 0);
+        versionCounters.put(location, version + 1);
+        return version;
+    }
+
+    public Set<Symbol> getLocations() {
+        return locations;
+    }
+
+    public MemoryAccess getEntryAccess(Symbol location) {
+        return entryAccesses.get(location);
+    }
+
+    public List<MemoryAccess> getPhis(BasicBlock basicBlock) {
+        if (!phiAccesses.containsKey(basicBlock)) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(phiAccesses.get(basicBlock).values());
+    }
+
+    public MemoryAccess getPhi(BasicBlock basicBlock, Symbol location) {
+        if (!phiAccesses.containsKey(basicBlock)) {
+            return null;
+        }
+        return phiAccesses.get(basicBlock).get(location);
+    }
+
+    // all accesses of an instruction. Calls may have several of them
+    public List<MemoryAccess> getAccesses(Instruction instruction) {
+        if (!instructionAccesses.containsKey(instruction)) {
+            return new ArrayList<>();
+        }
+        return instructionAccesses.get(instruction);
+    }
+
+    // the access of a LOAD or STORE instruction
+    public MemoryAccess getAccess(Instruction instruction) {
+        List<MemoryAccess> accesses = getAccesses(instruction);
+        return accesses.isEmpty() ? null : accesses.get(0);
+    }
+
+    // the version a call sees for the given location, or null if the call does not use the location
+    public MemoryAccess getAccess(Instruction instruction, Symbol location, MemoryAccess.Kind kind) {
+        for (MemoryAccess access : getAccesses(instruction)) {
+            if (access.getLocation() == location && access.getKind() == kind) {
+                return access;
+            }
+        }
+        return null;
+    }
+
+    // Returns the nearest access that may write the element read or written by a LOAD or STORE instruction. Stores
+    // to other elements of the same array are skipped, and memory phis are skipped when all of their operands lead to
+    // the same clobbering access
+    public MemoryAccess getClobberingAccess(Instruction instruction) {
+        MemoryAccess access = getAccess(instruction);
+        if (access == null) {
+            return null;
+        }
+        walkSteps = 0;
+        MemoryAccess clobber = walk(access.getDefiningAccess(), instruction, false, new HashSet<>());
+        return clobber == null ? access.getDefiningAccess() : clobber;
+    }
+
+    // returns null if the walk reached a phi that is already being visited, which means the path is a loop that
+    // does not clobber the location
+    private MemoryAccess walk(MemoryAccess access, Instruction instruction, boolean crossedPhi,
+                              Set<MemoryAccess> visitingPhis) {
+        while (true) {
+            if (++walkSteps > MAX_WALK_STEPS) {
+                return access;
+            }
+            switch (access.getKind()) {
+                case ENTRY:
+                    return access;
+                case DEF:
+                    if (access.getInstruction().getOpCode() != OpCode.STORE ||
+                            aliasAnalysis.mayAlias(access.getInstruction(), instruction, crossedPhi)) {
+                        return access;
+                    }
+                    access = access.getDefiningAccess();
+                    break;
+                case PHI:
+                    if (visitingPhis.contains(access)) {
+                        return null;
+                    }
+                    visitingPhis.add(access);
+                    MemoryAccess commonClobber = null;
+                    for (MemoryAccess operand : access.getOperands()) {
+                        if (operand == null) {
+                            continue;
+                        }
+                        MemoryAccess operandClobber = walk(operand, instruction, true, visitingPhis);
+                        if (operandClobber == null) {
+                            continue;
+                        }
+                        if (commonClobber != null && commonClobber != operandClobber) {
+                            visitingPhis.remove(access);
+                            return access;
+                        }
+                        commonClobber = operandClobber;
+                    }
+                    visitingPhis.remove(access);
+                    return commonClobber;
+                default:
+                    return access;
+            }
+        }
+    }
+
+    public ControlFlowGraph getControlFlowGraph() {
+        return controlFlowGraph;
+    }
+
+    public DominatorTree getDominatorTree() {
+        return dominatorTree;
+    }
+
+    public AliasAnalysis getAliasAnalysis() {
+        return aliasAnalysis;
+    }
+
+    public FunctionSummary getFunctionSummary() {
+        return functionSummary;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder retString = new StringBuilder();
+        for (BasicBlock basicBlock : dominatorTree.getReversePostOrder()) {
+            retString.append(basicBlock + ":\n");
+            for (MemoryAccess phiAccess : getPhis(basicBlock)) {
+                retString.append("  " + phiAccess + "\n");
+            }
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                for (MemoryAccess access : getAccesses(instruction)) {
+                    retString.append("  " + access + "\n");
+                }
+            }
+        }
+        return retString.toString();
+    }
+}
@@ -0,0 +1,166 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Post-dominators, computed like DominatorTree on the reverse CFG, and the control dependences derived from them.
+// Blocks without successors are connected to a virtual exit, which is the root of the tree. Blocks that can't reach
+// the exit, like the ones of an infinite loop, are not part of the tree
+public class PostDominatorTree {
+    private ControlFlowGraph controlFlowGraph;
+    // blocks are numbered in post order of the reverse CFG. The virtual exit gets the highest number
+    private List<BasicBlock> blocks;
+    private Map<BasicBlock, Integer> postOrderNumbers;
+    private int[] immediatePostDominators;
+    private int exit;
+    private Map<BasicBlock, Set<BasicBlock>> controlDependences;
+
+    public PostDominatorTree(ControlFlowGraph controlFlowGraph) {
+        this.controlFlowGraph = controlFlowGraph;
+        computePostOrder();
+        computeImmediatePostDominators();
+        computeControlDependences();
+    }
+
+    private void computePostOrder() {
+        blocks = new ArrayList<>();
+        postOrderNumbers = new HashMap<>();
+        List<BasicBlock> exitBlocks = new ArrayList<>();
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            if (basicBlock.getSuccessors().isEmpty()) {
+                exitBlocks.add(basicBlock);
+            }
+        }
+
+        // iterative depth first search over predecessors, each stack entry is a block and the index of the next
+        // predecessor to visit
+        Set<BasicBlock> visited = new LinkedHashSet<>();
+        for (BasicBlock exitBlock : exitBlocks) {
+            List<BasicBlock> blockStack = new ArrayList<>();
+            List<Integer> predecessorStack = new ArrayList<>();
+            blockStack.add(exitBlock);
+            predecessorStack.add(0);
+            visited.add(exitBlock);
+            while (!blockStack.isEmpty()) {
+                int top = blockStack.size() - 1;
+                BasicBlock basicBlock = blockStack.get(top);
+                List<BasicBlock> predecessors = basicBlock.getPredecessors();
+                int predecessorIndex = predecessorStack.get(top);
+                if (predecessorIndex < predecessors.size()) {
+                    predecessorStack.set(top, predecessorIndex + 1);
+                    BasicBlock predecessor = predecessors.get(predecessorIndex);
+                    if (visited.add(predecessor)) {
+                        blockStack.add(predecessor);
+                        predecessorStack.add(0);
+                    }
+                } else {
+                    postOrderNumbers.put(basicBlock, blocks.size());
+                    blocks.add(basicBlock);
+                    blockStack.remove(top);
+                    predecessorStack.remove(top);
+                }
+            }
+        }
+        exit = blocks.size();
+    }
+
+    private void computeImmediatePostDominators() {
+        immediatePostDominators = new int[exit + 1];
+        for (int i = 0; i < exit; i++) {
+            immediatePostDominators[i] = -1;
+        }
+        immediatePostDominators[exit] = exit;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = exit - 1; i >= 0; i--) {
+                BasicBlock basicBlock = blocks.get(i);
+                int newImmediatePostDominator = -1;
+                List<BasicBlock> successors = basicBlock.getSuccessors();
+                if (successors.isEmpty()) {
+                    newImmediatePostDominator = exit;
+                }
+                for (BasicBlock successor : successors) {
+                    Integer successorNumber = postOrderNumbers.get(successor);
+                    if (successorNumber == null || immediatePostDominators[successorNumber] == -1) {
+                        continue;
+                    }
+                    if (newImmediatePostDominator == -1) {
+                        newImmediatePostDominator = successorNumber;
+                    } else {
+                        newImmediatePostDominator = intersect(successorNumber, newImmediatePostDominator);
+                    }
+                }
+                if (newImmediatePostDominator != immediatePostDominators[i]) {
+                    immediatePostDominators[i] = newImmediatePostDominator;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private int intersect(int first, int second) {
+        while (first != second) {
+            while (first < second) {
+                first = immediatePostDominators[first];
+            }
+            while (second < first) {
+                second = immediatePostDominators[second];
+            }
+        }
+        return first;
+    }
+
+    // a block is control dependent on a branch if one successor of the branch always leads to the block and the
+    // other one may avoid it
+    private void computeControlDependences() {
+        controlDependences = new HashMap<>();
+        for (BasicBlock basicBlock : blocks) {
+            controlDependences.put(basicBlock, new LinkedHashSet<>());
+        }
+        for (BasicBlock basicBlock : blocks) {
+            List<BasicBlock> successors = basicBlock.getSuccessors();
+            if (successors.size() < 2) {
+                continue;
+            }
+            int blockPostDominator = immediatePostDominators[postOrderNumbers.get(basicBlock)];
+            for (BasicBlock successor : successors) {
+                Integer runner = postOrderNumbers.get(successor);
+                while (runner != null && runner != blockPostDominator && runner != exit) {
+                    controlDependences.get(blocks.get(runner)).add(basicBlock);
+                    runner = immediatePostDominators[runner];
+                }
+            }
+        }
+    }
+
+    public boolean reachesExit(BasicBlock basicBlock) {
+        return postOrderNumbers.containsKey(basicBlock);
+    }
+
+    // returns null if the block is immediately post-dominated by the exit or can't reach the exit
+    public BasicBlock getImmediatePostDominator(BasicBlock basicBlock) {
+        if (!reachesExit(basicBlock)) {
+            return null;
+        }
+        int immediatePostDominator = immediatePostDominators[postOrderNumbers.get(basicBlock)];
+        return immediatePostDominator == exit ? null : blocks.get(immediatePostDominator);
+    }
+
+    // the blocks whose conditional branch decides if the given block is executed
+    public Set<BasicBlock> getControlDependences(BasicBlock basicBlock) {
+        return controlDependences.getOrDefault(basicBlock, new LinkedHashSet<>());
+    }
+
+    public ControlFlowGraph getControlFlowGraph() {
+        return controlFlowGraph;
+    }
+}
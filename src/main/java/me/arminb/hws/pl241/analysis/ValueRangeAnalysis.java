@@ -0,0 +1,343 @@
+package me.arminb.hws.pl241.analysis;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Sparse value range analysis over SSA. Every value gets a single interval for the whole function, and each use of a
+// value is refined by the branch conditions and bounds checks that dominate it. This gives induction variables the
+// bounds of their loop condition. Loads of scalar variables take the range of the value stored by their clobbering
+// access in memory SSA. Loops are handled by widening phis and narrowing the result afterwards
+public class ValueRangeAnalysis {
+    private static final int WIDENING_THRESHOLD = 3;
+    private static final int NARROWING_PASSES = 2;
+    private static final int MAX_PASSES = 100;
+
+    private ControlFlowGraph controlFlowGraph;
+    private DominatorTree dominatorTree;
+    private MemorySSA memorySSA;
+    private Map<Integer, Interval> ranges; // instruction index -> range of its value
+    private Map<MemoryAccess, Interval> memoryRanges; // memory phis of scalar variables -> range of their value
+    private Map<Object, Integer> updateCounts;
+    private Map<Instruction, MemoryAccess> loadSources;
+    private Map<BasicBlock, Condition> entryConditions;
+    private Map<BasicBlock, List<Instruction>> checks;
+    private Map<Instruction, Integer> positions;
+
+    // a relation between two operands that holds in a block, written as a branch opcode. BLT means left < right
+    private static class Condition {
+        private final OpCode relation;
+        private final Result left;
+        private final Result right;
+
+        private Condition(OpCode relation, Result left, Result right) {
+            this.relation = relation;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    public ValueRangeAnalysis(ControlFlowGraph controlFlowGraph, DominatorTree dominatorTree, MemorySSA memorySSA) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.dominatorTree = dominatorTree;
+        this.memorySSA = memorySSA;
+        ranges = new HashMap<>();
+        memoryRanges = new HashMap<>();
+        updateCounts = new HashMap<>();
+        loadSources = new HashMap<>();
+        entryConditions = new HashMap<>();
+        checks = new HashMap<>();
+        positions = new HashMap<>();
+
+        for (BasicBlock basicBlock : dominatorTree.getReversePostOrder()) {
+            Condition entryCondition = computeEntryCondition(basicBlock);
+            if (entryCondition != null) {
+                entryConditions.put(basicBlock, entryCondition);
+            }
+            List<Instruction> blockChecks = new ArrayList<>();
+            int position = 0;
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                positions.put(instruction, position++);
+                if (instruction.getOpCode() == OpCode.CHK) {
+                    blockChecks.add(instruction);
+                } else if (instruction.getOpCode() == OpCode.LOAD) {
+                    MemoryAccess access = memorySSA.getAccess(instruction);
+                    if (access != null && !access.getLocation().isArray()) {
+                        loadSources.put(instruction, memorySSA.getClobberingAccess(instruction));
+                    }
+                }
+            }
+            checks.put(basicBlock, blockChecks);
+        }
+
+        analyze();
+    }
+
+    // the condition of the branch that leads to the block, if the block can only be entered through that branch
+    private Condition computeEntryCondition(BasicBlock basicBlock) {
+        if (basicBlock.getPredecessors().size() != 1) {
+            return null;
+        }
+        BasicBlock predecessor = basicBlock.getPredecessors().get(0);
+        Instruction branchInstruction = predecessor.getLastInstruction();
+        if (!branchInstruction.isConditionalBranch() || predecessor.getFallThroughBlock() == predecessor.getBranchBlock()) {
+            return null;
+        }
+        OpCode relation = branchInstruction.getOpCode();
+        if (basicBlock != predecessor.getBranchBlock()) {
+            relation = negate(relation);
+        }
+
+        Result condition = branchInstruction.getOperand1();
+        if (condition.getType() == Result.Type.VALUE) {
+            Instruction conditionInstruction = controlFlowGraph.getInstruction(condition.getValue());
+            if (conditionInstruction != null && conditionInstruction.getOpCode() == OpCode.CMP) {
+                return new Condition(relation, conditionInstruction.getOperand1(), conditionInstruction.getOperand2());
+            }
+        }
+        return new Condition(relation, condition, new Result(Result.Type.CONSTANT, 0));
+    }
+
+    private static OpCode negate(OpCode relation) {
+        switch (relation) {
+            case BEQ: return OpCode.BNE;
+            case BNE: return OpCode.BEQ;
+            case BLT: return OpCode.BGE;
+            case BGE: return OpCode.BLT;
+            case BLE: return OpCode.BGT;
+            default: return OpCode.BLE; // BGT
+        }
+    }
+
+    // the relation seen from the right operand
+    private static OpCode swap(OpCode relation) {
+        switch (relation) {
+            case BLT: return OpCode.BGT;
+            case BGT: return OpCode.BLT;
+            case BLE: return OpCode.BGE;
+            case BGE: return OpCode.BLE;
+            default: return relation; // BEQ, BNE
+        }
+    }
+
+    private void analyze() {
+        int passes = 0;
+        while (pass(true)) {
+            if (++passes >= MAX_PASSES) {
+                // gives up on this function. Every value may be anything
+                ranges.replaceAll((index, range) -> Interval.FULL);
+                memoryRanges.replaceAll((access, range) -> Interval.FULL);
+                return;
+            }
+        }
+        // starting from a fixed point, more passes without widening only take back what widening overestimated
+        for (int i = 0; i < NARROWING_PASSES; i++) {
+            pass(false);
+        }
+    }
+
+    private boolean pass(boolean widening) {
+        boolean changed = false;
+        for (BasicBlock basicBlock : dominatorTree.getReversePostOrder()) {
+            for (MemoryAccess phiAccess : memorySSA.getPhis(basicBlock)) {
+                if (phiAccess.getLocation().isArray()) {
+                    continue;
+                }
+                Interval range = Interval.EMPTY;
+                for (MemoryAccess operand : phiAccess.getOperands()) {
+                    if (operand != null) {
+                        range = range.union(getRange(operand));
+                    }
+                }
+                changed |= update(memoryRanges, phiAccess, range, widening);
+            }
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == null) {
+                    continue;
+                }
+                changed |= update(ranges, instruction.getIndex(), evaluate(instruction),
+                        widening && instruction.getOpCode() == OpCode.PHI);
+            }
+        }
+        return changed;
+    }
+
+    private <K> boolean update(Map<K, Interval> rangeMap, K key, Interval range, boolean widening) {
+        Interval oldRange = rangeMap.getOrDefault(key, Interval.EMPTY);
+        if (widening) {
+            Integer updateCount = updateCounts.getOrDefault(key, 0);
+            if (updateCount >= WIDENING_THRESHOLD) {
+                range = oldRange.widen(range);
+            }
+        }
+        if (range.equals(oldRange)) {
+            return false;
+        }
+        rangeMap.put(key, range);
+        updateCounts.put(key, updateCounts.getOrDefault(key, 0) + 1);
+        return true;
+    }
+
+    private Interval evaluate(Instruction instruction) {
+        BasicBlock basicBlock = instruction.getBasicBlock();
+        switch (instruction.getOpCode()) {
+            case ADD:
+                return getRange(instruction.getOperand1(), basicBlock, instruction)
+                        .plus(getRange(instruction.getOperand2(), basicBlock, instruction));
+            case SUB:
+                return getRange(instruction.getOperand1(), basicBlock, instruction)
+                        .minus(getRange(instruction.getOperand2(), basicBlock, instruction));
+            case MUL:
+                return getRange(instruction.getOperand1(), basicBlock, instruction)
+                        .times(getRange(instruction.getOperand2(), basicBlock, instruction));
+            case DIV:
+                return getRange(instruction.getOperand1(), basicBlock, instruction)
+                        .divide(getRange(instruction.getOperand2(), basicBlock, instruction));
+            case NEG:
+                return getRange(instruction.getOperand1(), basicBlock, instruction).negate();
+            case CMP:
+                return Interval.of(-1, 1);
+            case PHI:
+                Interval range = Interval.EMPTY;
+                for (BasicBlock predecessor : basicBlock.getPredecessors()) {
+                    if (dominatorTree.isReachable(predecessor)) {
+                        range = range.union(getRange(instruction.getPhiOperand(predecessor), predecessor, null));
+                    }
+                }
+                return range;
+            case LOAD:
+                if (loadSources.containsKey(instruction)) {
+                    return getRange(loadSources.get(instruction));
+                }
+                return Interval.FULL;
+            default:
+                return Interval.FULL;
+        }
+    }
+
+    private Interval getRange(MemoryAccess access) {
+        switch (access.getKind()) {
+            case PHI:
+                return memoryRanges.getOrDefault(access, Interval.EMPTY);
+            case DEF:
+                Instruction instruction = access.getInstruction();
+                if (instruction.getOpCode() == OpCode.STORE) {
+                    return getRange(instruction.getOperand1(), instruction.getBasicBlock(), instruction);
+                }
+                return Interval.FULL;
+            default:
+                return Interval.FULL;
+        }
+    }
+
+    // range of a value for the whole function
+    public Interval getRange(Integer instructionIndex) {
+        return ranges.getOrDefault(instructionIndex, Interval.EMPTY);
+    }
+
+    // range of an operand as seen by the given instruction
+    public Interval getRange(Result operand, Instruction instruction) {
+        return getRange(operand, instruction.getBasicBlock(), instruction);
+    }
+
+    private Interval getUnrefinedRange(Result operand) {
+        if (operand == null || operand.getValue() == null) {
+            return Interval.FULL;
+        }
+        if (operand.getType() == Result.Type.CONSTANT) {
+            return Interval.constant(operand.getValue());
+        }
+        if (operand.getType() == Result.Type.VALUE) {
+            return getRange(operand.getValue());
+        }
+        return Interval.FULL;
+    }
+
+    // range of an operand at the given position of a block, or at its end if position is null
+    private Interval getRange(Result operand, BasicBlock basicBlock, Instruction position) {
+        Interval range = getUnrefinedRange(operand);
+        if (operand == null || operand.getType() != Result.Type.VALUE || operand.getValue() == null) {
+            return range;
+        }
+        Integer valueIndex = operand.getValue();
+
+        BasicBlock currentBlock = basicBlock;
+        while (currentBlock != null && !range.isEmpty()) {
+            for (Instruction checkInstruction : checks.getOrDefault(currentBlock, new ArrayList<>())) {
+                if (position != null && positions.get(checkInstruction) >= positions.get(position)) {
+                    break;
+                }
+                if (isSameValue(checkInstruction.getOperand1(), valueIndex)) {
+                    // the check traps unless the index is in [0, bound)
+                    long bound = getUnrefinedRange(checkInstruction.getOperand2()).getUpper();
+                    range = range.intersect(Interval.bounded(0, bound - 1));
+                }
+            }
+            Condition condition = entryConditions.get(currentBlock);
+            if (condition != null) {
+                if (isSameValue(condition.left, valueIndex)) {
+                    range = refine(range, condition.relation, getUnrefinedRange(condition.right));
+                }
+                if (isSameValue(condition.right, valueIndex)) {
+                    range = refine(range, swap(condition.relation), getUnrefinedRange(condition.left));
+                }
+            }
+            position = null;
+            currentBlock = dominatorTree.getImmediateDominator(currentBlock);
+        }
+        return range;
+    }
+
+    // range of x given that x relation other holds
+    private static Interval refine(Interval range, OpCode relation, Interval other) {
+        if (other.isEmpty()) {
+            return Interval.EMPTY;
+        }
+        switch (relation) {
+            case BLT:
+                return range.intersect(Interval.bounded(Integer.MIN_VALUE, other.getUpper() - 1));
+            case BLE:
+                return range.intersect(Interval.bounded(Integer.MIN_VALUE, other.getUpper()));
+            case BGT:
+                return range.intersect(Interval.bounded(other.getLower() + 1, Integer.MAX_VALUE));
+            case BGE:
+                return range.intersect(Interval.bounded(other.getLower(), Integer.MAX_VALUE));
+            case BEQ:
+                return range.intersect(other);
+            default: // BNE
+                if (!range.isEmpty() && other.isConstant()) {
+                    if (range.getLower() == other.getLower()) {
+                        return Interval.bounded(range.getLower() + 1, range.getUpper());
+                    } else if (range.getUpper() == other.getLower()) {
+                        return Interval.bounded(range.getLower(), range.getUpper() - 1);
+                    }
+                }
+                return range;
+        }
+    }
+
+    // true if the operand holds the same value as the instruction with the given index. Besides the value itself,
+    // this is the case for loads of a scalar variable that read the same store
+    private boolean isSameValue(Result operand, Integer valueIndex) {
+        if (operand == null || operand.getType() != Result.Type.VALUE || operand.getValue() == null) {
+            return false;
+        }
+        if (operand.isValueOf(valueIndex)) {
+            return true;
+        }
+        Instruction first = controlFlowGraph.getInstruction(operand.getValue());
+        Instruction second = controlFlowGraph.getInstruction(valueIndex);
+        return loadSources.containsKey(first) && loadSources.get(first) == loadSources.get(second);
+    }
+
+    public ControlFlowGraph getControlFlowGraph() {
+        return controlFlowGraph;
+    }
+}
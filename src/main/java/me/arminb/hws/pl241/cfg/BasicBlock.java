@@ -22,6 +22,8 @@ public class BasicBlock {
     private Instruction firstInstruction;
     private Instruction lastInstruction;
     private List<BasicBlock> immediateDominations;
+    // phi instructions take operand1 from the first predecessor and operand2 from the second one
+    private List<BasicBlock> predecessors;
 
     private BasicBlock() {
         fallThroughBlock = null;
@@ -32,6 +34,7 @@ public class BasicBlock {
         phiInstructions = new HashMap<>();
         joiningFromLeft = true;
         immediateDominations = new ArrayList<>();
+        predecessors = new ArrayList<>();
     }
 
     public static BasicBlock create() {
@@ -57,6 +60,10 @@ public class BasicBlock {
         return immediateDominations;
     }
 
+    public void resetImmediateDominations() {
+        this.immediateDominations = new ArrayList<>();
+    }
+
     public void addInstruction(Instruction instruction) {
         if (getFirstInstruction() == null) {
             firstInstruction = instruction;
@@ -120,7 +127,13 @@ public class BasicBlock {
     }
 
     public void setFallThroughBlock(BasicBlock fallThroughBlock) {
+        if (this.fallThroughBlock != null) {
+            this.fallThroughBlock.removePredecessor(this);
+        }
         this.fallThroughBlock = fallThroughBlock;
+        if (fallThroughBlock != null) {
+            fallThroughBlock.addPredecessor(this);
+        }
     }
 
     public BasicBlock getBranchBlock() {
@@ -128,7 +141,272 @@ public class BasicBlock {
     }
 
     public void setBranchBlock(BasicBlock branchBlock) {
+        if (this.branchBlock != null) {
+            this.branchBlock.removePredecessor(this);
+        }
         this.branchBlock = branchBlock;
+        if (branchBlock != null) {
+            branchBlock.addPredecessor(this);
+        }
+    }
+
+    // removes the edge to the successor. Phi instructions of the successor that are left with a single predecessor
+    // are replaced by the operand of the remaining one
+    public void removeSuccessor(BasicBlock successor) {
+        Integer predecessorIndex = successor.getPredecessorIndex(this);
+        if (fallThroughBlock == successor) {
+            setFallThroughBlock(null);
+        } else if (branchBlock == successor) {
+            setBranchBlock(null);
+        } else {
+            return;
+        }
+
+        if (successor.getPredecessors().size() != 1) {
+            return;
+        }
+        for (Instruction phiInstruction : successor.getPhiInstructions()) {
+            Result remainingOperand = predecessorIndex == 0 ? phiInstruction.getOperand2() : phiInstruction.getOperand1();
+            if (remainingOperand == null) {
+                // the variable is not initialized on the remaining path, where it reads as zero
+                remainingOperand = new Result(Result.Type.CONSTANT, 0);
+            }
+            ControlFlowGraph.getCurrent().replaceValueUses(phiInstruction.getIndex(), remainingOperand);
+            successor.removeInstruction(phiInstruction);
+        }
+    }
+
+    // moves the branch edge of this block to the new destination. The old destination should not have phi
+    // instructions. If the replaced predecessor is given, this block takes its place among the predecessors of the
+    // new destination, so the phi operands of the new destination stay in order, and its edge is removed
+    public void redirectBranch(BasicBlock newDestination, BasicBlock replacedPredecessor) {
+        Instruction branchInstruction = getLastInstruction();
+        Instruction oldDestination = ControlFlowGraph.getCurrent().getInstruction(
+                branchInstruction.getBranchDestination().getValue());
+        oldDestination.getBranchDestinationFor().remove(branchInstruction);
+        branchInstruction.setBranchDestination(new Result(Result.Type.VALUE,
+                newDestination.getFirstInstruction().getIndex()));
+
+        if (replacedPredecessor == null) {
+            setBranchBlock(newDestination);
+            return;
+        }
+        branchBlock.removePredecessor(this);
+        if (replacedPredecessor.fallThroughBlock == newDestination) {
+            replacedPredecessor.fallThroughBlock = null;
+        } else {
+            replacedPredecessor.branchBlock = null;
+        }
+        newDestination.replacePredecessor(replacedPredecessor, this);
+        branchBlock = newDestination;
+    }
+
+    // removes the empty fall through block of this block, which should have no other predecessor and fall through
+    // itself. This block takes its place among the predecessors of the next block
+    public void bypassFallThroughBlock() {
+        BasicBlock emptyBlock = fallThroughBlock;
+        BasicBlock nextBlock = emptyBlock.fallThroughBlock;
+        emptyBlock.removePredecessor(this);
+        emptyBlock.fallThroughBlock = null;
+        nextBlock.replacePredecessor(emptyBlock, this);
+        fallThroughBlock = nextBlock;
+        ControlFlowGraph.getCurrent().removeBasicBlock(emptyBlock);
+    }
+
+    // appends the instructions of the only successor of this block, which should have no other predecessor. The
+    // successor should either come right after this block or have no fall through block, so that the instruction
+    // chain can be moved
+    public void mergeSuccessor() {
+        BasicBlock successor = getSuccessors().get(0);
+        if (lastInstruction.getOpCode() == OpCode.BRA) {
+            removeInstruction(lastInstruction);
+        }
+        for (Instruction phiInstruction : successor.getPhiInstructions()) {
+            ControlFlowGraph.getCurrent().replaceValueUses(phiInstruction.getIndex(), phiInstruction.getOperand1());
+            successor.removeInstruction(phiInstruction);
+        }
+
+        Instruction successorFirstInstruction = successor.getFirstInstruction();
+        Instruction successorLastInstruction = successor.getLastInstruction();
+        if (lastInstruction.getNext() != successorFirstInstruction) {
+            if (successorFirstInstruction.getPrevious() != null) {
+                successorFirstInstruction.getPrevious().setNext(successorLastInstruction.getNext());
+            }
+            if (successorLastInstruction.getNext() != null) {
+                successorLastInstruction.getNext().setPrevious(successorFirstInstruction.getPrevious());
+            }
+            successorLastInstruction.setNext(lastInstruction.getNext());
+            if (lastInstruction.getNext() != null) {
+                lastInstruction.getNext().setPrevious(successorLastInstruction);
+            }
+            lastInstruction.setNext(successorFirstInstruction);
+            successorFirstInstruction.setPrevious(lastInstruction);
+        }
+        for (Instruction instruction : successor.getInstructions()) {
+            instruction.setBasicBlock(this);
+        }
+        Instruction previousLastInstruction = lastInstruction;
+        lastInstruction = successorLastInstruction;
+        if (previousLastInstruction.isEmpty()) {
+            removeInstruction(previousLastInstruction);
+        }
+        if (successorFirstInstruction.isEmpty() && successorFirstInstruction != lastInstruction) {
+            removeInstruction(successorFirstInstruction);
+        }
+
+        successor.removePredecessor(this);
+        fallThroughBlock = successor.fallThroughBlock;
+        branchBlock = successor.branchBlock;
+        for (BasicBlock nextBlock : getSuccessors()) {
+            nextBlock.replacePredecessor(successor, this);
+        }
+        ControlFlowGraph.getCurrent().getBasicBlocks().remove(successor);
+    }
+
+    // creates an empty block on the edge from this block to the successor, which takes the place of this block among
+    // the predecessors of the successor. The new block is placed right before the successor if nothing falls through
+    // to it, otherwise it is placed at the end of the code and branches to the successor
+    public BasicBlock splitEdge(BasicBlock successor) {
+        return splitEdge(successor, false);
+    }
+
+    // like splitEdge, but the new block is always placed right before the successor. A block that falls through to
+    // the successor branches to it instead, so that block should have no other successor
+    public BasicBlock splitEdge(BasicBlock successor, boolean beforeSuccessor) {
+        BasicBlock newBlock = BasicBlock.create();
+        Instruction emptyInstruction = newBlock.getFirstInstruction();
+        newBlock.predecessors.add(this);
+        successor.replacePredecessor(this, newBlock);
+
+        if (fallThroughBlock == successor) {
+            fallThroughBlock = newBlock;
+            linkInstruction(lastInstruction, emptyInstruction);
+            newBlock.fallThroughBlock = successor;
+            return newBlock;
+        }
+
+        Instruction branchInstruction = getLastInstruction();
+        successor.getFirstInstruction().getBranchDestinationFor().remove(branchInstruction);
+        branchInstruction.setBranchDestination(new Result(Result.Type.VALUE, emptyInstruction.getIndex()));
+        branchBlock = newBlock;
+
+        BasicBlock fallThroughPredecessor = null;
+        for (BasicBlock predecessor : successor.getPredecessors()) {
+            if (predecessor.getFallThroughBlock() == successor) {
+                fallThroughPredecessor = predecessor;
+            }
+        }
+        if (fallThroughPredecessor != null && beforeSuccessor) {
+            fallThroughPredecessor.fallThroughBlock = null;
+            fallThroughPredecessor.branchBlock = successor;
+            Instruction newBranchInstruction = Instruction.create(OpCode.BRA, null, null);
+            fallThroughPredecessor.insertBeforeBranch(newBranchInstruction);
+            newBranchInstruction.setOperand1(new Result(Result.Type.VALUE, successor.getFirstInstruction().getIndex()));
+            fallThroughPredecessor = null;
+        }
+        if (fallThroughPredecessor == null) {
+            Instruction successorFirstInstruction = successor.getFirstInstruction();
+            if (successorFirstInstruction.getPrevious() != null) {
+                linkInstruction(successorFirstInstruction.getPrevious(), emptyInstruction);
+            } else {
+                emptyInstruction.setNext(successorFirstInstruction);
+                successorFirstInstruction.setPrevious(emptyInstruction);
+            }
+            newBlock.fallThroughBlock = successor;
+        } else {
+            Instruction lastCodeInstruction = successor.getFirstInstruction();
+            while (lastCodeInstruction.getNext() != null) {
+                lastCodeInstruction = lastCodeInstruction.getNext();
+            }
+            linkInstruction(lastCodeInstruction, emptyInstruction);
+            Instruction newBranchInstruction = Instruction.create(OpCode.BRA, null, null);
+            newBlock.insertBeforeBranch(newBranchInstruction);
+            newBranchInstruction.setOperand1(new Result(Result.Type.VALUE, successor.getFirstInstruction().getIndex()));
+            newBlock.branchBlock = successor;
+        }
+        return newBlock;
+    }
+
+    // moves the instructions after the given one to a new block, which takes the place of this block among the
+    // predecessors of its successors. This block falls through to the new block, which comes right after it
+    public BasicBlock splitAfter(Instruction instruction) {
+        BasicBlock newBlock = new BasicBlock();
+        ControlFlowGraph.getCurrent().addBasicBlock(newBlock);
+        if (instruction == lastInstruction) {
+            Instruction emptyInstruction = Instruction.create(null, null, null);
+            emptyInstruction.setBasicBlock(newBlock);
+            linkInstruction(instruction, emptyInstruction);
+            newBlock.firstInstruction = emptyInstruction;
+            newBlock.lastInstruction = emptyInstruction;
+        } else {
+            newBlock.firstInstruction = instruction.getNext();
+            newBlock.lastInstruction = lastInstruction;
+            lastInstruction = instruction;
+            for (Instruction movedInstruction : newBlock.getInstructions()) {
+                movedInstruction.setBasicBlock(newBlock);
+            }
+        }
+
+        newBlock.fallThroughBlock = fallThroughBlock;
+        newBlock.branchBlock = branchBlock;
+        for (BasicBlock successor : newBlock.getSuccessors()) {
+            successor.replacePredecessor(this, newBlock);
+        }
+        fallThroughBlock = newBlock;
+        branchBlock = null;
+        newBlock.predecessors.add(this);
+        return newBlock;
+    }
+
+    // links an instruction that is not part of the chain after the given one
+    private static void linkInstruction(Instruction previous, Instruction instruction) {
+        instruction.setPrevious(previous);
+        instruction.setNext(previous.getNext());
+        if (previous.getNext() != null) {
+            previous.getNext().setPrevious(instruction);
+        }
+        previous.setNext(instruction);
+    }
+
+    // unlinks the instruction from the block so that it can be inserted somewhere else. Unlike removeInstruction,
+    // the instruction stays in the CFG, and a block that would be left without instructions gets an empty one
+    public void detachInstruction(Instruction instruction) {
+        if (firstInstruction == lastInstruction) {
+            insertAfter(instruction, Instruction.create(null, null, null));
+        }
+        removeInstruction(instruction);
+        ControlFlowGraph.getCurrent().addInstruction(instruction);
+    }
+
+    private void replacePredecessor(BasicBlock oldPredecessor, BasicBlock newPredecessor) {
+        predecessors.set(predecessors.indexOf(oldPredecessor), newPredecessor);
+    }
+
+    public List<BasicBlock> getSuccessors() {
+        List<BasicBlock> successors = new ArrayList<>();
+        if (fallThroughBlock != null) {
+            successors.add(fallThroughBlock);
+        }
+        if (branchBlock != null) {
+            successors.add(branchBlock);
+        }
+        return successors;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    public Integer getPredecessorIndex(BasicBlock predecessor) {
+        return predecessors.indexOf(predecessor);
+    }
+
+    private void addPredecessor(BasicBlock predecessor) {
+        predecessors.add(predecessor);
+    }
+
+    private void removePredecessor(BasicBlock predecessor) {
+        predecessors.remove(predecessor);
     }
 
     public BasicBlock getJoinBlock() {
@@ -160,6 +438,120 @@ public class BasicBlock {
         return false;
     }
 
+    // returns the instructions of this block in order. The instruction chain continues to other blocks, so this
+    // stops at the last instruction of the block
+    public List<Instruction> getInstructions() {
+        List<Instruction> retList = new ArrayList<>();
+        Instruction currentInstruction = getFirstInstruction();
+        while (currentInstruction != null) {
+            retList.add(currentInstruction);
+            if (currentInstruction == getLastInstruction()) {
+                break;
+            }
+            currentInstruction = currentInstruction.getNext();
+        }
+        return retList;
+    }
+
+    public void insertBefore(Instruction instruction, Instruction newInstruction) {
+        newInstruction.setBasicBlock(this);
+        newInstruction.setPrevious(instruction.getPrevious());
+        newInstruction.setNext(instruction);
+        if (instruction.getPrevious() != null) {
+            instruction.getPrevious().setNext(newInstruction);
+        }
+        instruction.setPrevious(newInstruction);
+        if (instruction == firstInstruction) {
+            firstInstruction = newInstruction;
+            moveBranchDestinations(instruction, newInstruction);
+        }
+    }
+
+    public void insertAfter(Instruction instruction, Instruction newInstruction) {
+        newInstruction.setBasicBlock(this);
+        newInstruction.setPrevious(instruction);
+        newInstruction.setNext(instruction.getNext());
+        if (instruction.getNext() != null) {
+            instruction.getNext().setPrevious(newInstruction);
+        }
+        instruction.setNext(newInstruction);
+        if (instruction == lastInstruction) {
+            lastInstruction = newInstruction;
+        }
+    }
+
+    // inserts the instruction right before the branch at the end of the block, or at the end if there is no branch
+    public void insertBeforeBranch(Instruction newInstruction) {
+        if (lastInstruction.isEmpty()) {
+            insertAfter(lastInstruction, newInstruction);
+            removeInstruction(newInstruction.getPrevious());
+        } else if (lastInstruction.isBranch()) {
+            insertBefore(lastInstruction, newInstruction);
+        } else {
+            insertAfter(lastInstruction, newInstruction);
+        }
+    }
+
+    // inserts the instruction after the phi instructions at the beginning of the block
+    public void insertAfterPhis(Instruction newInstruction) {
+        Instruction insertBefore = firstInstruction;
+        while (insertBefore != lastInstruction && insertBefore.getOpCode() == OpCode.PHI) {
+            insertBefore = insertBefore.getNext();
+        }
+        if (insertBefore.isEmpty()) {
+            insertAfter(insertBefore, newInstruction);
+            removeInstruction(insertBefore);
+        } else if (insertBefore.getOpCode() == OpCode.PHI) {
+            insertAfter(insertBefore, newInstruction);
+        } else {
+            insertBefore(insertBefore, newInstruction);
+        }
+    }
+
+    // unlinks the instruction from the block. The last remaining instruction of a block is turned into an empty
+    // instruction instead, so branches to this block always have a destination
+    public void removeInstruction(Instruction instruction) {
+        if (instruction.getOpCode() == OpCode.PHI && phiInstructions.get(instruction.getAffectedVariable()) == instruction) {
+            phiInstructions.remove(instruction.getAffectedVariable());
+        }
+        if (instruction.isBranch() && instruction.getBranchDestination() != null) {
+            Instruction destination = ControlFlowGraph.getCurrent().getInstruction(instruction.getBranchDestination().getValue());
+            if (destination != null) {
+                destination.getBranchDestinationFor().remove(instruction);
+            }
+        }
+
+        if (firstInstruction == lastInstruction) {
+            instruction.makeEmpty();
+            return;
+        }
+
+        if (instruction.getPrevious() != null) {
+            instruction.getPrevious().setNext(instruction.getNext());
+        }
+        if (instruction.getNext() != null) {
+            instruction.getNext().setPrevious(instruction.getPrevious());
+        }
+        if (instruction == firstInstruction) {
+            firstInstruction = instruction.getNext();
+            moveBranchDestinations(instruction, firstInstruction);
+        }
+        if (instruction == lastInstruction) {
+            lastInstruction = instruction.getPrevious();
+        }
+        instruction.setNext(null);
+        instruction.setPrevious(null);
+        ControlFlowGraph.getCurrent().removeInstruction(instruction);
+    }
+
+    // updating branch instructions that have the old first instruction of this block as destination
+    private void moveBranchDestinations(Instruction oldDestination, Instruction newDestination) {
+        for (Instruction branchInstruction: oldDestination.getBranchDestinationFor()) {
+            branchInstruction.setBranchDestination(new Result(Result.Type.VALUE, newDestination.getIndex()));
+        }
+        oldDestination.resetBranchDestinationFor();
+    }
+
     public Instruction getLastInstruction() {
         return lastInstruction;
     }
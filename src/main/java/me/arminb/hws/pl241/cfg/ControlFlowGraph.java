@@ -2,6 +2,7 @@ package me.arminb.hws.pl241.cfg;
 
 import ch.qos.logback.core.util.FileUtil;
 import me.arminb.hws.pl241.frontend.FileReader;
+import me.arminb.hws.pl241.frontend.Result;
 import me.arminb.hws.pl241.frontend.Scanner;
 import me.arminb.hws.pl241.ssa.Instruction;
 import me.arminb.hws.pl241.symbol.Symbol;
@@ -14,9 +15,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class ControlFlowGraph {
     // Static
@@ -29,16 +34,18 @@ public class ControlFlowGraph {
     private List<BasicBlock> basicBlocks;
     private String name;
     private Integer basicBlockCounter;
+    private Integer instructionCounter;
 
     private ControlFlowGraph(String name) {
         this.name = name;
         basicBlocks = new ArrayList<>();
         basicBlockCounter = 0;
+        instructionCounter = 0;
         instructions = new HashMap<>();
     }
 
     public static void initialize() {
-        controlFlowGraphs = new HashMap<>();
+        controlFlowGraphs = new LinkedHashMap<>();
         controlFlowGraphs.put(MAIN, new ControlFlowGraph(MAIN));
     }
 
@@ -70,10 +77,19 @@ public class ControlFlowGraph {
         return controlFlowGraphs.get(name);
     }
 
+    // drops the CFG of a function that is not called anymore. Its symbol stays in the symbol table
+    public static void remove(ControlFlowGraph controlFlowGraph) {
+        controlFlowGraphs.remove(controlFlowGraph.getName());
+    }
+
     public static ControlFlowGraph getMain() {
         return controlFlowGraphs.get(MAIN);
     }
 
+    public static Collection<ControlFlowGraph> getAll() {
+        return controlFlowGraphs.values();
+    }
+
     public Instruction getInstruction(Integer index) {
         return instructions.get(index);
     }
@@ -105,14 +121,124 @@ public class ControlFlowGraph {
         basicBlocks.add(basicBlock);
     }
 
+    // removes the block and its instructions. The block should not have any edges left
+    public void removeBasicBlock(BasicBlock basicBlock) {
+        Instruction firstInstruction = basicBlock.getFirstInstruction();
+        Instruction lastInstruction = basicBlock.getLastInstruction();
+        if (firstInstruction.getPrevious() != null) {
+            firstInstruction.getPrevious().setNext(lastInstruction.getNext());
+        }
+        if (lastInstruction.getNext() != null) {
+            lastInstruction.getNext().setPrevious(firstInstruction.getPrevious());
+        }
+        for (Instruction instruction : basicBlock.getInstructions()) {
+            if (instruction.isBranch() && getInstruction(instruction.getBranchDestination().getValue()) != null) {
+                getInstruction(instruction.getBranchDestination().getValue()).getBranchDestinationFor().remove(instruction);
+            }
+            instructions.remove(instruction.getIndex());
+        }
+        firstInstruction.setPrevious(null);
+        lastInstruction.setNext(null);
+        basicBlocks.remove(basicBlock);
+    }
+
+    // removes the blocks that are not reachable from the entry and returns how many were removed
+    public int removeUnreachableBlocks() {
+        Set<BasicBlock> reachableBlocks = new HashSet<>();
+        List<BasicBlock> worklist = new ArrayList<>();
+        worklist.add(getEntryBlock());
+        reachableBlocks.add(getEntryBlock());
+        while (!worklist.isEmpty()) {
+            for (BasicBlock successor : worklist.remove(worklist.size() - 1).getSuccessors()) {
+                if (reachableBlocks.add(successor)) {
+                    worklist.add(successor);
+                }
+            }
+        }
+
+        List<BasicBlock> unreachableBlocks = new ArrayList<>();
+        for (BasicBlock basicBlock : basicBlocks) {
+            if (!reachableBlocks.contains(basicBlock)) {
+                unreachableBlocks.add(basicBlock);
+            }
+        }
+        for (BasicBlock basicBlock : unreachableBlocks) {
+            for (BasicBlock successor : basicBlock.getSuccessors()) {
+                basicBlock.removeSuccessor(successor);
+            }
+        }
+        for (BasicBlock basicBlock : unreachableBlocks) {
+            removeBasicBlock(basicBlock);
+        }
+        renumberBasicBlocks();
+        return unreachableBlocks.size();
+    }
+
+    // orders and numbers blocks by their position in the instruction chain, so that numbers stay dense after blocks
+    // are removed and follow the layout of the code. The entry block stays first
+    public void renumberBasicBlocks() {
+        List<BasicBlock> orderedBlocks = new ArrayList<>();
+        Set<BasicBlock> blockSet = new HashSet<>(basicBlocks);
+        orderedBlocks.add(getEntryBlock());
+        Instruction currentInstruction = getEntryBlock().getFirstInstruction();
+        while (currentInstruction.getPrevious() != null) {
+            currentInstruction = currentInstruction.getPrevious();
+        }
+        while (currentInstruction != null) {
+            BasicBlock basicBlock = currentInstruction.getBasicBlock();
+            if (basicBlock != null && basicBlock.getFirstInstruction() == currentInstruction
+                    && blockSet.remove(basicBlock) && basicBlock != getEntryBlock()) {
+                orderedBlocks.add(basicBlock);
+            }
+            currentInstruction = currentInstruction.getNext();
+        }
+        blockSet.remove(getEntryBlock());
+        for (BasicBlock basicBlock : basicBlocks) {
+            if (blockSet.contains(basicBlock)) {
+                orderedBlocks.add(basicBlock);
+            }
+        }
+
+        basicBlocks = orderedBlocks;
+        for (int i = 0; i < basicBlocks.size(); i++) {
+            basicBlocks.get(i).setNumber(i);
+        }
+        basicBlockCounter = basicBlocks.size();
+    }
+
+    // replaces every use of the value of the given instruction
+    public void replaceValueUses(Integer instructionIndex, Result replacement) {
+        for (BasicBlock basicBlock : basicBlocks) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                instruction.replaceValueOperand(instructionIndex, replacement);
+            }
+        }
+    }
+
     public String getName() {
         return name;
     }
 
+    public Integer nextInstructionIndex() {
+        return instructionCounter++;
+    }
+
     public void addInstruction(Instruction instruction) {
         this.instructions.put(instruction.getIndex(), instruction);
     }
 
+    public void removeInstruction(Instruction instruction) {
+        this.instructions.remove(instruction.getIndex());
+    }
+
+    public int getInstructionCount() {
+        return instructions.size();
+    }
+
+    public BasicBlock getEntryBlock() {
+        return basicBlocks.get(0);
+    }
+
     public void generateDominationTreeFile() {
         StringBuilder retString = new StringBuilder();
 
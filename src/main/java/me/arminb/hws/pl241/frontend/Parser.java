@@ -20,6 +20,7 @@ public class Parser {
     private Scanner scanner;
     private int lastSeenNumber;
     private int lastSeenIdentifier;
+    private boolean boundsChecking; // emits CHK instructions for array accesses
 
     public static Parser getInstance() {
         if (instance == null) {
@@ -37,8 +38,14 @@ public class Parser {
         currentToken = scanner.next();
         if (currentToken != Token.END_OF_FILE)
             computation();
+    }
+
+    public boolean isBoundsChecking() {
+        return boundsChecking;
+    }
 
-        ControlFlowGraph.generateGraphFiles();
+    public void setBoundsChecking(boolean boundsChecking) {
+        this.boundsChecking = boundsChecking;
     }
 
     public void exitError(String errorMessage) {
@@ -105,9 +112,8 @@ public class Parser {
 
         // Switches back to main CFG
         ControlFlowGraph.setCurrentCFG(ControlFlowGraph.getMain());
-        // Resets instructionCounter and value lists
+        // Resets value lists
         SymbolTable.getInstance().resetValueLists();
-        Instruction.resetInstructionCounter();
         // Creates the entry basic block for the main CFG and sets it as current basic block
         BasicBlock.setCurrent(BasicBlock.create());
 
@@ -169,9 +175,8 @@ public class Parser {
 
         // Creates a new CFG for the function or procedure and changes the current CFG to be used by symbol and symbol table
         ControlFlowGraph.setCurrentCFG(ControlFlowGraph.create(scanner.identifierToString(lastSeenIdentifier)));
-        // Resets instructionCounter and value lists
+        // Resets value lists
         SymbolTable.getInstance().resetValueLists();
-        Instruction.resetInstructionCounter();
         // Creates the entry basic block for this CFG and sets it as current basic block
         BasicBlock.setCurrent(BasicBlock.create());
 
@@ -186,6 +191,14 @@ public class Parser {
         }
 
         matchToken(Token.SEMICOLON);
+
+        // loads all parameters at the entry of the function so that their values dominate every use
+        for (Symbol paramSymbol : params) {
+            Instruction loadInstruction = Instruction.load(paramSymbol.getAbsoluteAddress());
+            loadInstruction.setAffectedVariable(paramSymbol.getIdentifier());
+            paramSymbol.addValue(new Result(Result.Type.VALUE, loadInstruction.getIndex()));
+        }
+
         functionBody();
         matchToken(Token.SEMICOLON);
     }
@@ -228,19 +241,14 @@ public class Parser {
     }
 
     private Instruction statementSequence() {
-        Instruction retInstruction = BasicBlock.getCurrent().getLastInstruction();
-        Instruction statementInstruction = statement();
-        if (statementInstruction != null) {
-            retInstruction = statementInstruction;
-        }
+        statement();
         while (currentTokenIs(Token.SEMICOLON)) {
             matchToken(Token.SEMICOLON);
-            statementInstruction = statement();
-            if (statementInstruction != null) {
-                retInstruction = statementInstruction;
-            }
+            statement();
         }
-        return retInstruction;
+        // assignments of values to local variables don't emit instructions but their expressions do, so the last
+        // instruction of the sequence is the last one of the block the sequence ends in
+        return BasicBlock.getCurrent().getLastInstruction();
     }
 
     private Instruction statement() {
@@ -280,8 +288,10 @@ public class Parser {
                 }
                 Instruction storeInstruction = Instruction.store(addResult, variableSymbol.getAbsoluteAddress());
                 storeInstruction.setAffectedVariable(variableSymbol.getIdentifier());
+                variableSymbol.setAssigned();
+                // global variables don't get phi instructions. Their values are only reused in straight-line code
+                // and loaded again after control flow merges
                 variableSymbol.addValue(addResult);
-                addPhiInstruction(designatorResult, valueListSizeBeforeMove, valueBeforeMove, addResult);
                 return storeInstruction;
             } else { // local
                 // deliberately skip this for copy propagation
@@ -387,7 +397,8 @@ public class Parser {
             callResult = new Result(functionType, Instruction.call(new Result(Result.Type.SELECTOR, functionIdentifier), params).getIndex());
         }
 
-        // TODO here we are assuming a store in the called function so we need to add a kill in load anchor for CSE
+        // the called function may store to global variables. CSE kills the loads of those through memory SSA, which
+        // gives every global the callee may modify a new version at the call
         // reset value list of global vars in order to avoid possible side effects of global variables in the called function
         SymbolTable.getInstance().resetGlobalVariablesValueList();
 
@@ -440,6 +451,8 @@ public class Parser {
 
             // resetting value list for variables with phi instructions in join block
             resetValueListBasedOnPhiInstructions(joinBlock.getPhiInstructions());
+            // values of global variables loaded in the then part don't dominate the else part
+            SymbolTable.getInstance().resetGlobalVariablesValueList();
 
             Instruction lastElseInstruction = statementSequence();
 
@@ -461,22 +474,24 @@ public class Parser {
             lastElseInstruction.connectTo(joinBlock.getFirstInstruction());
         } else {
             // Setting up edges for if-then case
-            // We don't need a branch in fallThrough block
-            entryBlock.setBranchBlock(joinBlock);
             // Fixup entry block branch
             fixupBranchInstruction.setOperand2(new Result(Result.Type.VALUE, joinBlock.getFirstInstruction().getIndex()));
 
             // finds the last block in fall through side to be connected to join block
             fallThroughBlock = lastThenInstruction.getBasicBlock();
-            // connects fall through block to join block
+            // connects fall through block to join block. This needs to be the first predecessor of join block since
+            // phi instructions take the value of the left side as their first operand
             fallThroughBlock.setFallThroughBlock(joinBlock);
             lastThenInstruction.connectTo(joinBlock.getFirstInstruction());
+            // We don't need a branch in fallThrough block
+            entryBlock.setBranchBlock(joinBlock);
         }
 
         matchToken(Token.FI);
 
         // resetting value list for variables with phi instructions in join block
         resetValueListBasedOnPhiInstructions(joinBlock.getPhiInstructions());
+        SymbolTable.getInstance().resetGlobalVariablesValueList();
 
         // propagating phi instructions to the outer join block
         BasicBlock.setCurrent(joinBlock);
@@ -506,12 +521,19 @@ public class Parser {
         BasicBlock currentBlock = BasicBlock.getCurrent();
         BasicBlock loopBodyBlock = BasicBlock.create();
         BasicBlock followBlock = BasicBlock.create();
-        // we don't have pre-header block. detect loop header block
+        // we don't have pre-header block. detect loop header block. The current block can only be reused if it has
+        // a single predecessor, since phi instructions of the loop header have exactly two operands
         BasicBlock joinBlock;
-        if (currentBlock.isEmpty() || currentBlock.hasEmptyInstructionAtBeginning()) {
+        if ((currentBlock.isEmpty() || currentBlock.hasEmptyInstructionAtBeginning()) &&
+                currentBlock.getPredecessors().size() == 1) {
             joinBlock = currentBlock;
         } else {
             joinBlock = BasicBlock.create(); // Loop header
+            // set outer join block of the loop header for phi propagation
+            joinBlock.setJoinBlock(currentBlock.getJoinBlock());
+            if (currentBlock.isJoiningFromRight()) {
+                joinBlock.joinFromRight();
+            }
             // connects current block to loop header
             currentBlock.setFallThroughBlock(joinBlock);
             currentBlock.getLastInstruction().connectTo(joinBlock.getFirstInstruction());
@@ -520,6 +542,9 @@ public class Parser {
         }
         // set outer join block for nesting and phi propagation
         followBlock.setJoinBlock(currentBlock.getJoinBlock());
+        if (currentBlock.isJoiningFromRight()) {
+            followBlock.joinFromRight();
+        }
         // connects loop header to loop body
         joinBlock.setFallThroughBlock(loopBodyBlock);
         joinBlock.getLastInstruction().connectTo(loopBodyBlock.getFirstInstruction());
@@ -534,6 +559,12 @@ public class Parser {
 
         matchToken(Token.WHILE);
 
+        // global variables may be changed by the loop body, so they are loaded again in the loop
+        SymbolTable.getInstance().resetGlobalVariablesValueList();
+        // every variable gets a phi instruction in the loop header before parsing the loop, so that all uses in the
+        // loop refer to it. The ones that are not changed by the loop are removed afterwards
+        addLoopPhiInstructions(joinBlock);
+
         BasicBlock.setCurrent(joinBlock);
         Result relationResult = relation();
         // sets the branch instruction number for the loop header
@@ -560,11 +591,12 @@ public class Parser {
 
         matchToken(Token.OD);
 
-        // rename phi occurrences - update loop header and body based on the new phi instructions
-        renameWhileInstructionsOperandsBasedonPhiInstructions(joinBlock);
+        // removes phi instructions of variables that are not changed by the loop
+        removeTrivialLoopPhiInstructions(joinBlock);
 
         // resetting value list for variables with phi instructions in join block
         resetValueListBasedOnPhiInstructions(joinBlock.getPhiInstructions());
+        SymbolTable.getInstance().resetGlobalVariablesValueList();
 
         // propagating phi instructions to the outer join block
         BasicBlock.setCurrent(joinBlock);
@@ -575,11 +607,6 @@ public class Parser {
                     new Result(Result.Type.VALUE, phiInstruction.getIndex()));
         }
 
-        // rename phi occurrences again using the outer join block
-        if (joinBlock.getJoinBlock() != null) {
-            renameWhileInstructionsOperandsBasedonPhiInstructions(joinBlock.getJoinBlock());
-        }
-
         // updating value list for variables with phi instructions
         for (Instruction phiInstruction : joinBlock.getPhiInstructions()) {
             SymbolTable.getInstance().get(phiInstruction.getAffectedVariable()).addValue(
@@ -591,48 +618,56 @@ public class Parser {
         return followBlock.getLastInstruction();
     }
 
-    private void renameWhileInstructionsOperandsBasedonPhiInstructions(BasicBlock joinBlock) {
-        List<Instruction> phiInstructions = joinBlock.getPhiInstructions();
-        HashMap<Result, Result> oldToNewMapping = new HashMap<>();
-
-        Instruction currentInstruction = joinBlock.getFirstInstruction();
-        while (currentInstruction != null &&
-                (currentInstruction.getBasicBlock() == joinBlock || currentInstruction.getBasicBlock() == joinBlock.getFallThroughBlock())) {
-
-            if (currentInstruction.getOpCode() != OpCode.PHI) {
-                if (currentInstruction.getOperand1() != null && currentInstruction.getOperand1().getType() != Result.Type.CONSTANT &&
-                        oldToNewMapping.containsKey(currentInstruction.getOperand1())) {
-                    currentInstruction.setOperand1(oldToNewMapping.get(currentInstruction.getOperand1()));
-                }
-                if (currentInstruction.getOperand2() != null && currentInstruction.getOperand2().getType() != Result.Type.CONSTANT &&
-                        oldToNewMapping.containsKey(currentInstruction.getOperand2())) {
-                    currentInstruction.setOperand2(oldToNewMapping.get(currentInstruction.getOperand2()));
+    private void addLoopPhiInstructions(BasicBlock loopHeader) {
+        for (Symbol variableSymbol : SymbolTable.getInstance().getVisibleVariables(ControlFlowGraph.getCurrent().getName())) {
+            if (variableSymbol.isGlobal() || variableSymbol.getLastValue() == null) {
+                continue;
+            }
+            Integer valueListSizeBeforePhi = variableSymbol.getValueList().size();
+            Instruction phiInstruction = Instruction.phi(loopHeader,
+                    new Result(Result.Type.SELECTOR, variableSymbol.getIdentifier()), variableSymbol.getLastValue(), null);
+            // the loop carried value is the phi itself until the variable is assigned in the loop
+            phiInstruction.setOperand2(new Result(Result.Type.VALUE, phiInstruction.getIndex()));
+            phiInstruction.setPhiBeforeValueListSize(valueListSizeBeforePhi);
+            variableSymbol.addValue(new Result(Result.Type.VALUE, phiInstruction.getIndex()));
+        }
+    }
+
+    private void removeTrivialLoopPhiInstructions(BasicBlock loopHeader) {
+        // the loop consists of the header and every block that reaches the header without passing through it
+        List<BasicBlock> loopBlocks = new ArrayList<>();
+        loopBlocks.add(loopHeader);
+        for (int i = 0; i < loopBlocks.size(); i++) {
+            for (BasicBlock successor : loopBlocks.get(i).getSuccessors()) {
+                if (!loopBlocks.contains(successor) && successor != loopHeader.getBranchBlock()) {
+                    loopBlocks.add(successor);
                 }
+            }
+        }
 
-                if (currentInstruction.getParams() != null) {
-                    List<Result> newParams = new ArrayList<>();
-                    for (Result param : currentInstruction.getParams()) {
-                        if (param.getType() != Result.Type.CONSTANT && oldToNewMapping.containsKey(param)) {
-                            newParams.add(oldToNewMapping.get(param));
-                        } else {
-                            newParams.add(param);
-                        }
-                    }
-                    currentInstruction.setParams(newParams);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Instruction phiInstruction : loopHeader.getPhiInstructions()) {
+                Result operand1 = phiInstruction.getOperand1();
+                Result operand2 = phiInstruction.getOperand2();
+                if (operand1 == null || operand2 == null || (!operand2.isValueOf(phiInstruction.getIndex()) &&
+                        (operand2.getType() != operand1.getType() || !operand2.getValue().equals(operand1.getValue())))) {
+                    continue;
                 }
 
-            } else {
-                if (currentInstruction.getBasicBlock() == joinBlock) {
-                    if (currentInstruction.getOperand1() != null) {
-                        oldToNewMapping.put(currentInstruction.getOperand1(), new Result(Result.Type.VALUE, currentInstruction.getIndex()));
-                    }
-                    if (currentInstruction.getOperand2() != null) {
-                        oldToNewMapping.put(currentInstruction.getOperand2(), new Result(Result.Type.VALUE, currentInstruction.getIndex()));
+                for (BasicBlock loopBlock : loopBlocks) {
+                    for (Instruction instruction : loopBlock.getInstructions()) {
+                        if (instruction != phiInstruction) {
+                            instruction.replaceValueOperand(phiInstruction.getIndex(), operand1);
+                        }
                     }
                 }
+                SymbolTable.getInstance().get(phiInstruction.getAffectedVariable())
+                        .resetValueListTo(phiInstruction.getPhiBeforeValueListSize());
+                loopHeader.removeInstruction(phiInstruction);
+                changed = true;
             }
-
-            currentInstruction = currentInstruction.getNext();
         }
     }
 
@@ -685,8 +720,10 @@ public class Parser {
                         factorResult = new Result(Result.Type.VALUE, loadInstruction.getIndex());
                         variableSymbol.addValue(factorResult);
                     } else if (variableSymbol.isGlobal()) {
-                        warning("Global variable " + scanner.identifierToString(designatorResult.getValue())
-                                + " might not be initialized!");
+                        if (!variableSymbol.isAssigned()) {
+                            warning("Global variable " + scanner.identifierToString(designatorResult.getValue())
+                                    + " might not be initialized!");
+                        }
                         Instruction loadInstruction = Instruction.load(variableSymbol.getAbsoluteAddress());
                         loadInstruction.setAffectedVariable(variableSymbol.getIdentifier());
                         factorResult = new Result(Result.Type.VALUE, loadInstruction.getIndex());
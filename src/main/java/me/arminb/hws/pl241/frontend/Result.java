@@ -83,6 +83,12 @@ public class Result {
         Symbol arraySymbol = SymbolTable.getInstance().get(getValue());
         Integer lastDimensionIndex = Math.min(arrayIndices.size(), arraySymbol.getDimensions().size()) - 1;
 
+        if (Parser.getInstance().isBoundsChecking()) {
+            for (int i = 0; i <= lastDimensionIndex; i++) {
+                Instruction.check(arrayIndices.get(i), new Result(Type.CONSTANT, arraySymbol.getDimensions().get(i)));
+            }
+        }
+
         Result lastAddResult = new Result(Type.CONSTANT, 0).plus(arrayIndices.get(lastDimensionIndex));
         for (int i = 0; i < lastDimensionIndex; i++) {
             Result mulResult = new Result(Type.CONSTANT, arraySymbol.getDimensions().get(i + 1)).times(arrayIndices.get(i));
@@ -141,7 +147,8 @@ public class Result {
 
     // we wont get types selector and procedure here
     public Result div(Result result) {
-        if (this.getType() == Type.CONSTANT && result.getType() == Type.CONSTANT) {
+        // division by zero is not folded. It is left to run time
+        if (this.getType() == Type.CONSTANT && result.getType() == Type.CONSTANT && result.getValue() != 0) {
             return new Result(Type.CONSTANT, this.getValue() / result.getValue());
         }
         Instruction instruction = Instruction.div(this, result);
@@ -160,6 +167,11 @@ public class Result {
         return new Result(Type.VALUE, Instruction.conditionalBranch(tokenToOpCodeMapper.get(relationToken), cmpResult).getIndex());
     }
 
+    // true if this result is the value computed by the instruction with the given index
+    public boolean isValueOf(Integer instructionIndex) {
+        return type == Type.VALUE && value != null && value.equals(instructionIndex);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) {
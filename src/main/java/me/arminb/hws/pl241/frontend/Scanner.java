@@ -125,6 +125,17 @@ public class Scanner {
         lastIdentifier = identifierCounter++;
     }
 
+    // adds an identifier for a symbol created by the compiler, like the copy of a function. The underscore can't be
+    // part of identifiers in programs, so the new identifier is different from all of them
+    public int addUniqueIdentifier(String prefix) {
+        int suffix = 1;
+        while (string2IdMap.containsKey(prefix + "_" + suffix)) {
+            suffix++;
+        }
+        addIdentifier(prefix + "_" + suffix);
+        return lastIdentifier;
+    }
+
     private Token getReservedToken(String token) {
         return reservedWordsMap.get(token);
     }
@@ -0,0 +1,287 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.Loop;
+import me.arminb.hws.pl241.analysis.LoopInfo;
+import me.arminb.hws.pl241.analysis.PostDominatorTree;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.pass.WorkCounter;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Mark and sweep dead code elimination. Instructions with side effects are live from the start, and an instruction
+// is live if a live instruction uses its value or is control dependent on it. Everything else is removed, including
+// the empty instructions left in non-empty blocks. A conditional branch that is not live is replaced by a branch to
+// its immediate post-dominator, which removes the blocks in between when nothing in them is live. Branches that leave
+// a loop are live unless the loop is known to terminate, since removing them would skip a loop that may run forever.
+// A loop terminates if its header compares a counter that changes by a constant with an invariant bound, and the
+// counter reaches the bound without overflowing
+public class AggressiveDeadCodeElimination {
+    private final static Logger logger = LoggerFactory.getLogger(AggressiveDeadCodeElimination.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private PostDominatorTree postDominatorTree;
+    private LoopInfo loopInfo;
+    private Map<Loop, Boolean> terminatingLoops;
+    private Set<Instruction> liveInstructions;
+    private List<Instruction> worklist;
+
+    public AggressiveDeadCodeElimination(ControlFlowGraph controlFlowGraph) {
+        this(controlFlowGraph, null, null);
+    }
+
+    // the pass manager passes the post dominator tree and the loops it has cached for the CFG
+    public AggressiveDeadCodeElimination(ControlFlowGraph controlFlowGraph, PostDominatorTree postDominatorTree,
+                                         LoopInfo loopInfo) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.postDominatorTree = postDominatorTree;
+        this.loopInfo = loopInfo;
+    }
+
+    public void run() {
+        int instructionCount = controlFlowGraph.getInstructionCount();
+        if (postDominatorTree == null) {
+            postDominatorTree = new PostDominatorTree(controlFlowGraph);
+        }
+        if (loopInfo == null) {
+            loopInfo = new LoopInfo(controlFlowGraph, new DominatorTree(controlFlowGraph));
+        }
+        terminatingLoops = new HashMap<>();
+        liveInstructions = new HashSet<>();
+        worklist = new ArrayList<>();
+
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (isRoot(instruction)) {
+                    mark(instruction);
+                }
+            }
+        }
+        while (!worklist.isEmpty()) {
+            WorkCounter.getInstance().add();
+            propagate(worklist.remove(worklist.size() - 1));
+        }
+
+        sweepInstructions();
+        int branchCount = sweepBranches();
+        int blockCount = controlFlowGraph.removeUnreachableBlocks();
+        logger.info("Removed " + (instructionCount - controlFlowGraph.getInstructionCount()) + " dead instructions, "
+                + branchCount + " branches and " + blockCount + " blocks in " + controlFlowGraph.getName());
+    }
+
+    private boolean isRoot(Instruction instruction) {
+        if (instruction.getOpCode() == null) {
+            return false;
+        }
+        switch (instruction.getOpCode()) {
+            case STORE:
+            case FILL:
+            case COPY:
+            case READ:
+            case WRITE:
+            case WRITENL:
+            case CALL:
+            case RET:
+            case END:
+            case CHK:
+                return true;
+            case DIV:
+                // division by zero traps
+                Result divisor = instruction.getOperand2();
+                return divisor.getType() != Result.Type.CONSTANT || divisor.getValue() == 0;
+            default:
+                break;
+        }
+        if (instruction.isConditionalBranch()) {
+            // removing the branch of a block that doesn't reach the exit could make a non terminating loop terminate
+            BasicBlock basicBlock = instruction.getBasicBlock();
+            if (!postDominatorTree.reachesExit(basicBlock)
+                    || postDominatorTree.getImmediatePostDominator(basicBlock) == null) {
+                return true;
+            }
+            for (Loop loop = loopInfo.getLoop(basicBlock); loop != null; loop = loop.getParent()) {
+                if (leaves(basicBlock, loop) && !terminates(loop)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean leaves(BasicBlock basicBlock, Loop loop) {
+        for (BasicBlock successor : basicBlock.getSuccessors()) {
+            if (!loop.contains(successor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean terminates(Loop loop) {
+        if (!terminatingLoops.containsKey(loop)) {
+            terminatingLoops.put(loop, hasTerminatingCounter(loop));
+        }
+        return terminatingLoops.get(loop);
+    }
+
+    // true if the header branches out of the loop once a counter, which the single latch changes by a constant,
+    // reaches an invariant bound. The last value of the counter in the loop is at most one step away from the bound,
+    // so the step must not overflow from there
+    private boolean hasTerminatingCounter(Loop loop) {
+        BasicBlock header = loop.getHeader();
+        Instruction branch = header.getLastInstruction();
+        if (loop.getLatches().size() != 1 || header.getPredecessors().size() != 2 || !branch.isConditionalBranch()
+                || loop.contains(header.getBranchBlock()) || branch.getOperand1().getType() != Result.Type.VALUE) {
+            return false;
+        }
+        Instruction compare = controlFlowGraph.getInstruction(branch.getOperand1().getValue());
+        if (compare == null || compare.getOpCode() != OpCode.CMP) {
+            return false;
+        }
+        for (Instruction counter : header.getPhiInstructions()) {
+            boolean counterFirst = compare.getOperand1().isValueOf(counter.getIndex());
+            if (!counterFirst && !compare.getOperand2().isValueOf(counter.getIndex())) {
+                continue;
+            }
+            Result bound = counterFirst ? compare.getOperand2() : compare.getOperand1();
+            Integer step = getStep(loop, counter);
+            if (step == null || !isInvariant(loop, bound)) {
+                return false;
+            }
+            OpCode exitRelation = counterFirst ? branch.getOpCode() : Instruction.swapComparison(branch.getOpCode());
+            long last;
+            if (step > 0 && exitRelation == OpCode.BGE) {
+                last = bound.getType() == Result.Type.CONSTANT ? bound.getValue() - 1L : Integer.MAX_VALUE - 1L;
+            } else if (step > 0 && exitRelation == OpCode.BGT) {
+                last = bound.getType() == Result.Type.CONSTANT ? bound.getValue() : Integer.MAX_VALUE;
+            } else if (step < 0 && exitRelation == OpCode.BLE) {
+                last = bound.getType() == Result.Type.CONSTANT ? bound.getValue() + 1L : Integer.MIN_VALUE + 1L;
+            } else if (step < 0 && exitRelation == OpCode.BLT) {
+                last = bound.getType() == Result.Type.CONSTANT ? bound.getValue() : Integer.MIN_VALUE;
+            } else {
+                return false;
+            }
+            return last + step >= Integer.MIN_VALUE && last + step <= Integer.MAX_VALUE;
+        }
+        return false;
+    }
+
+    // the constant the latch adds to the counter, or null
+    private Integer getStep(Loop loop, Instruction counter) {
+        Result next = counter.getPhiOperand(loop.getLatches().get(0));
+        if (next == null || next.getType() != Result.Type.VALUE) {
+            return null;
+        }
+        Instruction increment = controlFlowGraph.getInstruction(next.getValue());
+        if (increment == null) {
+            return null;
+        }
+        Result operand1 = increment.getOperand1();
+        Result operand2 = increment.getOperand2();
+        Integer step = null;
+        if (increment.getOpCode() == OpCode.ADD && operand1.isValueOf(counter.getIndex())
+                && operand2.getType() == Result.Type.CONSTANT) {
+            step = operand2.getValue();
+        } else if (increment.getOpCode() == OpCode.ADD && operand2.isValueOf(counter.getIndex())
+                && operand1.getType() == Result.Type.CONSTANT) {
+            step = operand1.getValue();
+        } else if (increment.getOpCode() == OpCode.SUB && operand1.isValueOf(counter.getIndex())
+                && operand2.getType() == Result.Type.CONSTANT && operand2.getValue() != Integer.MIN_VALUE) {
+            step = -operand2.getValue();
+        }
+        return step == null || step == 0 ? null : step;
+    }
+
+    private boolean isInvariant(Loop loop, Result operand) {
+        if (operand.getType() != Result.Type.VALUE) {
+            return operand.getType() == Result.Type.CONSTANT;
+        }
+        Instruction definition = controlFlowGraph.getInstruction(operand.getValue());
+        return definition != null && !loop.contains(definition.getBasicBlock());
+    }
+
+    private void mark(Instruction instruction) {
+        if (liveInstructions.add(instruction)) {
+            worklist.add(instruction);
+        }
+    }
+
+    private void propagate(Instruction instruction) {
+        for (Result operand : instruction.getValueOperands()) {
+            if (operand.getType() != Result.Type.VALUE || operand.getValue() == null) {
+                continue;
+            }
+            Instruction definition = controlFlowGraph.getInstruction(operand.getValue());
+            if (definition != null) {
+                mark(definition);
+            }
+        }
+        markControlDependences(instruction.getBasicBlock());
+
+        // the value of a phi depends on the edge its block is entered from
+        if (instruction.getOpCode() == OpCode.PHI) {
+            for (BasicBlock predecessor : instruction.getBasicBlock().getPredecessors()) {
+                if (predecessor.getLastInstruction().isConditionalBranch()) {
+                    mark(predecessor.getLastInstruction());
+                }
+                markControlDependences(predecessor);
+            }
+        }
+    }
+
+    private void markControlDependences(BasicBlock basicBlock) {
+        for (BasicBlock controllingBlock : postDominatorTree.getControlDependences(basicBlock)) {
+            mark(controllingBlock.getLastInstruction());
+        }
+    }
+
+    // removes every instruction that is not live except branches
+    private void sweepInstructions() {
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == null) {
+                    if (basicBlock.getFirstInstruction() != basicBlock.getLastInstruction()) {
+                        basicBlock.removeInstruction(instruction);
+                    }
+                } else if (!instruction.isBranch() && !liveInstructions.contains(instruction)) {
+                    basicBlock.removeInstruction(instruction);
+                }
+            }
+        }
+    }
+
+    // replaces the conditional branches that are not live by a branch to their immediate post-dominator
+    private int sweepBranches() {
+        int branchCount = 0;
+        for (BasicBlock basicBlock : new ArrayList<>(controlFlowGraph.getBasicBlocks())) {
+            Instruction branchInstruction = basicBlock.getLastInstruction();
+            if (!branchInstruction.isConditionalBranch() || liveInstructions.contains(branchInstruction)) {
+                continue;
+            }
+            BasicBlock postDominator = postDominatorTree.getImmediatePostDominator(basicBlock);
+            for (BasicBlock successor : basicBlock.getSuccessors()) {
+                basicBlock.removeSuccessor(successor);
+            }
+            basicBlock.removeInstruction(branchInstruction);
+
+            Instruction newBranchInstruction = Instruction.create(OpCode.BRA, null, null);
+            basicBlock.insertBeforeBranch(newBranchInstruction);
+            newBranchInstruction.setOperand1(new Result(Result.Type.VALUE,
+                    postDominator.getFirstInstruction().getIndex()));
+            basicBlock.setBranchBlock(postDominator);
+            branchCount++;
+        }
+        return branchCount;
+    }
+}
@@ -0,0 +1,437 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// Rule based simplification of arithmetic instructions. Constants are moved to the right of commutative operations
+// and comparisons, subtractions of constants become additions, constant operands are folded and identities like
+// x + 0, x * 1 and x - x are removed. Multiplications by powers of two become shifts, and divisions by constants
+// become shifts or multiplications by a magic number that keep only the high word of the product. Every rewritten
+// instruction puts its users back on the worklist, and a use list of every value is kept up to date, so the rules
+// are applied until nothing changes in time linear to the number of rewrites
+public class AlgebraicSimplification {
+    private final static Logger logger = LoggerFactory.getLogger(AlgebraicSimplification.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private Map<Integer, List<Instruction>> users;
+    private Set<Instruction> worklist;
+    private int simplifiedCount;
+    private int removedCount;
+
+    public AlgebraicSimplification(ControlFlowGraph controlFlowGraph) {
+        this.controlFlowGraph = controlFlowGraph;
+    }
+
+    public void run() {
+        users = new HashMap<>();
+        worklist = new LinkedHashSet<>();
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                addUses(instruction);
+                worklist.add(instruction);
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            Iterator<Instruction> iterator = worklist.iterator();
+            Instruction instruction = iterator.next();
+            iterator.remove();
+            if (controlFlowGraph.getInstruction(instruction.getIndex()) == instruction && isSimplifiable(instruction)
+                    && simplify(instruction)) {
+                simplifiedCount++;
+            }
+        }
+        logger.info("Simplified " + simplifiedCount + " and removed " + removedCount + " instructions in "
+                + controlFlowGraph.getName());
+    }
+
+    // instructions with address operands compute the base addresses of variables and are left alone
+    private static boolean isSimplifiable(Instruction instruction) {
+        if (instruction.getOpCode() == null) {
+            return false;
+        }
+        switch (instruction.getOpCode()) {
+            case NEG:
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+            case CMP:
+            case LSH:
+            case ASH:
+            case MULH:
+                break;
+            case SELECT:
+                return true;
+            default:
+                return false;
+        }
+        return isValueOrConstant(instruction.getOperand1())
+                && (instruction.getOpCode() == OpCode.NEG || isValueOrConstant(instruction.getOperand2()));
+    }
+
+    private static boolean isValueOrConstant(Result operand) {
+        return operand != null && operand.getValue() != null
+                && (operand.getType() == Result.Type.VALUE || operand.getType() == Result.Type.CONSTANT);
+    }
+
+    // applies the first matching rule and returns true if the instruction changed
+    private boolean simplify(Instruction instruction) {
+        if (instruction.getOpCode() == OpCode.SELECT) {
+            return simplifySelect(instruction);
+        }
+        OpCode opCode = instruction.getOpCode();
+        Result operand1 = instruction.getOperand1();
+        Result operand2 = instruction.getOperand2();
+        boolean constant1 = operand1.getType() == Result.Type.CONSTANT;
+        boolean constant2 = operand2 != null && operand2.getType() == Result.Type.CONSTANT;
+
+        // comparisons are folded by constant propagation, together with the branches that use them
+        if (opCode != OpCode.CMP && constant1 && (opCode == OpCode.NEG || constant2)) {
+            Integer value = Instruction.evaluate(opCode, operand1.getValue(), constant2 ? operand2.getValue() : 0);
+            if (value != null) {
+                replace(instruction, constant(value));
+                return true;
+            }
+            return false;
+        }
+        if (constant1 && !constant2 && opCode != OpCode.NEG && isCommutative(opCode)) {
+            rewrite(instruction, opCode, operand2, operand1);
+            return true;
+        }
+
+        Instruction definition1 = getDefinition(operand1);
+        Instruction definition2 = getDefinition(operand2);
+        switch (opCode) {
+            case NEG:
+                // -(-x) = x
+                if (definition1 != null && definition1.getOpCode() == OpCode.NEG) {
+                    replace(instruction, definition1.getOperand1());
+                    return true;
+                }
+                return false;
+            case ADD:
+                if (isConstant(operand2, 0)) {
+                    replace(instruction, operand1);
+                    return true;
+                }
+                // x + -y = x - y and -y + x = x - y
+                if (definition2 != null && definition2.getOpCode() == OpCode.NEG) {
+                    rewrite(instruction, OpCode.SUB, operand1, definition2.getOperand1());
+                    return true;
+                }
+                if (definition1 != null && definition1.getOpCode() == OpCode.NEG) {
+                    rewrite(instruction, OpCode.SUB, operand2, definition1.getOperand1());
+                    return true;
+                }
+                // (x + c) + d = x + (c + d)
+                if (constant2 && definition1 != null && definition1.getOpCode() == OpCode.ADD
+                        && isValueOrConstant(definition1.getOperand1())
+                        && definition1.getOperand2().getType() == Result.Type.CONSTANT) {
+                    rewrite(instruction, OpCode.ADD, definition1.getOperand1(),
+                            constant(definition1.getOperand2().getValue() + operand2.getValue()));
+                    return true;
+                }
+                return false;
+            case SUB:
+                if (isSameValue(operand1, operand2)) {
+                    replace(instruction, constant(0));
+                    return true;
+                }
+                if (constant2 && operand2.getValue() != Integer.MIN_VALUE) {
+                    rewrite(instruction, OpCode.ADD, operand1, constant(-operand2.getValue()));
+                    return true;
+                }
+                if (isConstant(operand1, 0)) {
+                    rewrite(instruction, OpCode.NEG, operand2, null);
+                    return true;
+                }
+                // x - -y = x + y
+                if (definition2 != null && definition2.getOpCode() == OpCode.NEG) {
+                    rewrite(instruction, OpCode.ADD, operand1, definition2.getOperand1());
+                    return true;
+                }
+                return false;
+            case MUL:
+                if (!constant2) {
+                    return false;
+                }
+                if (operand2.getValue() == 0) {
+                    replace(instruction, constant(0));
+                } else if (operand2.getValue() == 1) {
+                    replace(instruction, operand1);
+                } else if (operand2.getValue() == -1) {
+                    rewrite(instruction, OpCode.NEG, operand1, null);
+                } else if (definition1 != null && definition1.getOpCode() == OpCode.MUL
+                        && isValueOrConstant(definition1.getOperand1())
+                        && definition1.getOperand2().getType() == Result.Type.CONSTANT) {
+                    // (x * c) * d = x * (c * d)
+                    rewrite(instruction, OpCode.MUL, definition1.getOperand1(),
+                            constant(definition1.getOperand2().getValue() * operand2.getValue()));
+                } else if (operand2.getValue() > 0 && Integer.bitCount(operand2.getValue()) == 1) {
+                    rewrite(instruction, OpCode.LSH, operand1,
+                            constant(Integer.numberOfTrailingZeros(operand2.getValue())));
+                } else {
+                    return false;
+                }
+                return true;
+            case DIV:
+                if (!constant2 || operand2.getValue() == 0 || operand2.getValue() == Integer.MIN_VALUE) {
+                    return false;
+                }
+                if (operand2.getValue() == 1) {
+                    replace(instruction, operand1);
+                } else if (operand2.getValue() == -1) {
+                    rewrite(instruction, OpCode.NEG, operand1, null);
+                } else {
+                    replace(instruction, expandDivision(instruction, operand1, operand2.getValue()));
+                }
+                return true;
+            case LSH:
+            case ASH:
+                if (isConstant(operand2, 0)) {
+                    replace(instruction, operand1);
+                    return true;
+                }
+                return false;
+            case CMP:
+                // the branches that use the comparison are swapped with it
+                if (constant1 && !constant2 && hasOnlyBranchUsers(instruction)) {
+                    for (Instruction user : getUsers(instruction)) {
+                        user.setOpCode(Instruction.swapComparison(user.getOpCode()));
+                    }
+                    rewrite(instruction, OpCode.CMP, operand2, operand1);
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    // a select with a known condition, or with the same value on both sides, is that value
+    private boolean simplifySelect(Instruction instruction) {
+        List<Result> params = instruction.getParams();
+        Result condition = params.get(0);
+        if (condition.getType() == Result.Type.CONSTANT && condition.getValue() != null) {
+            replace(instruction, params.get(Instruction.isTaken(instruction.getComparison(), condition.getValue())
+                    ? 1 : 2));
+            return true;
+        }
+        if (params.get(1).getType() == params.get(2).getType()
+                && Objects.equals(params.get(1).getValue(), params.get(2).getValue())) {
+            replace(instruction, params.get(1));
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isCommutative(OpCode opCode) {
+        return opCode == OpCode.ADD || opCode == OpCode.MUL || opCode == OpCode.MULH;
+    }
+
+    private static boolean isConstant(Result operand, int value) {
+        return operand != null && operand.getType() == Result.Type.CONSTANT && operand.getValue() == value;
+    }
+
+    private static boolean isSameValue(Result operand1, Result operand2) {
+        return operand1.getType() == Result.Type.VALUE && operand2.getType() == Result.Type.VALUE
+                && operand1.isValueOf(operand2.getValue());
+    }
+
+    private static Result constant(int value) {
+        return new Result(Result.Type.CONSTANT, value);
+    }
+
+    private Instruction getDefinition(Result operand) {
+        if (operand == null || operand.getType() != Result.Type.VALUE) {
+            return null;
+        }
+        return controlFlowGraph.getInstruction(operand.getValue());
+    }
+
+    // signed division rounds towards zero. A shift rounds down, so negative dividends are biased by the divisor minus
+    // one first. Other divisors use the magic numbers from Hacker's Delight, chapter 10
+    private Result expandDivision(Instruction division, Result dividend, int divisor) {
+        int absoluteDivisor = Math.abs(divisor);
+        Result quotient;
+        if (Integer.bitCount(absoluteDivisor) == 1) {
+            int shift = Integer.numberOfTrailingZeros(absoluteDivisor);
+            Result sign = shift == 1 ? dividend : insertBefore(division, OpCode.ASH, dividend, constant(-31));
+            Result bias = insertBefore(division, OpCode.LSH, sign, constant(shift - 32));
+            Result biased = insertBefore(division, OpCode.ADD, dividend, bias);
+            quotient = insertBefore(division, OpCode.ASH, biased, constant(-shift));
+            if (divisor < 0) {
+                quotient = insertBefore(division, OpCode.NEG, quotient, null);
+            }
+            return quotient;
+        }
+
+        int[] magicNumber = getMagicNumber(divisor);
+        int multiplier = magicNumber[0];
+        int shift = magicNumber[1];
+        quotient = insertBefore(division, OpCode.MULH, dividend, constant(multiplier));
+        if (divisor > 0 && multiplier < 0) {
+            quotient = insertBefore(division, OpCode.ADD, quotient, dividend);
+        } else if (divisor < 0 && multiplier > 0) {
+            quotient = insertBefore(division, OpCode.SUB, quotient, dividend);
+        }
+        if (shift > 0) {
+            quotient = insertBefore(division, OpCode.ASH, quotient, constant(-shift));
+        }
+        // adds one to negative quotients
+        Result sign = insertBefore(division, OpCode.LSH, quotient, constant(-31));
+        return insertBefore(division, OpCode.ADD, quotient, sign);
+    }
+
+    // returns the magic multiplier and shift for a divisor that is not -1, 0 or 1. The computation is done with
+    // unsigned 32 bit values
+    private static int[] getMagicNumber(int divisor) {
+        final long mask = 0xFFFFFFFFL;
+        final long twoToThe31 = 0x80000000L;
+        long absoluteDivisor = Math.abs((long) divisor);
+        long t = twoToThe31 + ((divisor & mask) >>> 31);
+        long absoluteNc = t - 1 - t % absoluteDivisor;
+        int p = 31;
+        long q1 = twoToThe31 / absoluteNc;
+        long r1 = twoToThe31 - q1 * absoluteNc;
+        long q2 = twoToThe31 / absoluteDivisor;
+        long r2 = twoToThe31 - q2 * absoluteDivisor;
+        long delta;
+        do {
+            p++;
+            q1 = (2 * q1) & mask;
+            r1 = 2 * r1;
+            if (r1 >= absoluteNc) {
+                q1 = (q1 + 1) & mask;
+                r1 -= absoluteNc;
+            }
+            q2 = (2 * q2) & mask;
+            r2 = 2 * r2;
+            if (r2 >= absoluteDivisor) {
+                q2 = (q2 + 1) & mask;
+                r2 -= absoluteDivisor;
+            }
+            delta = absoluteDivisor - r2;
+        } while (q1 < delta || (q1 == delta && r1 == 0));
+        int multiplier = (int) ((q2 + 1) & mask);
+        return new int[] {divisor < 0 ? -multiplier : multiplier, p - 32};
+    }
+
+    private Result insertBefore(Instruction position, OpCode opCode, Result operand1, Result operand2) {
+        Instruction instruction = Instruction.create(opCode, operand1, operand2);
+        position.getBasicBlock().insertBefore(position, instruction);
+        addUses(instruction);
+        worklist.add(instruction);
+        return new Result(Result.Type.VALUE, instruction.getIndex());
+    }
+
+    // changes the instruction in place. Its users may now match other rules
+    private void rewrite(Instruction instruction, OpCode opCode, Result operand1, Result operand2) {
+        List<Instruction> oldDefinitions = getOperandDefinitions(instruction);
+        removeUses(instruction);
+        instruction.setOpCode(opCode);
+        instruction.setOperand1(copy(operand1));
+        instruction.setOperand2(copy(operand2));
+        addUses(instruction);
+        worklist.add(instruction);
+        worklist.addAll(getUsers(instruction));
+        for (Instruction definition : oldDefinitions) {
+            removeIfDead(definition);
+        }
+    }
+
+    private void replace(Instruction instruction, Result value) {
+        Result replacement = copy(value);
+        for (Instruction user : new ArrayList<>(getUsers(instruction))) {
+            user.replaceValueOperand(instruction.getIndex(), replacement);
+            if (replacement.getType() == Result.Type.VALUE) {
+                getUsers(replacement.getValue()).add(user);
+            }
+            worklist.add(user);
+        }
+        users.remove(instruction.getIndex());
+        removeIfDead(instruction);
+    }
+
+    private static Result copy(Result operand) {
+        return operand == null ? null : new Result(operand.getType(), operand.getValue());
+    }
+
+    // removes an instruction without users that has no side effects, and then its operands if they become unused
+    private void removeIfDead(Instruction instruction) {
+        if (controlFlowGraph.getInstruction(instruction.getIndex()) != instruction || !getUsers(instruction).isEmpty()
+                || !isSimplifiable(instruction) || instruction.getOpCode() == OpCode.DIV) {
+            return;
+        }
+        List<Instruction> definitions = getOperandDefinitions(instruction);
+        removeUses(instruction);
+        instruction.getBasicBlock().removeInstruction(instruction);
+        users.remove(instruction.getIndex());
+        removedCount++;
+        for (Instruction definition : definitions) {
+            removeIfDead(definition);
+        }
+    }
+
+    private List<Instruction> getOperandDefinitions(Instruction instruction) {
+        List<Instruction> definitions = new ArrayList<>();
+        for (Result operand : instruction.getValueOperands()) {
+            Instruction definition = getDefinition(operand);
+            if (definition != null) {
+                definitions.add(definition);
+            }
+        }
+        return definitions;
+    }
+
+    private boolean hasOnlyBranchUsers(Instruction instruction) {
+        for (Instruction user : getUsers(instruction)) {
+            if (!user.isConditionalBranch()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Instruction> getUsers(Instruction instruction) {
+        return getUsers(instruction.getIndex());
+    }
+
+    private List<Instruction> getUsers(Integer instructionIndex) {
+        if (!users.containsKey(instructionIndex)) {
+            users.put(instructionIndex, new ArrayList<>());
+        }
+        return users.get(instructionIndex);
+    }
+
+    private void addUses(Instruction instruction) {
+        for (Result operand : instruction.getValueOperands()) {
+            if (operand.getType() == Result.Type.VALUE && operand.getValue() != null) {
+                getUsers(operand.getValue()).add(instruction);
+            }
+        }
+    }
+
+    private void removeUses(Instruction instruction) {
+        for (Result operand : instruction.getValueOperands()) {
+            if (operand.getType() == Result.Type.VALUE && operand.getValue() != null) {
+                getUsers(operand.getValue()).remove(instruction);
+            }
+        }
+    }
+}
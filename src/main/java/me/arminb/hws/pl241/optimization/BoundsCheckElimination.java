@@ -0,0 +1,79 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.AliasAnalysis;
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.FunctionSummary;
+import me.arminb.hws.pl241.analysis.Interval;
+import me.arminb.hws.pl241.analysis.MemorySSA;
+import me.arminb.hws.pl241.analysis.ValueRangeAnalysis;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Removes the CHK instructions whose index is proven to be within the bounds of the array by value range analysis.
+// All checks are decided on the same analysis result before any of them is removed
+public class BoundsCheckElimination {
+    private final static Logger logger = LoggerFactory.getLogger(BoundsCheckElimination.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private FunctionSummary functionSummary;
+    private DominatorTree dominatorTree;
+    private int checkCount;
+    private int removedCount;
+
+    public BoundsCheckElimination(ControlFlowGraph controlFlowGraph, FunctionSummary functionSummary) {
+        this(controlFlowGraph, functionSummary, null);
+    }
+
+    // the pass manager passes the dominator tree it has cached for the CFG
+    public BoundsCheckElimination(ControlFlowGraph controlFlowGraph, FunctionSummary functionSummary,
+            DominatorTree dominatorTree) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.functionSummary = functionSummary;
+        this.dominatorTree = dominatorTree;
+    }
+
+    public void run() {
+        if (dominatorTree == null) {
+            dominatorTree = new DominatorTree(controlFlowGraph);
+        }
+        MemorySSA memorySSA = new MemorySSA(controlFlowGraph, dominatorTree, functionSummary,
+                new AliasAnalysis(controlFlowGraph));
+        ValueRangeAnalysis valueRangeAnalysis = new ValueRangeAnalysis(controlFlowGraph, dominatorTree, memorySSA);
+
+        List<Instruction> redundantChecks = new ArrayList<>();
+        for (BasicBlock basicBlock : dominatorTree.getReversePostOrder()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() != OpCode.CHK) {
+                    continue;
+                }
+                checkCount++;
+                Interval index = valueRangeAnalysis.getRange(instruction.getOperand1(), instruction);
+                Interval bound = valueRangeAnalysis.getRange(instruction.getOperand2(), instruction);
+                if (!bound.isEmpty() && index.isWithin(0, bound.getLower() - 1)) {
+                    redundantChecks.add(instruction);
+                }
+            }
+        }
+
+        for (Instruction checkInstruction : redundantChecks) {
+            checkInstruction.getBasicBlock().removeInstruction(checkInstruction);
+        }
+        removedCount = redundantChecks.size();
+        logger.info("Removed " + removedCount + " of " + checkCount + " bounds checks in " + controlFlowGraph.getName());
+    }
+
+    public int getCheckCount() {
+        return checkCount;
+    }
+
+    public int getRemovedCount() {
+        return removedCount;
+    }
+}
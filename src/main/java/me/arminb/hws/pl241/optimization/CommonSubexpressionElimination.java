@@ -0,0 +1,135 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.AliasAnalysis;
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.FunctionSummary;
+import me.arminb.hws.pl241.analysis.MemoryAccess;
+import me.arminb.hws.pl241.analysis.MemorySSA;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Dominator based common subexpression elimination. The dominator tree is walked with a scoped hash table, so an
+// instruction is replaced by an identical one only if that one dominates it. Operands of commutative operations are
+// put in a canonical order first. A LOAD is anchored at the memory SSA version of the array or variable it reads, so
+// every STORE to that array and every call that may modify it starts a new anchor and kills the loads before it
+public class CommonSubexpressionElimination {
+    private final static Logger logger = LoggerFactory.getLogger(CommonSubexpressionElimination.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private FunctionSummary functionSummary;
+    private DominatorTree dominatorTree;
+    private MemorySSA memorySSA;
+    private Map<Expression, Instruction> availableExpressions;
+    private Map<Integer, Result> replacements;
+    private List<Instruction> redundantInstructions;
+
+    public CommonSubexpressionElimination(ControlFlowGraph controlFlowGraph, FunctionSummary functionSummary) {
+        this(controlFlowGraph, functionSummary, null);
+    }
+
+    // the pass manager passes the dominator tree it has cached for the CFG
+    public CommonSubexpressionElimination(ControlFlowGraph controlFlowGraph, FunctionSummary functionSummary,
+            DominatorTree dominatorTree) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.functionSummary = functionSummary;
+        this.dominatorTree = dominatorTree;
+    }
+
+    public void run() {
+        if (dominatorTree == null) {
+            dominatorTree = new DominatorTree(controlFlowGraph);
+        }
+        memorySSA = new MemorySSA(controlFlowGraph, dominatorTree, functionSummary, new AliasAnalysis(controlFlowGraph));
+        availableExpressions = new HashMap<>();
+        replacements = new HashMap<>();
+        redundantInstructions = new ArrayList<>();
+
+        visit(controlFlowGraph.getEntryBlock());
+
+        // phi operands coming from back edges and unreachable blocks are not visited after the definitions they use
+        // are replaced
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                replaceOperands(instruction);
+            }
+        }
+        for (Instruction instruction : redundantInstructions) {
+            instruction.getBasicBlock().removeInstruction(instruction);
+        }
+        logger.info("Removed " + redundantInstructions.size() + " common subexpressions in " + controlFlowGraph.getName());
+    }
+
+    private void visit(BasicBlock basicBlock) {
+        List<Expression> blockExpressions = new ArrayList<>();
+        for (Instruction instruction : basicBlock.getInstructions()) {
+            replaceOperands(instruction);
+            Expression expression = getExpression(instruction);
+            if (expression == null) {
+                continue;
+            }
+            Instruction availableInstruction = availableExpressions.get(expression);
+            if (availableInstruction != null) {
+                replacements.put(instruction.getIndex(), new Result(Result.Type.VALUE, availableInstruction.getIndex()));
+                redundantInstructions.add(instruction);
+            } else {
+                availableExpressions.put(expression, instruction);
+                blockExpressions.add(expression);
+            }
+        }
+
+        for (BasicBlock child : dominatorTree.getChildren(basicBlock)) {
+            visit(child);
+        }
+
+        // leaving the scope of this block
+        for (Expression expression : blockExpressions) {
+            availableExpressions.remove(expression);
+        }
+    }
+
+    private void replaceOperands(Instruction instruction) {
+        for (Result operand : instruction.getValueOperands()) {
+            if (operand.getType() == Result.Type.VALUE && replacements.containsKey(operand.getValue())) {
+                instruction.replaceValueOperand(operand.getValue(), replacements.get(operand.getValue()));
+            }
+        }
+    }
+
+    // returns null for instructions that can't be replaced by an earlier one
+    private Expression getExpression(Instruction instruction) {
+        if (instruction.getOpCode() == null) {
+            return null;
+        }
+        switch (instruction.getOpCode()) {
+            case ADD:
+            case SUB:
+            case MUL:
+            case LSH:
+            case ASH:
+            case MULH:
+            case DIV:
+            case NEG:
+            case CMP:
+            case ADDA:
+                return new Expression(instruction.getOpCode(), instruction.getOperand1(), instruction.getOperand2(), null);
+            case LOAD:
+                if (memorySSA.getAccess(instruction) == null) {
+                    return null;
+                }
+                return new Expression(OpCode.LOAD, instruction.getOperand1(), null,
+                        memorySSA.getClobberingAccess(instruction));
+            default:
+                return null;
+        }
+    }
+}
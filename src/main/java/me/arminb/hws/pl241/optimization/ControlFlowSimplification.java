@@ -0,0 +1,183 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Cleans up the CFG left by the parser and the other passes. Empty instructions are removed from non-empty blocks,
+// branches to empty blocks and to blocks whose branch is already decided are threaded to the final destination,
+// empty fall through blocks are bypassed and straight-line pairs of blocks are merged. The steps are repeated until
+// nothing changes and the blocks are renumbered in layout order at the end
+public class ControlFlowSimplification {
+    private final static Logger logger = LoggerFactory.getLogger(ControlFlowSimplification.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private int placeholderCount;
+    private int threadedBranchCount;
+    private int mergedBlockCount;
+    private int removedBlockCount;
+
+    public ControlFlowSimplification(ControlFlowGraph controlFlowGraph) {
+        this.controlFlowGraph = controlFlowGraph;
+    }
+
+    public void run() {
+        int blockCount = controlFlowGraph.getBasicBlocks().size();
+        boolean changed = true;
+        // each round threads a branch by one block at most. The bound stops threading around a cycle of empty blocks
+        for (int round = 0; changed && round <= blockCount; round++) {
+            changed = removePlaceholders();
+            changed |= threadBranches();
+            changed |= bypassEmptyBlocks();
+            changed |= mergeBlocks();
+            int unreachableCount = controlFlowGraph.removeUnreachableBlocks();
+            removedBlockCount += unreachableCount;
+            changed |= unreachableCount > 0;
+        }
+        controlFlowGraph.renumberBasicBlocks();
+        logger.info("Removed " + placeholderCount + " empty instructions, threaded " + threadedBranchCount
+                + " branches, merged " + mergedBlockCount + " and removed " + removedBlockCount + " blocks in "
+                + controlFlowGraph.getName());
+    }
+
+    private boolean removePlaceholders() {
+        boolean changed = false;
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.isEmpty() && basicBlock.getFirstInstruction() != basicBlock.getLastInstruction()) {
+                    basicBlock.removeInstruction(instruction);
+                    placeholderCount++;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean threadBranches() {
+        boolean changed = false;
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            // a block whose place in the phi operands was taken by a threaded branch is left without edges
+            if (!basicBlock.getLastInstruction().isBranch() || basicBlock.getBranchBlock() == null) {
+                continue;
+            }
+            BasicBlock oldDestination = basicBlock.getBranchBlock();
+            BasicBlock newDestination = getThreadedDestination(basicBlock, oldDestination);
+            if (newDestination == null || newDestination == oldDestination
+                    || newDestination.getPredecessors().contains(basicBlock)) {
+                continue;
+            }
+            if (newDestination.getPhiInstructions().isEmpty()) {
+                basicBlock.redirectBranch(newDestination, null);
+            } else if (oldDestination.getPredecessors().size() == 1) {
+                // the old destination becomes unreachable and this block takes its place in the phi operands
+                basicBlock.redirectBranch(newDestination, oldDestination);
+            } else {
+                continue;
+            }
+            threadedBranchCount++;
+            changed = true;
+        }
+        return changed;
+    }
+
+    // returns the block that is always reached through the destination when it is entered by the branch of the
+    // given block, or null if the destination does something or decides by itself
+    private BasicBlock getThreadedDestination(BasicBlock basicBlock, BasicBlock destination) {
+        if (!destination.getPhiInstructions().isEmpty() || destination.getFirstInstruction() != destination.getLastInstruction()) {
+            return null;
+        }
+        Instruction instruction = destination.getFirstInstruction();
+        if (instruction.isEmpty()) {
+            return destination.getBranchBlock() == null ? destination.getFallThroughBlock() : null;
+        }
+        if (instruction.getOpCode() == OpCode.BRA) {
+            return destination.getBranchBlock();
+        }
+        if (!instruction.isConditionalBranch() || !basicBlock.getLastInstruction().isConditionalBranch()) {
+            return null;
+        }
+
+        // both branches test the same condition. The outcome only depends on the sign of the condition, so the signs
+        // that take the first branch decide the second one
+        Instruction branchInstruction = basicBlock.getLastInstruction();
+        Result condition = branchInstruction.getOperand1();
+        if (condition.getType() != Result.Type.VALUE || !instruction.getOperand1().isValueOf(condition.getValue())) {
+            return null;
+        }
+        boolean alwaysTaken = true;
+        boolean neverTaken = true;
+        for (int sign = -1; sign <= 1; sign++) {
+            if (branchInstruction.isTaken(sign)) {
+                alwaysTaken &= instruction.isTaken(sign);
+                neverTaken &= !instruction.isTaken(sign);
+            }
+        }
+        if (alwaysTaken) {
+            return destination.getBranchBlock();
+        } else if (neverTaken) {
+            return destination.getFallThroughBlock();
+        }
+        return null;
+    }
+
+    // removes empty blocks that are only entered by falling through from the block before them
+    private boolean bypassEmptyBlocks() {
+        boolean changed = false;
+        for (BasicBlock basicBlock : new ArrayList<>(controlFlowGraph.getBasicBlocks())) {
+            BasicBlock emptyBlock = basicBlock.getFallThroughBlock();
+            if (emptyBlock == null || !controlFlowGraph.getBasicBlocks().contains(basicBlock)
+                    || !emptyBlock.getFirstInstruction().isEmpty() || emptyBlock.getPredecessors().size() != 1
+                    || emptyBlock.getBranchBlock() != null || emptyBlock.getFallThroughBlock() == null
+                    || emptyBlock.getFallThroughBlock().getPredecessors().contains(basicBlock)) {
+                continue;
+            }
+            basicBlock.bypassFallThroughBlock();
+            removedBlockCount++;
+            changed = true;
+        }
+        return changed;
+    }
+
+    // merges blocks that have a single successor with that successor if it has no other predecessor
+    private boolean mergeBlocks() {
+        boolean changed = false;
+        List<BasicBlock> basicBlocks = new ArrayList<>(controlFlowGraph.getBasicBlocks());
+        for (BasicBlock basicBlock : basicBlocks) {
+            if (!controlFlowGraph.getBasicBlocks().contains(basicBlock)) {
+                continue;
+            }
+            List<BasicBlock> successors = basicBlock.getSuccessors();
+            while (successors.size() == 1 && canMerge(basicBlock, successors.get(0))) {
+                basicBlock.mergeSuccessor();
+                mergedBlockCount++;
+                changed = true;
+                successors = basicBlock.getSuccessors();
+            }
+        }
+        return changed;
+    }
+
+    private boolean canMerge(BasicBlock basicBlock, BasicBlock successor) {
+        if (successor == basicBlock || successor == controlFlowGraph.getEntryBlock()
+                || successor.getPredecessors().size() != 1) {
+            return false;
+        }
+        Instruction lastInstruction = basicBlock.getLastInstruction();
+        // the fall-through left after a return or the end of the program is not a real edge
+        if (lastInstruction.isConditionalBranch() || lastInstruction.getOpCode() == OpCode.RET
+                || lastInstruction.getOpCode() == OpCode.END) {
+            return false;
+        }
+        // the instructions of the successor are moved after this block, so whatever falls through from the
+        // successor has to come right after it already
+        return lastInstruction.getNext() == successor.getFirstInstruction() || successor.getFallThroughBlock() == null;
+    }
+}
@@ -0,0 +1,201 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.CallGraph;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.frontend.Scanner;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.Symbol;
+import me.arminb.hws.pl241.symbol.SymbolTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Removes the functions and procedures that can't be reached from main in the call graph, and merges functions with
+// the same code. The code of a function is written down with its instructions and blocks numbered by their position,
+// locals by their place in the frame and calls of itself by a name of their own, so copies of a function under
+// different names look the same. Functions are grouped by the hash of that text, and calls of a function whose text
+// equals the one of an earlier function are redirected to that function. Callers that only differed in the functions
+// they call may look the same after that, so merging is repeated until nothing changes
+public class DeadFunctionElimination {
+    private final static Logger logger = LoggerFactory.getLogger(DeadFunctionElimination.class);
+
+    private int mergedCount;
+    private int removedCount;
+
+    public void run() {
+        boolean changed = true;
+        while (changed) {
+            changed = mergeFunctions();
+        }
+        removeUnreachableFunctions();
+        logger.info("Merged " + mergedCount + " functions and removed " + removedCount + " functions");
+    }
+
+    private boolean mergeFunctions() {
+        Map<Integer, List<ControlFlowGraph>> functionsByHash = new LinkedHashMap<>();
+        Map<ControlFlowGraph, String> texts = new HashMap<>();
+        for (ControlFlowGraph function : ControlFlowGraph.getAll()) {
+            String text = function == ControlFlowGraph.getMain() ? null : normalize(function);
+            if (text == null) {
+                continue;
+            }
+            texts.put(function, text);
+            functionsByHash.computeIfAbsent(text.hashCode(), hash -> new ArrayList<>()).add(function);
+        }
+
+        Map<ControlFlowGraph, ControlFlowGraph> replacements = new HashMap<>();
+        for (List<ControlFlowGraph> functions : functionsByHash.values()) {
+            for (int i = 1; i < functions.size(); i++) {
+                for (int j = 0; j < i; j++) {
+                    ControlFlowGraph function = functions.get(j);
+                    if (!replacements.containsKey(function) && texts.get(function).equals(texts.get(functions.get(i)))) {
+                        replacements.put(functions.get(i), function);
+                        break;
+                    }
+                }
+            }
+        }
+        if (replacements.isEmpty()) {
+            return false;
+        }
+
+        for (ControlFlowGraph controlFlowGraph : ControlFlowGraph.getAll()) {
+            for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+                for (Instruction instruction : basicBlock.getInstructions()) {
+                    if (instruction.getOpCode() != OpCode.CALL
+                            || !replacements.containsKey(CallGraph.getCallee(instruction))) {
+                        continue;
+                    }
+                    ControlFlowGraph function = replacements.get(CallGraph.getCallee(instruction));
+                    instruction.setOperand1(new Result(instruction.getOperand1().getType(),
+                            Scanner.getInstance().stringToIdentifier(function.getName())));
+                }
+            }
+        }
+        for (ControlFlowGraph function : replacements.keySet()) {
+            ControlFlowGraph.remove(function);
+            mergedCount++;
+        }
+        return true;
+    }
+
+    private void removeUnreachableFunctions() {
+        CallGraph callGraph = new CallGraph();
+        Set<ControlFlowGraph> reachableFunctions = new HashSet<>();
+        List<ControlFlowGraph> worklist = new ArrayList<>();
+        reachableFunctions.add(ControlFlowGraph.getMain());
+        worklist.add(ControlFlowGraph.getMain());
+        while (!worklist.isEmpty()) {
+            for (ControlFlowGraph callee : callGraph.getCallees(worklist.remove(worklist.size() - 1))) {
+                if (reachableFunctions.add(callee)) {
+                    worklist.add(callee);
+                }
+            }
+        }
+        for (ControlFlowGraph function : new ArrayList<>(ControlFlowGraph.getAll())) {
+            if (!reachableFunctions.contains(function)) {
+                ControlFlowGraph.remove(function);
+                removedCount++;
+            }
+        }
+    }
+
+    // the code of the function without the names that differ between copies, or null if some of its blocks are not
+    // part of the instruction chain
+    private String normalize(ControlFlowGraph function) {
+        List<BasicBlock> basicBlocks = FunctionInlining.getCodeOrder(function);
+        if (basicBlocks.size() != function.getBasicBlocks().size()) {
+            return null;
+        }
+        Map<BasicBlock, Integer> blockNumbers = new HashMap<>();
+        Map<Integer, Integer> instructionNumbers = new HashMap<>();
+        for (BasicBlock basicBlock : basicBlocks) {
+            blockNumbers.put(basicBlock, blockNumbers.size());
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                instructionNumbers.put(instruction.getIndex(), instructionNumbers.size());
+            }
+        }
+
+        // the kind of function and its frame
+        Symbol functionSymbol = SymbolTable.getInstance().get(
+                Scanner.getInstance().stringToIdentifier(function.getName()), ControlFlowGraph.MAIN);
+        StringBuilder text = new StringBuilder(functionSymbol.getType().toString());
+        for (Symbol parameter : functionSymbol.getParameters()) {
+            text.append(" p").append(parameter.getRelativeBaseAddress());
+        }
+        List<String> locals = new ArrayList<>();
+        for (Symbol symbol : SymbolTable.getInstance().getSymbols(function.getName())) {
+            locals.add(symbol.getRelativeBaseAddress() + ":" + symbol.getSize());
+        }
+        Collections.sort(locals);
+        text.append(" ").append(locals);
+
+        for (BasicBlock basicBlock : basicBlocks) {
+            text.append("\nblock");
+            for (BasicBlock predecessor : basicBlock.getPredecessors()) {
+                text.append(" ").append(blockNumbers.get(predecessor));
+            }
+            text.append(" -> ").append(blockNumbers.get(basicBlock.getFallThroughBlock()))
+                    .append(" ").append(blockNumbers.get(basicBlock.getBranchBlock()));
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                text.append("\n").append(instruction.getOpCode());
+                if (instruction.getOpCode() == OpCode.CALL) {
+                    ControlFlowGraph callee = CallGraph.getCallee(instruction);
+                    text.append(" ").append(callee == function ? "itself"
+                            : Scanner.getInstance().identifierToString(instruction.getOperand1().getValue()));
+                    for (Result param : instruction.getParams()) {
+                        text.append(" ").append(normalize(param, instructionNumbers));
+                    }
+                } else if (instruction.hasParams()) {
+                    if (instruction.getComparison() != null) {
+                        text.append(" ").append(instruction.getComparison());
+                    }
+                    if (instruction.getOpCode() == OpCode.COPY) {
+                        text.append(" ").append(normalizeVariable(function, instruction.getOperand1().getValue()));
+                    }
+                    for (Result param : instruction.getParams()) {
+                        text.append(" ").append(normalize(param, instructionNumbers));
+                    }
+                } else {
+                    text.append(" ").append(normalize(instruction.getOperand1(), instructionNumbers))
+                            .append(" ").append(normalize(instruction.getOperand2(), instructionNumbers));
+                }
+                if (instruction.getAffectedVariable() != null) {
+                    text.append(" ").append(normalizeVariable(function, instruction.getAffectedVariable()));
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private static String normalize(Result operand, Map<Integer, Integer> instructionNumbers) {
+        if (operand == null || operand.getValue() == null) {
+            return "_";
+        }
+        if (operand.getType() == Result.Type.VALUE) {
+            return instructionNumbers.containsKey(operand.getValue())
+                    ? "(" + instructionNumbers.get(operand.getValue()) + ")" : "?" + operand.getValue();
+        }
+        return operand.getType() + "#" + operand.getValue();
+    }
+
+    // globals keep their identifier, locals are named by their place in the frame
+    private static String normalizeVariable(ControlFlowGraph function, Integer identifier) {
+        Symbol symbol = SymbolTable.getInstance().get(identifier, function.getName());
+        if (symbol == null || symbol.isGlobal()) {
+            return "g" + identifier;
+        }
+        return "l" + symbol.getRelativeBaseAddress();
+    }
+}
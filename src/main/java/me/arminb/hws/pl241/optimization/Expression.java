@@ -0,0 +1,58 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.MemoryAccess;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.OpCode;
+
+import java.util.Objects;
+
+// The lexical form of an instruction, used to find instructions that compute the same value. Operands of
+// commutative operations are put in a canonical order
+class Expression {
+    private final OpCode opCode;
+    private final Result.Type type1;
+    private final Integer value1;
+    private final Result.Type type2;
+    private final Integer value2;
+    private final MemoryAccess anchor; // for loads
+
+    Expression(OpCode opCode, Result operand1, Result operand2, MemoryAccess anchor) {
+        if ((opCode == OpCode.ADD || opCode == OpCode.MUL || opCode == OpCode.MULH)
+                && compare(operand1, operand2) > 0) {
+            Result swap = operand1;
+            operand1 = operand2;
+            operand2 = swap;
+        }
+        this.opCode = opCode;
+        this.type1 = operand1 == null ? null : operand1.getType();
+        this.value1 = operand1 == null ? null : operand1.getValue();
+        this.type2 = operand2 == null ? null : operand2.getType();
+        this.value2 = operand2 == null ? null : operand2.getValue();
+        this.anchor = anchor;
+    }
+
+    private static int compare(Result first, Result second) {
+        if (first.getType() != second.getType()) {
+            return first.getType().compareTo(second.getType());
+        }
+        if (first.getValue() == null || second.getValue() == null) {
+            return 0;
+        }
+        return Integer.compare(first.getValue(), second.getValue());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Expression)) {
+            return false;
+        }
+        Expression other = (Expression) obj;
+        return opCode == other.opCode && type1 == other.type1 && Objects.equals(value1, other.value1)
+                && type2 == other.type2 && Objects.equals(value2, other.value2) && anchor == other.anchor;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(opCode, type1, value1, type2, value2, System.identityHashCode(anchor));
+    }
+}
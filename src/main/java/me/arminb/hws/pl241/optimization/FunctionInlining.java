@@ -0,0 +1,377 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.CallGraph;
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.LoopInfo;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.Symbol;
+import me.arminb.hws.pl241.symbol.SymbolTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Replaces calls by a copy of the body of the called function. The optimizer visits the call graph bottom-up, so
+// the callee is already optimized and has its own calls inlined. Calls inside a strongly connected component of the
+// call graph are kept, which stops the inlining of recursive functions after one level. A callee is inlined if its
+// size is below a threshold that grows with the loop depth of the call site, or if this is its only call site, and
+// the caller stays below a size limit. Parameters are loaded from the frame of the callee, so those loads are
+// replaced by the arguments of the call. Callees with arrays in their frame are not inlined, and neither are callees
+// with more than two returns, since a phi instruction at the join block only has two operands, or with code after a
+// return in the same block
+public class FunctionInlining {
+    private final static Logger logger = LoggerFactory.getLogger(FunctionInlining.class);
+    private static final int SIZE_THRESHOLD = 40;
+    private static final int LOOP_DEPTH_BONUS = 40;
+    private static final int MAX_LOOP_DEPTH = 3;
+    private static final int SINGLE_CALL_SITE_THRESHOLD = 400;
+    private static final int MAX_CALLER_SIZE = 3000;
+
+    private ControlFlowGraph controlFlowGraph;
+    private CallGraph callGraph;
+    private List<ControlFlowGraph> component;
+    private int inlinedCount;
+
+    // the copy of the callee that is being inlined
+    private Map<Integer, Result> values;
+    private Map<BasicBlock, BasicBlock> blocks;
+    private List<Instruction> copies;
+    private List<BasicBlock> returnBlocks;
+    private List<Instruction> returnBranches;
+    private List<Result> returnValues;
+
+    public FunctionInlining(ControlFlowGraph controlFlowGraph, CallGraph callGraph) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.callGraph = callGraph;
+    }
+
+    public void run() {
+        for (List<ControlFlowGraph> bottomUpComponent : callGraph.getBottomUpOrder()) {
+            if (bottomUpComponent.contains(controlFlowGraph)) {
+                component = bottomUpComponent;
+            }
+        }
+
+        // call sites are collected first, since inlining splits their blocks and changes the loops
+        LoopInfo loopInfo = new LoopInfo(controlFlowGraph, new DominatorTree(controlFlowGraph));
+        List<Instruction> callInstructions = new ArrayList<>();
+        List<Integer> loopDepths = new ArrayList<>();
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                ControlFlowGraph callee = instruction.getOpCode() == OpCode.CALL ? CallGraph.getCallee(instruction)
+                        : null;
+                if (callee != null && !component.contains(callee)) {
+                    callInstructions.add(instruction);
+                    loopDepths.add(loopInfo.getLoopDepth(basicBlock));
+                }
+            }
+        }
+
+        for (int i = 0; i < callInstructions.size(); i++) {
+            Instruction callInstruction = callInstructions.get(i);
+            ControlFlowGraph callee = CallGraph.getCallee(callInstruction);
+            int size = getInlinedSize(callee);
+            int threshold = SIZE_THRESHOLD + LOOP_DEPTH_BONUS * Math.min(loopDepths.get(i), MAX_LOOP_DEPTH);
+            if (callGraph.getCallSites(callee).size() == 1) {
+                threshold = Math.max(threshold, SINGLE_CALL_SITE_THRESHOLD);
+            }
+            if (size >= 0 && size <= threshold && controlFlowGraph.getInstructionCount() + size <= MAX_CALLER_SIZE) {
+                inline(callInstruction, callee);
+                inlinedCount++;
+            }
+        }
+        if (inlinedCount > 0) {
+            controlFlowGraph.renumberBasicBlocks();
+        }
+        logger.info("Inlined " + inlinedCount + " calls in " + controlFlowGraph.getName());
+    }
+
+    private static boolean isFrameAddress(Instruction instruction) {
+        Result operand1 = instruction.getOperand1();
+        Result operand2 = instruction.getOperand2();
+        return (operand1 != null && operand1.getType() == Result.Type.ADDRESS
+                && operand1.getValue().equals(Result.Address.FP.getResult().getValue()))
+                || (operand2 != null && operand2.getType() == Result.Type.ADDRESS
+                && operand2.getValue().equals(Result.Address.FP.getResult().getValue()));
+    }
+
+    private static boolean isReturnBlock(BasicBlock basicBlock) {
+        return basicBlock.getLastInstruction().getOpCode() == OpCode.RET;
+    }
+
+    // the parameter loaded by the instruction, if it is a load from the frame of the function
+    static Symbol getParameter(ControlFlowGraph function, Instruction instruction) {
+        if (instruction.getOpCode() != OpCode.LOAD || instruction.getAffectedVariable() == null) {
+            return null;
+        }
+        Symbol location = SymbolTable.getInstance().get(instruction.getAffectedVariable(), function.getName());
+        return location != null && location.isParam() ? location : null;
+    }
+
+    // the number of instructions the callee adds to the caller, or -1 if it can't be inlined
+    private int getInlinedSize(ControlFlowGraph callee) {
+        if (!callee.getEntryBlock().getPredecessors().isEmpty()) {
+            return -1;
+        }
+        int size = 0;
+        int returnCount = 0;
+        for (BasicBlock basicBlock : callee.getBasicBlocks()) {
+            if (basicBlock.getFallThroughBlock() != null && basicBlock.getFallThroughBlock() == basicBlock.getBranchBlock()) {
+                return -1;
+            }
+            if (isReturnBlock(basicBlock)) {
+                for (BasicBlock successor : basicBlock.getSuccessors()) {
+                    if (!successor.getPhiInstructions().isEmpty()) {
+                        return -1;
+                    }
+                }
+            }
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == null) {
+                    continue;
+                }
+                if (getParameter(callee, instruction) != null) {
+                    continue;
+                }
+                if (isFrameAddress(instruction)) {
+                    // only the addresses of parameters, which are loaded directly, are allowed
+                    if (instruction.getOpCode() != OpCode.ADD || !isUsedOnlyByParameterLoads(callee, instruction)) {
+                        return -1;
+                    }
+                    continue;
+                }
+                if (instruction.getOpCode() == OpCode.LOAD || instruction.getOpCode() == OpCode.STORE
+                        || instruction.getOpCode() == OpCode.FILL || instruction.getOpCode() == OpCode.COPY) {
+                    if (!isVisibleGlobal(callee, instruction.getAffectedVariable())) {
+                        return -1;
+                    }
+                }
+                if (instruction.getOpCode() == OpCode.COPY
+                        && !isVisibleGlobal(callee, instruction.getOperand1().getValue())) {
+                    return -1;
+                }
+                if (instruction.getOpCode() == OpCode.RET) {
+                    if (instruction != basicBlock.getLastInstruction()) {
+                        return -1;
+                    }
+                    returnCount++;
+                }
+                size++;
+            }
+        }
+        if (returnCount == 0 || returnCount > 2) {
+            return -1;
+        }
+        return size;
+    }
+
+    // a local of the caller with the same name would hide the global
+    private boolean isVisibleGlobal(ControlFlowGraph callee, Integer variable) {
+        if (variable == null) {
+            return false;
+        }
+        Symbol location = SymbolTable.getInstance().get(variable, callee.getName());
+        return location != null && location.isGlobal()
+                && SymbolTable.getInstance().get(variable, controlFlowGraph.getName()) == location;
+    }
+
+    private boolean isUsedOnlyByParameterLoads(ControlFlowGraph callee, Instruction addressInstruction) {
+        for (BasicBlock basicBlock : callee.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                boolean uses = false;
+                for (Result operand : instruction.getValueOperands()) {
+                    uses |= operand.isValueOf(addressInstruction.getIndex());
+                }
+                if (uses && getParameter(callee, instruction) == null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void inline(Instruction callInstruction, ControlFlowGraph callee) {
+        BasicBlock callBlock = callInstruction.getBasicBlock();
+        BasicBlock joinBlock = callBlock.splitAfter(callInstruction);
+        callBlock.setFallThroughBlock(null);
+
+        List<Symbol> parameters = SymbolTable.getInstance().get(callInstruction.getOperand1().getValue(),
+                ControlFlowGraph.MAIN).getParameters();
+        values = new HashMap<>();
+        blocks = new HashMap<>();
+        copies = new ArrayList<>();
+        returnBlocks = new ArrayList<>();
+        returnBranches = new ArrayList<>();
+        returnValues = new ArrayList<>();
+
+        // the blocks are copied in the order of their code, so that fall through blocks stay next to each other
+        List<BasicBlock> calleeBlocks = getCodeOrder(callee);
+        Instruction firstCopy = null;
+        Instruction lastCopy = null;
+        for (BasicBlock calleeBlock : calleeBlocks) {
+            BasicBlock copyBlock = copyBlock(callee, calleeBlock, parameters, callInstruction.getParams());
+            blocks.put(calleeBlock, copyBlock);
+            if (lastCopy == null) {
+                firstCopy = copyBlock.getFirstInstruction();
+            } else {
+                lastCopy.connectTo(copyBlock.getFirstInstruction());
+            }
+            lastCopy = copyBlock.getLastInstruction();
+        }
+
+        for (Instruction copy : copies) {
+            remapOperands(callee, copy);
+        }
+        for (int i = 0; i < returnValues.size(); i++) {
+            returnValues.set(i, remap(returnValues.get(i)));
+        }
+        // the edges are added in the order of the predecessors, which keeps the operands of phi instructions in place.
+        // Blocks that end with a return may still fall through to the next block, which is not a real edge
+        for (BasicBlock calleeBlock : calleeBlocks) {
+            for (BasicBlock predecessor : calleeBlock.getPredecessors()) {
+                if (isReturnBlock(predecessor)) {
+                    continue;
+                }
+                if (predecessor.getFallThroughBlock() == calleeBlock) {
+                    blocks.get(predecessor).setFallThroughBlock(blocks.get(calleeBlock));
+                } else {
+                    blocks.get(predecessor).setBranchBlock(blocks.get(calleeBlock));
+                }
+            }
+        }
+        for (int i = 0; i < returnBlocks.size(); i++) {
+            returnBranches.get(i).setOperand1(new Result(Result.Type.VALUE, joinBlock.getFirstInstruction().getIndex()));
+            returnBlocks.get(i).setBranchBlock(joinBlock);
+        }
+
+        BasicBlock entryCopy = blocks.get(callee.getEntryBlock());
+        if (calleeBlocks.get(0) == callee.getEntryBlock()) {
+            callBlock.setFallThroughBlock(entryCopy);
+        } else {
+            Instruction branchInstruction = Instruction.create(OpCode.BRA, null, null);
+            callBlock.insertBeforeBranch(branchInstruction);
+            branchInstruction.setOperand1(new Result(Result.Type.VALUE, entryCopy.getFirstInstruction().getIndex()));
+            callBlock.setBranchBlock(entryCopy);
+        }
+
+        // the copy is placed between the block of the call and the join block
+        Instruction callBlockLast = callBlock.getLastInstruction();
+        Instruction joinFirst = callBlockLast.getNext();
+        callBlockLast.connectTo(firstCopy);
+        lastCopy.setNext(joinFirst);
+        joinFirst.setPrevious(lastCopy);
+
+        Result returnValue = returnValues.get(0);
+        if (returnBlocks.size() == 2 && returnValue != null) {
+            Instruction phi = Instruction.create(OpCode.PHI, null, null);
+            joinBlock.insertAfterPhis(phi);
+            phi.setPhiOperand(returnBlocks.get(0), returnValues.get(0));
+            phi.setPhiOperand(returnBlocks.get(1), returnValues.get(1));
+            returnValue = new Result(Result.Type.VALUE, phi.getIndex());
+        }
+        controlFlowGraph.replaceValueUses(callInstruction.getIndex(),
+                returnValue == null ? new Result(Result.Type.CONSTANT, 0) : returnValue);
+        callBlock.removeInstruction(callInstruction);
+    }
+
+    // the blocks of a CFG in the order of the instruction chain
+    static List<BasicBlock> getCodeOrder(ControlFlowGraph function) {
+        Instruction instruction = function.getEntryBlock().getFirstInstruction();
+        while (instruction.getPrevious() != null) {
+            instruction = instruction.getPrevious();
+        }
+        List<BasicBlock> order = new ArrayList<>();
+        for (; instruction != null; instruction = instruction.getNext()) {
+            BasicBlock basicBlock = instruction.getBasicBlock();
+            if (basicBlock != null && basicBlock.getFirstInstruction() == instruction
+                    && function.getBasicBlocks().contains(basicBlock)) {
+                order.add(basicBlock);
+            }
+        }
+        return order;
+    }
+
+    private BasicBlock copyBlock(ControlFlowGraph callee, BasicBlock calleeBlock, List<Symbol> parameters,
+                                 List<Result> arguments) {
+        BasicBlock copyBlock = BasicBlock.create();
+        Instruction emptyInstruction = copyBlock.getFirstInstruction();
+        for (Instruction instruction : calleeBlock.getInstructions()) {
+            Symbol parameter = getParameter(callee, instruction);
+            if (parameter != null) {
+                for (int i = 0; i < parameters.size(); i++) {
+                    if (parameters.get(i).getIdentifier().equals(parameter.getIdentifier())) {
+                        values.put(instruction.getIndex(), arguments.get(i));
+                    }
+                }
+                continue;
+            }
+            if (instruction.getOpCode() == null || isFrameAddress(instruction)) {
+                continue;
+            }
+
+            if (instruction.getOpCode() == OpCode.RET) {
+                // the return becomes a branch to the join block once that is known, and nothing after it is reached
+                Instruction branchInstruction = Instruction.create(OpCode.BRA, null, null);
+                copyBlock.insertAfter(copyBlock.getLastInstruction(), branchInstruction);
+                returnBlocks.add(copyBlock);
+                returnBranches.add(branchInstruction);
+                returnValues.add(instruction.getOperand1());
+                break;
+            }
+            Instruction copy = Instruction.create(instruction.getOpCode(), instruction.getOperand1(),
+                    instruction.getOperand2());
+            copy.setAffectedVariable(instruction.getAffectedVariable());
+            copy.setComparison(instruction.getComparison());
+            if (instruction.getParams() != null) {
+                copy.setParams(new ArrayList<>(instruction.getParams()));
+            }
+            copies.add(copy);
+            copyBlock.insertAfter(copyBlock.getLastInstruction(), copy);
+            values.put(instruction.getIndex(), new Result(Result.Type.VALUE, copy.getIndex()));
+        }
+        if (copyBlock.getFirstInstruction() != copyBlock.getLastInstruction()) {
+            copyBlock.removeInstruction(emptyInstruction);
+        }
+        return copyBlock;
+    }
+
+    private Result remap(Result operand) {
+        if (operand == null || operand.getType() != Result.Type.VALUE) {
+            return operand;
+        }
+        Result value = values.get(operand.getValue());
+        if (value == null) {
+            throw new RuntimeException("Value " + operand.getValue() + " is not defined in the inlined function!");
+        }
+        return value;
+    }
+
+    private void remapOperands(ControlFlowGraph callee, Instruction copy) {
+        if (copy.hasParams()) {
+            List<Result> params = copy.getParams();
+            for (int i = 0; i < params.size(); i++) {
+                params.set(i, remap(params.get(i)));
+            }
+            return;
+        }
+        if (copy.isBranch()) {
+            Result destination = copy.getBranchDestination();
+            BasicBlock calleeDestination = callee.getInstruction(destination.getValue()).getBasicBlock();
+            if (copy.isConditionalBranch()) {
+                copy.setOperand1(remap(copy.getOperand1()));
+            }
+            copy.setBranchDestination(new Result(Result.Type.VALUE,
+                    blocks.get(calleeDestination).getFirstInstruction().getIndex()));
+            return;
+        }
+        copy.setOperand1(remap(copy.getOperand1()));
+        copy.setOperand2(remap(copy.getOperand2()));
+    }
+}
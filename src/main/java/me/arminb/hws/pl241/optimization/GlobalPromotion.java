@@ -0,0 +1,266 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.AliasAnalysis;
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.FunctionSummary;
+import me.arminb.hws.pl241.analysis.Loop;
+import me.arminb.hws.pl241.analysis.LoopInfo;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.pass.WorkCounter;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.Symbol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Keeps global variables in SSA values inside regions that contain no call that may access them. The region is the
+// whole function if possible, otherwise the outermost loops that qualify. The global is loaded once on entry of the
+// region, at the beginning of the function or in the preheader of the loop, and its LOAD and STORE instructions in
+// the region are renamed like a local variable, with phi instructions at the iterated dominance frontier of the
+// stores. If the region stores to the global, the value is written back once on every exit: before each return of a
+// function and on every edge leaving a loop. Globals are not written back when main ends
+public class GlobalPromotion {
+    private final static Logger logger = LoggerFactory.getLogger(GlobalPromotion.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private FunctionSummary functionSummary;
+    private DominatorTree dominatorTree;
+    private AliasAnalysis aliasAnalysis;
+    private int functionPromotionCount;
+    private int loopPromotionCount;
+
+    // the region of one promotion and the state of its renaming
+    private Set<BasicBlock> region;
+    private Symbol global;
+    private Result address;
+    private Instruction initialLoad;
+    private boolean writeBack;
+    private Map<BasicBlock, Instruction> phis;
+    private List<BasicBlock[]> exitEdges;
+    private List<Result> exitValues;
+
+    public GlobalPromotion(ControlFlowGraph controlFlowGraph, FunctionSummary functionSummary) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.functionSummary = functionSummary;
+    }
+
+    public void run() {
+        dominatorTree = new DominatorTree(controlFlowGraph);
+        aliasAnalysis = new AliasAnalysis(controlFlowGraph);
+
+        Set<BasicBlock> allBlocks = new LinkedHashSet<>(dominatorTree.getReversePostOrder());
+        Map<Symbol, Integer> accessCounts = getAccessCounts(allBlocks);
+        if (accessCounts == null) {
+            return;
+        }
+        for (Symbol location : accessCounts.keySet()) {
+            if (accessCounts.get(location) > 1 && !isAccessedByCalls(allBlocks, location)
+                    && promote(location, allBlocks, controlFlowGraph.getEntryBlock(), null)) {
+                functionPromotionCount++;
+            }
+        }
+
+        // the globals promoted in a loop are no longer accessed in its inner loops, which are looked at afterwards
+        Set<BasicBlock> visitedHeaders = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            dominatorTree = new DominatorTree(controlFlowGraph);
+            LoopInfo loopInfo = new LoopInfo(controlFlowGraph, dominatorTree);
+            List<Loop> loops = loopInfo.getLoopsInnermostFirst();
+            for (int i = loops.size() - 1; i >= 0 && !changed; i--) {
+                Loop loop = loops.get(i);
+                if (!visitedHeaders.add(loop.getHeader()) || loop.getPreheader() == null) {
+                    continue;
+                }
+                changed = promoteInLoop(loop);
+            }
+            if (changed) {
+                controlFlowGraph.renumberBasicBlocks();
+            }
+        }
+        logger.info("Promoted " + functionPromotionCount + " globals in the function and " + loopPromotionCount
+                + " globals in loops of " + controlFlowGraph.getName());
+    }
+
+    // counts the accesses of every global variable in the blocks, or returns null if a LOAD or STORE is not annotated
+    private Map<Symbol, Integer> getAccessCounts(Set<BasicBlock> blocks) {
+        Map<Symbol, Integer> accessCounts = new HashMap<>();
+        for (BasicBlock basicBlock : blocks) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() != OpCode.LOAD && instruction.getOpCode() != OpCode.STORE) {
+                    continue;
+                }
+                Symbol location = aliasAnalysis.getLocation(instruction);
+                if (location == null) {
+                    return null;
+                }
+                if (location.isGlobal() && !location.isArray()) {
+                    accessCounts.merge(location, 1, Integer::sum);
+                }
+            }
+        }
+        return accessCounts;
+    }
+
+    private boolean isAccessedByCalls(Set<BasicBlock> blocks, Symbol location) {
+        for (BasicBlock basicBlock : blocks) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == OpCode.CALL && (functionSummary.mayModify(instruction, location)
+                        || functionSummary.mayReference(instruction, location))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isStoredIn(Set<BasicBlock> blocks, Symbol location) {
+        for (BasicBlock basicBlock : blocks) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == OpCode.STORE && aliasAnalysis.getLocation(instruction) == location) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // loops that only load a global don't need it in a register, since LICM hoists those loads
+    private boolean promoteInLoop(Loop loop) {
+        Set<BasicBlock> blocks = loop.getBlocks();
+        Map<Symbol, Integer> accessCounts = getAccessCounts(blocks);
+        if (accessCounts == null) {
+            return false;
+        }
+        boolean promoted = false;
+        for (Symbol location : accessCounts.keySet()) {
+            if (isStoredIn(blocks, location) && !isAccessedByCalls(blocks, location)
+                    && promote(location, blocks, loop.getHeader(), loop.getPreheader())) {
+                loopPromotionCount++;
+                promoted = true;
+            }
+        }
+        return promoted;
+    }
+
+    // the region starts at its header, which is the entry block for a function and has a preheader for a loop
+    private boolean promote(Symbol location, Set<BasicBlock> blocks, BasicBlock header, BasicBlock preheader) {
+        Set<BasicBlock> definitionBlocks = new HashSet<>();
+        for (BasicBlock basicBlock : blocks) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == OpCode.STORE && aliasAnalysis.getLocation(instruction) == location) {
+                    definitionBlocks.add(basicBlock);
+                }
+            }
+        }
+        Set<BasicBlock> phiBlocks = new HashSet<>();
+        List<BasicBlock> worklist = new ArrayList<>(definitionBlocks);
+        while (!worklist.isEmpty()) {
+            WorkCounter.getInstance().add();
+            for (BasicBlock frontierBlock : dominatorTree.getDominanceFrontier(worklist.remove(worklist.size() - 1))) {
+                if (blocks.contains(frontierBlock) && phiBlocks.add(frontierBlock)) {
+                    // the entry block of a function has no predecessor to load the global in
+                    if (frontierBlock.getPredecessors().size() > 2 || (preheader == null && frontierBlock == header)) {
+                        return false;
+                    }
+                    worklist.add(frontierBlock);
+                }
+            }
+        }
+
+        region = blocks;
+        global = location;
+        writeBack = !definitionBlocks.isEmpty() && (preheader != null || controlFlowGraph != ControlFlowGraph.getMain());
+        phis = new HashMap<>();
+        exitEdges = new ArrayList<>();
+        exitValues = new ArrayList<>();
+        List<Instruction> newPhis = new ArrayList<>();
+        for (BasicBlock basicBlock : phiBlocks) {
+            Instruction phi = Instruction.create(OpCode.PHI, new Result(Result.Type.CONSTANT, 0),
+                    new Result(Result.Type.CONSTANT, 0));
+            basicBlock.insertAfterPhis(phi);
+            phis.put(basicBlock, phi);
+            newPhis.add(phi);
+        }
+
+        Instruction addressInstruction = Instruction.create(OpCode.ADD, Result.Address.DF.getResult(),
+                new Result(Result.Type.CONSTANT, location.getRelativeBaseAddress()));
+        address = new Result(Result.Type.VALUE, addressInstruction.getIndex());
+        Instruction load = Instruction.create(OpCode.LOAD, address, null);
+        load.setAffectedVariable(location.getIdentifier());
+        initialLoad = load;
+        Result initialValue = new Result(Result.Type.VALUE, load.getIndex());
+        if (preheader == null) {
+            header.insertAfterPhis(addressInstruction);
+            header.insertAfter(addressInstruction, load);
+        } else {
+            preheader.insertBeforeBranch(addressInstruction);
+            preheader.insertBeforeBranch(load);
+            if (phis.containsKey(header)) {
+                phis.get(header).setPhiOperand(preheader, initialValue);
+            }
+        }
+
+        rename(header, initialValue);
+        for (int i = 0; i < exitEdges.size(); i++) {
+            BasicBlock edgeBlock = exitEdges.get(i)[0].splitEdge(exitEdges.get(i)[1]);
+            edgeBlock.insertBeforeBranch(createStore(exitValues.get(i)));
+        }
+        ScalarReplacement.removeTrivialPhis(controlFlowGraph, newPhis);
+        return true;
+    }
+
+    private Instruction createStore(Result value) {
+        Instruction store = Instruction.create(OpCode.STORE, value, address);
+        store.setAffectedVariable(global.getIdentifier());
+        return store;
+    }
+
+    private void rename(BasicBlock basicBlock, Result currentValue) {
+        if (phis.containsKey(basicBlock)) {
+            currentValue = new Result(Result.Type.VALUE, phis.get(basicBlock).getIndex());
+        }
+        for (Instruction instruction : basicBlock.getInstructions()) {
+            if (instruction.getOpCode() == OpCode.RET && writeBack) {
+                basicBlock.insertBefore(instruction, createStore(currentValue));
+            }
+            if ((instruction.getOpCode() != OpCode.LOAD && instruction.getOpCode() != OpCode.STORE)
+                    || aliasAnalysis.getLocation(instruction) != global || instruction == initialLoad) {
+                continue;
+            }
+            if (instruction.getOpCode() == OpCode.LOAD) {
+                controlFlowGraph.replaceValueUses(instruction.getIndex(), currentValue);
+            } else {
+                currentValue = instruction.getOperand1();
+            }
+            basicBlock.removeInstruction(instruction);
+        }
+
+        for (BasicBlock successor : basicBlock.getSuccessors()) {
+            if (phis.containsKey(successor)) {
+                phis.get(successor).setPhiOperand(basicBlock, currentValue);
+            } else if (!region.contains(successor) && writeBack) {
+                // the exit edges are split after the renaming, which needs the dominator tree of the region
+                exitEdges.add(new BasicBlock[] {basicBlock, successor});
+                exitValues.add(currentValue);
+            }
+        }
+
+        for (BasicBlock child : dominatorTree.getChildren(basicBlock)) {
+            if (region.contains(child)) {
+                rename(child, currentValue);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Replaces small if-then-else diamonds and if-then triangles by select instructions. The instructions of the arms
+// are moved in front of the conditional branch, so they run on both paths, and every phi of the join block becomes a
+// select on the condition of the branch. Only arms of a few instructions that can't trap or touch memory are moved.
+// The branch is removed afterwards, the block falls through to the join block and the other arm becomes unreachable.
+// The blocks left behind are merged by control flow simplification
+public class IfConversion {
+    private final static Logger logger = LoggerFactory.getLogger(IfConversion.class);
+    private static final int MAX_ARM_SIZE = 4;
+    private static final int MAX_SELECT_COUNT = 4;
+
+    private ControlFlowGraph controlFlowGraph;
+    private int convertedCount;
+    private int selectCount;
+
+    public IfConversion(ControlFlowGraph controlFlowGraph) {
+        this.controlFlowGraph = controlFlowGraph;
+    }
+
+    public void run() {
+        for (BasicBlock basicBlock : new ArrayList<>(controlFlowGraph.getBasicBlocks())) {
+            if (controlFlowGraph.getBasicBlocks().contains(basicBlock)
+                    && basicBlock.getLastInstruction().isConditionalBranch()) {
+                convert(basicBlock);
+            }
+        }
+        if (convertedCount > 0) {
+            controlFlowGraph.removeUnreachableBlocks();
+        }
+        logger.info("Converted " + convertedCount + " branches to " + selectCount + " selects in "
+                + controlFlowGraph.getName());
+    }
+
+    private void convert(BasicBlock branchBlock) {
+        BasicBlock fallThroughBlock = branchBlock.getFallThroughBlock();
+        BasicBlock takenBlock = branchBlock.getBranchBlock();
+        if (fallThroughBlock == null || takenBlock == null || fallThroughBlock == takenBlock) {
+            return;
+        }
+        Instruction branchInstruction = branchBlock.getLastInstruction();
+        Result condition = branchInstruction.getOperand1();
+        if (condition.getValue() == null) {
+            return;
+        }
+
+        // an arm is a block of its own between the branch and the join block, otherwise the edge goes to the join
+        // block directly
+        BasicBlock fallThroughArm = isArm(fallThroughBlock, branchBlock) ? fallThroughBlock : null;
+        BasicBlock takenArm = isArm(takenBlock, branchBlock) ? takenBlock : null;
+        BasicBlock joinBlock = fallThroughArm != null ? fallThroughArm.getSuccessors().get(0) : fallThroughBlock;
+        BasicBlock takenJoinBlock = takenArm != null ? takenArm.getSuccessors().get(0) : takenBlock;
+        if (joinBlock != takenJoinBlock || joinBlock == branchBlock || (fallThroughArm == null && takenArm == null)) {
+            return;
+        }
+        BasicBlock fallThroughPredecessor = fallThroughArm != null ? fallThroughArm : branchBlock;
+        BasicBlock takenPredecessor = takenArm != null ? takenArm : branchBlock;
+        List<BasicBlock> joinPredecessors = joinBlock.getPredecessors();
+        if (joinPredecessors.size() != 2 || !joinPredecessors.contains(fallThroughPredecessor)
+                || !joinPredecessors.contains(takenPredecessor)) {
+            return;
+        }
+
+        // without phis the arms compute nothing that is used after the join
+        List<Instruction> phiInstructions = joinBlock.getPhiInstructions();
+        if (phiInstructions.isEmpty() || phiInstructions.size() > MAX_SELECT_COUNT) {
+            return;
+        }
+        for (Instruction phiInstruction : phiInstructions) {
+            if (phiInstruction.hasNullOperands() || phiInstruction.getOperand1().getValue() == null
+                    || phiInstruction.getOperand2().getValue() == null) {
+                return;
+            }
+        }
+
+        speculate(fallThroughArm, branchBlock);
+        speculate(takenArm, branchBlock);
+        for (Instruction phiInstruction : phiInstructions) {
+            Instruction select = Instruction.createSelect(branchInstruction.getOpCode(), condition,
+                    phiInstruction.getPhiOperand(takenPredecessor),
+                    phiInstruction.getPhiOperand(fallThroughPredecessor));
+            branchBlock.insertBeforeBranch(select);
+            controlFlowGraph.replaceValueUses(phiInstruction.getIndex(),
+                    new Result(Result.Type.VALUE, select.getIndex()));
+            joinBlock.removeInstruction(phiInstruction);
+            selectCount++;
+        }
+
+        // the fall through edge is kept, so the blocks stay in code order
+        branchBlock.removeInstruction(branchInstruction);
+        branchBlock.removeSuccessor(takenBlock);
+        convertedCount++;
+    }
+
+    // a block entered only from the branch block that goes on to a single successor, and only holds a few
+    // instructions that may run on both paths
+    private static boolean isArm(BasicBlock basicBlock, BasicBlock branchBlock) {
+        if (basicBlock.getPredecessors().size() != 1 || basicBlock.getPredecessors().get(0) != branchBlock
+                || basicBlock.getSuccessors().size() != 1) {
+            return false;
+        }
+        int size = 0;
+        for (Instruction instruction : basicBlock.getInstructions()) {
+            if (instruction.getOpCode() == null || instruction.getOpCode() == OpCode.BRA) {
+                continue;
+            }
+            if (!isSpeculatable(instruction) || ++size > MAX_ARM_SIZE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // arithmetic that can't trap, so division is left out
+    static boolean isSpeculatable(Instruction instruction) {
+        switch (instruction.getOpCode()) {
+            case NEG:
+            case ADD:
+            case SUB:
+            case MUL:
+            case LSH:
+            case ASH:
+            case MULH:
+            case CMP:
+            case ADDA:
+            case SELECT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void speculate(BasicBlock arm, BasicBlock branchBlock) {
+        if (arm == null) {
+            return;
+        }
+        for (Instruction instruction : arm.getInstructions()) {
+            if (instruction.getOpCode() != null && instruction.getOpCode() != OpCode.BRA) {
+                arm.detachInstruction(instruction);
+                branchBlock.insertBeforeBranch(instruction);
+            }
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.Loop;
+import me.arminb.hws.pl241.analysis.LoopInfo;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.pass.WorkCounter;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Strength reduction of induction variables. A basic induction variable is a phi instruction of a loop header that
+// is incremented by a constant in every iteration. Instructions that add loop invariant values to an induction
+// variable or multiply it by a constant are derived induction variables of the same family. A derived induction
+// variable that needs a multiplication, like the offset of an array element, gets a phi instruction of its own that
+// is incremented by a constant, and the multiplications and additions that computed it become dead. The ADDA
+// instructions stay, so that the alias analysis still sees the array and offset of every access. Afterwards the loop
+// test is rewritten to compare a reduced induction variable if that makes the original counter dead
+public class InductionVariableStrengthReduction {
+    private final static Logger logger = LoggerFactory.getLogger(InductionVariableStrengthReduction.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private LoopInfo loopInfo;
+    private Loop loop;
+    private BasicBlock preheader;
+    private BasicBlock latch;
+    // derived induction variables, including the basic ones, with their family and their factor
+    private Map<Instruction, InductionVariable> inductionVariables;
+    private int reducedCount;
+    private int replacedTestCount;
+
+    public InductionVariableStrengthReduction(ControlFlowGraph controlFlowGraph) {
+        this(controlFlowGraph, null);
+    }
+
+    // the pass manager passes the loops it has cached for the CFG
+    public InductionVariableStrengthReduction(ControlFlowGraph controlFlowGraph, LoopInfo loopInfo) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.loopInfo = loopInfo;
+    }
+
+    private static class InductionVariable {
+        private Instruction basic;
+        private int factor;
+        private boolean multiplied;
+
+        private InductionVariable(Instruction basic, int factor, boolean multiplied) {
+            this.basic = basic;
+            this.factor = factor;
+            this.multiplied = multiplied;
+        }
+    }
+
+    // a new induction variable that replaces a derived one
+    private static class ReducedVariable {
+        private Instruction derived;
+        private Instruction phi;
+        private Instruction increment;
+        private int factor;
+
+        private ReducedVariable(Instruction derived, Instruction phi, Instruction increment, int factor) {
+            this.derived = derived;
+            this.phi = phi;
+            this.increment = increment;
+            this.factor = factor;
+        }
+    }
+
+    public void run() {
+        if (loopInfo == null) {
+            loopInfo = new LoopInfo(controlFlowGraph, new DominatorTree(controlFlowGraph));
+        }
+        DominatorTree dominatorTree = loopInfo.getDominatorTree();
+        for (Loop loop : loopInfo.getLoopsInnermostFirst()) {
+            reduce(loop, dominatorTree);
+        }
+        logger.info("Reduced " + reducedCount + " induction variables and replaced " + replacedTestCount
+                + " loop tests in " + controlFlowGraph.getName());
+    }
+
+    private void reduce(Loop loop, DominatorTree dominatorTree) {
+        this.loop = loop;
+        preheader = loop.getPreheader();
+        BasicBlock header = loop.getHeader();
+        if (preheader == null || header.getPredecessors().size() != 2) {
+            return;
+        }
+        latch = header.getPredecessors().get(0) == preheader ? header.getPredecessors().get(1)
+                : header.getPredecessors().get(0);
+
+        inductionVariables = new LinkedHashMap<>();
+        Map<Instruction, Instruction> increments = new LinkedHashMap<>();
+        Map<Instruction, Integer> steps = new HashMap<>();
+        for (Instruction phi : header.getInstructions()) {
+            if (phi.getOpCode() != OpCode.PHI) {
+                continue;
+            }
+            Instruction increment = getDefinition(phi.getPhiOperand(latch));
+            Integer step = increment == null ? null : getStep(increment, phi);
+            if (step != null && step != 0) {
+                inductionVariables.put(phi, new InductionVariable(phi, 1, false));
+                increments.put(phi, increment);
+                steps.put(phi, step);
+            }
+        }
+        if (inductionVariables.isEmpty()) {
+            return;
+        }
+        // definitions dominate their uses, so the operands of a derived induction variable are classified before it
+        for (BasicBlock basicBlock : dominatorTree.getReversePostOrder()) {
+            if (!loop.contains(basicBlock)) {
+                continue;
+            }
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                InductionVariable inductionVariable = classify(instruction);
+                if (inductionVariable != null) {
+                    inductionVariables.put(instruction, inductionVariable);
+                }
+            }
+        }
+
+        Map<Integer, List<Instruction>> uses = getUses();
+        for (Instruction basic : increments.keySet()) {
+            List<ReducedVariable> reducedVariables = new ArrayList<>();
+            for (Map.Entry<Instruction, InductionVariable> entry : new ArrayList<>(inductionVariables.entrySet())) {
+                Instruction derived = entry.getKey();
+                InductionVariable inductionVariable = entry.getValue();
+                if (inductionVariable.basic == basic && inductionVariable.multiplied
+                        && hasOtherUse(derived, basic, uses)) {
+                    reducedVariables.add(createReducedVariable(derived, inductionVariable, increments.get(basic),
+                            steps.get(basic)));
+                }
+            }
+            for (ReducedVariable reducedVariable : reducedVariables) {
+                controlFlowGraph.replaceValueUses(reducedVariable.derived.getIndex(),
+                        new Result(Result.Type.VALUE, reducedVariable.phi.getIndex()));
+            }
+            if (!reducedVariables.isEmpty()) {
+                uses = getUses();
+                replaceLoopTest(basic, increments.get(basic), reducedVariables.get(0), uses);
+                removeDeadInductionVariables(basic, getUses());
+                uses = getUses();
+            }
+        }
+    }
+
+    // returns the step if the instruction adds a constant to the phi instruction
+    private Integer getStep(Instruction increment, Instruction phi) {
+        if (!loop.contains(increment.getBasicBlock())) {
+            return null;
+        }
+        Result operand1 = increment.getOperand1();
+        Result operand2 = increment.getOperand2();
+        if (increment.getOpCode() == OpCode.ADD) {
+            if (operand1.isValueOf(phi.getIndex()) && operand2.getType() == Result.Type.CONSTANT) {
+                return operand2.getValue();
+            }
+            if (operand2.isValueOf(phi.getIndex()) && operand1.getType() == Result.Type.CONSTANT) {
+                return operand1.getValue();
+            }
+        } else if (increment.getOpCode() == OpCode.SUB) {
+            if (operand1.isValueOf(phi.getIndex()) && operand2.getType() == Result.Type.CONSTANT) {
+                return -operand2.getValue();
+            }
+        }
+        return null;
+    }
+
+    // an instruction with exactly one induction variable operand is derived from it if the other operand is loop
+    // invariant and, for multiplications, constant. A left shift by a constant is a multiplication
+    private InductionVariable classify(Instruction instruction) {
+        if (instruction.getOpCode() == null || inductionVariables.containsKey(instruction)) {
+            return null;
+        }
+        switch (instruction.getOpCode()) {
+            case ADD:
+            case SUB:
+            case MUL:
+            case LSH:
+            case NEG:
+                break;
+            default:
+                return null;
+        }
+        InductionVariable operand1 = getInductionVariable(instruction.getOperand1());
+        InductionVariable operand2 = getInductionVariable(instruction.getOperand2());
+        if (instruction.getOpCode() == OpCode.NEG) {
+            return operand1 == null ? null : new InductionVariable(operand1.basic, -operand1.factor,
+                    operand1.multiplied);
+        }
+        if ((operand1 == null) == (operand2 == null)) {
+            return null;
+        }
+        InductionVariable operand = operand1 != null ? operand1 : operand2;
+        Result other = operand1 != null ? instruction.getOperand2() : instruction.getOperand1();
+        if (!isInvariant(other)) {
+            return null;
+        }
+        switch (instruction.getOpCode()) {
+            case ADD:
+                return new InductionVariable(operand.basic, operand.factor, operand.multiplied);
+            case SUB:
+                return new InductionVariable(operand.basic, operand1 != null ? operand.factor : -operand.factor,
+                        operand.multiplied);
+            case LSH:
+                if (operand1 == null || other.getType() != Result.Type.CONSTANT || other.getValue() < 0
+                        || other.getValue() > 30) {
+                    return null;
+                }
+                return new InductionVariable(operand.basic, operand.factor << other.getValue(), true);
+            default:
+                if (other.getType() != Result.Type.CONSTANT || other.getValue() == 0) {
+                    return null;
+                }
+                return new InductionVariable(operand.basic, operand.factor * other.getValue(), true);
+        }
+    }
+
+    private InductionVariable getInductionVariable(Result operand) {
+        Instruction definition = getDefinition(operand);
+        return definition == null ? null : inductionVariables.get(definition);
+    }
+
+    private Instruction getDefinition(Result operand) {
+        if (operand == null || operand.getType() != Result.Type.VALUE || operand.getValue() == null) {
+            return null;
+        }
+        return controlFlowGraph.getInstruction(operand.getValue());
+    }
+
+    private boolean isInvariant(Result operand) {
+        if (operand == null) {
+            return false;
+        }
+        if (operand.getType() == Result.Type.CONSTANT) {
+            return true;
+        }
+        Instruction definition = getDefinition(operand);
+        return definition != null && !loop.contains(definition.getBasicBlock());
+    }
+
+    private Map<Integer, List<Instruction>> getUses() {
+        Map<Integer, List<Instruction>> uses = new HashMap<>();
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                for (Result operand : instruction.getValueOperands()) {
+                    if (operand.getType() == Result.Type.VALUE && operand.getValue() != null) {
+                        if (!uses.containsKey(operand.getValue())) {
+                            uses.put(operand.getValue(), new ArrayList<>());
+                        }
+                        uses.get(operand.getValue()).add(instruction);
+                    }
+                }
+            }
+        }
+        return uses;
+    }
+
+    private List<Instruction> getUses(Instruction instruction, Map<Integer, List<Instruction>> uses) {
+        List<Instruction> instructionUses = uses.get(instruction.getIndex());
+        return instructionUses == null ? new ArrayList<>() : instructionUses;
+    }
+
+    // true if the instruction is used by something other than the induction variables of its family
+    private boolean hasOtherUse(Instruction instruction, Instruction basic, Map<Integer, List<Instruction>> uses) {
+        for (Instruction use : getUses(instruction, uses)) {
+            if (!isInFamily(use, basic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isInFamily(Instruction instruction, Instruction basic) {
+        InductionVariable inductionVariable = inductionVariables.get(instruction);
+        return inductionVariable != null && inductionVariable.basic == basic;
+    }
+
+    // the new phi instruction starts with the value of the derived induction variable in the first iteration and is
+    // incremented right after the basic induction variable
+    private ReducedVariable createReducedVariable(Instruction derived, InductionVariable inductionVariable,
+                                                  Instruction basicIncrement, int step) {
+        Instruction basic = inductionVariable.basic;
+        Result initialValue = materialize(derived, basic, basic.getPhiOperand(preheader),
+                new HashMap<>());
+        Instruction phi = Instruction.create(OpCode.PHI, null, null);
+        loop.getHeader().insertAfterPhis(phi);
+        Instruction increment = Instruction.create(OpCode.ADD, new Result(Result.Type.VALUE, phi.getIndex()),
+                new Result(Result.Type.CONSTANT, inductionVariable.factor * step));
+        basicIncrement.getBasicBlock().insertAfter(basicIncrement, increment);
+        phi.setPhiOperand(preheader, initialValue);
+        phi.setPhiOperand(latch, new Result(Result.Type.VALUE, increment.getIndex()));
+        reducedCount++;
+        return new ReducedVariable(derived, phi, increment, inductionVariable.factor);
+    }
+
+    // computes the value of a derived induction variable in the preheader, with the given value for its basic
+    // induction variable. Instructions with constant operands are folded
+    private Result materialize(Instruction instruction, Instruction basic, Result basicValue,
+                               Map<Instruction, Result> values) {
+        if (instruction == basic) {
+            return basicValue;
+        }
+        if (values.containsKey(instruction)) {
+            return values.get(instruction);
+        }
+        Result operand1 = materializeOperand(instruction.getOperand1(), basic, basicValue, values);
+        Result operand2 = materializeOperand(instruction.getOperand2(), basic, basicValue, values);
+        Result value;
+        if (operand1.getType() == Result.Type.CONSTANT
+                && (operand2 == null || operand2.getType() == Result.Type.CONSTANT)) {
+            value = new Result(Result.Type.CONSTANT, Instruction.evaluate(instruction.getOpCode(),
+                    operand1.getValue(), operand2 == null ? 0 : operand2.getValue()));
+        } else {
+            Instruction copy = Instruction.create(instruction.getOpCode(), operand1, operand2);
+            preheader.insertBeforeBranch(copy);
+            value = new Result(Result.Type.VALUE, copy.getIndex());
+        }
+        values.put(instruction, value);
+        return value;
+    }
+
+    private Result materializeOperand(Result operand, Instruction basic, Result basicValue,
+                                      Map<Instruction, Result> values) {
+        if (operand == null) {
+            return null;
+        }
+        Instruction definition = getDefinition(operand);
+        if (definition != null && isInFamily(definition, basic)) {
+            return materialize(definition, basic, basicValue, values);
+        }
+        return new Result(operand.getType(), operand.getValue());
+    }
+
+    // a comparison of the basic induction variable with a loop invariant value is replaced by a comparison of the
+    // reduced one with the value the derived induction variable would have for that bound. Multiplying both sides by a
+    // negative factor swaps the comparison. This is only done if nothing else keeps the basic induction variable alive
+    private void replaceLoopTest(Instruction basic, Instruction basicIncrement, ReducedVariable reducedVariable,
+                                 Map<Integer, List<Instruction>> uses) {
+        for (Instruction compare : getTestCandidates(basic, basicIncrement, uses)) {
+            boolean counterFirst = isCounter(compare.getOperand1(), basic, basicIncrement);
+            Result counter = counterFirst ? compare.getOperand1() : compare.getOperand2();
+            Result bound = counterFirst ? compare.getOperand2() : compare.getOperand1();
+            if (!isInvariant(bound) || !onlyUsedByBranches(compare, uses)) {
+                continue;
+            }
+            Set<Instruction> live = getLiveFamily(basic, compare, uses);
+            if (live.contains(basic) || live.contains(basicIncrement)) {
+                return;
+            }
+
+            Instruction reducedCounter = counter.isValueOf(basic.getIndex()) ? reducedVariable.phi
+                    : reducedVariable.increment;
+            Result reducedCounterValue = new Result(Result.Type.VALUE, reducedCounter.getIndex());
+            Result reducedBound = materialize(reducedVariable.derived, basic, bound, new HashMap<>());
+            if (counterFirst == reducedVariable.factor > 0) {
+                compare.setOperand1(reducedCounterValue);
+                compare.setOperand2(reducedBound);
+            } else {
+                compare.setOperand1(reducedBound);
+                compare.setOperand2(reducedCounterValue);
+            }
+            replacedTestCount++;
+            return;
+        }
+    }
+
+    private List<Instruction> getTestCandidates(Instruction basic, Instruction basicIncrement,
+                                                Map<Integer, List<Instruction>> uses) {
+        List<Instruction> candidates = new ArrayList<>();
+        List<Instruction> counterUses = new ArrayList<>(getUses(basic, uses));
+        counterUses.addAll(getUses(basicIncrement, uses));
+        for (Instruction use : counterUses) {
+            if (use.getOpCode() == OpCode.CMP && loop.contains(use.getBasicBlock()) && !candidates.contains(use)
+                    && isCounter(use.getOperand1(), basic, basicIncrement)
+                    != isCounter(use.getOperand2(), basic, basicIncrement)) {
+                candidates.add(use);
+            }
+        }
+        return candidates;
+    }
+
+    private static boolean isCounter(Result operand, Instruction basic, Instruction basicIncrement) {
+        return operand.isValueOf(basic.getIndex()) || operand.isValueOf(basicIncrement.getIndex());
+    }
+
+    private boolean onlyUsedByBranches(Instruction instruction, Map<Integer, List<Instruction>> uses) {
+        for (Instruction use : getUses(instruction, uses)) {
+            if (!use.isConditionalBranch()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the induction variables of the family that are used by instructions outside of the family, other than the
+    // ignored one, and the induction variables they are computed from
+    private Set<Instruction> getLiveFamily(Instruction basic, Instruction ignoredUse,
+                                           Map<Integer, List<Instruction>> uses) {
+        Set<Instruction> live = new HashSet<>();
+        List<Instruction> worklist = new ArrayList<>();
+        for (Instruction instruction : inductionVariables.keySet()) {
+            if (!isInFamily(instruction, basic) || controlFlowGraph.getInstruction(instruction.getIndex()) == null) {
+                continue;
+            }
+            for (Instruction use : getUses(instruction, uses)) {
+                if (use != ignoredUse && !isInFamily(use, basic) && live.add(instruction)) {
+                    worklist.add(instruction);
+                }
+            }
+        }
+        while (!worklist.isEmpty()) {
+            Instruction instruction = worklist.remove(worklist.size() - 1);
+            WorkCounter.getInstance().add();
+            for (Result operand : instruction.getValueOperands()) {
+                Instruction definition = getDefinition(operand);
+                if (definition != null && isInFamily(definition, basic) && live.add(definition)) {
+                    worklist.add(definition);
+                }
+            }
+        }
+        return live;
+    }
+
+    private void removeDeadInductionVariables(Instruction basic, Map<Integer, List<Instruction>> uses) {
+        Set<Instruction> live = getLiveFamily(basic, null, uses);
+        for (Instruction instruction : new ArrayList<>(inductionVariables.keySet())) {
+            if (isInFamily(instruction, basic) && !live.contains(instruction)
+                    && controlFlowGraph.getInstruction(instruction.getIndex()) != null) {
+                instruction.getBasicBlock().removeInstruction(instruction);
+            }
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.AliasAnalysis;
+import me.arminb.hws.pl241.analysis.CallGraph;
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.FunctionSummary;
+import me.arminb.hws.pl241.analysis.LoopInfo;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.frontend.Scanner;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.Symbol;
+import me.arminb.hws.pl241.symbol.SymbolTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Propagates constants across calls. A parameter gets a constant if every call passes the same one, not counting
+// recursive calls that pass the parameter on, and a global scalar gets a constant in the other functions if main
+// stores the only value it ever has before any call that may read it. Functions are visited top-down in the call
+// graph, so the constants found in a function can make the arguments of its own calls constant. Afterwards the calls
+// in loops that pass constants to a function are redirected to a copy of it in which those parameters are constants.
+// Calls with the same constants share a copy, and the copies are limited by a budget on the size they add
+public class InterproceduralConstantPropagation {
+    private final static Logger logger = LoggerFactory.getLogger(InterproceduralConstantPropagation.class);
+    private static final int MAX_SPECIALIZED_SIZE = 300;
+    private static final int MIN_GROWTH_BUDGET = 200;
+    private static final int GROWTH_PERCENT = 50;
+
+    private int constantParameterCount;
+    private int constantGlobalCount;
+    private int specializedCount;
+    private int redirectedCount;
+
+    public void run() {
+        // folds the arguments of calls and the values stored to globals
+        for (ControlFlowGraph controlFlowGraph : ControlFlowGraph.getAll()) {
+            ControlFlowGraph.setCurrentCFG(controlFlowGraph);
+            new SparseConditionalConstantPropagation(controlFlowGraph).run();
+        }
+
+        propagateGlobals();
+
+        CallGraph callGraph = new CallGraph();
+        List<List<ControlFlowGraph>> bottomUpOrder = callGraph.getBottomUpOrder();
+        Collections.reverse(bottomUpOrder);
+        for (List<ControlFlowGraph> component : bottomUpOrder) {
+            for (ControlFlowGraph controlFlowGraph : component) {
+                if (controlFlowGraph != ControlFlowGraph.getMain() && propagateParameters(controlFlowGraph)) {
+                    ControlFlowGraph.setCurrentCFG(controlFlowGraph);
+                    new SparseConditionalConstantPropagation(controlFlowGraph).run();
+                }
+            }
+        }
+
+        specialize();
+        logger.info("Propagated " + constantParameterCount + " constant parameters and " + constantGlobalCount
+                + " constant globals, specialized " + specializedCount + " functions for " + redirectedCount + " calls");
+    }
+
+    private static Symbol getFunctionSymbol(ControlFlowGraph controlFlowGraph) {
+        return SymbolTable.getInstance().get(Scanner.getInstance().stringToIdentifier(controlFlowGraph.getName()),
+                ControlFlowGraph.MAIN);
+    }
+
+    // call instructions of the program that call the given function and are still part of their CFG
+    private static List<Instruction> getCallSites(ControlFlowGraph function) {
+        List<Instruction> callSites = new ArrayList<>();
+        for (ControlFlowGraph controlFlowGraph : ControlFlowGraph.getAll()) {
+            for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+                for (Instruction instruction : basicBlock.getInstructions()) {
+                    if (instruction.getOpCode() == OpCode.CALL && CallGraph.getCallee(instruction) == function) {
+                        callSites.add(instruction);
+                    }
+                }
+            }
+        }
+        return callSites;
+    }
+
+    // replaces the loads of the parameter with the constant
+    private static void replaceParameter(ControlFlowGraph function, Symbol parameter, Result constant) {
+        for (BasicBlock basicBlock : function.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                Symbol loadedParameter = FunctionInlining.getParameter(function, instruction);
+                if (loadedParameter != null && loadedParameter.getIdentifier().equals(parameter.getIdentifier())) {
+                    function.replaceValueUses(instruction.getIndex(), constant);
+                    basicBlock.removeInstruction(instruction);
+                }
+            }
+        }
+    }
+
+    private static boolean isParameterLoaded(ControlFlowGraph function, Symbol parameter) {
+        for (BasicBlock basicBlock : function.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                Symbol loadedParameter = FunctionInlining.getParameter(function, instruction);
+                if (loadedParameter != null && loadedParameter.getIdentifier().equals(parameter.getIdentifier())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // true if the argument is the parameter itself, passed on by a recursive call
+    private static boolean isPassedOn(ControlFlowGraph function, Instruction callInstruction, Result argument,
+                                      Symbol parameter) {
+        if (argument.getType() != Result.Type.VALUE || callInstruction.getBasicBlock() == null
+                || !function.getBasicBlocks().contains(callInstruction.getBasicBlock())) {
+            return false;
+        }
+        Instruction definition = function.getInstruction(argument.getValue());
+        Symbol loadedParameter = definition == null ? null : FunctionInlining.getParameter(function, definition);
+        return loadedParameter != null && loadedParameter.getIdentifier().equals(parameter.getIdentifier());
+    }
+
+    private boolean propagateParameters(ControlFlowGraph function) {
+        List<Instruction> callSites = getCallSites(function);
+        List<Symbol> parameters = getFunctionSymbol(function).getParameters();
+        boolean changed = false;
+        ControlFlowGraph.setCurrentCFG(function);
+        for (int i = 0; i < parameters.size(); i++) {
+            Result constant = null;
+            boolean isConstant = true;
+            for (Instruction callInstruction : callSites) {
+                Result argument = callInstruction.getParams().get(i);
+                if (isPassedOn(function, callInstruction, argument, parameters.get(i))) {
+                    continue;
+                }
+                if (argument.getType() != Result.Type.CONSTANT
+                        || (constant != null && !constant.getValue().equals(argument.getValue()))) {
+                    isConstant = false;
+                    break;
+                }
+                constant = argument;
+            }
+            if (isConstant && constant != null && isParameterLoaded(function, parameters.get(i))) {
+                replaceParameter(function, parameters.get(i), new Result(Result.Type.CONSTANT, constant.getValue()));
+                constantParameterCount++;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // a global is constant in the other functions if main stores a constant to it before every call that may read it,
+    // and nothing else stores to it
+    private void propagateGlobals() {
+        ControlFlowGraph main = ControlFlowGraph.getMain();
+        FunctionSummary functionSummary = new FunctionSummary(new CallGraph());
+        DominatorTree dominatorTree = new DominatorTree(main);
+        for (Symbol global : SymbolTable.getInstance().getVisibleVariables(ControlFlowGraph.MAIN)) {
+            if (global.isArray()) {
+                continue;
+            }
+            boolean modifiedByFunctions = false;
+            for (ControlFlowGraph controlFlowGraph : ControlFlowGraph.getAll()) {
+                modifiedByFunctions |= controlFlowGraph != main
+                        && functionSummary.getModifiedGlobals(controlFlowGraph).contains(global);
+            }
+            if (modifiedByFunctions) {
+                continue;
+            }
+
+            Instruction store = null;
+            int storeCount = 0;
+            for (BasicBlock basicBlock : main.getBasicBlocks()) {
+                for (Instruction instruction : basicBlock.getInstructions()) {
+                    if (instruction.getOpCode() == OpCode.STORE
+                            && AliasAnalysis.getLocation(main, instruction) == global) {
+                        store = instruction;
+                        storeCount++;
+                    }
+                }
+            }
+            if (storeCount != 1 || store.getOperand1().getType() != Result.Type.CONSTANT
+                    || !precedesReadingCalls(main, dominatorTree, functionSummary, store, global)) {
+                continue;
+            }
+
+            boolean replaced = false;
+            for (ControlFlowGraph controlFlowGraph : ControlFlowGraph.getAll()) {
+                if (controlFlowGraph != main) {
+                    replaced |= replaceLoads(controlFlowGraph, global, store.getOperand1().getValue());
+                }
+            }
+            if (replaced) {
+                constantGlobalCount++;
+            }
+        }
+    }
+
+    private static boolean precedesReadingCalls(ControlFlowGraph main, DominatorTree dominatorTree,
+                                                FunctionSummary functionSummary, Instruction store, Symbol global) {
+        BasicBlock storeBlock = store.getBasicBlock();
+        for (BasicBlock basicBlock : main.getBasicBlocks()) {
+            boolean storeSeen = false;
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                storeSeen |= instruction == store;
+                if (instruction.getOpCode() != OpCode.CALL || !functionSummary.mayReference(instruction, global)) {
+                    continue;
+                }
+                if (basicBlock == storeBlock ? !storeSeen : !dominatorTree.dominates(storeBlock, basicBlock)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean replaceLoads(ControlFlowGraph controlFlowGraph, Symbol global, Integer value) {
+        ControlFlowGraph.setCurrentCFG(controlFlowGraph);
+        boolean replaced = false;
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == OpCode.LOAD
+                        && AliasAnalysis.getLocation(controlFlowGraph, instruction) == global) {
+                    controlFlowGraph.replaceValueUses(instruction.getIndex(), new Result(Result.Type.CONSTANT, value));
+                    basicBlock.removeInstruction(instruction);
+                    replaced = true;
+                }
+            }
+        }
+        return replaced;
+    }
+
+    // the constant arguments of a call to the parameters its callee loads, or null if there are none
+    private static Map<Integer, Integer> getConstantArguments(Instruction callInstruction, ControlFlowGraph callee) {
+        List<Symbol> parameters = getFunctionSymbol(callee).getParameters();
+        Map<Integer, Integer> constantArguments = new HashMap<>();
+        for (int i = 0; i < parameters.size(); i++) {
+            Result argument = callInstruction.getParams().get(i);
+            if (argument.getType() == Result.Type.CONSTANT && isParameterLoaded(callee, parameters.get(i))) {
+                constantArguments.put(i, argument.getValue());
+            }
+        }
+        return constantArguments.isEmpty() ? null : constantArguments;
+    }
+
+    private void specialize() {
+        CallGraph callGraph = new CallGraph();
+        int programSize = 0;
+        for (ControlFlowGraph controlFlowGraph : ControlFlowGraph.getAll()) {
+            programSize += controlFlowGraph.getInstructionCount();
+        }
+        int budget = Math.max(MIN_GROWTH_BUDGET, programSize * GROWTH_PERCENT / 100);
+
+        // calls in deeper loops get their copies first
+        List<Instruction> callInstructions = new ArrayList<>();
+        Map<Instruction, Integer> loopDepths = new HashMap<>();
+        for (List<ControlFlowGraph> component : callGraph.getBottomUpOrder()) {
+            for (ControlFlowGraph controlFlowGraph : component) {
+                LoopInfo loopInfo = new LoopInfo(controlFlowGraph, new DominatorTree(controlFlowGraph));
+                for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+                    for (Instruction instruction : basicBlock.getInstructions()) {
+                        ControlFlowGraph callee = instruction.getOpCode() == OpCode.CALL
+                                ? CallGraph.getCallee(instruction) : null;
+                        if (callee != null && !component.contains(callee) && loopInfo.getLoopDepth(basicBlock) > 0
+                                && getConstantArguments(instruction, callee) != null) {
+                            callInstructions.add(instruction);
+                            loopDepths.put(instruction, loopInfo.getLoopDepth(basicBlock));
+                        }
+                    }
+                }
+            }
+        }
+        callInstructions.sort((first, second) -> loopDepths.get(second) - loopDepths.get(first));
+
+        Map<String, ControlFlowGraph> copies = new HashMap<>();
+        for (Instruction callInstruction : callInstructions) {
+            ControlFlowGraph callee = CallGraph.getCallee(callInstruction);
+            Map<Integer, Integer> constantArguments = getConstantArguments(callInstruction, callee);
+            String key = callee.getName() + constantArguments;
+            ControlFlowGraph copy = copies.get(key);
+            if (copy == null) {
+                int size = callee.getInstructionCount();
+                if (size > MAX_SPECIALIZED_SIZE || size > budget || !isCopyable(callee)) {
+                    continue;
+                }
+                budget -= size;
+                copy = copy(callee);
+                List<Symbol> parameters = getFunctionSymbol(copy).getParameters();
+                for (Integer i : constantArguments.keySet()) {
+                    replaceParameter(copy, parameters.get(i), new Result(Result.Type.CONSTANT,
+                            constantArguments.get(i)));
+                }
+                new SparseConditionalConstantPropagation(copy).run();
+                copies.put(key, copy);
+                specializedCount++;
+            }
+            redirect(callInstruction, copy);
+            redirectedCount++;
+        }
+    }
+
+    private static void redirect(Instruction callInstruction, ControlFlowGraph function) {
+        callInstruction.setOperand1(new Result(callInstruction.getOperand1().getType(),
+                Scanner.getInstance().stringToIdentifier(function.getName())));
+    }
+
+    // blocks that fall through and branch to the same block make the order of its predecessors ambiguous, and blocks
+    // outside of the instruction chain have no place in the copy
+    private static boolean isCopyable(ControlFlowGraph function) {
+        if (FunctionInlining.getCodeOrder(function).size() != function.getBasicBlocks().size()) {
+            return false;
+        }
+        for (BasicBlock basicBlock : function.getBasicBlocks()) {
+            if (basicBlock.getFallThroughBlock() != null
+                    && basicBlock.getFallThroughBlock() == basicBlock.getBranchBlock()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // copies the function into a new CFG with its own symbols, which have the same places in the frame
+    private static ControlFlowGraph copy(ControlFlowGraph function) {
+        int identifier = Scanner.getInstance().addUniqueIdentifier(function.getName());
+        String name = Scanner.getInstance().identifierToString(identifier);
+        for (Symbol symbol : SymbolTable.getInstance().getSymbols(function.getName())) {
+            SymbolTable.getInstance().add(symbol.copy(name));
+        }
+        Symbol functionSymbol = getFunctionSymbol(function);
+        List<Symbol> parameters = new ArrayList<>();
+        for (Symbol parameter : functionSymbol.getParameters()) {
+            parameters.add(SymbolTable.getInstance().get(parameter.getIdentifier(), name));
+        }
+        SymbolTable.getInstance().add(functionSymbol.isFunction() ? Symbol.function(identifier, parameters)
+                : Symbol.procedure(identifier, parameters));
+
+        ControlFlowGraph copy = ControlFlowGraph.create(name);
+        ControlFlowGraph.setCurrentCFG(copy);
+        Map<BasicBlock, BasicBlock> blocks = new HashMap<>();
+        Map<Integer, Instruction> instructions = new HashMap<>();
+        // the entry block is created first, since it is the first block of a CFG
+        List<BasicBlock> order = FunctionInlining.getCodeOrder(function);
+        blocks.put(function.getEntryBlock(), BasicBlock.create());
+        for (BasicBlock basicBlock : order) {
+            if (basicBlock != function.getEntryBlock()) {
+                blocks.put(basicBlock, BasicBlock.create());
+            }
+        }
+
+        Instruction lastCopy = null;
+        for (BasicBlock basicBlock : order) {
+            BasicBlock copyBlock = blocks.get(basicBlock);
+            Instruction emptyInstruction = copyBlock.getFirstInstruction();
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == null) {
+                    continue;
+                }
+                Instruction copyInstruction = Instruction.create(instruction.getOpCode(), instruction.getOperand1(),
+                        instruction.getOperand2());
+                copyInstruction.setAffectedVariable(instruction.getAffectedVariable());
+                copyInstruction.setComparison(instruction.getComparison());
+                if (instruction.getParams() != null) {
+                    copyInstruction.setParams(new ArrayList<>(instruction.getParams()));
+                }
+                copyBlock.insertAfter(copyBlock.getLastInstruction(), copyInstruction);
+                instructions.put(instruction.getIndex(), copyInstruction);
+            }
+            if (copyBlock.getFirstInstruction() != copyBlock.getLastInstruction()) {
+                copyBlock.removeInstruction(emptyInstruction);
+            }
+            if (lastCopy != null) {
+                lastCopy.connectTo(copyBlock.getFirstInstruction());
+            }
+            lastCopy = copyBlock.getLastInstruction();
+        }
+
+        for (BasicBlock basicBlock : order) {
+            for (Instruction copyInstruction : blocks.get(basicBlock).getInstructions()) {
+                copyOperands(function, copyInstruction, instructions, blocks);
+            }
+            // the edges are added in the order of the predecessors, which keeps the operands of phi instructions
+            for (BasicBlock predecessor : basicBlock.getPredecessors()) {
+                if (predecessor.getFallThroughBlock() == basicBlock) {
+                    blocks.get(predecessor).setFallThroughBlock(blocks.get(basicBlock));
+                } else {
+                    blocks.get(predecessor).setBranchBlock(blocks.get(basicBlock));
+                }
+            }
+        }
+        return copy;
+    }
+
+    private static void copyOperands(ControlFlowGraph function, Instruction copyInstruction,
+                                     Map<Integer, Instruction> instructions, Map<BasicBlock, BasicBlock> blocks) {
+        if (copyInstruction.getOpCode() == null) {
+            return;
+        }
+        if (copyInstruction.hasParams()) {
+            List<Result> params = copyInstruction.getParams();
+            for (int i = 0; i < params.size(); i++) {
+                params.set(i, copyOperand(params.get(i), instructions));
+            }
+            return;
+        }
+        if (copyInstruction.isBranch()) {
+            BasicBlock destination = function.getInstruction(copyInstruction.getBranchDestination().getValue())
+                    .getBasicBlock();
+            if (copyInstruction.isConditionalBranch()) {
+                copyInstruction.setOperand1(copyOperand(copyInstruction.getOperand1(), instructions));
+            }
+            copyInstruction.setBranchDestination(new Result(Result.Type.VALUE,
+                    blocks.get(destination).getFirstInstruction().getIndex()));
+            return;
+        }
+        copyInstruction.setOperand1(copyOperand(copyInstruction.getOperand1(), instructions));
+        copyInstruction.setOperand2(copyOperand(copyInstruction.getOperand2(), instructions));
+    }
+
+    private static Result copyOperand(Result operand, Map<Integer, Instruction> instructions) {
+        if (operand == null || operand.getType() != Result.Type.VALUE) {
+            return operand;
+        }
+        Instruction instruction = instructions.get(operand.getValue());
+        if (instruction == null) {
+            throw new RuntimeException("Value " + operand.getValue() + " is not defined in the copied function!");
+        }
+        return new Result(Result.Type.VALUE, instruction.getIndex());
+    }
+}
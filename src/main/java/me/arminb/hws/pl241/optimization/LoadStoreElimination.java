@@ -0,0 +1,237 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.AliasAnalysis;
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.FunctionSummary;
+import me.arminb.hws.pl241.analysis.LinearExpression;
+import me.arminb.hws.pl241.analysis.MemoryAccess;
+import me.arminb.hws.pl241.analysis.MemorySSA;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.pass.WorkCounter;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.Symbol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Removes LOAD and STORE instructions whose effect is already known. A LOAD whose clobbering access in memory SSA is
+// a STORE to the same element gets the stored value, and a LOAD anchored at the same version as an earlier LOAD of
+// the same address gets the value of that one. A STORE that writes the value the element already holds is removed.
+// The clobbering store dominates the instruction it clobbers, so the SSA values in the offsets of both are the same
+// instance and their offsets can be compared. Finally a STORE is dead if every path from it writes the same element
+// again before anything may read it. Locals are dead when their function returns, and globals when main ends
+public class LoadStoreElimination {
+    private final static Logger logger = LoggerFactory.getLogger(LoadStoreElimination.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private FunctionSummary functionSummary;
+    private DominatorTree dominatorTree;
+    private AliasAnalysis aliasAnalysis;
+    private MemorySSA memorySSA;
+    private Map<Expression, Instruction> availableLoads;
+    private int forwardedCount;
+    private int redundantLoadCount;
+    private int removedStoreCount;
+
+    public LoadStoreElimination(ControlFlowGraph controlFlowGraph, FunctionSummary functionSummary) {
+        this(controlFlowGraph, functionSummary, null);
+    }
+
+    // the pass manager passes the dominator tree it has cached for the CFG
+    public LoadStoreElimination(ControlFlowGraph controlFlowGraph, FunctionSummary functionSummary,
+            DominatorTree dominatorTree) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.functionSummary = functionSummary;
+        this.dominatorTree = dominatorTree;
+    }
+
+    public void run() {
+        if (dominatorTree == null) {
+            dominatorTree = new DominatorTree(controlFlowGraph);
+        }
+        aliasAnalysis = new AliasAnalysis(controlFlowGraph);
+        memorySSA = new MemorySSA(controlFlowGraph, dominatorTree, functionSummary, aliasAnalysis);
+        availableLoads = new HashMap<>();
+
+        visit(controlFlowGraph.getEntryBlock());
+
+        // silent stores are found with the memory SSA of the loads above, and removed before looking for dead stores
+        List<Instruction> silentStores = new ArrayList<>();
+        for (BasicBlock basicBlock : dominatorTree.getReversePostOrder()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == OpCode.STORE && isSilent(instruction)) {
+                    silentStores.add(instruction);
+                }
+            }
+        }
+        for (Instruction store : silentStores) {
+            store.getBasicBlock().removeInstruction(store);
+        }
+        removedStoreCount += silentStores.size();
+
+        List<Instruction> deadStores = new ArrayList<>();
+        for (BasicBlock basicBlock : dominatorTree.getReversePostOrder()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == OpCode.STORE && isDead(instruction)) {
+                    deadStores.add(instruction);
+                }
+            }
+        }
+        for (Instruction store : deadStores) {
+            store.getBasicBlock().removeInstruction(store);
+        }
+        removedStoreCount += deadStores.size();
+
+        logger.info("Forwarded " + forwardedCount + " stores to loads, removed " + redundantLoadCount
+                + " redundant loads and " + removedStoreCount + " stores in " + controlFlowGraph.getName());
+    }
+
+    private void visit(BasicBlock basicBlock) {
+        List<Expression> blockLoads = new ArrayList<>();
+        for (Instruction instruction : basicBlock.getInstructions()) {
+            if (instruction.getOpCode() != OpCode.LOAD || memorySSA.getAccess(instruction) == null) {
+                continue;
+            }
+            MemoryAccess clobber = memorySSA.getClobberingAccess(instruction);
+            if (clobber.getKind() == MemoryAccess.Kind.DEF && clobber.getInstruction().getOpCode() == OpCode.STORE
+                    && aliasAnalysis.mustAlias(clobber.getInstruction(), instruction)) {
+                controlFlowGraph.replaceValueUses(instruction.getIndex(), clobber.getInstruction().getOperand1());
+                basicBlock.removeInstruction(instruction);
+                forwardedCount++;
+                continue;
+            }
+            Expression expression = new Expression(OpCode.LOAD, instruction.getOperand1(), null, clobber);
+            Instruction availableLoad = availableLoads.get(expression);
+            if (availableLoad != null) {
+                controlFlowGraph.replaceValueUses(instruction.getIndex(),
+                        new Result(Result.Type.VALUE, availableLoad.getIndex()));
+                basicBlock.removeInstruction(instruction);
+                redundantLoadCount++;
+            } else {
+                availableLoads.put(expression, instruction);
+                blockLoads.add(expression);
+            }
+        }
+
+        for (BasicBlock child : dominatorTree.getChildren(basicBlock)) {
+            visit(child);
+        }
+
+        // leaving the scope of this block
+        for (Expression expression : blockLoads) {
+            availableLoads.remove(expression);
+        }
+    }
+
+    // true if the store writes the value its element already holds, either stored by the clobbering store or loaded
+    // from the same element after the last write to it
+    private boolean isSilent(Instruction store) {
+        if (memorySSA.getAccess(store) == null) {
+            return false;
+        }
+        Result value = store.getOperand1();
+        MemoryAccess clobber = memorySSA.getClobberingAccess(store);
+        if (clobber.getKind() == MemoryAccess.Kind.DEF && clobber.getInstruction().getOpCode() == OpCode.STORE
+                && aliasAnalysis.mustAlias(clobber.getInstruction(), store)) {
+            Result storedValue = clobber.getInstruction().getOperand1();
+            return storedValue.getType() == value.getType() && storedValue.getValue().equals(value.getValue());
+        }
+        if (value.getType() != Result.Type.VALUE) {
+            return false;
+        }
+        Instruction load = controlFlowGraph.getInstruction(value.getValue());
+        return load != null && load.getOpCode() == OpCode.LOAD && memorySSA.getAccess(load) != null
+                && aliasAnalysis.mustAlias(load, store) && memorySSA.getClobberingAccess(load) == clobber;
+    }
+
+    // searches every path from the store for an instruction that may read its element before it is overwritten
+    private boolean isDead(Instruction store) {
+        if (aliasAnalysis.getLocation(store) == null || aliasAnalysis.getOffset(store) == null) {
+            return false;
+        }
+        BasicBlock storeBlock = store.getBasicBlock();
+        ScanResult storeBlockResult = scan(store, store == storeBlock.getLastInstruction() ? null : store.getNext(),
+                true);
+        if (storeBlockResult != ScanResult.PASSED) {
+            return storeBlockResult == ScanResult.OVERWRITTEN;
+        }
+
+        Set<BasicBlock> visited = new HashSet<>();
+        List<BasicBlock> worklist = new ArrayList<>(storeBlock.getSuccessors());
+        while (!worklist.isEmpty()) {
+            BasicBlock basicBlock = worklist.remove(worklist.size() - 1);
+            WorkCounter.getInstance().add();
+            if (!visited.add(basicBlock)) {
+                continue;
+            }
+            ScanResult result = scan(store, basicBlock.getFirstInstruction(), false);
+            if (result == ScanResult.READ) {
+                return false;
+            }
+            if (result == ScanResult.PASSED) {
+                worklist.addAll(basicBlock.getSuccessors());
+            }
+        }
+        // main ends without reading globals again, and functions always end with a return
+        return true;
+    }
+
+    private enum ScanResult {
+        READ,
+        OVERWRITTEN,
+        PASSED
+    }
+
+    // scans a block from the given instruction on
+    private ScanResult scan(Instruction store, Instruction instruction, boolean inStoreBlock) {
+        Symbol location = aliasAnalysis.getLocation(store);
+        LinearExpression offset = aliasAnalysis.getOffset(store);
+        BasicBlock basicBlock = instruction == null ? null : instruction.getBasicBlock();
+        for (; instruction != null; instruction = instruction == basicBlock.getLastInstruction() ? null
+                : instruction.getNext()) {
+            WorkCounter.getInstance().add();
+            if (instruction.getOpCode() == null) {
+                continue;
+            }
+            switch (instruction.getOpCode()) {
+                case LOAD:
+                    if (aliasAnalysis.mayAlias(instruction, store, !inStoreBlock)) {
+                        return ScanResult.READ;
+                    }
+                    break;
+                case STORE:
+                    // a different instance of a variable offset may be seen once the block of the store is left
+                    if (aliasAnalysis.getLocation(instruction) == location
+                            && offset.equals(aliasAnalysis.getOffset(instruction))
+                            && (inStoreBlock || offset.isConstant())) {
+                        return ScanResult.OVERWRITTEN;
+                    }
+                    break;
+                case COPY:
+                    if (aliasAnalysis.getSourceLocation(instruction) == location) {
+                        return ScanResult.READ;
+                    }
+                    break;
+                case CALL:
+                    if (location.isGlobal() && functionSummary.mayReference(instruction, location)) {
+                        return ScanResult.READ;
+                    }
+                    break;
+                case RET:
+                    return location.isGlobal() ? ScanResult.READ : ScanResult.OVERWRITTEN;
+                default:
+                    break;
+            }
+        }
+        return ScanResult.PASSED;
+    }
+}
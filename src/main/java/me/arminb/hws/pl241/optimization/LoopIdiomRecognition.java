@@ -0,0 +1,337 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.AliasAnalysis;
+import me.arminb.hws.pl241.analysis.Loop;
+import me.arminb.hws.pl241.analysis.LoopInfo;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.MemoryAllocator;
+import me.arminb.hws.pl241.symbol.Symbol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Replaces loops that only fill an array with an invariant value, or only copy the elements of one array to another,
+// by a single FILL or COPY instruction in the preheader, which a code generator can lower to a block operation. The
+// loop must be a header with the test and a body of one block, and its counter has to start at some value and go up
+// by one until it reaches an invariant bound. The body may only store to the element the counter selects, and for
+// copies load the element of the same index of another array, so the order of the iterations doesn't matter. The
+// number of elements is computed in the preheader, and the instructions do nothing if it isn't positive, like the
+// loop. Uses of the counter after the loop get its last value. The test stays behind as a jump to the exit, and is
+// removed by dead code elimination
+public class LoopIdiomRecognition {
+    private final static Logger logger = LoggerFactory.getLogger(LoopIdiomRecognition.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private LoopInfo loopInfo;
+    private AliasAnalysis aliasAnalysis;
+    private int fillCount;
+    private int copyCount;
+
+    // the loop being replaced
+    private Loop loop;
+    private BasicBlock header;
+    private BasicBlock body;
+    private BasicBlock preheader;
+    private Instruction counter;
+    private Instruction compare;
+    private Instruction branch;
+    private Set<Instruction> matchedInstructions;
+
+    public LoopIdiomRecognition(ControlFlowGraph controlFlowGraph, LoopInfo loopInfo) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.loopInfo = loopInfo;
+    }
+
+    public void run() {
+        aliasAnalysis = new AliasAnalysis(controlFlowGraph);
+        // innermost loops don't contain each other, so replacing one leaves the blocks of the others as they are
+        for (Loop candidate : loopInfo.getLoopsInnermostFirst()) {
+            loop = candidate;
+            if (candidate.getChildren().isEmpty() && analyze()) {
+                replace();
+            }
+        }
+        if (fillCount + copyCount > 0) {
+            controlFlowGraph.removeUnreachableBlocks();
+        }
+        logger.info("Replaced " + fillCount + " fill loops and " + copyCount + " copy loops in "
+                + controlFlowGraph.getName());
+    }
+
+    // checks the shape of the loop and finds its counter, which goes up by one while it is less than the bound
+    private boolean analyze() {
+        header = loop.getHeader();
+        preheader = loop.getPreheader();
+        branch = header.getLastInstruction();
+        body = header.getFallThroughBlock();
+        if (preheader == null || loop.getBlocks().size() != 2 || !branch.isConditionalBranch() || body == null
+                || !loop.contains(body) || loop.contains(header.getBranchBlock())
+                || body.getPredecessors().size() != 1 || body.getSuccessors().size() != 1
+                || body.getSuccessors().get(0) != header || branch.getOperand1().getType() != Result.Type.VALUE) {
+            return false;
+        }
+        compare = controlFlowGraph.getInstruction(branch.getOperand1().getValue());
+        List<Instruction> phiInstructions = header.getPhiInstructions();
+        if (compare == null || compare.getOpCode() != OpCode.CMP || compare.getBasicBlock() != header
+                || phiInstructions.size() != 1) {
+            return false;
+        }
+        for (Instruction instruction : header.getInstructions()) {
+            if (instruction.getOpCode() != OpCode.PHI && instruction != compare && instruction != branch) {
+                return false;
+            }
+        }
+        counter = phiInstructions.get(0);
+        boolean counterFirst = compare.getOperand1().isValueOf(counter.getIndex());
+        if (!counterFirst && !compare.getOperand2().isValueOf(counter.getIndex())) {
+            return false;
+        }
+        OpCode exitRelation = counterFirst ? branch.getOpCode() : Instruction.swapComparison(branch.getOpCode());
+        if ((exitRelation != OpCode.BGE && exitRelation != OpCode.BGT)
+                || !isInvariant(counterFirst ? compare.getOperand2() : compare.getOperand1())) {
+            return false;
+        }
+
+        matchedInstructions = new HashSet<>();
+        Instruction increment = getIncrement();
+        if (increment == null) {
+            return false;
+        }
+        matchedInstructions.add(increment);
+        Instruction store = null;
+        for (Instruction instruction : body.getInstructions()) {
+            if (instruction.getOpCode() == OpCode.STORE) {
+                if (store != null) {
+                    return false;
+                }
+                store = instruction;
+            }
+        }
+        if (store == null || !matchStore(store)) {
+            return false;
+        }
+        // nothing else may happen in the body
+        for (Instruction instruction : body.getInstructions()) {
+            if (instruction.getOpCode() != null && instruction.getOpCode() != OpCode.BRA
+                    && !matchedInstructions.contains(instruction)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isInvariant(Result operand) {
+        if (operand.getType() != Result.Type.VALUE) {
+            return operand.getType() == Result.Type.CONSTANT;
+        }
+        Instruction definition = controlFlowGraph.getInstruction(operand.getValue());
+        return definition != null && !loop.contains(definition.getBasicBlock());
+    }
+
+    // the instruction of the body that adds one to the counter for the next iteration, or null
+    private Instruction getIncrement() {
+        Result next = counter.getPhiOperand(body);
+        if (next == null || next.getType() != Result.Type.VALUE) {
+            return null;
+        }
+        Instruction increment = controlFlowGraph.getInstruction(next.getValue());
+        if (increment == null || increment.getBasicBlock() != body || increment.getOpCode() != OpCode.ADD) {
+            return null;
+        }
+        if ((increment.getOperand1().isValueOf(counter.getIndex()) && isConstant(increment.getOperand2(), 1))
+                || (increment.getOperand2().isValueOf(counter.getIndex()) && isConstant(increment.getOperand1(), 1))) {
+            return increment;
+        }
+        return null;
+    }
+
+    private static boolean isConstant(Result operand, int value) {
+        return operand.getType() == Result.Type.CONSTANT && operand.getValue() == value;
+    }
+
+    // the store writes an invariant value or the element of another array with the same index
+    private boolean matchStore(Instruction store) {
+        Symbol array = aliasAnalysis.getLocation(store);
+        if (array == null || !array.isArray() || matchAddress(store.getOperand2()) == null) {
+            return false;
+        }
+        matchedInstructions.add(store);
+        Result value = store.getOperand1();
+        if (isInvariant(value)) {
+            return true;
+        }
+        Instruction load = getBodyInstruction(value);
+        if (load == null || load.getOpCode() != OpCode.LOAD) {
+            return false;
+        }
+        Symbol source = aliasAnalysis.getLocation(load);
+        if (source == null || !source.isArray() || source == array || matchAddress(load.getOperand1()) == null) {
+            return false;
+        }
+        matchedInstructions.add(load);
+        return true;
+    }
+
+    private Instruction getBodyInstruction(Result operand) {
+        if (operand == null || operand.getType() != Result.Type.VALUE) {
+            return null;
+        }
+        Instruction instruction = controlFlowGraph.getInstruction(operand.getValue());
+        return instruction != null && instruction.getBasicBlock() == body ? instruction : null;
+    }
+
+    // matches the address of the element the counter selects, an ADDA of an invariant base and the index times the
+    // word size. The index and the offset may have invariant parts added for rows of multi-dimensional arrays. Returns
+    // the ADDA, or null
+    private Instruction matchAddress(Result address) {
+        Instruction adda = getBodyInstruction(address);
+        if (adda == null || adda.getOpCode() != OpCode.ADDA || !isInvariant(adda.getOperand1())) {
+            return null;
+        }
+        Instruction offset = getBodyInstruction(adda.getOperand2());
+        if (offset == null) {
+            return null;
+        }
+        if (offset.getOpCode() == OpCode.ADD) {
+            Instruction scaled = null;
+            if (isInvariant(offset.getOperand2())) {
+                scaled = getBodyInstruction(offset.getOperand1());
+            } else if (isInvariant(offset.getOperand1())) {
+                scaled = getBodyInstruction(offset.getOperand2());
+            }
+            if (scaled == null || !isScaledCounter(scaled)) {
+                return null;
+            }
+            matchedInstructions.add(scaled);
+        } else if (!isScaledCounter(offset)) {
+            return null;
+        }
+        matchedInstructions.add(offset);
+        matchedInstructions.add(adda);
+        return adda;
+    }
+
+    private boolean isScaledCounter(Instruction instruction) {
+        Result operand1 = instruction.getOperand1();
+        Result operand2 = instruction.getOperand2();
+        if (instruction.getOpCode() == OpCode.LSH) {
+            return isConstant(operand2, 2) && isIndex(operand1);
+        }
+        if (instruction.getOpCode() == OpCode.MUL) {
+            return (isConstant(operand2, MemoryAllocator.WORD_SIZE) && isIndex(operand1))
+                    || (isConstant(operand1, MemoryAllocator.WORD_SIZE) && isIndex(operand2));
+        }
+        return false;
+    }
+
+    // the counter, or the counter plus an invariant
+    private boolean isIndex(Result operand) {
+        if (operand.isValueOf(counter.getIndex())) {
+            return true;
+        }
+        Instruction index = getBodyInstruction(operand);
+        if (index == null || index.getOpCode() != OpCode.ADD
+                || !((index.getOperand1().isValueOf(counter.getIndex()) && isInvariant(index.getOperand2()))
+                || (index.getOperand2().isValueOf(counter.getIndex()) && isInvariant(index.getOperand1())))) {
+            return false;
+        }
+        matchedInstructions.add(index);
+        return true;
+    }
+
+    // puts the FILL or COPY in the preheader and turns the test into a jump out of the loop
+    private void replace() {
+        Instruction store = null;
+        Instruction load = null;
+        for (Instruction instruction : matchedInstructions) {
+            if (instruction.getOpCode() == OpCode.STORE) {
+                store = instruction;
+            } else if (instruction.getOpCode() == OpCode.LOAD) {
+                load = instruction;
+            }
+        }
+
+        // the loop runs until the counter reaches the limit, which is one more than the bound if it may equal it
+        boolean counterFirst = compare.getOperand1().isValueOf(counter.getIndex());
+        OpCode exitRelation = counterFirst ? branch.getOpCode() : Instruction.swapComparison(branch.getOpCode());
+        Result bound = counterFirst ? compare.getOperand2() : compare.getOperand1();
+        Result initial = counter.getPhiOperand(preheader);
+        Result limit = exitRelation == OpCode.BGT ? emit(OpCode.ADD, bound, new Result(Result.Type.CONSTANT, 1))
+                : bound;
+        Result count = emit(OpCode.SUB, limit, initial);
+        Result destination = emitStartAddress(store.getOperand2(), initial);
+        Instruction bulkInstruction;
+        if (load == null) {
+            bulkInstruction = Instruction.createFill(destination, store.getOperand1(), count,
+                    store.getAffectedVariable());
+            fillCount++;
+        } else {
+            bulkInstruction = Instruction.createCopy(destination, emitStartAddress(load.getOperand1(), initial), count,
+                    store.getAffectedVariable(), load.getAffectedVariable());
+            copyCount++;
+        }
+        preheader.insertBeforeBranch(bulkInstruction);
+
+        if (isUsedAfterLoop()) {
+            // the last value is the limit, or the initial value if the loop doesn't run at all
+            Result condition = emit(OpCode.CMP, initial, limit);
+            Instruction lastValue = Instruction.createSelect(OpCode.BLT, condition, limit, initial);
+            preheader.insertBeforeBranch(lastValue);
+            controlFlowGraph.replaceValueUses(counter.getIndex(), new Result(Result.Type.VALUE, lastValue.getIndex()));
+        }
+
+        // the body becomes unreachable, and the header phi is left with the operand of the preheader
+        branch.changeToBranch();
+        header.removeSuccessor(body);
+    }
+
+    // computes the address of the element accessed in the first iteration in the preheader, by copying the matched
+    // instructions with the initial value in place of the counter
+    private Result emitStartAddress(Result address, Result initial) {
+        if (address.isValueOf(counter.getIndex())) {
+            return initial;
+        }
+        if (isInvariant(address)) {
+            return address;
+        }
+        Instruction instruction = controlFlowGraph.getInstruction(address.getValue());
+        return emit(instruction.getOpCode(), emitStartAddress(instruction.getOperand1(), initial),
+                emitStartAddress(instruction.getOperand2(), initial));
+    }
+
+    // adds the instruction to the preheader, or folds it if its operands are constant
+    private Result emit(OpCode opCode, Result operand1, Result operand2) {
+        if (operand1.getType() == Result.Type.CONSTANT && operand2.getType() == Result.Type.CONSTANT) {
+            Integer value = Instruction.evaluate(opCode, operand1.getValue(), operand2.getValue());
+            if (value != null) {
+                return new Result(Result.Type.CONSTANT, value);
+            }
+        }
+        Instruction instruction = Instruction.create(opCode, operand1, operand2);
+        preheader.insertBeforeBranch(instruction);
+        return new Result(Result.Type.VALUE, instruction.getIndex());
+    }
+
+    private boolean isUsedAfterLoop() {
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            if (loop.contains(basicBlock)) {
+                continue;
+            }
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                for (Result operand : instruction.getValueOperands()) {
+                    if (operand.isValueOf(counter.getIndex())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
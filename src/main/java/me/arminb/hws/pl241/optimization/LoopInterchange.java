@@ -0,0 +1,441 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.AliasAnalysis;
+import me.arminb.hws.pl241.analysis.DependenceAnalysis;
+import me.arminb.hws.pl241.analysis.LinearExpression;
+import me.arminb.hws.pl241.analysis.Loop;
+import me.arminb.hws.pl241.analysis.LoopInfo;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.Symbol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Interchanges perfectly nested loops whose inner loop strides over rows of an array while the outer loop walks
+// along them. Arrays are laid out row by row, so after the interchange the inner loop accesses neighboring words.
+// Each loop has to count up by one from a value that is invariant in the nest to an invariant bound, and the body of
+// the inner loop is a single block. Besides its counter, the outer loop may only carry sums that the inner loop adds
+// to or subtracts from, which come out the same in any order. The loops are interchanged by swapping the initial
+// values, bounds and tests of the counters and the uses of the counters in the body. The code the outer loop runs
+// before the inner loop only computes values from its counter, and is moved into the body. The interchange is legal
+// if no two accesses of the body, one of them a store, may access the same element in iterations that come in the
+// opposite order in the interchanged nest. A bounds check that fails is reached in another iteration than before
+public class LoopInterchange {
+    private final static Logger logger = LoggerFactory.getLogger(LoopInterchange.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private LoopInfo loopInfo;
+    private AliasAnalysis aliasAnalysis;
+    private int interchangedCount;
+
+    // the nest being interchanged
+    private Loop outerLoop;
+    private Loop innerLoop;
+    private BasicBlock outerPreheader;
+    private BasicBlock innerPreheader;
+    private BasicBlock body;
+    private BasicBlock outerLatch;
+    private Counter outerCounter;
+    private Counter innerCounter;
+    private Set<Instruction> reductionInstructions;
+
+    // the counter of a loop and its test
+    private static class Counter {
+        private Instruction phi;
+        private Instruction increment;
+        private Instruction compare;
+        private Instruction branch;
+        private Result initial;
+        private Result bound;
+        private OpCode exitRelation; // the branch out of the loop for a comparison of the counter with the bound
+    }
+
+    public LoopInterchange(ControlFlowGraph controlFlowGraph, LoopInfo loopInfo) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.loopInfo = loopInfo;
+    }
+
+    public void run() {
+        aliasAnalysis = new AliasAnalysis(controlFlowGraph);
+        for (Loop candidate : loopInfo.getLoopsInnermostFirst()) {
+            if (candidate.getChildren().size() != 1 || !candidate.getChildren().get(0).getChildren().isEmpty()) {
+                continue;
+            }
+            outerLoop = candidate;
+            innerLoop = candidate.getChildren().get(0);
+            if (analyze() && isProfitable() && isLegal()) {
+                interchange();
+                interchangedCount++;
+            }
+        }
+        logger.info("Interchanged " + interchangedCount + " loop nests in " + controlFlowGraph.getName());
+    }
+
+    // checks the shape of the nest, which is the outer header, the inner preheader, the inner header, the body and
+    // the outer latch
+    private boolean analyze() {
+        BasicBlock outerHeader = outerLoop.getHeader();
+        BasicBlock innerHeader = innerLoop.getHeader();
+        outerPreheader = outerLoop.getPreheader();
+        innerPreheader = innerLoop.getPreheader();
+        body = innerHeader.getFallThroughBlock();
+        outerLatch = innerHeader.getBranchBlock();
+        if (outerPreheader == null || innerPreheader == null || body == null || outerLatch == null
+                || outerLoop.getBlocks().size() != 5 || innerLoop.getBlocks().size() != 2
+                || outerHeader.getFallThroughBlock() != innerPreheader
+                || innerPreheader.getPredecessors().size() != 1 || !innerLoop.contains(body)
+                || body.getPredecessors().size() != 1 || body.getSuccessors().size() != 1
+                || body.getSuccessors().get(0) != innerHeader || outerLatch.getPredecessors().size() != 1
+                || outerLatch.getSuccessors().size() != 1 || outerLatch.getSuccessors().get(0) != outerHeader) {
+            return false;
+        }
+        outerCounter = getCounter(outerLoop, outerPreheader, outerLatch);
+        innerCounter = getCounter(innerLoop, innerPreheader, body);
+        if (outerCounter == null || innerCounter == null) {
+            return false;
+        }
+        for (Instruction instruction : outerLatch.getInstructions()) {
+            if (instruction.getOpCode() != null && instruction != outerCounter.increment
+                    && instruction.getOpCode() != OpCode.BRA) {
+                return false;
+            }
+        }
+        for (Instruction instruction : innerPreheader.getInstructions()) {
+            if (instruction.getOpCode() != null && instruction.getOpCode() != OpCode.BRA
+                    && !IfConversion.isSpeculatable(instruction)) {
+                return false;
+            }
+        }
+        for (Instruction instruction : body.getInstructions()) {
+            if (instruction.getOpCode() != null && instruction.getOpCode() != OpCode.BRA
+                    && instruction.getOpCode() != OpCode.DIV && instruction.getOpCode() != OpCode.LOAD
+                    && instruction.getOpCode() != OpCode.STORE && instruction.getOpCode() != OpCode.CHK
+                    && !IfConversion.isSpeculatable(instruction)) {
+                return false;
+            }
+        }
+        if (!analyzeReductions()) {
+            return false;
+        }
+
+        // the counters are only used to control their loops and in the body, and by the code computed from the
+        // outer counter before the inner loop
+        for (Instruction user : getUsers(outerCounter.phi)) {
+            if (user != outerCounter.increment && user != outerCounter.compare && user.getBasicBlock() != body
+                    && user.getBasicBlock() != innerPreheader) {
+                return false;
+            }
+        }
+        for (Instruction user : getUsers(innerCounter.phi)) {
+            if (user != innerCounter.increment && user != innerCounter.compare && user.getBasicBlock() != body) {
+                return false;
+            }
+        }
+        // the body may use the next value of the inner counter
+        for (Instruction user : getUsers(innerCounter.increment)) {
+            if (user != innerCounter.phi && user.getBasicBlock() != body) {
+                return false;
+            }
+        }
+        return getUsers(outerCounter.increment).size() == 1;
+    }
+
+    // the counter that goes up by one in the latch until it reaches the bound, where the initial value and the bound
+    // are invariant in the nest. The header only holds phi instructions and the test
+    private Counter getCounter(Loop loop, BasicBlock preheader, BasicBlock latch) {
+        BasicBlock header = loop.getHeader();
+        Counter counter = new Counter();
+        counter.branch = header.getLastInstruction();
+        if (loop.getLatches().size() != 1 || loop.getLatches().get(0) != latch
+                || !counter.branch.isConditionalBranch() || loop.contains(header.getBranchBlock())
+                || counter.branch.getOperand1().getType() != Result.Type.VALUE) {
+            return null;
+        }
+        counter.compare = controlFlowGraph.getInstruction(counter.branch.getOperand1().getValue());
+        if (counter.compare == null || counter.compare.getOpCode() != OpCode.CMP
+                || counter.compare.getBasicBlock() != header) {
+            return null;
+        }
+        for (Instruction instruction : header.getInstructions()) {
+            if (instruction.getOpCode() != OpCode.PHI && instruction != counter.compare
+                    && instruction != counter.branch) {
+                return null;
+            }
+        }
+        boolean counterFirst = isPhiOf(counter.compare.getOperand1(), header);
+        if (!counterFirst && !isPhiOf(counter.compare.getOperand2(), header)) {
+            return null;
+        }
+        counter.phi = controlFlowGraph.getInstruction((counterFirst ? counter.compare.getOperand1()
+                : counter.compare.getOperand2()).getValue());
+        counter.bound = counterFirst ? counter.compare.getOperand2() : counter.compare.getOperand1();
+        counter.exitRelation = counterFirst ? counter.branch.getOpCode()
+                : Instruction.swapComparison(counter.branch.getOpCode());
+        counter.initial = counter.phi.getPhiOperand(preheader);
+        if ((counter.exitRelation != OpCode.BGE && counter.exitRelation != OpCode.BGT)
+                || !isInvariant(counter.bound) || counter.initial == null || !isInvariant(counter.initial)) {
+            return null;
+        }
+
+        Result next = counter.phi.getPhiOperand(latch);
+        counter.increment = next == null || next.getType() != Result.Type.VALUE ? null
+                : controlFlowGraph.getInstruction(next.getValue());
+        if (counter.increment == null || counter.increment.getBasicBlock() != latch
+                || counter.increment.getOpCode() != OpCode.ADD) {
+            return null;
+        }
+        Result operand1 = counter.increment.getOperand1();
+        Result operand2 = counter.increment.getOperand2();
+        if ((operand1.isValueOf(counter.phi.getIndex()) && isOne(operand2))
+                || (operand2.isValueOf(counter.phi.getIndex()) && isOne(operand1))) {
+            return counter;
+        }
+        return null;
+    }
+
+    private boolean isPhiOf(Result operand, BasicBlock header) {
+        if (operand.getType() != Result.Type.VALUE) {
+            return false;
+        }
+        Instruction instruction = controlFlowGraph.getInstruction(operand.getValue());
+        return instruction != null && instruction.getOpCode() == OpCode.PHI && instruction.getBasicBlock() == header;
+    }
+
+    private static boolean isOne(Result operand) {
+        return operand.getType() == Result.Type.CONSTANT && operand.getValue() == 1;
+    }
+
+    private boolean isInvariant(Result operand) {
+        if (operand.getType() != Result.Type.VALUE) {
+            return operand.getType() == Result.Type.CONSTANT;
+        }
+        Instruction definition = controlFlowGraph.getInstruction(operand.getValue());
+        return definition != null && !outerLoop.contains(definition.getBasicBlock());
+    }
+
+    // every other phi of the outer header starts a sum, which goes through a phi of the inner header that the body
+    // adds a value to, or subtracts it from. The values don't depend on the sums
+    private boolean analyzeReductions() {
+        List<Instruction> outerPhis = outerLoop.getHeader().getPhiInstructions();
+        List<Instruction> innerPhis = innerLoop.getHeader().getPhiInstructions();
+        if (outerPhis.size() != innerPhis.size()) {
+            return false;
+        }
+        reductionInstructions = new HashSet<>();
+        List<Instruction> updates = new ArrayList<>();
+        for (Instruction outerPhi : outerPhis) {
+            if (outerPhi == outerCounter.phi) {
+                continue;
+            }
+            Result sum = outerPhi.getPhiOperand(outerLatch);
+            Instruction innerPhi = sum == null || sum.getType() != Result.Type.VALUE ? null
+                    : controlFlowGraph.getInstruction(sum.getValue());
+            if (innerPhi == null || innerPhi == innerCounter.phi || innerPhi.getOpCode() != OpCode.PHI
+                    || innerPhi.getBasicBlock() != innerLoop.getHeader()
+                    || !innerPhi.getPhiOperand(innerPreheader).isValueOf(outerPhi.getIndex())) {
+                return false;
+            }
+            Result next = innerPhi.getPhiOperand(body);
+            Instruction update = next == null || next.getType() != Result.Type.VALUE ? null
+                    : controlFlowGraph.getInstruction(next.getValue());
+            if (update == null || update.getBasicBlock() != body || !(update.getOpCode() == OpCode.SUB
+                    ? update.getOperand1().isValueOf(innerPhi.getIndex())
+                    : update.getOpCode() == OpCode.ADD && (update.getOperand1().isValueOf(innerPhi.getIndex())
+                    || update.getOperand2().isValueOf(innerPhi.getIndex())))) {
+                return false;
+            }
+            reductionInstructions.add(outerPhi);
+            reductionInstructions.add(innerPhi);
+            reductionInstructions.add(update);
+            updates.add(update);
+        }
+        if (reductionInstructions.size() != 3 * (outerPhis.size() - 1)) {
+            return false;
+        }
+
+        for (Instruction update : updates) {
+            Result value = update.getOpCode() == OpCode.SUB || isInnerPhi(update.getOperand1()) ? update.getOperand2()
+                    : update.getOperand1();
+            if (dependsOnReduction(value, new HashSet<>())) {
+                return false;
+            }
+        }
+        // the partial sums are only seen by the sums themselves, the final sum is the outer phi after the nest
+        for (Instruction instruction : reductionInstructions) {
+            for (Instruction user : getUsers(instruction)) {
+                if (outerLoop.contains(user.getBasicBlock()) && !reductionInstructions.contains(user)) {
+                    return false;
+                }
+                if (!outerLoop.contains(user.getBasicBlock()) && instruction.getBasicBlock() != outerLoop.getHeader()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isInnerPhi(Result operand) {
+        return isPhiOf(operand, innerLoop.getHeader());
+    }
+
+    private boolean dependsOnReduction(Result operand, Set<Instruction> visited) {
+        if (operand == null || operand.getType() != Result.Type.VALUE) {
+            return false;
+        }
+        Instruction instruction = controlFlowGraph.getInstruction(operand.getValue());
+        if (instruction == null || !outerLoop.contains(instruction.getBasicBlock()) || !visited.add(instruction)) {
+            return false;
+        }
+        if (reductionInstructions.contains(instruction)) {
+            return true;
+        }
+        for (Result valueOperand : instruction.getValueOperands()) {
+            if (dependsOnReduction(valueOperand, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Instruction> getUsers(Instruction definition) {
+        List<Instruction> users = new ArrayList<>();
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                for (Result operand : instruction.getValueOperands()) {
+                    if (operand.isValueOf(definition.getIndex())) {
+                        users.add(instruction);
+                        break;
+                    }
+                }
+            }
+        }
+        return users;
+    }
+
+    // true if more accesses of the body stride farther with the inner counter than with the outer one
+    private boolean isProfitable() {
+        int balance = 0;
+        for (Instruction instruction : body.getInstructions()) {
+            Symbol location = aliasAnalysis.getLocation(instruction);
+            LinearExpression offset = aliasAnalysis.getOffset(instruction);
+            if (location == null || !location.isArray() || offset == null) {
+                continue;
+            }
+            int outerStride = Math.abs(offset.getCoefficient(outerCounter.phi.getIndex()));
+            int innerStride = Math.abs(offset.getCoefficient(innerCounter.phi.getIndex()));
+            balance += Integer.compare(innerStride, outerStride);
+        }
+        return balance > 0;
+    }
+
+    // an iteration of the nest that ran before another one with a higher outer counter runs after it in the
+    // interchanged nest if its inner counter is higher, so no access may depend on another one in that direction
+    private boolean isLegal() {
+        List<Instruction> accesses = new ArrayList<>();
+        for (Instruction instruction : body.getInstructions()) {
+            if (instruction.getOpCode() == OpCode.LOAD || instruction.getOpCode() == OpCode.STORE) {
+                accesses.add(instruction);
+            }
+        }
+        DependenceAnalysis dependenceAnalysis = new DependenceAnalysis(aliasAnalysis, outerLoop, outerCounter.phi,
+                getValueCount(outerCounter), innerCounter.phi, getValueCount(innerCounter));
+        for (Instruction first : accesses) {
+            for (Instruction second : accesses) {
+                if ((first.getOpCode() == OpCode.STORE || second.getOpCode() == OpCode.STORE)
+                        && dependenceAnalysis.mayDepend(first, second, DependenceAnalysis.Direction.LESS,
+                        DependenceAnalysis.Direction.GREATER)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // the number of values the counter takes, known if it goes from a constant to a constant. Otherwise a bounds
+    // check of the counter in the body limits it to the size of the dimension, since the program stops at the
+    // first value out of bounds in either order of the loops. Null if it is unknown
+    private Integer getValueCount(Counter counter) {
+        if (counter.initial.getType() == Result.Type.CONSTANT && counter.bound.getType() == Result.Type.CONSTANT) {
+            long limit = counter.exitRelation == OpCode.BGT ? counter.bound.getValue() + 1L : counter.bound.getValue();
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, limit - counter.initial.getValue()));
+        }
+        for (Instruction instruction : body.getInstructions()) {
+            if (instruction.getOpCode() == OpCode.CHK && instruction.getOperand1().isValueOf(counter.phi.getIndex())
+                    && instruction.getOperand2().getType() == Result.Type.CONSTANT) {
+                return instruction.getOperand2().getValue();
+            }
+        }
+        return null;
+    }
+
+    private void interchange() {
+        // the values computed from the outer counter before the inner loop are computed from the new inner counter
+        Set<Integer> movedValues = new HashSet<>();
+        movedValues.add(outerCounter.phi.getIndex());
+        Instruction insertionPoint = null;
+        for (Instruction instruction : innerPreheader.getInstructions()) {
+            boolean dependsOnCounter = false;
+            for (Result operand : instruction.getValueOperands()) {
+                if (operand.getType() == Result.Type.VALUE && movedValues.contains(operand.getValue())) {
+                    dependsOnCounter = true;
+                }
+            }
+            if (!dependsOnCounter) {
+                continue;
+            }
+            movedValues.add(instruction.getIndex());
+            innerPreheader.detachInstruction(instruction);
+            if (insertionPoint == null) {
+                body.insertBefore(body.getFirstInstruction(), instruction);
+            } else {
+                body.insertAfter(insertionPoint, instruction);
+            }
+            insertionPoint = instruction;
+        }
+
+        // the uses of the next value of the inner counter in the body get a copy, which is swapped like the counter
+        List<Instruction> incrementUsers = getUsers(innerCounter.increment);
+        incrementUsers.remove(innerCounter.phi);
+        if (!incrementUsers.isEmpty()) {
+            Instruction copy = Instruction.create(OpCode.ADD, innerCounter.increment.getOperand1(),
+                    innerCounter.increment.getOperand2());
+            body.insertAfter(innerCounter.increment, copy);
+            for (Instruction user : incrementUsers) {
+                user.replaceValueOperand(innerCounter.increment.getIndex(),
+                        new Result(Result.Type.VALUE, copy.getIndex()));
+            }
+        }
+
+        Result outerValue = new Result(Result.Type.VALUE, outerCounter.phi.getIndex());
+        Result innerValue = new Result(Result.Type.VALUE, innerCounter.phi.getIndex());
+        Result swappedValue = new Result(Result.Type.VALUE, -1);
+        for (Instruction instruction : body.getInstructions()) {
+            if (instruction != innerCounter.increment && instruction.getOpCode() != null) {
+                instruction.replaceValueOperand(outerCounter.phi.getIndex(), swappedValue);
+                instruction.replaceValueOperand(innerCounter.phi.getIndex(), outerValue);
+                instruction.replaceValueOperand(-1, innerValue);
+            }
+        }
+
+        outerCounter.phi.setPhiOperand(outerPreheader, innerCounter.initial);
+        innerCounter.phi.setPhiOperand(innerPreheader, outerCounter.initial);
+        Result outerBound = outerCounter.bound;
+        OpCode outerExitRelation = outerCounter.exitRelation;
+        setTest(outerCounter, innerCounter.bound, innerCounter.exitRelation);
+        setTest(innerCounter, outerBound, outerExitRelation);
+    }
+
+    private static void setTest(Counter counter, Result bound, OpCode exitRelation) {
+        counter.compare.setOperand1(new Result(Result.Type.VALUE, counter.phi.getIndex()));
+        counter.compare.setOperand2(bound);
+        counter.branch.setOpCode(exitRelation);
+    }
+}
@@ -0,0 +1,135 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.AliasAnalysis;
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.FunctionSummary;
+import me.arminb.hws.pl241.analysis.Loop;
+import me.arminb.hws.pl241.analysis.LoopInfo;
+import me.arminb.hws.pl241.analysis.MemoryAccess;
+import me.arminb.hws.pl241.analysis.MemorySSA;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Hoists loop invariant instructions to the preheader of their loop. Loops without a preheader get one on the edge
+// that enters them. Nested loops are processed innermost first, so an instruction that is invariant in several loops
+// moves out of all of them. Hoisted instructions run even if the loop body doesn't, so only instructions that can't
+// trap are hoisted. That includes loads, since memory is flat and a load never faults, as long as nothing in the loop
+// may write the element they read
+public class LoopInvariantCodeMotion {
+    private final static Logger logger = LoggerFactory.getLogger(LoopInvariantCodeMotion.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private FunctionSummary functionSummary;
+    private LoopInfo loopInfo;
+    private DominatorTree dominatorTree;
+    private MemorySSA memorySSA;
+    private int hoistedCount;
+
+    public LoopInvariantCodeMotion(ControlFlowGraph controlFlowGraph, FunctionSummary functionSummary) {
+        this(controlFlowGraph, functionSummary, null);
+    }
+
+    // the pass manager passes the loops it has cached for the CFG
+    public LoopInvariantCodeMotion(ControlFlowGraph controlFlowGraph, FunctionSummary functionSummary,
+            LoopInfo loopInfo) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.functionSummary = functionSummary;
+        this.loopInfo = loopInfo;
+    }
+
+    public void run() {
+        if (loopInfo == null) {
+            loopInfo = new LoopInfo(controlFlowGraph, new DominatorTree(controlFlowGraph));
+        }
+        dominatorTree = loopInfo.getDominatorTree();
+        int preheaderCount = 0;
+        for (Loop loop : loopInfo.getLoops()) {
+            if (loop.getPreheader() == null && loop.getEntryBlocks().size() == 1) {
+                loop.getEntryBlocks().get(0).splitEdge(loop.getHeader());
+                preheaderCount++;
+            }
+        }
+        if (preheaderCount > 0) {
+            controlFlowGraph.renumberBasicBlocks();
+            dominatorTree = new DominatorTree(controlFlowGraph);
+            loopInfo = new LoopInfo(controlFlowGraph, dominatorTree);
+        }
+        memorySSA = new MemorySSA(controlFlowGraph, dominatorTree, functionSummary, new AliasAnalysis(controlFlowGraph));
+
+        for (Loop loop : loopInfo.getLoopsInnermostFirst()) {
+            hoist(loop);
+        }
+        logger.info("Hoisted " + hoistedCount + " invariant instructions out of " + loopInfo.getLoops().size()
+                + " loops and inserted " + preheaderCount + " preheaders in " + controlFlowGraph.getName());
+    }
+
+    private void hoist(Loop loop) {
+        BasicBlock preheader = loop.getPreheader();
+        if (preheader == null) {
+            return;
+        }
+        // definitions dominate their uses, so the operands of an invariant instruction are hoisted before it
+        for (BasicBlock basicBlock : dominatorTree.getReversePostOrder()) {
+            if (!loop.contains(basicBlock)) {
+                continue;
+            }
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (isInvariant(instruction, loop)) {
+                    basicBlock.detachInstruction(instruction);
+                    preheader.insertBeforeBranch(instruction);
+                    hoistedCount++;
+                }
+            }
+        }
+    }
+
+    private boolean isInvariant(Instruction instruction, Loop loop) {
+        if (instruction.getOpCode() == null) {
+            return false;
+        }
+        switch (instruction.getOpCode()) {
+            case ADD:
+            case SUB:
+            case MUL:
+            case LSH:
+            case ASH:
+            case MULH:
+            case NEG:
+            case CMP:
+            case ADDA:
+                break;
+            case DIV:
+                Result divisor = instruction.getOperand2();
+                if (divisor.getType() != Result.Type.CONSTANT || divisor.getValue() == 0) {
+                    return false;
+                }
+                break;
+            case LOAD:
+                if (memorySSA.getAccess(instruction) == null) {
+                    return false;
+                }
+                MemoryAccess clobber = memorySSA.getClobberingAccess(instruction);
+                if (clobber.getKind() != MemoryAccess.Kind.ENTRY && loop.contains(clobber.getBasicBlock())) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+        }
+
+        for (Result operand : instruction.getValueOperands()) {
+            if (operand.getType() != Result.Type.VALUE) {
+                continue;
+            }
+            Instruction definition = controlFlowGraph.getInstruction(operand.getValue());
+            if (definition == null || loop.contains(definition.getBasicBlock())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
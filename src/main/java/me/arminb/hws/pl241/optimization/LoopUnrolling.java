@@ -0,0 +1,521 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.Loop;
+import me.arminb.hws.pl241.analysis.LoopInfo;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Unrolls innermost loops that are left only from their header, where a counter that changes by a constant is
+// compared with a bound. If the counter starts at a constant and the bound is a constant, the number of iterations is
+// known and the body is copied that many times in front of the loop, without the tests. The loop stays behind and
+// exits at its first test, which SCCP finds out since the copies compute constant counters. Otherwise the loop gets an
+// unrolled copy in front of it, which runs several iterations of the body per test as long as the last of them would
+// still pass the test. The original loop runs the remaining iterations. The header phi instructions of the original
+// loop take the values of the copies, so uses after the loop are not changed. The added code is limited per loop and
+// per function. Partial unrolling is optional, since it is best done after the induction variables are strength
+// reduced, while the loops that are unrolled fully should be folded before the other loop passes
+public class LoopUnrolling {
+    private final static Logger logger = LoggerFactory.getLogger(LoopUnrolling.class);
+    private static final int MAX_FULL_UNROLL_COUNT = 16;
+    private static final int MAX_FULL_UNROLL_SIZE = 160;
+    private static final int SMALL_BODY_SIZE = 12;
+    private static final int MAX_PARTIAL_BODY_SIZE = 30;
+    private static final int MIN_GROWTH_BUDGET = 200;
+
+    private ControlFlowGraph controlFlowGraph;
+    private boolean partialUnrolling;
+    private int budget;
+    private int fullyUnrolledCount;
+    private int partiallyUnrolledCount;
+
+    // the loop being unrolled
+    private Loop loop;
+    private BasicBlock header;
+    private BasicBlock latch;
+    private BasicBlock entryBlock;
+    private List<BasicBlock> bodyBlocks;
+    private Instruction counter;
+    private int step;
+    private Instruction compare;
+    private Instruction branch;
+
+    public LoopUnrolling(ControlFlowGraph controlFlowGraph, boolean partialUnrolling) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.partialUnrolling = partialUnrolling;
+    }
+
+    public void run() {
+        budget = Math.max(MIN_GROWTH_BUDGET, controlFlowGraph.getInstructionCount() / 2);
+        LoopInfo loopInfo = new LoopInfo(controlFlowGraph, new DominatorTree(controlFlowGraph));
+        // innermost loops don't contain each other, so unrolling one leaves the blocks of the others as they are
+        List<Loop> innermostLoops = new ArrayList<>();
+        for (Loop candidate : loopInfo.getLoopsInnermostFirst()) {
+            if (candidate.getChildren().isEmpty()) {
+                innermostLoops.add(candidate);
+            }
+        }
+        for (Loop candidate : innermostLoops) {
+            loop = candidate;
+            if (!analyze()) {
+                continue;
+            }
+            int size = getBodySize();
+            int tripCount = getTripCount();
+            if (tripCount > 0 && tripCount <= MAX_FULL_UNROLL_COUNT && tripCount * size <= MAX_FULL_UNROLL_SIZE
+                    && tripCount * size <= budget) {
+                budget -= tripCount * size;
+                unrollFully(tripCount);
+                fullyUnrolledCount++;
+                continue;
+            }
+            int factor = size <= SMALL_BODY_SIZE ? 4 : 2;
+            if (partialUnrolling && tripCount < 0 && size <= MAX_PARTIAL_BODY_SIZE && factor * size <= budget && isMonotonic()
+                    && canAdjustBound(factor)) {
+                budget -= factor * size;
+                unrollPartially(factor);
+                partiallyUnrolledCount++;
+            }
+        }
+        if (fullyUnrolledCount + partiallyUnrolledCount > 0) {
+            controlFlowGraph.renumberBasicBlocks();
+        }
+        logger.info("Fully unrolled " + fullyUnrolledCount + " loops and partially unrolled " + partiallyUnrolledCount
+                + " loops in " + controlFlowGraph.getName());
+    }
+
+    // checks the shape of the loop and finds its counter
+    private boolean analyze() {
+        header = loop.getHeader();
+        if (loop.getLatches().size() != 1 || loop.getEntryBlocks().size() != 1
+                || header.getPredecessors().size() != 2) {
+            return false;
+        }
+        latch = loop.getLatches().get(0);
+        entryBlock = loop.getEntryBlocks().get(0);
+        if (latch == header || latch.getSuccessors().size() != 1) {
+            return false;
+        }
+
+        // the header only holds phi instructions and the test, which branches out of the loop and falls through to
+        // the first block of the body
+        branch = header.getLastInstruction();
+        if (!branch.isConditionalBranch() || loop.contains(header.getBranchBlock())
+                || header.getFallThroughBlock() == null || !loop.contains(header.getFallThroughBlock())
+                || branch.getOperand1().getType() != Result.Type.VALUE) {
+            return false;
+        }
+        compare = controlFlowGraph.getInstruction(branch.getOperand1().getValue());
+        if (compare == null || compare.getOpCode() != OpCode.CMP || compare.getBasicBlock() != header) {
+            return false;
+        }
+        for (Instruction instruction : header.getInstructions()) {
+            if (instruction.getOpCode() != OpCode.PHI && instruction != compare && instruction != branch) {
+                return false;
+            }
+        }
+
+        bodyBlocks = new ArrayList<>();
+        for (BasicBlock basicBlock : FunctionInlining.getCodeOrder(controlFlowGraph)) {
+            if (loop.contains(basicBlock) && basicBlock != header) {
+                bodyBlocks.add(basicBlock);
+            }
+        }
+        if (bodyBlocks.size() != loop.getBlocks().size() - 1 || bodyBlocks.get(0) != header.getFallThroughBlock()
+                || header.getFallThroughBlock().getPredecessors().size() != 1) {
+            return false;
+        }
+        // the body is left only through the back edge, and doesn't use the test
+        for (BasicBlock basicBlock : bodyBlocks) {
+            if (basicBlock.getFallThroughBlock() != null
+                    && basicBlock.getFallThroughBlock() == basicBlock.getBranchBlock()) {
+                return false;
+            }
+            for (BasicBlock successor : basicBlock.getSuccessors()) {
+                if (!loop.contains(successor) || (successor == header && basicBlock != latch)) {
+                    return false;
+                }
+            }
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                for (Result operand : instruction.getValueOperands()) {
+                    if (operand.isValueOf(compare.getIndex())) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        counter = null;
+        for (Result operand : new Result[] {compare.getOperand1(), compare.getOperand2()}) {
+            Instruction phi = operand.getType() == Result.Type.VALUE
+                    ? controlFlowGraph.getInstruction(operand.getValue()) : null;
+            if (phi != null && phi.getOpCode() == OpCode.PHI && phi.getBasicBlock() == header && counter == null
+                    && isInvariant(operand == compare.getOperand1() ? compare.getOperand2() : compare.getOperand1())) {
+                Integer increment = getIncrement(phi);
+                if (increment != null && increment != 0) {
+                    counter = phi;
+                    step = increment;
+                }
+            }
+        }
+        return counter != null;
+    }
+
+    private boolean isInvariant(Result operand) {
+        if (operand.getType() != Result.Type.VALUE) {
+            return operand.getType() == Result.Type.CONSTANT;
+        }
+        Instruction definition = controlFlowGraph.getInstruction(operand.getValue());
+        return definition != null && !loop.contains(definition.getBasicBlock());
+    }
+
+    // the constant that the phi instruction gets added in every iteration, or null
+    private Integer getIncrement(Instruction phi) {
+        Result next = phi.getPhiOperand(latch);
+        if (next == null || next.getType() != Result.Type.VALUE) {
+            return null;
+        }
+        Instruction increment = controlFlowGraph.getInstruction(next.getValue());
+        if (increment == null || !loop.contains(increment.getBasicBlock())) {
+            return null;
+        }
+        Result operand1 = increment.getOperand1();
+        Result operand2 = increment.getOperand2();
+        if (increment.getOpCode() == OpCode.ADD && operand1.isValueOf(phi.getIndex())
+                && operand2.getType() == Result.Type.CONSTANT) {
+            return operand2.getValue();
+        }
+        if (increment.getOpCode() == OpCode.ADD && operand2.isValueOf(phi.getIndex())
+                && operand1.getType() == Result.Type.CONSTANT) {
+            return operand1.getValue();
+        }
+        if (increment.getOpCode() == OpCode.SUB && operand1.isValueOf(phi.getIndex())
+                && operand2.getType() == Result.Type.CONSTANT) {
+            return -operand2.getValue();
+        }
+        return null;
+    }
+
+    private int getBodySize() {
+        int size = 0;
+        for (BasicBlock basicBlock : bodyBlocks) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() != null) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    // the number of iterations if the counter starts at a constant and is compared with a constant, otherwise -1
+    private int getTripCount() {
+        Result initial = counter.getPhiOperand(entryBlock);
+        boolean counterFirst = compare.getOperand1().isValueOf(counter.getIndex());
+        Result bound = counterFirst ? compare.getOperand2() : compare.getOperand1();
+        if (initial.getType() != Result.Type.CONSTANT || bound.getType() != Result.Type.CONSTANT) {
+            return -1;
+        }
+        long value = initial.getValue();
+        for (int tripCount = 0; tripCount <= MAX_FULL_UNROLL_COUNT + 1; tripCount++) {
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                return -1;
+            }
+            Integer condition = counterFirst ? Instruction.evaluate(OpCode.CMP, (int) value, bound.getValue())
+                    : Instruction.evaluate(OpCode.CMP, bound.getValue(), (int) value);
+            if (condition == null) {
+                return -1;
+            }
+            if (branch.isTaken(condition)) {
+                return tripCount;
+            }
+            value += step;
+        }
+        return -1;
+    }
+
+    // true if passing the test for the counter of a later iteration means that the tests of the iterations before
+    // pass too, i.e. the loop is left when the counter reaches the bound in the direction of its step
+    private boolean isMonotonic() {
+        OpCode exitRelation = compare.getOperand1().isValueOf(counter.getIndex()) ? branch.getOpCode()
+                : Instruction.swapComparison(branch.getOpCode());
+        if (step > 0) {
+            return exitRelation == OpCode.BGE || exitRelation == OpCode.BGT;
+        }
+        return exitRelation == OpCode.BLE || exitRelation == OpCode.BLT;
+    }
+
+    // the unrolled loop compares the counter with the bound minus the steps of all but the last iteration of the
+    // unrolled body, so the counter itself is never offset and can't overflow. The offset has to fit in an int, and
+    // a constant bound has to stay one after subtracting it. A bound that is not constant is checked before the
+    // unrolled loop
+    private boolean canAdjustBound(int factor) {
+        long offset = (long) (factor - 1) * step;
+        if (offset < Integer.MIN_VALUE + 1L || offset > Integer.MAX_VALUE) {
+            return false;
+        }
+        Result bound = getBound();
+        return bound.getType() != Result.Type.CONSTANT
+                || (bound.getValue() - offset >= Integer.MIN_VALUE && bound.getValue() - offset <= Integer.MAX_VALUE);
+    }
+
+    private Result getBound() {
+        return compare.getOperand1().isValueOf(counter.getIndex()) ? compare.getOperand2() : compare.getOperand1();
+    }
+
+    // the copies of the body blocks of one iteration
+    private static class BodyCopy {
+        private Map<BasicBlock, BasicBlock> blocks = new HashMap<>();
+        private Map<Integer, Result> values = new HashMap<>();
+        private Instruction firstInstruction;
+        private Instruction lastInstruction;
+    }
+
+    private Result remap(BodyCopy copy, Result operand) {
+        if (operand == null || operand.getType() != Result.Type.VALUE || !copy.values.containsKey(operand.getValue())) {
+            return operand;
+        }
+        return copy.values.get(operand.getValue());
+    }
+
+    // copies the body with the header phi instructions replaced by the given values. The copy of the latch has no
+    // successor, and the copy of the first block of the body has no predecessor yet
+    private BodyCopy copyBody(Map<Integer, Result> phiValues) {
+        BodyCopy copy = new BodyCopy();
+        copy.values.putAll(phiValues);
+        List<Instruction> copies = new ArrayList<>();
+        for (BasicBlock basicBlock : bodyBlocks) {
+            BasicBlock copyBlock = BasicBlock.create();
+            copy.blocks.put(basicBlock, copyBlock);
+            Instruction emptyInstruction = copyBlock.getFirstInstruction();
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() == null || (basicBlock == latch && instruction.isBranch())) {
+                    continue;
+                }
+                Instruction copyInstruction = Instruction.create(instruction.getOpCode(), instruction.getOperand1(),
+                        instruction.getOperand2());
+                copyInstruction.setAffectedVariable(instruction.getAffectedVariable());
+                copyInstruction.setComparison(instruction.getComparison());
+                if (instruction.getParams() != null) {
+                    copyInstruction.setParams(new ArrayList<>(instruction.getParams()));
+                }
+                copyBlock.insertAfter(copyBlock.getLastInstruction(), copyInstruction);
+                copy.values.put(instruction.getIndex(), new Result(Result.Type.VALUE, copyInstruction.getIndex()));
+                copies.add(copyInstruction);
+            }
+            if (copyBlock.getFirstInstruction() != copyBlock.getLastInstruction()) {
+                copyBlock.removeInstruction(emptyInstruction);
+            }
+            if (copy.lastInstruction == null) {
+                copy.firstInstruction = copyBlock.getFirstInstruction();
+            } else {
+                copy.lastInstruction.connectTo(copyBlock.getFirstInstruction());
+            }
+            copy.lastInstruction = copyBlock.getLastInstruction();
+        }
+
+        for (Instruction copyInstruction : copies) {
+            if (copyInstruction.hasParams()) {
+                List<Result> params = copyInstruction.getParams();
+                for (int i = 0; i < params.size(); i++) {
+                    params.set(i, remap(copy, params.get(i)));
+                }
+            } else if (copyInstruction.isBranch()) {
+                BasicBlock destination = controlFlowGraph.getInstruction(
+                        copyInstruction.getBranchDestination().getValue()).getBasicBlock();
+                if (copyInstruction.isConditionalBranch()) {
+                    copyInstruction.setOperand1(remap(copy, copyInstruction.getOperand1()));
+                }
+                copyInstruction.setBranchDestination(new Result(Result.Type.VALUE,
+                        copy.blocks.get(destination).getFirstInstruction().getIndex()));
+            } else {
+                copyInstruction.setOperand1(remap(copy, copyInstruction.getOperand1()));
+                copyInstruction.setOperand2(remap(copy, copyInstruction.getOperand2()));
+            }
+        }
+        // the edges are added in the order of the predecessors, which keeps the operands of phi instructions in place
+        for (BasicBlock basicBlock : bodyBlocks) {
+            for (BasicBlock predecessor : basicBlock.getPredecessors()) {
+                if (predecessor == header) {
+                    continue;
+                }
+                if (predecessor.getFallThroughBlock() == basicBlock) {
+                    copy.blocks.get(predecessor).setFallThroughBlock(copy.blocks.get(basicBlock));
+                } else {
+                    copy.blocks.get(predecessor).setBranchBlock(copy.blocks.get(basicBlock));
+                }
+            }
+        }
+        return copy;
+    }
+
+    // the values of the header phi instructions in the iteration after the copy
+    private Map<Integer, Result> getNextPhiValues(BodyCopy copy) {
+        Map<Integer, Result> phiValues = new HashMap<>();
+        for (Instruction phi : header.getPhiInstructions()) {
+            phiValues.put(phi.getIndex(), remap(copy, phi.getPhiOperand(latch)));
+        }
+        return phiValues;
+    }
+
+    // adds an edge to the destination, falling through if it comes right after the block
+    private static void connect(BasicBlock basicBlock, BasicBlock destination) {
+        if (basicBlock.getLastInstruction().getNext() == destination.getFirstInstruction()) {
+            basicBlock.setFallThroughBlock(destination);
+            return;
+        }
+        Instruction branchInstruction = Instruction.create(OpCode.BRA, null, null);
+        basicBlock.insertBeforeBranch(branchInstruction);
+        branchInstruction.setOperand1(new Result(Result.Type.VALUE, destination.getFirstInstruction().getIndex()));
+        basicBlock.setBranchBlock(destination);
+    }
+
+    // makes room for new code on the edge from the entry block to the header. Returns the block on the edge, which
+    // falls through to an empty block that takes the place of the entry block among the predecessors of the header.
+    // The edge between them is removed, and new code is placed between them
+    private BasicBlock[] splitEntryEdge() {
+        BasicBlock edgeBlock = entryBlock.splitEdge(header);
+        BasicBlock headerEntryBlock = edgeBlock.splitAfter(edgeBlock.getFirstInstruction());
+        edgeBlock.setFallThroughBlock(null);
+        return new BasicBlock[] {edgeBlock, headerEntryBlock};
+    }
+
+    // places the instructions from first to last between the two blocks
+    private static void placeBetween(BasicBlock before, BasicBlock after, Instruction first, Instruction last) {
+        before.getLastInstruction().connectTo(first);
+        last.setNext(after.getFirstInstruction());
+        after.getFirstInstruction().setPrevious(last);
+    }
+
+    private void unrollFully(int tripCount) {
+        BasicBlock[] edge = splitEntryEdge();
+        Map<Integer, Result> phiValues = new HashMap<>();
+        for (Instruction phi : header.getPhiInstructions()) {
+            phiValues.put(phi.getIndex(), phi.getPhiOperand(edge[1]));
+        }
+
+        Instruction firstInstruction = null;
+        Instruction lastInstruction = null;
+        List<BodyCopy> copies = new ArrayList<>();
+        for (int i = 0; i < tripCount; i++) {
+            BodyCopy copy = copyBody(phiValues);
+            phiValues = getNextPhiValues(copy);
+            if (lastInstruction == null) {
+                firstInstruction = copy.firstInstruction;
+            } else {
+                lastInstruction.connectTo(copy.firstInstruction);
+            }
+            lastInstruction = copy.lastInstruction;
+            copies.add(copy);
+        }
+        placeBetween(edge[0], edge[1], firstInstruction, lastInstruction);
+
+        BasicBlock previousBlock = edge[0];
+        for (BodyCopy copy : copies) {
+            connect(previousBlock, copy.blocks.get(bodyBlocks.get(0)));
+            previousBlock = copy.blocks.get(latch);
+        }
+        connect(previousBlock, edge[1]);
+        for (Instruction phi : header.getPhiInstructions()) {
+            phi.setPhiOperand(edge[1], phiValues.get(phi.getIndex()));
+        }
+    }
+
+    private void unrollPartially(int factor) {
+        BasicBlock[] edge = splitEntryEdge();
+        int offset = (factor - 1) * step;
+        Result bound = getBound();
+        Result adjustedBound;
+        Instruction guardBranch = null;
+        if (bound.getType() == Result.Type.CONSTANT) {
+            adjustedBound = new Result(Result.Type.CONSTANT, bound.getValue() - offset);
+        } else {
+            // the unrolled loop is skipped if subtracting the offset from the bound would overflow, and the phi
+            // instructions of the block before the header merge the values of both ways into the loop
+            Instruction subtraction = Instruction.create(OpCode.SUB, bound, new Result(Result.Type.CONSTANT, offset));
+            edge[0].insertBeforeBranch(subtraction);
+            adjustedBound = new Result(Result.Type.VALUE, subtraction.getIndex());
+            Instruction guardCompare = Instruction.create(OpCode.CMP, bound, new Result(Result.Type.CONSTANT,
+                    step > 0 ? Integer.MIN_VALUE + offset : Integer.MAX_VALUE + offset));
+            edge[0].insertAfter(subtraction, guardCompare);
+            guardBranch = Instruction.create(step > 0 ? OpCode.BLT : OpCode.BGT,
+                    new Result(Result.Type.VALUE, guardCompare.getIndex()), null);
+            edge[0].insertAfter(guardCompare, guardBranch);
+            for (int i = 0; i < header.getPhiInstructions().size(); i++) {
+                edge[1].insertAfterPhis(Instruction.create(OpCode.PHI, null, null));
+            }
+        }
+
+        // the header of the unrolled loop, with a phi instruction for every header phi of the loop
+        BasicBlock unrolledHeader = BasicBlock.create();
+        Map<Integer, Result> phiValues = new HashMap<>();
+        Map<Instruction, Instruction> unrolledPhis = new HashMap<>();
+        for (Instruction phi : header.getPhiInstructions()) {
+            Instruction unrolledPhi = Instruction.create(OpCode.PHI, null, null);
+            unrolledHeader.insertAfterPhis(unrolledPhi);
+            unrolledPhis.put(phi, unrolledPhi);
+            phiValues.put(phi.getIndex(), new Result(Result.Type.VALUE, unrolledPhi.getIndex()));
+        }
+        // the test passes if the counter of the last iteration of the unrolled body passes it
+        Result counterValue = phiValues.get(counter.getIndex());
+        boolean counterFirst = compare.getOperand1().isValueOf(counter.getIndex());
+        Instruction unrolledCompare = Instruction.create(OpCode.CMP, counterFirst ? counterValue : adjustedBound,
+                counterFirst ? adjustedBound : counterValue);
+        unrolledHeader.insertAfter(unrolledHeader.getLastInstruction(), unrolledCompare);
+        Instruction unrolledBranch = Instruction.create(branch.getOpCode(),
+                new Result(Result.Type.VALUE, unrolledCompare.getIndex()), null);
+        unrolledHeader.insertAfter(unrolledCompare, unrolledBranch);
+
+        Instruction lastInstruction = unrolledHeader.getLastInstruction();
+        List<BodyCopy> copies = new ArrayList<>();
+        for (int i = 0; i < factor; i++) {
+            BodyCopy copy = copyBody(phiValues);
+            phiValues = getNextPhiValues(copy);
+            lastInstruction.connectTo(copy.firstInstruction);
+            lastInstruction = copy.lastInstruction;
+            copies.add(copy);
+        }
+        placeBetween(edge[0], edge[1], unrolledHeader.getFirstInstruction(), lastInstruction);
+
+        connect(edge[0], unrolledHeader);
+        if (guardBranch != null) {
+            guardBranch.setBranchDestination(new Result(Result.Type.VALUE, edge[1].getFirstInstruction().getIndex()));
+            edge[0].setBranchBlock(edge[1]);
+        }
+        unrolledHeader.setFallThroughBlock(copies.get(0).blocks.get(bodyBlocks.get(0)));
+        for (int i = 1; i < factor; i++) {
+            connect(copies.get(i - 1).blocks.get(latch), copies.get(i).blocks.get(bodyBlocks.get(0)));
+        }
+        BasicBlock unrolledLatch = copies.get(factor - 1).blocks.get(latch);
+        connect(unrolledLatch, unrolledHeader);
+        unrolledBranch.setBranchDestination(new Result(Result.Type.VALUE, edge[1].getFirstInstruction().getIndex()));
+        unrolledHeader.setBranchBlock(edge[1]);
+
+        List<Instruction> joinPhis = edge[1].getPhiInstructions();
+        List<Instruction> headerPhis = header.getPhiInstructions();
+        for (int i = 0; i < headerPhis.size(); i++) {
+            Instruction phi = headerPhis.get(i);
+            Instruction unrolledPhi = unrolledPhis.get(phi);
+            Result initialValue = phi.getPhiOperand(edge[1]);
+            unrolledPhi.setPhiOperand(edge[0], initialValue);
+            unrolledPhi.setPhiOperand(unrolledLatch, phiValues.get(phi.getIndex()));
+            Result exitValue = new Result(Result.Type.VALUE, unrolledPhi.getIndex());
+            if (guardBranch != null) {
+                joinPhis.get(i).setPhiOperand(edge[0], initialValue);
+                joinPhis.get(i).setPhiOperand(unrolledHeader, exitValue);
+                exitValue = new Result(Result.Type.VALUE, joinPhis.get(i).getIndex());
+            }
+            phi.setPhiOperand(edge[1], exitValue);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.Loop;
+import me.arminb.hws.pl241.analysis.LoopInfo;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Moves conditional branches on values that don't change in a loop out of the loop. The loop is copied, the branch
+// is placed in front of both versions and enters the copy if it is taken, and the branch inside each version is
+// replaced by the edge it always takes there. Values of the loop that are used after it are merged by phi instructions
+// in a new block on the exit edge, so only loops that are left through a single branch edge are unswitched. The loop
+// forest is computed again after every unswitched branch, so branches that become invariant in an outer loop are moved
+// out of it later. The loops that are copied and the added code per function are limited
+public class LoopUnswitching {
+    private final static Logger logger = LoggerFactory.getLogger(LoopUnswitching.class);
+    private static final int MAX_LOOP_SIZE = 80;
+    private static final int MIN_GROWTH_BUDGET = 200;
+
+    private ControlFlowGraph controlFlowGraph;
+    private int budget;
+    private int unswitchedCount;
+
+    public LoopUnswitching(ControlFlowGraph controlFlowGraph) {
+        this.controlFlowGraph = controlFlowGraph;
+    }
+
+    public void run() {
+        budget = Math.max(MIN_GROWTH_BUDGET, controlFlowGraph.getInstructionCount() / 2);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            // the blocks and their dominators change with every unswitched branch
+            LoopInfo loopInfo = new LoopInfo(controlFlowGraph, new DominatorTree(controlFlowGraph));
+            for (Loop loop : loopInfo.getLoopsInnermostFirst()) {
+                List<BasicBlock> loopBlocks = getLoopBlocks(loop);
+                if (loopBlocks == null) {
+                    continue;
+                }
+                int size = getSize(loopBlocks);
+                Instruction branchInstruction = findInvariantBranch(loop, loopBlocks);
+                if (branchInstruction != null && size <= MAX_LOOP_SIZE && size <= budget) {
+                    budget -= size;
+                    unswitch(loop, loopBlocks, branchInstruction);
+                    unswitchedCount++;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        if (unswitchedCount > 0) {
+            controlFlowGraph.renumberBasicBlocks();
+        }
+        logger.info("Unswitched " + unswitchedCount + " loops in " + controlFlowGraph.getName());
+    }
+
+    // the blocks of the loop in code order, or null if the loop has other entries than a single edge to the header,
+    // or isn't left through a single branch edge
+    private List<BasicBlock> getLoopBlocks(Loop loop) {
+        BasicBlock header = loop.getHeader();
+        if (loop.getEntryBlocks().size() != 1) {
+            return null;
+        }
+        List<BasicBlock> loopBlocks = new ArrayList<>();
+        for (BasicBlock basicBlock : FunctionInlining.getCodeOrder(controlFlowGraph)) {
+            if (loop.contains(basicBlock)) {
+                loopBlocks.add(basicBlock);
+            }
+        }
+        if (loopBlocks.size() != loop.getBlocks().size()) {
+            return null;
+        }
+
+        int exitCount = 0;
+        for (BasicBlock basicBlock : loopBlocks) {
+            if (basicBlock.getFallThroughBlock() != null
+                    && basicBlock.getFallThroughBlock() == basicBlock.getBranchBlock()) {
+                return null;
+            }
+            for (BasicBlock predecessor : basicBlock.getPredecessors()) {
+                if (basicBlock != header && !loop.contains(predecessor)) {
+                    return null;
+                }
+            }
+            if (basicBlock.getFallThroughBlock() != null && !loop.contains(basicBlock.getFallThroughBlock())) {
+                return null;
+            }
+            if (basicBlock.getBranchBlock() != null && !loop.contains(basicBlock.getBranchBlock())) {
+                exitCount++;
+            }
+        }
+        return exitCount == 1 ? loopBlocks : null;
+    }
+
+    private static int getSize(List<BasicBlock> loopBlocks) {
+        int size = 0;
+        for (BasicBlock basicBlock : loopBlocks) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (instruction.getOpCode() != null) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    // a conditional branch between two blocks of the loop whose condition is computed before the loop
+    private Instruction findInvariantBranch(Loop loop, List<BasicBlock> loopBlocks) {
+        for (BasicBlock basicBlock : loopBlocks) {
+            Instruction branchInstruction = basicBlock.getLastInstruction();
+            if (!branchInstruction.isConditionalBranch() || !loop.contains(basicBlock.getBranchBlock())
+                    || !loop.contains(basicBlock.getFallThroughBlock())) {
+                continue;
+            }
+            Result condition = branchInstruction.getOperand1();
+            if (condition.getType() != Result.Type.VALUE) {
+                continue;
+            }
+            Instruction definition = controlFlowGraph.getInstruction(condition.getValue());
+            if (definition != null && !loop.contains(definition.getBasicBlock())) {
+                return branchInstruction;
+            }
+        }
+        return null;
+    }
+
+    private void unswitch(Loop loop, List<BasicBlock> loopBlocks, Instruction branchInstruction) {
+        BasicBlock header = loop.getHeader();
+        BasicBlock entryBlock = loop.getEntryBlocks().get(0);
+
+        // the exit edge gets a block of its own, where the values of the two versions are merged
+        BasicBlock exitingBlock = null;
+        for (BasicBlock basicBlock : loopBlocks) {
+            if (basicBlock.getBranchBlock() != null && !loop.contains(basicBlock.getBranchBlock())) {
+                exitingBlock = basicBlock;
+            }
+        }
+        BasicBlock exitBlock = exitingBlock.splitEdge(exitingBlock.getBranchBlock());
+        // the test comes right before the header, so the original version is entered by falling through
+        BasicBlock testBlock = entryBlock.splitEdge(header, true);
+
+        // the copy is placed at the end of the code
+        Map<BasicBlock, BasicBlock> blocks = new LinkedHashMap<>();
+        Map<Integer, Result> values = new HashMap<>();
+        List<Instruction> copies = new ArrayList<>();
+        Instruction lastInstruction = controlFlowGraph.getEntryBlock().getFirstInstruction();
+        while (lastInstruction.getNext() != null) {
+            lastInstruction = lastInstruction.getNext();
+        }
+        for (BasicBlock basicBlock : loopBlocks) {
+            BasicBlock copyBlock = copyBlock(basicBlock, values, copies);
+            blocks.put(basicBlock, copyBlock);
+            lastInstruction.connectTo(copyBlock.getFirstInstruction());
+            lastInstruction = copyBlock.getLastInstruction();
+        }
+        for (Instruction copy : copies) {
+            remapOperands(copy, values, blocks);
+        }
+
+        // the edges are added in the order of the predecessors, which keeps the operands of phi instructions in place
+        for (BasicBlock basicBlock : loopBlocks) {
+            for (BasicBlock predecessor : basicBlock.getPredecessors()) {
+                if (predecessor == testBlock) {
+                    Instruction testInstruction = Instruction.create(branchInstruction.getOpCode(),
+                            branchInstruction.getOperand1(), null);
+                    testBlock.insertBeforeBranch(testInstruction);
+                    testInstruction.setBranchDestination(new Result(Result.Type.VALUE,
+                            blocks.get(header).getFirstInstruction().getIndex()));
+                    testBlock.setBranchBlock(blocks.get(header));
+                } else if (predecessor.getFallThroughBlock() == basicBlock) {
+                    blocks.get(predecessor).setFallThroughBlock(blocks.get(basicBlock));
+                } else {
+                    blocks.get(predecessor).setBranchBlock(blocks.get(basicBlock));
+                }
+            }
+        }
+        blocks.get(exitingBlock).setBranchBlock(exitBlock);
+
+        // uses of the values of the loop after it take the value of the version that ran
+        Map<Integer, Instruction> exitPhis = new HashMap<>();
+        for (BasicBlock basicBlock : new ArrayList<>(controlFlowGraph.getBasicBlocks())) {
+            if (loop.contains(basicBlock) || blocks.containsValue(basicBlock)) {
+                continue;
+            }
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (exitPhis.containsValue(instruction)) {
+                    continue;
+                }
+                for (Result operand : instruction.getValueOperands()) {
+                    if (operand.getType() != Result.Type.VALUE || !values.containsKey(operand.getValue())) {
+                        continue;
+                    }
+                    Instruction exitPhi = exitPhis.get(operand.getValue());
+                    if (exitPhi == null) {
+                        exitPhi = Instruction.create(OpCode.PHI, new Result(Result.Type.VALUE, operand.getValue()),
+                                values.get(operand.getValue()));
+                        exitBlock.insertAfterPhis(exitPhi);
+                        exitPhis.put(operand.getValue(), exitPhi);
+                    }
+                    instruction.replaceValueOperand(operand.getValue(),
+                            new Result(Result.Type.VALUE, exitPhi.getIndex()));
+                }
+            }
+        }
+
+        // the original version is entered if the branch isn't taken and the copy if it is
+        BasicBlock branchBlock = branchInstruction.getBasicBlock();
+        branchBlock.removeInstruction(branchInstruction);
+        branchBlock.removeSuccessor(branchBlock.getBranchBlock());
+        BasicBlock copyBranchBlock = blocks.get(branchBlock);
+        copyBranchBlock.getLastInstruction().changeToBranch();
+        copyBranchBlock.removeSuccessor(copyBranchBlock.getFallThroughBlock());
+        // the blocks that only the removed edges entered would look like entries of the loop
+        controlFlowGraph.removeUnreachableBlocks();
+    }
+
+    private BasicBlock copyBlock(BasicBlock basicBlock, Map<Integer, Result> values, List<Instruction> copies) {
+        BasicBlock copyBlock = BasicBlock.create();
+        Instruction emptyInstruction = copyBlock.getFirstInstruction();
+        for (Instruction instruction : basicBlock.getInstructions()) {
+            if (instruction.getOpCode() == null) {
+                continue;
+            }
+            Instruction copy = Instruction.create(instruction.getOpCode(), instruction.getOperand1(),
+                    instruction.getOperand2());
+            copy.setAffectedVariable(instruction.getAffectedVariable());
+            copy.setComparison(instruction.getComparison());
+            if (instruction.getParams() != null) {
+                copy.setParams(new ArrayList<>(instruction.getParams()));
+            }
+            copyBlock.insertAfter(copyBlock.getLastInstruction(), copy);
+            values.put(instruction.getIndex(), new Result(Result.Type.VALUE, copy.getIndex()));
+            copies.add(copy);
+        }
+        if (copyBlock.getFirstInstruction() != copyBlock.getLastInstruction()) {
+            copyBlock.removeInstruction(emptyInstruction);
+        }
+        return copyBlock;
+    }
+
+    private void remapOperands(Instruction copy, Map<Integer, Result> values, Map<BasicBlock, BasicBlock> blocks) {
+        if (copy.hasParams()) {
+            List<Result> params = copy.getParams();
+            for (int i = 0; i < params.size(); i++) {
+                params.set(i, remap(params.get(i), values));
+            }
+        } else if (copy.isBranch()) {
+            BasicBlock destination = controlFlowGraph.getInstruction(copy.getBranchDestination().getValue())
+                    .getBasicBlock();
+            if (copy.isConditionalBranch()) {
+                copy.setOperand1(remap(copy.getOperand1(), values));
+            }
+            if (blocks.containsKey(destination)) {
+                destination = blocks.get(destination);
+            }
+            copy.setBranchDestination(new Result(Result.Type.VALUE, destination.getFirstInstruction().getIndex()));
+        } else {
+            copy.setOperand1(remap(copy.getOperand1(), values));
+            copy.setOperand2(remap(copy.getOperand2(), values));
+        }
+    }
+
+    private static Result remap(Result operand, Map<Integer, Result> values) {
+        if (operand == null || operand.getType() != Result.Type.VALUE || !values.containsKey(operand.getValue())) {
+            return operand;
+        }
+        return values.get(operand.getValue());
+    }
+}
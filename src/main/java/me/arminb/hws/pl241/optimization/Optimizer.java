@@ -0,0 +1,219 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.frontend.Parser;
+import me.arminb.hws.pl241.pass.Change;
+import me.arminb.hws.pl241.pass.Cost;
+import me.arminb.hws.pl241.pass.FunctionPass;
+import me.arminb.hws.pl241.pass.ModulePass;
+import me.arminb.hws.pl241.pass.OptimizationLevel;
+import me.arminb.hws.pl241.pass.PassManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+// Builds the pipeline of the optimization level and runs it on every CFG after parsing
+public class Optimizer {
+    private static Optimizer instance;
+    private final static Logger logger = LoggerFactory.getLogger(Optimizer.class);
+    private static final Set<Change> NO_CHANGES = EnumSet.noneOf(Change.class);
+    private static final Set<Change> CONTROL_FLOW = EnumSet.of(Change.CONTROL_FLOW);
+    private static final Set<Change> CALLS = EnumSet.of(Change.CALLS);
+    private static final Set<Change> ALL_CHANGES = EnumSet.allOf(Change.class);
+    private static final long DEFAULT_WORK_BUDGET = 1000000;
+
+    // the work units a function may use before it is throttled to the cheap passes, no limit if zero
+    private long workBudget = DEFAULT_WORK_BUDGET;
+    private int checkCount;
+    private int removedCheckCount;
+
+    public static Optimizer getInstance() {
+        if (instance == null) {
+            instance = new Optimizer();
+        }
+        return instance;
+    }
+
+    private Optimizer() {
+    }
+
+    public void setWorkBudget(long workBudget) {
+        this.workBudget = workBudget;
+    }
+
+    public void optimize() {
+        optimize(OptimizationLevel.O2);
+    }
+
+    public void optimize(OptimizationLevel level) {
+        PassManager passManager = new PassManager();
+        passManager.setWorkBudget(workBudget);
+        if (level == OptimizationLevel.O1) {
+            addScalarPipeline(passManager);
+        } else if (level == OptimizationLevel.O2) {
+            addFullPipeline(passManager);
+        }
+        if (level != OptimizationLevel.O0 && Parser.getInstance().isBoundsChecking()) {
+            passManager.addFunctionPass(boundsCheckElimination());
+        }
+        // updates the domination information kept in basic blocks for the graph files
+        passManager.addFunctionPass(new FunctionPass("DominatorTree", NO_CHANGES, Cost.REQUIRED,
+                (controlFlowGraph, analyses) -> analyses.getDominatorTree(controlFlowGraph).updateBasicBlocks()));
+
+        checkCount = 0;
+        removedCheckCount = 0;
+        passManager.run();
+        if (level != OptimizationLevel.O0 && Parser.getInstance().isBoundsChecking()) {
+            logger.info("Removed " + removedCheckCount + " of " + checkCount + " bounds checks");
+        }
+    }
+
+    // the passes that look at one function and don't copy code, each run once
+    private void addScalarPipeline(PassManager passManager) {
+        passManager.addModulePass(deadFunctionElimination());
+        passManager.addFunctionPass(sparseConditionalConstantPropagation());
+        passManager.addFunctionPass(algebraicSimplification());
+        passManager.addFunctionPass(commonSubexpressionElimination());
+        passManager.addFunctionPass(loadStoreElimination());
+        passManager.addFunctionPass(ifConversion());
+        passManager.addFunctionPass(aggressiveDeadCodeElimination());
+        passManager.addFunctionPass(controlFlowSimplification());
+    }
+
+    private void addFullPipeline(PassManager passManager) {
+        // the copies of functions it creates are part of the call graph
+        passManager.addModulePass(new ModulePass("InterproceduralConstantPropagation", ALL_CHANGES,
+                analyses -> new InterproceduralConstantPropagation().run()));
+        // the originals of specialized copies may not be called anymore, and dead functions need no optimization
+        passManager.addModulePass(deadFunctionElimination());
+
+        passManager.addFunctionPass(new FunctionPass("TailRecursionElimination", ALL_CHANGES,
+                (controlFlowGraph, analyses) -> new TailRecursionElimination(controlFlowGraph).run()));
+        // callees are optimized before their callers, so the inlined copies are already optimized
+        passManager.addFunctionPass(new FunctionPass("FunctionInlining", ALL_CHANGES,
+                (controlFlowGraph, analyses) -> new FunctionInlining(controlFlowGraph, analyses.getCallGraph()).run()));
+        passManager.addFunctionPass(sparseConditionalConstantPropagation());
+        passManager.addFunctionPass(algebraicSimplification());
+        passManager.addFunctionPass(commonSubexpressionElimination());
+        passManager.addFunctionPass(loadStoreElimination());
+        passManager.addFunctionPass(new FunctionPass("ScalarReplacement", NO_CHANGES,
+                (controlFlowGraph, analyses) -> new ScalarReplacement(controlFlowGraph, analyses.getFunctionSummary(),
+                        analyses.getDominatorTree(controlFlowGraph)).run()));
+        // folds the promoted elements that hold constants
+        passManager.addFunctionPass(sparseConditionalConstantPropagation());
+        passManager.addFunctionPass(loopInvariantCodeMotion());
+        // loops have preheaders now
+        passManager.addFunctionPass(new FunctionPass("GlobalPromotion", CONTROL_FLOW,
+                (controlFlowGraph, analyses) -> new GlobalPromotion(controlFlowGraph, analyses.getFunctionSummary())
+                        .run()));
+        // dead phis of the inner counters would stay in the outer headers. Promoted globals are no loads in the loop
+        // bodies anymore, and the code the nests leave in their bodies is reassociated and hoisted again afterwards
+        passManager.addFunctionPass(aggressiveDeadCodeElimination());
+        passManager.addFunctionPass(new FunctionPass("LoopInterchange", NO_CHANGES,
+                (controlFlowGraph, analyses) -> new LoopInterchange(controlFlowGraph,
+                        analyses.getLoopInfo(controlFlowGraph)).run()));
+        // ranks loads of globals by the blocks they were hoisted to, then hoists the invariant parts of the chains
+        passManager.addFunctionPass(new FunctionPass("Reassociation", NO_CHANGES,
+                (controlFlowGraph, analyses) -> new Reassociation(controlFlowGraph,
+                        analyses.getDominatorTree(controlFlowGraph)).run()));
+        passManager.addFunctionPass(loopInvariantCodeMotion());
+        // the invariant conditions are computed in the preheaders now
+        passManager.addFunctionPass(new FunctionPass("LoopUnswitching", CONTROL_FLOW,
+                (controlFlowGraph, analyses) -> new LoopUnswitching(controlFlowGraph).run()));
+        // the invariant code is hoisted already, so it isn't copied
+        passManager.addFunctionPass(loopUnrolling(false));
+        // folds the tests of fully unrolled loops and merges the loads and computations of the copies
+        passManager.addFunctionPass(sparseConditionalConstantPropagation());
+        passManager.addFunctionPass(commonSubexpressionElimination());
+        passManager.addFunctionPass(loadStoreElimination());
+        // dead instructions would keep induction variables alive
+        passManager.addFunctionPass(aggressiveDeadCodeElimination());
+        // the addresses are still computed from the counters, and the loops are left as they were written
+        passManager.addFunctionPass(new FunctionPass("LoopIdiomRecognition", CONTROL_FLOW,
+                (controlFlowGraph, analyses) -> new LoopIdiomRecognition(controlFlowGraph,
+                        analyses.getLoopInfo(controlFlowGraph)).run()));
+        passManager.addFunctionPass(new FunctionPass("InductionVariableStrengthReduction", NO_CHANGES,
+                (controlFlowGraph, analyses) -> new InductionVariableStrengthReduction(controlFlowGraph,
+                        analyses.getLoopInfo(controlFlowGraph)).run()));
+        passManager.addFunctionPass(new FunctionPass("PartialRedundancyElimination", CONTROL_FLOW,
+                (controlFlowGraph, analyses) -> new PartialRedundancyElimination(controlFlowGraph,
+                        analyses.getDominatorTree(controlFlowGraph)).run()));
+        // the arms of the diamonds are final now, and the selects make loop bodies smaller to unroll
+        passManager.addFunctionPass(ifConversion());
+        // the copies step the strength reduced addresses instead of computing them from the counter
+        passManager.addFunctionPass(loopUnrolling(true));
+        passManager.addFunctionPass(commonSubexpressionElimination());
+        // cleans up the values computed in preheaders and on edges
+        passManager.addFunctionPass(algebraicSimplification());
+        passManager.addFunctionPass(aggressiveDeadCodeElimination());
+        passManager.addFunctionPass(controlFlowSimplification());
+
+        // functions that were inlined into all their callers are dead now, and optimized copies may look the same
+        passManager.addModulePass(deadFunctionElimination());
+    }
+
+    private static ModulePass deadFunctionElimination() {
+        return new ModulePass("DeadFunctionElimination", CALLS, analyses -> new DeadFunctionElimination().run());
+    }
+
+    private static FunctionPass sparseConditionalConstantPropagation() {
+        return new FunctionPass("SparseConditionalConstantPropagation", CONTROL_FLOW, Cost.CHEAP,
+                (controlFlowGraph, analyses) -> new SparseConditionalConstantPropagation(controlFlowGraph).run());
+    }
+
+    private static FunctionPass algebraicSimplification() {
+        return new FunctionPass("AlgebraicSimplification", NO_CHANGES, Cost.CHEAP,
+                (controlFlowGraph, analyses) -> new AlgebraicSimplification(controlFlowGraph).run());
+    }
+
+    private static FunctionPass commonSubexpressionElimination() {
+        return new FunctionPass("CommonSubexpressionElimination", NO_CHANGES, Cost.CHEAP,
+                (controlFlowGraph, analyses) -> new CommonSubexpressionElimination(controlFlowGraph,
+                        analyses.getFunctionSummary(), analyses.getDominatorTree(controlFlowGraph)).run());
+    }
+
+    private static FunctionPass loadStoreElimination() {
+        return new FunctionPass("LoadStoreElimination", NO_CHANGES, Cost.CHEAP,
+                (controlFlowGraph, analyses) -> new LoadStoreElimination(controlFlowGraph,
+                        analyses.getFunctionSummary(), analyses.getDominatorTree(controlFlowGraph)).run());
+    }
+
+    // creates preheaders for the loops that have none
+    private static FunctionPass loopInvariantCodeMotion() {
+        return new FunctionPass("LoopInvariantCodeMotion", CONTROL_FLOW,
+                (controlFlowGraph, analyses) -> new LoopInvariantCodeMotion(controlFlowGraph,
+                        analyses.getFunctionSummary(), analyses.getLoopInfo(controlFlowGraph)).run());
+    }
+
+    private static FunctionPass loopUnrolling(boolean partialUnrolling) {
+        return new FunctionPass("LoopUnrolling", CONTROL_FLOW,
+                (controlFlowGraph, analyses) -> new LoopUnrolling(controlFlowGraph, partialUnrolling).run());
+    }
+
+    private static FunctionPass ifConversion() {
+        return new FunctionPass("IfConversion", CONTROL_FLOW, Cost.CHEAP,
+                (controlFlowGraph, analyses) -> new IfConversion(controlFlowGraph).run());
+    }
+
+    private static FunctionPass aggressiveDeadCodeElimination() {
+        return new FunctionPass("AggressiveDeadCodeElimination", CONTROL_FLOW, Cost.CHEAP,
+                (controlFlowGraph, analyses) -> new AggressiveDeadCodeElimination(controlFlowGraph,
+                        analyses.getPostDominatorTree(controlFlowGraph), analyses.getLoopInfo(controlFlowGraph)).run());
+    }
+
+    private static FunctionPass controlFlowSimplification() {
+        return new FunctionPass("ControlFlowSimplification", CONTROL_FLOW, Cost.CHEAP,
+                (controlFlowGraph, analyses) -> new ControlFlowSimplification(controlFlowGraph).run());
+    }
+
+    private FunctionPass boundsCheckElimination() {
+        return new FunctionPass("BoundsCheckElimination", NO_CHANGES, Cost.CHEAP, (controlFlowGraph, analyses) -> {
+            BoundsCheckElimination boundsCheckElimination = new BoundsCheckElimination(controlFlowGraph,
+                    analyses.getFunctionSummary(), analyses.getDominatorTree(controlFlowGraph));
+            boundsCheckElimination.run();
+            checkCount += boundsCheckElimination.getCheckCount();
+            removedCheckCount += boundsCheckElimination.getRemovedCount();
+        });
+    }
+}
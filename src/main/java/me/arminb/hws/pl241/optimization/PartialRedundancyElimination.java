@@ -0,0 +1,605 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Partial redundancy elimination with lazy code motion. Instructions are grouped by their lexical form, and an
+// instruction is killed in the block that defines one of its operands. The availability, anticipation, earliest and
+// later dataflow problems decide on which edges a computation is inserted and which computations become redundant.
+// The value of a deleted computation is rebuilt from the remaining ones and the inserted ones, with phi instructions
+// where they meet. Lazy code motion never adds computations to a path. Critical edges are split when a computation
+// is inserted on them, and a split that needs an extra branch instruction is only done if the computation in the
+// destination block is deleted, so that no path gets longer. Only instructions that can't trap are moved
+public class PartialRedundancyElimination {
+    private final static Logger logger = LoggerFactory.getLogger(PartialRedundancyElimination.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private DominatorTree dominatorTree;
+    private List<BasicBlock> blocks;
+    private Map<BasicBlock, Integer> blockNumbers;
+    private List<BasicBlock[]> edges;
+    private Map<BasicBlock, Map<BasicBlock, Integer>> edgeNumbers;
+    private Map<BasicBlock, Map<BasicBlock, BasicBlock>> splitBlocks;
+    private List<Expression> expressions;
+    private List<List<Instruction>> occurrences;
+
+    private BitSet[] transparent;
+    private BitSet[] locallyAnticipated;
+    private BitSet[] computed;
+    private BitSet[] availableOut;
+    private BitSet[] anticipatedIn;
+    private BitSet[] anticipatedOut;
+    private BitSet[] laterIn;
+    private BitSet[] insert;
+    private BitSet[] delete;
+
+    private int insertedCount;
+    private int deletedCount;
+
+    // a value that is not available on some path into a block
+    private static final Object UNAVAILABLE = new Object();
+    // the values of one expression while it is rebuilt. Maps are keyed by block and hold the inserted instruction,
+    // or a marker while the rebuilding is only simulated
+    private Map<BasicBlock, Object> startDefinitions;
+    private Map<BasicBlock, Object> endDefinitions;
+    private Map<BasicBlock, Map<BasicBlock, Object>> edgeDefinitions;
+    private Map<BasicBlock, Object> blockValues;
+    private List<Instruction> keptOccurrences;
+    private List<PhiValue> phiValues;
+    private boolean simulating;
+
+    // the value at the start of a block with several predecessors, which merges the values on its incoming edges in
+    // the order of the predecessors. It only becomes a phi instruction once it is known that all of them are
+    // available and that they are not all the same
+    private static class PhiValue {
+        private BasicBlock basicBlock;
+        private List<Object> operands = new ArrayList<>();
+        private Object value; // the only value that is merged, if the phi isn't needed
+        private boolean unavailable;
+        private Instruction instruction;
+    }
+
+    public PartialRedundancyElimination(ControlFlowGraph controlFlowGraph) {
+        this(controlFlowGraph, null);
+    }
+
+    // the pass manager passes the dominator tree it has cached for the CFG
+    public PartialRedundancyElimination(ControlFlowGraph controlFlowGraph, DominatorTree dominatorTree) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.dominatorTree = dominatorTree;
+    }
+
+    public void run() {
+        if (dominatorTree == null) {
+            dominatorTree = new DominatorTree(controlFlowGraph);
+        }
+        blocks = dominatorTree.getReversePostOrder();
+        blockNumbers = new HashMap<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            blockNumbers.put(blocks.get(i), i);
+        }
+        edges = new ArrayList<>();
+        edgeNumbers = new HashMap<>();
+        splitBlocks = new HashMap<>();
+        for (BasicBlock basicBlock : blocks) {
+            edgeNumbers.put(basicBlock, new HashMap<>());
+            splitBlocks.put(basicBlock, new HashMap<>());
+            for (BasicBlock successor : basicBlock.getSuccessors()) {
+                edgeNumbers.get(basicBlock).put(successor, edges.size());
+                edges.add(new BasicBlock[] {basicBlock, successor});
+            }
+        }
+
+        collectExpressions();
+        computeLocalProperties();
+        computeAvailability();
+        computeAnticipation();
+        computePlacement();
+
+        for (int expression = 0; expression < expressions.size(); expression++) {
+            transform(expression);
+        }
+        if (!splitBlocks.isEmpty()) {
+            controlFlowGraph.renumberBasicBlocks();
+        }
+        logger.info("Inserted " + insertedCount + " and deleted " + deletedCount
+                + " partially redundant computations in " + controlFlowGraph.getName());
+    }
+
+    private void collectExpressions() {
+        Map<Expression, Integer> expressionNumbers = new LinkedHashMap<>();
+        expressions = new ArrayList<>();
+        occurrences = new ArrayList<>();
+        for (BasicBlock basicBlock : blocks) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (!isMovable(instruction)) {
+                    continue;
+                }
+                Expression expression = new Expression(instruction.getOpCode(), instruction.getOperand1(),
+                        instruction.getOperand2(), null);
+                if (!expressionNumbers.containsKey(expression)) {
+                    expressionNumbers.put(expression, expressions.size());
+                    expressions.add(expression);
+                    occurrences.add(new ArrayList<>());
+                }
+                occurrences.get(expressionNumbers.get(expression)).add(instruction);
+            }
+        }
+    }
+
+    private boolean isMovable(Instruction instruction) {
+        if (instruction.getOpCode() == null) {
+            return false;
+        }
+        switch (instruction.getOpCode()) {
+            case ADD:
+            case SUB:
+            case MUL:
+            case LSH:
+            case ASH:
+            case MULH:
+            case NEG:
+            case CMP:
+            case ADDA:
+                break;
+            case DIV:
+                Result divisor = instruction.getOperand2();
+                if (divisor.getType() != Result.Type.CONSTANT || divisor.getValue() == 0) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+        }
+        for (Result operand : instruction.getValueOperands()) {
+            if (operand.getType() == Result.Type.VALUE && (operand.getValue() == null
+                    || controlFlowGraph.getInstruction(operand.getValue()) == null)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void computeLocalProperties() {
+        transparent = newBitSets(blocks.size(), true);
+        locallyAnticipated = newBitSets(blocks.size(), false);
+        computed = newBitSets(blocks.size(), false);
+        for (int expression = 0; expression < expressions.size(); expression++) {
+            Instruction representative = occurrences.get(expression).get(0);
+            for (Result operand : representative.getValueOperands()) {
+                if (operand.getType() != Result.Type.VALUE) {
+                    continue;
+                }
+                Integer definitionBlock = blockNumbers.get(
+                        controlFlowGraph.getInstruction(operand.getValue()).getBasicBlock());
+                if (definitionBlock != null) {
+                    transparent[definitionBlock].clear(expression);
+                }
+            }
+            for (Instruction occurrence : occurrences.get(expression)) {
+                int block = blockNumbers.get(occurrence.getBasicBlock());
+                computed[block].set(expression);
+                // in SSA an occurrence is upward exposed if its operands are defined in other blocks
+                if (transparent[block].get(expression)) {
+                    locallyAnticipated[block].set(expression);
+                }
+            }
+        }
+    }
+
+    private void computeAvailability() {
+        BitSet[] availableIn = newBitSets(blocks.size(), true);
+        availableOut = newBitSets(blocks.size(), true);
+        availableIn[0].clear();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int block = 0; block < blocks.size(); block++) {
+                if (block != 0) {
+                    availableIn[block] = intersectPredecessors(block, availableOut);
+                }
+                BitSet out = (BitSet) availableIn[block].clone();
+                out.and(transparent[block]);
+                out.or(computed[block]);
+                if (!out.equals(availableOut[block])) {
+                    availableOut[block] = out;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private void computeAnticipation() {
+        anticipatedIn = newBitSets(blocks.size(), true);
+        anticipatedOut = newBitSets(blocks.size(), true);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int block = blocks.size() - 1; block >= 0; block--) {
+                BitSet out = newBitSet(false);
+                boolean first = true;
+                for (BasicBlock successor : blocks.get(block).getSuccessors()) {
+                    if (first) {
+                        out.or(anticipatedIn[blockNumbers.get(successor)]);
+                        first = false;
+                    } else {
+                        out.and(anticipatedIn[blockNumbers.get(successor)]);
+                    }
+                }
+                anticipatedOut[block] = out;
+                BitSet in = (BitSet) out.clone();
+                in.and(transparent[block]);
+                in.or(locallyAnticipated[block]);
+                if (!in.equals(anticipatedIn[block])) {
+                    anticipatedIn[block] = in;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private void computePlacement() {
+        BitSet[] earliest = new BitSet[edges.size()];
+        for (int edge = 0; edge < edges.size(); edge++) {
+            int from = blockNumbers.get(edges.get(edge)[0]);
+            int to = blockNumbers.get(edges.get(edge)[1]);
+            BitSet notTransparentOrAnticipated = (BitSet) transparent[from].clone();
+            notTransparentOrAnticipated.and(anticipatedOut[from]);
+            earliest[edge] = (BitSet) anticipatedIn[to].clone();
+            earliest[edge].andNot(availableOut[from]);
+            earliest[edge].andNot(notTransparentOrAnticipated);
+        }
+
+        // computations are pushed down from their earliest position as long as that doesn't make them redundant
+        BitSet[] later = newBitSets(edges.size(), true);
+        laterIn = newBitSets(blocks.size(), true);
+        laterIn[0] = (BitSet) anticipatedIn[0].clone();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int edge = 0; edge < edges.size(); edge++) {
+                int from = blockNumbers.get(edges.get(edge)[0]);
+                BitSet edgeLater = (BitSet) laterIn[from].clone();
+                edgeLater.andNot(locallyAnticipated[from]);
+                edgeLater.or(earliest[edge]);
+                if (!edgeLater.equals(later[edge])) {
+                    later[edge] = edgeLater;
+                    changed = true;
+                }
+            }
+            for (int block = 1; block < blocks.size(); block++) {
+                BitSet in = newBitSet(true);
+                for (BasicBlock predecessor : blocks.get(block).getPredecessors()) {
+                    Integer edge = getEdgeNumber(predecessor, blocks.get(block));
+                    if (edge != null) {
+                        in.and(later[edge]);
+                    }
+                }
+                if (!in.equals(laterIn[block])) {
+                    laterIn[block] = in;
+                    changed = true;
+                }
+            }
+        }
+
+        insert = new BitSet[edges.size()];
+        for (int edge = 0; edge < edges.size(); edge++) {
+            insert[edge] = (BitSet) later[edge].clone();
+            insert[edge].andNot(laterIn[blockNumbers.get(edges.get(edge)[1])]);
+        }
+        delete = new BitSet[blocks.size()];
+        for (int block = 0; block < blocks.size(); block++) {
+            delete[block] = (BitSet) locallyAnticipated[block].clone();
+            delete[block].andNot(laterIn[block]);
+        }
+    }
+
+    private BitSet intersectPredecessors(int block, BitSet[] sets) {
+        BitSet result = newBitSet(true);
+        for (BasicBlock predecessor : blocks.get(block).getPredecessors()) {
+            Integer predecessorNumber = blockNumbers.get(predecessor);
+            if (predecessorNumber != null) {
+                result.and(sets[predecessorNumber]);
+            }
+        }
+        return result;
+    }
+
+    private Integer getEdgeNumber(BasicBlock from, BasicBlock to) {
+        if (!edgeNumbers.containsKey(from)) {
+            return null;
+        }
+        return edgeNumbers.get(from).get(to);
+    }
+
+    private BitSet newBitSet(boolean full) {
+        BitSet bitSet = new BitSet(expressions.size());
+        if (full) {
+            bitSet.set(0, expressions.size());
+        }
+        return bitSet;
+    }
+
+    private BitSet[] newBitSets(int count, boolean full) {
+        BitSet[] bitSets = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            bitSets[i] = newBitSet(full);
+        }
+        return bitSets;
+    }
+
+    private void transform(int expression) {
+        List<Instruction> deletedOccurrences = new ArrayList<>();
+        keptOccurrences = new ArrayList<>();
+        for (Instruction occurrence : occurrences.get(expression)) {
+            int block = blockNumbers.get(occurrence.getBasicBlock());
+            // occurrences after the first one of a block are redundant anyway
+            if (containsBlock(deletedOccurrences, occurrence) || containsBlock(keptOccurrences, occurrence)
+                    || (delete[block].get(expression) && locallyAnticipated[block].get(expression))) {
+                deletedOccurrences.add(occurrence);
+            } else {
+                keptOccurrences.add(occurrence);
+            }
+        }
+        if (deletedOccurrences.isEmpty()) {
+            return;
+        }
+
+        List<BasicBlock[]> insertionEdges = new ArrayList<>();
+        for (int edge = 0; edge < edges.size(); edge++) {
+            if (insert[edge].get(expression)) {
+                if (!canInsert(edges.get(edge), expression)) {
+                    return;
+                }
+                insertionEdges.add(edges.get(edge));
+            }
+        }
+
+        // the values are first rebuilt with markers for the inserted instructions to find out if phi instructions
+        // would be needed in blocks with more than two predecessors
+        simulating = true;
+        placeInsertions(insertionEdges, null);
+        if (getValues(deletedOccurrences) == null) {
+            return;
+        }
+
+        simulating = false;
+        placeInsertions(insertionEdges, occurrences.get(expression).get(0));
+        Map<Instruction, Object> values = getValues(deletedOccurrences);
+        Map<Instruction, Instruction> replacements = new LinkedHashMap<>();
+        for (Map.Entry<Instruction, Object> value : values.entrySet()) {
+            replacements.put(value.getKey(), materialize(value.getValue()));
+        }
+        for (Map.Entry<Instruction, Instruction> replacement : replacements.entrySet()) {
+            Instruction occurrence = replacement.getKey();
+            controlFlowGraph.replaceValueUses(occurrence.getIndex(),
+                    new Result(Result.Type.VALUE, replacement.getValue().getIndex()));
+            occurrence.getBasicBlock().removeInstruction(occurrence);
+            deletedCount++;
+        }
+    }
+
+    // the values of the expression before the deleted occurrences, or null if one of them is not available
+    private Map<Instruction, Object> getValues(List<Instruction> deletedOccurrences) {
+        Map<Instruction, Object> values = new LinkedHashMap<>();
+        for (Instruction occurrence : deletedOccurrences) {
+            values.put(occurrence, getValueBefore(occurrence.getBasicBlock(), occurrence));
+        }
+        resolvePhiValues();
+        for (Map.Entry<Instruction, Object> value : values.entrySet()) {
+            Object resolvedValue = resolve(value.getValue());
+            if (!isAvailable(resolvedValue)) {
+                return null;
+            }
+            value.setValue(resolvedValue);
+        }
+        return values;
+    }
+
+    private static boolean containsBlock(List<Instruction> occurrences, Instruction occurrence) {
+        for (Instruction other : occurrences) {
+            if (other.getBasicBlock() == occurrence.getBasicBlock()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // a critical edge that can only be split with an extra branch instruction is used only if the computation in
+    // its destination is deleted. The block that falls through to the destination then branches instead, and both
+    // paths into the destination lose the deleted computation
+    private boolean canInsert(BasicBlock[] edge, int expression) {
+        BasicBlock from = edge[0];
+        BasicBlock to = edge[1];
+        if (from.getSuccessors().size() == 1 || to.getPredecessors().size() == 1
+                || getSplitBlock(from, to) != null || from.getFallThroughBlock() == to) {
+            return true;
+        }
+        for (BasicBlock predecessor : to.getPredecessors()) {
+            if (predecessor.getFallThroughBlock() == to) {
+                return predecessor.getSuccessors().size() == 1 && delete[blockNumbers.get(to)].get(expression);
+            }
+        }
+        return true;
+    }
+
+    private BasicBlock getSplitBlock(BasicBlock from, BasicBlock to) {
+        return splitBlocks.containsKey(from) ? splitBlocks.get(from).get(to) : null;
+    }
+
+    // places the insertions at the end of the source block if it has a single successor, at the start of the
+    // destination if it has a single predecessor, or in a block on the edge. While simulating only markers are placed
+    private void placeInsertions(List<BasicBlock[]> insertionEdges, Instruction representative) {
+        startDefinitions = new HashMap<>();
+        endDefinitions = new HashMap<>();
+        edgeDefinitions = new HashMap<>();
+        blockValues = new HashMap<>();
+        phiValues = new ArrayList<>();
+        for (BasicBlock[] edge : insertionEdges) {
+            BasicBlock from = edge[0];
+            BasicBlock to = edge[1];
+            BasicBlock splitBlock = getSplitBlock(from, to);
+            if (splitBlock != null) {
+                endDefinitions.put(splitBlock, createCopy(representative, splitBlock, false));
+            } else if (from.getSuccessors().size() == 1) {
+                endDefinitions.put(from, createCopy(representative, from, false));
+            } else if (to.getPredecessors().size() == 1) {
+                startDefinitions.put(to, createCopy(representative, to, true));
+            } else if (simulating) {
+                if (!edgeDefinitions.containsKey(from)) {
+                    edgeDefinitions.put(from, new HashMap<>());
+                }
+                edgeDefinitions.get(from).put(to, new Object());
+            } else {
+                splitBlock = from.splitEdge(to, from.getFallThroughBlock() != to);
+                splitBlocks.get(from).put(to, splitBlock);
+                endDefinitions.put(splitBlock, createCopy(representative, splitBlock, false));
+            }
+        }
+    }
+
+    private Object createCopy(Instruction representative, BasicBlock basicBlock, boolean atStart) {
+        if (simulating) {
+            return new Object();
+        }
+        Instruction copy = Instruction.create(representative.getOpCode(), copyOperand(representative.getOperand1()),
+                copyOperand(representative.getOperand2()));
+        if (atStart) {
+            basicBlock.insertAfterPhis(copy);
+        } else {
+            basicBlock.insertBeforeBranch(copy);
+        }
+        insertedCount++;
+        return copy;
+    }
+
+    private static Result copyOperand(Result operand) {
+        return operand == null ? null : new Result(operand.getType(), operand.getValue());
+    }
+
+    // the value of the expression right before the given instruction, or at the end of the block if it is null
+    private Object getValueBefore(BasicBlock basicBlock, Instruction position) {
+        if (position == null && endDefinitions.containsKey(basicBlock)) {
+            return endDefinitions.get(basicBlock);
+        }
+        List<Instruction> instructions = basicBlock.getInstructions();
+        int end = position == null ? instructions.size() : instructions.indexOf(position);
+        for (int i = end - 1; i >= 0; i--) {
+            if (keptOccurrences.contains(instructions.get(i))) {
+                return instructions.get(i);
+            }
+        }
+        if (startDefinitions.containsKey(basicBlock)) {
+            return startDefinitions.get(basicBlock);
+        }
+        return getValueAtStart(basicBlock);
+    }
+
+    private Object getValueAtStart(BasicBlock basicBlock) {
+        if (blockValues.containsKey(basicBlock)) {
+            return blockValues.get(basicBlock);
+        }
+        List<BasicBlock> predecessors = basicBlock.getPredecessors();
+        if (predecessors.isEmpty()) {
+            return UNAVAILABLE;
+        }
+        if (predecessors.size() == 1) {
+            Object value = getValueOnEdge(predecessors.get(0), basicBlock);
+            blockValues.put(basicBlock, value);
+            return value;
+        }
+
+        // the phi is registered before its operands are looked up, so that loops end at it
+        PhiValue phi = new PhiValue();
+        phi.basicBlock = basicBlock;
+        phiValues.add(phi);
+        blockValues.put(basicBlock, phi);
+        for (BasicBlock predecessor : predecessors) {
+            phi.operands.add(getValueOnEdge(predecessor, basicBlock));
+        }
+        return phi;
+    }
+
+    private Object getValueOnEdge(BasicBlock from, BasicBlock to) {
+        if (edgeDefinitions.containsKey(from) && edgeDefinitions.get(from).containsKey(to)) {
+            return edgeDefinitions.get(from).get(to);
+        }
+        return getValueBefore(from, null);
+    }
+
+    // decides which phi values are not needed because they merge a single value, possibly with themselves in loops
+    // that don't compute the expression, and which are unavailable because an operand is. There is no phi with more
+    // than two operands, so one that would merge different values in a block with more predecessors is unavailable
+    private void resolvePhiValues() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (PhiValue phi : phiValues) {
+                if (phi.unavailable || phi.value != null) {
+                    continue;
+                }
+                boolean unavailable = false;
+                Set<Object> values = new LinkedHashSet<>();
+                for (Object operand : phi.operands) {
+                    Object value = resolve(operand);
+                    if (!isAvailable(value)) {
+                        unavailable = true;
+                    } else if (value != phi) {
+                        values.add(value);
+                    }
+                }
+                if (unavailable || values.isEmpty() || (values.size() > 1 && phi.operands.size() > 2)) {
+                    phi.unavailable = true;
+                    changed = true;
+                } else if (values.size() == 1) {
+                    phi.value = values.iterator().next();
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static Object resolve(Object value) {
+        while (value instanceof PhiValue && ((PhiValue) value).value != null) {
+            value = ((PhiValue) value).value;
+        }
+        return value;
+    }
+
+    private static boolean isAvailable(Object value) {
+        return value != UNAVAILABLE && !(value instanceof PhiValue && ((PhiValue) value).unavailable);
+    }
+
+    // the instruction for a resolved value, which inserts the phi instructions it needs. A phi that is needed merges
+    // two available values
+    private Instruction materialize(Object value) {
+        if (!(value instanceof PhiValue)) {
+            return (Instruction) value;
+        }
+        PhiValue phi = (PhiValue) value;
+        if (phi.instruction == null) {
+            phi.instruction = Instruction.create(OpCode.PHI, null, null);
+            phi.basicBlock.insertAfterPhis(phi.instruction);
+            Instruction operand1 = materialize(resolve(phi.operands.get(0)));
+            Instruction operand2 = materialize(resolve(phi.operands.get(1)));
+            phi.instruction.setOperand1(new Result(Result.Type.VALUE, operand1.getIndex()));
+            phi.instruction.setOperand2(new Result(Result.Type.VALUE, operand2.getIndex()));
+        }
+        return phi.instruction;
+    }
+}
@@ -0,0 +1,252 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reassociates trees of additions and multiplications. Every value gets a rank: constants have rank zero, values that
+// are not computed by arithmetic instructions have the position of their block in reverse post order, and arithmetic
+// instructions have the highest rank of their operands. Values defined outside of a loop come before the loop in
+// reverse post order, so loop invariants rank below the values that change in the loop. A tree is flattened into its
+// operands, which are sorted by rank, and rebuilt as a chain that starts with the lowest ranks. The constants of the
+// tree are folded and added or multiplied first, operands that appear more than once in a sum are counted, loop
+// invariant parts of the chain can be hoisted, and sums of the same operands in any order become identical chains. Only operations with a single use in the same block
+// are merged into a tree, so no computation is duplicated or moved to another block
+public class Reassociation {
+    private final static Logger logger = LoggerFactory.getLogger(Reassociation.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private DominatorTree dominatorTree;
+    private Map<BasicBlock, Integer> blockRanks;
+    private Map<Integer, Integer> ranks;
+    private Map<Integer, List<Instruction>> users;
+    private int reassociatedCount;
+
+    public Reassociation(ControlFlowGraph controlFlowGraph) {
+        this(controlFlowGraph, null);
+    }
+
+    // the pass manager passes the dominator tree it has cached for the CFG
+    public Reassociation(ControlFlowGraph controlFlowGraph, DominatorTree dominatorTree) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.dominatorTree = dominatorTree;
+    }
+
+    // an operand of a tree, which is subtracted instead of added if it is negative
+    private static class Leaf {
+        private Result value;
+        private boolean negative;
+
+        private Leaf(Result value, boolean negative) {
+            this.value = value;
+            this.negative = negative;
+        }
+    }
+
+    public void run() {
+        if (dominatorTree == null) {
+            dominatorTree = new DominatorTree(controlFlowGraph);
+        }
+        List<BasicBlock> reversePostOrder = dominatorTree.getReversePostOrder();
+        blockRanks = new HashMap<>();
+        for (int i = 0; i < reversePostOrder.size(); i++) {
+            blockRanks.put(reversePostOrder.get(i), i + 1);
+        }
+        ranks = new HashMap<>();
+        users = new HashMap<>();
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                for (Result operand : instruction.getValueOperands()) {
+                    if (operand.getType() == Result.Type.VALUE && operand.getValue() != null) {
+                        users.computeIfAbsent(operand.getValue(), key -> new ArrayList<>()).add(instruction);
+                    }
+                }
+            }
+        }
+
+        for (BasicBlock basicBlock : reversePostOrder) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (isTreeOperation(instruction) && !isMergedIntoUser(instruction)) {
+                    reassociate(instruction);
+                }
+            }
+        }
+        logger.info("Reassociated " + reassociatedCount + " expression trees in " + controlFlowGraph.getName());
+    }
+
+    private static boolean isAdditive(Instruction instruction) {
+        OpCode opCode = instruction.getOpCode();
+        return opCode == OpCode.ADD || opCode == OpCode.SUB || opCode == OpCode.NEG;
+    }
+
+    // instructions with address operands compute the base addresses of variables and are left alone
+    private static boolean isTreeOperation(Instruction instruction) {
+        if (instruction.getOpCode() == null || (!isAdditive(instruction) && instruction.getOpCode() != OpCode.MUL)) {
+            return false;
+        }
+        for (Result operand : new Result[] {instruction.getOperand1(), instruction.getOperand2()}) {
+            if (operand != null && (operand.getValue() == null || (operand.getType() != Result.Type.VALUE
+                    && operand.getType() != Result.Type.CONSTANT))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSameKind(Instruction first, Instruction second) {
+        return isAdditive(first) ? isAdditive(second) : first.getOpCode() == second.getOpCode();
+    }
+
+    private boolean isMergedIntoUser(Instruction instruction) {
+        List<Instruction> instructionUsers = users.get(instruction.getIndex());
+        if (instructionUsers == null || instructionUsers.size() != 1) {
+            return false;
+        }
+        Instruction user = instructionUsers.get(0);
+        return user.getBasicBlock() == instruction.getBasicBlock() && isTreeOperation(user)
+                && isSameKind(user, instruction);
+    }
+
+    private Instruction getMergedDefinition(Result operand, Instruction root) {
+        if (operand.getType() != Result.Type.VALUE) {
+            return null;
+        }
+        Instruction definition = controlFlowGraph.getInstruction(operand.getValue());
+        if (definition == null || !isTreeOperation(definition) || !isSameKind(definition, root)
+                || !isMergedIntoUser(definition)) {
+            return null;
+        }
+        return definition;
+    }
+
+    private void reassociate(Instruction root) {
+        List<Leaf> leaves = new ArrayList<>();
+        List<Instruction> mergedInstructions = new ArrayList<>();
+        flatten(root, root, false, leaves, mergedInstructions);
+        if (leaves.size() < 3) {
+            return;
+        }
+
+        boolean additive = isAdditive(root);
+        int constant = additive ? 0 : 1;
+        // operands of a sum that appear more than once are counted, so that they cancel or become a multiplication
+        Map<Integer, Integer> coefficients = new LinkedHashMap<>();
+        List<Result> values = new ArrayList<>();
+        for (Leaf leaf : leaves) {
+            if (leaf.value.getType() == Result.Type.CONSTANT) {
+                int value = leaf.negative ? -leaf.value.getValue() : leaf.value.getValue();
+                constant = additive ? constant + value : constant * value;
+            } else if (additive) {
+                if (!coefficients.containsKey(leaf.value.getValue())) {
+                    values.add(leaf.value);
+                }
+                coefficients.merge(leaf.value.getValue(), leaf.negative ? -1 : 1, Integer::sum);
+            } else {
+                values.add(leaf.value);
+            }
+        }
+        if (additive) {
+            values.removeIf(value -> coefficients.get(value.getValue()) == 0);
+        }
+        values.sort(Comparator.comparingInt(this::getRank).thenComparingInt(Result::getValue));
+
+        // the chain is built before the root, which is then replaced by the last value of the chain
+        Result accumulator;
+        if (values.isEmpty() || (!additive && constant == 0)) {
+            accumulator = new Result(Result.Type.CONSTANT, constant);
+        } else {
+            accumulator = null;
+            boolean constantAdded = constant == (additive ? 0 : 1);
+            for (Result value : values) {
+                int coefficient = additive ? coefficients.get(value.getValue()) : 1;
+                Result term = value;
+                if (coefficient != 1 && coefficient != -1) {
+                    term = emit(root, OpCode.MUL, value, new Result(Result.Type.CONSTANT, Math.abs(coefficient)));
+                }
+                if (accumulator == null) {
+                    accumulator = coefficient < 0 ? emit(root, OpCode.NEG, term, null) : term;
+                } else if (!additive) {
+                    accumulator = emit(root, OpCode.MUL, accumulator, term);
+                } else {
+                    accumulator = emit(root, coefficient < 0 ? OpCode.SUB : OpCode.ADD, accumulator, term);
+                }
+                // the constant is combined with the operand of the lowest rank
+                if (!constantAdded) {
+                    accumulator = emit(root, additive ? OpCode.ADD : OpCode.MUL, accumulator,
+                            new Result(Result.Type.CONSTANT, constant));
+                    constantAdded = true;
+                }
+            }
+        }
+
+        controlFlowGraph.replaceValueUses(root.getIndex(), accumulator);
+        root.getBasicBlock().removeInstruction(root);
+        for (Instruction instruction : mergedInstructions) {
+            instruction.getBasicBlock().removeInstruction(instruction);
+        }
+        reassociatedCount++;
+    }
+
+    private Result emit(Instruction root, OpCode opCode, Result operand1, Result operand2) {
+        Instruction instruction = Instruction.create(opCode, operand1, operand2);
+        root.getBasicBlock().insertBefore(root, instruction);
+        return new Result(Result.Type.VALUE, instruction.getIndex());
+    }
+
+    private void flatten(Instruction instruction, Instruction root, boolean negative, List<Leaf> leaves,
+                         List<Instruction> mergedInstructions) {
+        if (instruction.getOpCode() == OpCode.NEG) {
+            addOperand(instruction.getOperand1(), root, !negative, leaves, mergedInstructions);
+        } else {
+            addOperand(instruction.getOperand1(), root, negative, leaves, mergedInstructions);
+            addOperand(instruction.getOperand2(), root, instruction.getOpCode() == OpCode.SUB ? !negative : negative,
+                    leaves, mergedInstructions);
+        }
+    }
+
+    private void addOperand(Result operand, Instruction root, boolean negative, List<Leaf> leaves,
+                            List<Instruction> mergedInstructions) {
+        Instruction definition = getMergedDefinition(operand, root);
+        if (definition == null) {
+            leaves.add(new Leaf(operand, negative));
+        } else {
+            mergedInstructions.add(definition);
+            flatten(definition, root, negative, leaves, mergedInstructions);
+        }
+    }
+
+    private int getRank(Result value) {
+        if (value.getType() == Result.Type.CONSTANT) {
+            return 0;
+        }
+        if (ranks.containsKey(value.getValue())) {
+            return ranks.get(value.getValue());
+        }
+        Instruction definition = controlFlowGraph.getInstruction(value.getValue());
+        int rank;
+        if (definition == null) {
+            rank = 0;
+        } else if (definition.getOpCode() != OpCode.PHI && isTreeOperation(definition)) {
+            rank = 0;
+            for (Result operand : definition.getValueOperands()) {
+                rank = Math.max(rank, getRank(operand));
+            }
+        } else {
+            rank = blockRanks.getOrDefault(definition.getBasicBlock(), 0);
+        }
+        ranks.put(value.getValue(), rank);
+        return rank;
+    }
+}
@@ -0,0 +1,253 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.AliasAnalysis;
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.FunctionSummary;
+import me.arminb.hws.pl241.analysis.LinearExpression;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.pass.WorkCounter;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.MemoryAllocator;
+import me.arminb.hws.pl241.symbol.Symbol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Promotes the elements of arrays that are only accessed at constant offsets to SSA values. An array qualifies if
+// every LOAD and STORE of it uses an offset known at compile time that lies within the array, and no function can
+// reach it, which holds for arrays local to a function and for arrays of main that no function accesses. Every
+// element is then renamed like a scalar variable: phi instructions are placed at the iterated dominance frontier of
+// its stores, and each LOAD is replaced by the value that reaches it. Elements that are read before they are written
+// hold zero, as the memory does
+public class ScalarReplacement {
+    private final static Logger logger = LoggerFactory.getLogger(ScalarReplacement.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private FunctionSummary functionSummary;
+    private AliasAnalysis aliasAnalysis;
+    private DominatorTree dominatorTree;
+    private Set<Instruction> accesses;
+    private Map<Integer, Map<BasicBlock, Instruction>> phis;
+    private int elementCount;
+
+    public ScalarReplacement(ControlFlowGraph controlFlowGraph, FunctionSummary functionSummary) {
+        this(controlFlowGraph, functionSummary, null);
+    }
+
+    // the pass manager passes the dominator tree it has cached for the CFG
+    public ScalarReplacement(ControlFlowGraph controlFlowGraph, FunctionSummary functionSummary,
+            DominatorTree dominatorTree) {
+        this.controlFlowGraph = controlFlowGraph;
+        this.functionSummary = functionSummary;
+        this.dominatorTree = dominatorTree;
+    }
+
+    public void run() {
+        aliasAnalysis = new AliasAnalysis(controlFlowGraph);
+        if (dominatorTree == null) {
+            dominatorTree = new DominatorTree(controlFlowGraph);
+        }
+
+        Map<Symbol, List<Instruction>> arrayAccesses = new LinkedHashMap<>();
+        Set<Symbol> disqualifiedArrays = new HashSet<>();
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                Symbol source = aliasAnalysis.getSourceLocation(instruction);
+                if (source != null) {
+                    disqualifiedArrays.add(source);
+                }
+                Symbol location = aliasAnalysis.getLocation(instruction);
+                if (location == null || !location.isArray()) {
+                    continue;
+                }
+                if (getElementOffset(instruction, location) == null || isReachableByFunctions(location)) {
+                    disqualifiedArrays.add(location);
+                }
+                arrayAccesses.computeIfAbsent(location, key -> new ArrayList<>()).add(instruction);
+            }
+        }
+
+        int arrayCount = 0;
+        for (Symbol array : arrayAccesses.keySet()) {
+            if (!disqualifiedArrays.contains(array) && promote(array, arrayAccesses.get(array))) {
+                arrayCount++;
+            }
+        }
+        logger.info("Promoted " + elementCount + " elements of " + arrayCount + " arrays in "
+                + controlFlowGraph.getName());
+    }
+
+    // the byte offset of the accessed element, or null if it is not known or out of bounds
+    private Integer getElementOffset(Instruction instruction, Symbol array) {
+        LinearExpression offset = aliasAnalysis.getOffset(instruction);
+        if (offset == null || !offset.isConstant()) {
+            return null;
+        }
+        int value = offset.getConstant();
+        if (value < 0 || value % MemoryAllocator.WORD_SIZE != 0 || value / MemoryAllocator.WORD_SIZE >= array.getSize()) {
+            return null;
+        }
+        return value;
+    }
+
+    private boolean isReachableByFunctions(Symbol array) {
+        if (!array.isGlobal()) {
+            return false;
+        }
+        if (controlFlowGraph != ControlFlowGraph.getMain()) {
+            return true;
+        }
+        for (ControlFlowGraph function : ControlFlowGraph.getAll()) {
+            if (function != controlFlowGraph && (functionSummary.getModifiedGlobals(function).contains(array)
+                    || functionSummary.getReferencedGlobals(function).contains(array))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean promote(Symbol array, List<Instruction> arrayAccesses) {
+        // only elements that are loaded need values, the stores of the others are just removed
+        Map<Integer, Set<BasicBlock>> definitionBlocks = new TreeMap<>();
+        Set<Integer> loadedOffsets = new HashSet<>();
+        for (Instruction instruction : arrayAccesses) {
+            Integer offset = getElementOffset(instruction, array);
+            if (instruction.getOpCode() == OpCode.LOAD) {
+                loadedOffsets.add(offset);
+            } else {
+                definitionBlocks.computeIfAbsent(offset, key -> new HashSet<>()).add(instruction.getBasicBlock());
+            }
+        }
+
+        // phi placement is checked for all elements before anything is changed, since phis only have two operands
+        Map<Integer, Set<BasicBlock>> phiBlocks = new HashMap<>();
+        for (Integer offset : loadedOffsets) {
+            Set<BasicBlock> blocks = getIteratedDominanceFrontier(definitionBlocks.getOrDefault(offset,
+                    new HashSet<>()));
+            for (BasicBlock basicBlock : blocks) {
+                if (basicBlock.getPredecessors().size() > 2) {
+                    return false;
+                }
+            }
+            phiBlocks.put(offset, blocks);
+        }
+
+        accesses = new HashSet<>(arrayAccesses);
+        phis = new HashMap<>();
+        List<Instruction> newPhis = new ArrayList<>();
+        for (Integer offset : phiBlocks.keySet()) {
+            phis.put(offset, new HashMap<>());
+            for (BasicBlock basicBlock : phiBlocks.get(offset)) {
+                // operands from unreachable predecessors are never set by the renaming
+                Instruction phi = Instruction.create(OpCode.PHI, new Result(Result.Type.CONSTANT, 0),
+                        new Result(Result.Type.CONSTANT, 0));
+                basicBlock.insertAfterPhis(phi);
+                phis.get(offset).put(basicBlock, phi);
+                newPhis.add(phi);
+            }
+        }
+
+        Map<Integer, Result> initialValues = new HashMap<>();
+        for (Integer offset : loadedOffsets) {
+            initialValues.put(offset, new Result(Result.Type.CONSTANT, 0));
+        }
+        rename(controlFlowGraph.getEntryBlock(), array, initialValues);
+        removeTrivialPhis(controlFlowGraph, newPhis);
+        elementCount += loadedOffsets.size();
+        return true;
+    }
+
+    private Set<BasicBlock> getIteratedDominanceFrontier(Set<BasicBlock> blocks) {
+        Set<BasicBlock> frontier = new HashSet<>();
+        List<BasicBlock> worklist = new ArrayList<>(blocks);
+        while (!worklist.isEmpty()) {
+            BasicBlock basicBlock = worklist.remove(worklist.size() - 1);
+            WorkCounter.getInstance().add();
+            if (!dominatorTree.isReachable(basicBlock)) {
+                continue;
+            }
+            for (BasicBlock frontierBlock : dominatorTree.getDominanceFrontier(basicBlock)) {
+                if (frontier.add(frontierBlock)) {
+                    worklist.add(frontierBlock);
+                }
+            }
+        }
+        return frontier;
+    }
+
+    private void rename(BasicBlock basicBlock, Symbol array, Map<Integer, Result> currentValues) {
+        Map<Integer, Result> blockValues = new HashMap<>(currentValues);
+        for (Integer offset : phis.keySet()) {
+            Instruction phi = phis.get(offset).get(basicBlock);
+            if (phi != null) {
+                blockValues.put(offset, new Result(Result.Type.VALUE, phi.getIndex()));
+            }
+        }
+
+        for (Instruction instruction : basicBlock.getInstructions()) {
+            if (!accesses.contains(instruction)) {
+                continue;
+            }
+            Integer offset = getElementOffset(instruction, array);
+            if (instruction.getOpCode() == OpCode.LOAD) {
+                controlFlowGraph.replaceValueUses(instruction.getIndex(), blockValues.get(offset));
+            } else if (blockValues.containsKey(offset)) {
+                blockValues.put(offset, instruction.getOperand1());
+            }
+            basicBlock.removeInstruction(instruction);
+        }
+
+        for (BasicBlock successor : basicBlock.getSuccessors()) {
+            for (Integer offset : phis.keySet()) {
+                Instruction phi = phis.get(offset).get(successor);
+                if (phi != null) {
+                    phi.setPhiOperand(basicBlock, blockValues.get(offset));
+                }
+            }
+        }
+
+        for (BasicBlock child : dominatorTree.getChildren(basicBlock)) {
+            rename(child, array, blockValues);
+        }
+    }
+
+    // phis that merge a value with itself, which are placed in loops that don't store to the element. Also used for
+    // the phis of promoted globals
+    static void removeTrivialPhis(ControlFlowGraph controlFlowGraph, List<Instruction> newPhis) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Instruction phi : new ArrayList<>(newPhis)) {
+                Result operand1 = phi.getOperand1();
+                Result operand2 = phi.getOperand2();
+                Result value;
+                if (operand2.isValueOf(phi.getIndex()) || (operand1.getType() == operand2.getType()
+                        && operand1.getValue().equals(operand2.getValue()))) {
+                    value = operand1;
+                } else if (operand1.isValueOf(phi.getIndex())) {
+                    value = operand2;
+                } else {
+                    continue;
+                }
+                if (value.isValueOf(phi.getIndex())) {
+                    continue;
+                }
+                controlFlowGraph.replaceValueUses(phi.getIndex(), value);
+                phi.getBasicBlock().removeInstruction(phi);
+                newPhis.remove(phi);
+                changed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.pass.WorkCounter;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Sparse conditional constant propagation of Wegman and Zadeck. Every value starts as undefined and is only lowered
+// to a constant or to overdefined when the block defining it becomes executable. Blocks become executable through
+// the CFG worklist, so values on paths that are never taken don't spoil phis. Afterwards constant values are
+// propagated into their uses, branches with a known condition are folded and unreachable blocks are deleted
+public class SparseConditionalConstantPropagation {
+    private final static Logger logger = LoggerFactory.getLogger(SparseConditionalConstantPropagation.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private Map<Integer, LatticeValue> values;
+    private Map<Integer, List<Instruction>> users;
+    private Set<BasicBlock> executableBlocks;
+    private Map<BasicBlock, Set<BasicBlock>> executableEdges;
+    private List<BasicBlock[]> edgeWorklist;
+    private List<Instruction> ssaWorklist;
+
+    private static class LatticeValue {
+        private static final LatticeValue UNDEFINED = new LatticeValue(null);
+        private static final LatticeValue OVERDEFINED = new LatticeValue(null);
+
+        private final Integer constant;
+
+        private LatticeValue(Integer constant) {
+            this.constant = constant;
+        }
+
+        private static LatticeValue constant(int constant) {
+            return new LatticeValue(constant);
+        }
+
+        private boolean isConstant() {
+            return constant != null;
+        }
+
+        private LatticeValue meet(LatticeValue other) {
+            if (this == UNDEFINED) {
+                return other;
+            }
+            if (other == UNDEFINED) {
+                return this;
+            }
+            if (this == OVERDEFINED || other == OVERDEFINED || !constant.equals(other.constant)) {
+                return OVERDEFINED;
+            }
+            return this;
+        }
+
+        private boolean isSameAs(LatticeValue other) {
+            if (isConstant() && other.isConstant()) {
+                return constant.equals(other.constant);
+            }
+            return this == other;
+        }
+    }
+
+    public SparseConditionalConstantPropagation(ControlFlowGraph controlFlowGraph) {
+        this.controlFlowGraph = controlFlowGraph;
+    }
+
+    public void run() {
+        values = new HashMap<>();
+        users = new HashMap<>();
+        executableBlocks = new HashSet<>();
+        executableEdges = new HashMap<>();
+        edgeWorklist = new ArrayList<>();
+        ssaWorklist = new ArrayList<>();
+
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                for (Result operand : instruction.getValueOperands()) {
+                    if (operand.getType() == Result.Type.VALUE && operand.getValue() != null) {
+                        if (!users.containsKey(operand.getValue())) {
+                            users.put(operand.getValue(), new ArrayList<>());
+                        }
+                        users.get(operand.getValue()).add(instruction);
+                    }
+                }
+            }
+        }
+
+        executableBlocks.add(controlFlowGraph.getEntryBlock());
+        visitBlock(controlFlowGraph.getEntryBlock());
+        while (!edgeWorklist.isEmpty() || !ssaWorklist.isEmpty()) {
+            WorkCounter.getInstance().add();
+            if (!edgeWorklist.isEmpty()) {
+                BasicBlock[] edge = edgeWorklist.remove(edgeWorklist.size() - 1);
+                visitEdge(edge[0], edge[1]);
+            } else {
+                Instruction instruction = ssaWorklist.remove(ssaWorklist.size() - 1);
+                if (executableBlocks.contains(instruction.getBasicBlock())) {
+                    visit(instruction);
+                }
+            }
+        }
+
+        int constantCount = replaceConstants();
+        int branchCount = foldBranches();
+        int blockCount = controlFlowGraph.removeUnreachableBlocks();
+        logger.info("Propagated " + constantCount + " constants, folded " + branchCount + " branches and removed "
+                + blockCount + " unreachable blocks in " + controlFlowGraph.getName());
+    }
+
+    private void visitEdge(BasicBlock from, BasicBlock to) {
+        if (!executableEdges.containsKey(from)) {
+            executableEdges.put(from, new HashSet<>());
+        }
+        if (!executableEdges.get(from).add(to)) {
+            return;
+        }
+        if (executableBlocks.add(to)) {
+            visitBlock(to);
+        } else {
+            // only the phis depend on the new edge
+            for (Instruction phiInstruction : to.getPhiInstructions()) {
+                visit(phiInstruction);
+            }
+        }
+    }
+
+    private boolean isExecutable(BasicBlock from, BasicBlock to) {
+        return executableEdges.containsKey(from) && executableEdges.get(from).contains(to);
+    }
+
+    private void visitBlock(BasicBlock basicBlock) {
+        for (Instruction instruction : basicBlock.getInstructions()) {
+            visit(instruction);
+        }
+        if (!basicBlock.getLastInstruction().isBranch() && basicBlock.getFallThroughBlock() != null) {
+            edgeWorklist.add(new BasicBlock[] {basicBlock, basicBlock.getFallThroughBlock()});
+        }
+    }
+
+    private void visit(Instruction instruction) {
+        if (instruction.getOpCode() == null) {
+            return;
+        }
+        if (instruction.isBranch()) {
+            visitBranch(instruction);
+            return;
+        }
+
+        LatticeValue oldValue = getValue(instruction.getIndex());
+        LatticeValue newValue = oldValue.meet(evaluate(instruction));
+        if (!newValue.isSameAs(oldValue)) {
+            values.put(instruction.getIndex(), newValue);
+            if (users.containsKey(instruction.getIndex())) {
+                ssaWorklist.addAll(users.get(instruction.getIndex()));
+            }
+        }
+    }
+
+    private void visitBranch(Instruction branchInstruction) {
+        BasicBlock basicBlock = branchInstruction.getBasicBlock();
+        if (branchInstruction.getOpCode() == OpCode.BRA) {
+            edgeWorklist.add(new BasicBlock[] {basicBlock, basicBlock.getBranchBlock()});
+            return;
+        }
+
+        LatticeValue condition = getValue(branchInstruction.getOperand1());
+        if (condition == LatticeValue.UNDEFINED) {
+            return;
+        }
+        if (condition == LatticeValue.OVERDEFINED || branchInstruction.isTaken(condition.constant)) {
+            edgeWorklist.add(new BasicBlock[] {basicBlock, basicBlock.getBranchBlock()});
+        }
+        if (condition == LatticeValue.OVERDEFINED || !branchInstruction.isTaken(condition.constant)) {
+            if (basicBlock.getFallThroughBlock() != null) {
+                edgeWorklist.add(new BasicBlock[] {basicBlock, basicBlock.getFallThroughBlock()});
+            }
+        }
+    }
+
+    private LatticeValue getValue(Integer instructionIndex) {
+        return values.getOrDefault(instructionIndex, LatticeValue.UNDEFINED);
+    }
+
+    private LatticeValue getValue(Result operand) {
+        if (operand == null || operand.getValue() == null) {
+            return LatticeValue.OVERDEFINED;
+        }
+        if (operand.getType() == Result.Type.CONSTANT) {
+            return LatticeValue.constant(operand.getValue());
+        }
+        if (operand.getType() == Result.Type.VALUE) {
+            return getValue(operand.getValue());
+        }
+        return LatticeValue.OVERDEFINED;
+    }
+
+    private LatticeValue evaluate(Instruction instruction) {
+        switch (instruction.getOpCode()) {
+            case PHI:
+                LatticeValue phiValue = LatticeValue.UNDEFINED;
+                for (BasicBlock predecessor : instruction.getBasicBlock().getPredecessors()) {
+                    if (isExecutable(predecessor, instruction.getBasicBlock())) {
+                        phiValue = phiValue.meet(getValue(instruction.getPhiOperand(predecessor)));
+                    }
+                }
+                return phiValue;
+            case NEG:
+                LatticeValue operand = getValue(instruction.getOperand1());
+                return operand.isConstant() ? LatticeValue.constant(-operand.constant) : operand;
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+            case CMP:
+            case LSH:
+            case ASH:
+            case MULH:
+                return evaluateBinary(instruction.getOpCode(), getValue(instruction.getOperand1()),
+                        getValue(instruction.getOperand2()));
+            case SELECT:
+                List<Result> params = instruction.getParams();
+                LatticeValue condition = getValue(params.get(0));
+                if (condition == LatticeValue.UNDEFINED) {
+                    return condition;
+                }
+                if (condition.isConstant()) {
+                    return getValue(params.get(Instruction.isTaken(instruction.getComparison(), condition.constant)
+                            ? 1 : 2));
+                }
+                return getValue(params.get(1)).meet(getValue(params.get(2)));
+            default:
+                return LatticeValue.OVERDEFINED;
+        }
+    }
+
+    private static LatticeValue evaluateBinary(OpCode opCode, LatticeValue left, LatticeValue right) {
+        if (left == LatticeValue.UNDEFINED || right == LatticeValue.UNDEFINED) {
+            return LatticeValue.UNDEFINED;
+        }
+        // x * 0 is zero whatever x is
+        if (opCode == OpCode.MUL && ((left.isConstant() && left.constant == 0) ||
+                (right.isConstant() && right.constant == 0))) {
+            return LatticeValue.constant(0);
+        }
+        if (!left.isConstant() || !right.isConstant()) {
+            return LatticeValue.OVERDEFINED;
+        }
+        Integer value = Instruction.evaluate(opCode, left.constant, right.constant);
+        return value == null ? LatticeValue.OVERDEFINED : LatticeValue.constant(value);
+    }
+
+    // replaces the uses of constant values by the constant and removes the instructions computing them
+    private int replaceConstants() {
+        int constantCount = 0;
+        for (BasicBlock basicBlock : new ArrayList<>(executableBlocks)) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                LatticeValue value = getValue(instruction.getIndex());
+                if (!value.isConstant() || instruction.getOpCode() == null) {
+                    continue;
+                }
+                Result constant = new Result(Result.Type.CONSTANT, value.constant);
+                for (Instruction user : users.getOrDefault(instruction.getIndex(), new ArrayList<>())) {
+                    user.replaceValueOperand(instruction.getIndex(), constant);
+                }
+                basicBlock.removeInstruction(instruction);
+                constantCount++;
+            }
+        }
+        return constantCount;
+    }
+
+    // removes the edges that were never executed from conditional branches
+    private int foldBranches() {
+        int branchCount = 0;
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            Instruction branchInstruction = basicBlock.getLastInstruction();
+            if (!executableBlocks.contains(basicBlock) || !branchInstruction.isConditionalBranch()) {
+                continue;
+            }
+            BasicBlock fallThroughBlock = basicBlock.getFallThroughBlock();
+            BasicBlock branchBlock = basicBlock.getBranchBlock();
+            boolean fallThroughExecutable = fallThroughBlock != null && isExecutable(basicBlock, fallThroughBlock);
+            boolean branchExecutable = isExecutable(basicBlock, branchBlock);
+            if (fallThroughBlock == branchBlock || fallThroughExecutable == branchExecutable) {
+                continue;
+            }
+            if (branchExecutable) {
+                branchInstruction.changeToBranch();
+                if (fallThroughBlock != null) {
+                    basicBlock.removeSuccessor(fallThroughBlock);
+                }
+            } else {
+                basicBlock.removeInstruction(branchInstruction);
+                basicBlock.removeSuccessor(branchBlock);
+            }
+            branchCount++;
+        }
+        return branchCount;
+    }
+}
@@ -0,0 +1,226 @@
+package me.arminb.hws.pl241.optimization;
+
+import me.arminb.hws.pl241.analysis.CallGraph;
+import me.arminb.hws.pl241.cfg.BasicBlock;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import me.arminb.hws.pl241.frontend.Result;
+import me.arminb.hws.pl241.frontend.Scanner;
+import me.arminb.hws.pl241.ssa.Instruction;
+import me.arminb.hws.pl241.ssa.OpCode;
+import me.arminb.hws.pl241.symbol.Symbol;
+import me.arminb.hws.pl241.symbol.SymbolTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Turns calls of a function to itself whose value is returned right away into a loop. The parameters are loaded once
+// in the entry block, and the rest of the function becomes the loop header, with a phi instruction for every
+// parameter that takes the arguments of the tail calls on the back edge. A tail call is either followed by a return
+// of its value in the same block, or is the last instruction of a block whose only successor just returns. If there
+// are several tail calls, their arguments are merged by phi instructions in blocks of their own before the back edge
+public class TailRecursionElimination {
+    private final static Logger logger = LoggerFactory.getLogger(TailRecursionElimination.class);
+
+    private ControlFlowGraph controlFlowGraph;
+    private int eliminatedCount;
+
+    public TailRecursionElimination(ControlFlowGraph controlFlowGraph) {
+        this.controlFlowGraph = controlFlowGraph;
+    }
+
+    public void run() {
+        if (controlFlowGraph == ControlFlowGraph.getMain()
+                || !controlFlowGraph.getEntryBlock().getPredecessors().isEmpty()) {
+            return;
+        }
+        List<Instruction> tailCalls = new ArrayList<>();
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                if (isTailCall(instruction)) {
+                    tailCalls.add(instruction);
+                }
+            }
+        }
+        if (!tailCalls.isEmpty()) {
+            eliminate(tailCalls);
+            // blocks that only returned after a tail call may be unreachable now
+            controlFlowGraph.removeUnreachableBlocks();
+            controlFlowGraph.renumberBasicBlocks();
+        }
+        logger.info("Eliminated " + eliminatedCount + " tail calls in " + controlFlowGraph.getName());
+    }
+
+    private boolean isTailCall(Instruction instruction) {
+        if (instruction.getOpCode() != OpCode.CALL || CallGraph.getCallee(instruction) != controlFlowGraph) {
+            return false;
+        }
+        BasicBlock basicBlock = instruction.getBasicBlock();
+        Instruction next = instruction == basicBlock.getLastInstruction() ? null : instruction.getNext();
+        if (next != null && next.getOpCode() == OpCode.RET) {
+            return next == basicBlock.getLastInstruction() && returnsCallValue(next, instruction);
+        }
+        if ((next != null && (next.getOpCode() != OpCode.BRA || next != basicBlock.getLastInstruction()))
+                || basicBlock.getSuccessors().size() != 1) {
+            return false;
+        }
+        BasicBlock successor = basicBlock.getSuccessors().get(0);
+        Instruction returnInstruction = successor.getFirstInstruction();
+        return returnInstruction == successor.getLastInstruction() && returnInstruction.getOpCode() == OpCode.RET
+                && returnsCallValue(returnInstruction, instruction);
+    }
+
+    private static boolean returnsCallValue(Instruction returnInstruction, Instruction callInstruction) {
+        return returnInstruction.getOperand1() == null
+                || returnInstruction.getOperand1().isValueOf(callInstruction.getIndex());
+    }
+
+    private void eliminate(List<Instruction> tailCalls) {
+        BasicBlock entryBlock = controlFlowGraph.getEntryBlock();
+        List<Symbol> parameters = SymbolTable.getInstance().get(
+                Scanner.getInstance().stringToIdentifier(controlFlowGraph.getName()), ControlFlowGraph.MAIN)
+                .getParameters();
+
+        // every parameter that is used is loaded once at the beginning of the entry block
+        List<Integer> loadedParameters = new ArrayList<>();
+        List<Instruction> loads = new ArrayList<>();
+        Instruction lastInstruction = null;
+        for (int i = 0; i < parameters.size(); i++) {
+            List<Instruction> parameterLoads = getLoads(parameters.get(i));
+            if (parameterLoads.isEmpty()) {
+                continue;
+            }
+            Instruction addressInstruction = Instruction.create(OpCode.ADD, Result.Address.FP.getResult(),
+                    new Result(Result.Type.CONSTANT, parameters.get(i).getRelativeBaseAddress()));
+            Instruction load = Instruction.create(OpCode.LOAD,
+                    new Result(Result.Type.VALUE, addressInstruction.getIndex()), null);
+            load.setAffectedVariable(parameters.get(i).getIdentifier());
+            if (lastInstruction == null) {
+                entryBlock.insertBefore(entryBlock.getFirstInstruction(), addressInstruction);
+            } else {
+                entryBlock.insertAfter(lastInstruction, addressInstruction);
+            }
+            entryBlock.insertAfter(addressInstruction, load);
+            lastInstruction = load;
+            for (Instruction parameterLoad : parameterLoads) {
+                controlFlowGraph.replaceValueUses(parameterLoad.getIndex(),
+                        new Result(Result.Type.VALUE, load.getIndex()));
+                removeLoad(parameterLoad);
+            }
+            loadedParameters.add(i);
+            loads.add(load);
+        }
+
+        if (lastInstruction == null) {
+            lastInstruction = Instruction.create(null, null, null);
+            entryBlock.insertBefore(entryBlock.getFirstInstruction(), lastInstruction);
+        }
+        BasicBlock headerBlock = entryBlock.splitAfter(lastInstruction);
+        List<Instruction> headerPhis = new ArrayList<>();
+        for (Instruction load : loads) {
+            Instruction phi = Instruction.create(OpCode.PHI, null, null);
+            headerBlock.insertAfterPhis(phi);
+            controlFlowGraph.replaceValueUses(load.getIndex(), new Result(Result.Type.VALUE, phi.getIndex()));
+            headerPhis.add(phi);
+        }
+
+        // the arguments of the tail calls are merged pairwise until a single block branches back to the header
+        BasicBlock currentBlock = null;
+        List<Result> currentArguments = null;
+        for (Instruction callInstruction : tailCalls) {
+            List<Result> arguments = new ArrayList<>();
+            for (Integer i : loadedParameters) {
+                arguments.add(callInstruction.getParams().get(i));
+            }
+            BasicBlock callBlock = removeTailCall(callInstruction);
+            eliminatedCount++;
+            if (currentBlock == null) {
+                currentBlock = callBlock;
+                currentArguments = arguments;
+                continue;
+            }
+            BasicBlock mergeBlock = BasicBlock.create();
+            appendToChain(mergeBlock);
+            addBranch(currentBlock, mergeBlock);
+            addBranch(callBlock, mergeBlock);
+            List<Result> mergedArguments = new ArrayList<>();
+            for (int i = 0; i < arguments.size(); i++) {
+                Instruction phi = Instruction.create(OpCode.PHI, currentArguments.get(i), arguments.get(i));
+                mergeBlock.insertAfterPhis(phi);
+                mergedArguments.add(new Result(Result.Type.VALUE, phi.getIndex()));
+            }
+            currentBlock = mergeBlock;
+            currentArguments = mergedArguments;
+        }
+
+        addBranch(currentBlock, headerBlock);
+        for (int i = 0; i < headerPhis.size(); i++) {
+            headerPhis.get(i).setPhiOperand(entryBlock, new Result(Result.Type.VALUE, loads.get(i).getIndex()));
+            headerPhis.get(i).setPhiOperand(currentBlock, currentArguments.get(i));
+        }
+    }
+
+    private List<Instruction> getLoads(Symbol parameter) {
+        List<Instruction> loads = new ArrayList<>();
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                Symbol loadedParameter = FunctionInlining.getParameter(controlFlowGraph, instruction);
+                if (loadedParameter != null && loadedParameter.getIdentifier().equals(parameter.getIdentifier())) {
+                    loads.add(instruction);
+                }
+            }
+        }
+        return loads;
+    }
+
+    // removes the load and its address if nothing else uses it
+    private void removeLoad(Instruction load) {
+        load.getBasicBlock().removeInstruction(load);
+        Instruction addressInstruction = controlFlowGraph.getInstruction(load.getOperand1().getValue());
+        if (addressInstruction == null) {
+            return;
+        }
+        for (BasicBlock basicBlock : controlFlowGraph.getBasicBlocks()) {
+            for (Instruction instruction : basicBlock.getInstructions()) {
+                for (Result operand : instruction.getValueOperands()) {
+                    if (operand.isValueOf(addressInstruction.getIndex())) {
+                        return;
+                    }
+                }
+            }
+        }
+        addressInstruction.getBasicBlock().removeInstruction(addressInstruction);
+    }
+
+    // removes the call with the return after it, or the edge to the block that returns, and returns the block of
+    // the call, which has no successors left
+    private BasicBlock removeTailCall(Instruction callInstruction) {
+        BasicBlock callBlock = callInstruction.getBasicBlock();
+        if (callBlock.getLastInstruction().getOpCode() == OpCode.RET
+                || callBlock.getLastInstruction().getOpCode() == OpCode.BRA) {
+            callBlock.removeInstruction(callBlock.getLastInstruction());
+        }
+        callBlock.removeInstruction(callInstruction);
+        // blocks that return may still fall through to the next block
+        for (BasicBlock successor : callBlock.getSuccessors()) {
+            callBlock.removeSuccessor(successor);
+        }
+        return callBlock;
+    }
+
+    private static void addBranch(BasicBlock basicBlock, BasicBlock destination) {
+        Instruction branchInstruction = Instruction.create(OpCode.BRA, null, null);
+        basicBlock.insertBeforeBranch(branchInstruction);
+        branchInstruction.setOperand1(new Result(Result.Type.VALUE, destination.getFirstInstruction().getIndex()));
+        basicBlock.setBranchBlock(destination);
+    }
+
+    private void appendToChain(BasicBlock basicBlock) {
+        Instruction lastInstruction = controlFlowGraph.getEntryBlock().getFirstInstruction();
+        while (lastInstruction.getNext() != null) {
+            lastInstruction = lastInstruction.getNext();
+        }
+        lastInstruction.connectTo(basicBlock.getFirstInstruction());
+    }
+}
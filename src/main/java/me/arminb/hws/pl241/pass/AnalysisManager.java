@@ -0,0 +1,138 @@
+package me.arminb.hws.pl241.pass;
+
+import me.arminb.hws.pl241.analysis.CallGraph;
+import me.arminb.hws.pl241.analysis.DominatorTree;
+import me.arminb.hws.pl241.analysis.FunctionSummary;
+import me.arminb.hws.pl241.analysis.LoopInfo;
+import me.arminb.hws.pl241.analysis.PostDominatorTree;
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Computes analyses on demand and keeps them until a pass declares a change they depend on. Dominator trees, post
+// dominator trees and loops are kept per CFG, the call graph and the function summaries for the whole program
+public class AnalysisManager {
+    private Map<ControlFlowGraph, DominatorTree> dominatorTrees;
+    private Map<ControlFlowGraph, PostDominatorTree> postDominatorTrees;
+    private Map<ControlFlowGraph, LoopInfo> loopInfos;
+    private CallGraph callGraph;
+    private FunctionSummary functionSummary;
+    private int computedCount;
+    private int reusedCount;
+    private long time;
+
+    public AnalysisManager() {
+        dominatorTrees = new HashMap<>();
+        postDominatorTrees = new HashMap<>();
+        loopInfos = new HashMap<>();
+    }
+
+    public DominatorTree getDominatorTree(ControlFlowGraph controlFlowGraph) {
+        DominatorTree dominatorTree = dominatorTrees.get(controlFlowGraph);
+        if (dominatorTree == null) {
+            long startTime = System.nanoTime();
+            dominatorTree = new DominatorTree(controlFlowGraph);
+            finishComputation(startTime);
+            dominatorTrees.put(controlFlowGraph, dominatorTree);
+        } else {
+            reusedCount++;
+        }
+        return dominatorTree;
+    }
+
+    public PostDominatorTree getPostDominatorTree(ControlFlowGraph controlFlowGraph) {
+        PostDominatorTree postDominatorTree = postDominatorTrees.get(controlFlowGraph);
+        if (postDominatorTree == null) {
+            long startTime = System.nanoTime();
+            postDominatorTree = new PostDominatorTree(controlFlowGraph);
+            finishComputation(startTime);
+            postDominatorTrees.put(controlFlowGraph, postDominatorTree);
+        } else {
+            reusedCount++;
+        }
+        return postDominatorTree;
+    }
+
+    public LoopInfo getLoopInfo(ControlFlowGraph controlFlowGraph) {
+        LoopInfo loopInfo = loopInfos.get(controlFlowGraph);
+        if (loopInfo == null) {
+            DominatorTree dominatorTree = getDominatorTree(controlFlowGraph);
+            long startTime = System.nanoTime();
+            loopInfo = new LoopInfo(controlFlowGraph, dominatorTree);
+            finishComputation(startTime);
+            loopInfos.put(controlFlowGraph, loopInfo);
+        } else {
+            reusedCount++;
+        }
+        return loopInfo;
+    }
+
+    public CallGraph getCallGraph() {
+        if (callGraph == null) {
+            long startTime = System.nanoTime();
+            callGraph = new CallGraph();
+            finishComputation(startTime);
+        } else {
+            reusedCount++;
+        }
+        return callGraph;
+    }
+
+    public FunctionSummary getFunctionSummary() {
+        if (functionSummary == null) {
+            CallGraph callGraph = getCallGraph();
+            long startTime = System.nanoTime();
+            functionSummary = new FunctionSummary(callGraph);
+            finishComputation(startTime);
+        } else {
+            reusedCount++;
+        }
+        return functionSummary;
+    }
+
+    private void finishComputation(long startTime) {
+        time += System.nanoTime() - startTime;
+        computedCount++;
+    }
+
+    // drops the analyses of the CFG that depend on the changes
+    public void invalidate(ControlFlowGraph controlFlowGraph, Set<Change> changes) {
+        if (changes.contains(Change.CONTROL_FLOW)) {
+            dominatorTrees.remove(controlFlowGraph);
+            postDominatorTrees.remove(controlFlowGraph);
+            loopInfos.remove(controlFlowGraph);
+        }
+        if (changes.contains(Change.CALLS)) {
+            callGraph = null;
+            functionSummary = null;
+        }
+    }
+
+    // drops the analyses of all CFGs that depend on the changes
+    public void invalidateAll(Set<Change> changes) {
+        if (changes.contains(Change.CONTROL_FLOW)) {
+            dominatorTrees.clear();
+            postDominatorTrees.clear();
+            loopInfos.clear();
+        }
+        if (changes.contains(Change.CALLS)) {
+            callGraph = null;
+            functionSummary = null;
+        }
+    }
+
+    public int getComputedCount() {
+        return computedCount;
+    }
+
+    public int getReusedCount() {
+        return reusedCount;
+    }
+
+    // nanoseconds spent computing analyses
+    public long getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,9 @@
+package me.arminb.hws.pl241.pass;
+
+// What a pass may change, which decides the cached analyses it invalidates. Changes to other instructions keep all
+// cached analyses valid: dominators and loops only describe blocks and edges, and function summaries stay
+// conservative when passes remove accesses to globals
+public enum Change {
+    CONTROL_FLOW, // blocks and edges of the CFG
+    CALLS // call instructions and the set of functions
+}
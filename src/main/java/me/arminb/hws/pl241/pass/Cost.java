@@ -0,0 +1,10 @@
+package me.arminb.hws.pl241.pass;
+
+// How much a function pass may cost, which decides whether it still runs on a function that used up its work budget.
+// Cheap passes are roughly linear in the size of the function and still run on functions over the budget, expensive
+// ones copy code or iterate over loops and are skipped. Functions over twice the budget only get the required passes
+public enum Cost {
+    REQUIRED,
+    CHEAP,
+    EXPENSIVE
+}
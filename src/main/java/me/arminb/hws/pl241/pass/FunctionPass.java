@@ -0,0 +1,43 @@
+package me.arminb.hws.pl241.pass;
+
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+// A transform that runs on one CFG at a time. It gets its analyses from the analysis manager and declares what it
+// may change and how much it may cost
+public class FunctionPass {
+    private final String name;
+    private final Set<Change> changes;
+    private final Cost cost;
+    private final BiConsumer<ControlFlowGraph, AnalysisManager> body;
+
+    public FunctionPass(String name, Set<Change> changes, BiConsumer<ControlFlowGraph, AnalysisManager> body) {
+        this(name, changes, Cost.EXPENSIVE, body);
+    }
+
+    public FunctionPass(String name, Set<Change> changes, Cost cost,
+                        BiConsumer<ControlFlowGraph, AnalysisManager> body) {
+        this.name = name;
+        this.changes = changes;
+        this.cost = cost;
+        this.body = body;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Set<Change> getChanges() {
+        return changes;
+    }
+
+    public Cost getCost() {
+        return cost;
+    }
+
+    public void run(ControlFlowGraph controlFlowGraph, AnalysisManager analysisManager) {
+        body.accept(controlFlowGraph, analysisManager);
+    }
+}
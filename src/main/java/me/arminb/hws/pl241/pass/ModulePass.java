@@ -0,0 +1,29 @@
+package me.arminb.hws.pl241.pass;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+// A transform that runs on the whole program at once, like the interprocedural ones
+public class ModulePass {
+    private final String name;
+    private final Set<Change> changes;
+    private final Consumer<AnalysisManager> body;
+
+    public ModulePass(String name, Set<Change> changes, Consumer<AnalysisManager> body) {
+        this.name = name;
+        this.changes = changes;
+        this.body = body;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Set<Change> getChanges() {
+        return changes;
+    }
+
+    public void run(AnalysisManager analysisManager) {
+        body.accept(analysisManager);
+    }
+}
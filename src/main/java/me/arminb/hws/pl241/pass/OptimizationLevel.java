@@ -0,0 +1,22 @@
+package me.arminb.hws.pl241.pass;
+
+// The standard pipelines. O0 leaves the code of the parser as it is, O1 runs the cheap scalar passes once and O2
+// runs the full pipeline including the interprocedural and loop passes
+public enum OptimizationLevel {
+    O0,
+    O1,
+    O2;
+
+    public static boolean isOption(String option) {
+        return option.startsWith("-O");
+    }
+
+    public static OptimizationLevel fromOption(String option) {
+        for (OptimizationLevel level : values()) {
+            if (option.equals("-" + level)) {
+                return level;
+            }
+        }
+        throw new RuntimeException("Unknown optimization level " + option + "!");
+    }
+}
@@ -0,0 +1,160 @@
+package me.arminb.hws.pl241.pass;
+
+import me.arminb.hws.pl241.cfg.ControlFlowGraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs a pipeline of passes. Module passes run once in their place. Consecutive function passes form a group that runs
+// on one function after the other, callees before their callers, so what a function learns from its callees, like
+// their inlined code, is already optimized. After every pass the analyses that depend on what it may change are
+// dropped, and the time of each pass is added up and logged at the end.
+// The work counted while a function pass runs, plus one unit for every instruction of the function since every pass
+// looks at each of them, is charged to the function. Once a function has used up its work budget only the cheap passes
+// run on it, and once it has used twice the budget only the required ones, so a single huge function can't stall the
+// compilation. The throttled functions are reported
+public class PassManager {
+    private final static Logger logger = LoggerFactory.getLogger(PassManager.class);
+
+    private List<Stage> stages;
+    private AnalysisManager analysisManager;
+    private Map<String, Long> passTimes;
+    private Map<String, Long> passWork;
+    private Map<String, Integer> passRuns;
+    private Map<ControlFlowGraph, Long> functionWork;
+    private Map<ControlFlowGraph, String> throttledFunctions;
+    // no limit if zero
+    private long workBudget;
+    private int skippedCount;
+
+    // either a module pass or a group of function passes
+    private static class Stage {
+        private ModulePass modulePass;
+        private List<FunctionPass> functionPasses = new ArrayList<>();
+    }
+
+    public PassManager() {
+        stages = new ArrayList<>();
+        analysisManager = new AnalysisManager();
+        passTimes = new LinkedHashMap<>();
+        passWork = new HashMap<>();
+        passRuns = new LinkedHashMap<>();
+        functionWork = new HashMap<>();
+        throttledFunctions = new LinkedHashMap<>();
+    }
+
+    public void addModulePass(ModulePass modulePass) {
+        Stage stage = new Stage();
+        stage.modulePass = modulePass;
+        stages.add(stage);
+    }
+
+    public void addFunctionPass(FunctionPass functionPass) {
+        if (stages.isEmpty() || stages.get(stages.size() - 1).modulePass != null) {
+            stages.add(new Stage());
+        }
+        stages.get(stages.size() - 1).functionPasses.add(functionPass);
+    }
+
+    public AnalysisManager getAnalysisManager() {
+        return analysisManager;
+    }
+
+    public void setWorkBudget(long workBudget) {
+        this.workBudget = workBudget;
+    }
+
+    public void run() {
+        long startTime = System.nanoTime();
+        for (Stage stage : stages) {
+            if (stage.modulePass != null) {
+                runModulePass(stage.modulePass);
+            } else {
+                runFunctionPasses(stage.functionPasses);
+            }
+        }
+        long totalTime = System.nanoTime() - startTime;
+
+        for (String name : passTimes.keySet()) {
+            logger.info(name + " took " + toMilliseconds(passTimes.get(name)) + " ms and "
+                    + passWork.getOrDefault(name, 0L) + " work units in " + passRuns.get(name) + " runs");
+        }
+        for (ControlFlowGraph function : throttledFunctions.keySet()) {
+            logger.info("Throttled " + function.getName() + " after " + throttledFunctions.get(function) + " with "
+                    + functionWork.get(function) + " work units");
+        }
+        if (workBudget > 0) {
+            logger.info("Throttled " + throttledFunctions.size() + " functions and skipped " + skippedCount
+                    + " passes on them");
+        }
+        logger.info("Computed " + analysisManager.getComputedCount() + " analyses in "
+                + toMilliseconds(analysisManager.getTime()) + " ms and reused " + analysisManager.getReusedCount());
+        logger.info("Optimization took " + toMilliseconds(totalTime) + " ms");
+    }
+
+    private void runModulePass(ModulePass modulePass) {
+        long startTime = System.nanoTime();
+        long analysisStartTime = analysisManager.getTime();
+        modulePass.run(analysisManager);
+        addTime(modulePass.getName(), startTime, analysisStartTime);
+        analysisManager.invalidateAll(modulePass.getChanges());
+    }
+
+    private void runFunctionPasses(List<FunctionPass> functionPasses) {
+        List<ControlFlowGraph> order = new ArrayList<>();
+        for (List<ControlFlowGraph> component : analysisManager.getCallGraph().getBottomUpOrder()) {
+            order.addAll(component);
+        }
+        for (ControlFlowGraph controlFlowGraph : order) {
+            // passes create and remove instructions in the current CFG
+            ControlFlowGraph.setCurrentCFG(controlFlowGraph);
+            for (FunctionPass functionPass : functionPasses) {
+                if (!canRun(controlFlowGraph, functionPass)) {
+                    skippedCount++;
+                    continue;
+                }
+                long startTime = System.nanoTime();
+                long analysisStartTime = analysisManager.getTime();
+                long startWork = WorkCounter.getInstance().getCount();
+                WorkCounter.getInstance().add(controlFlowGraph.getInstructionCount());
+                functionPass.run(controlFlowGraph, analysisManager);
+                addTime(functionPass.getName(), startTime, analysisStartTime);
+                addWork(controlFlowGraph, functionPass.getName(), WorkCounter.getInstance().getCount() - startWork);
+                analysisManager.invalidate(controlFlowGraph, functionPass.getChanges());
+            }
+        }
+    }
+
+    private boolean canRun(ControlFlowGraph controlFlowGraph, FunctionPass functionPass) {
+        long work = functionWork.getOrDefault(controlFlowGraph, 0L);
+        if (workBudget <= 0 || work <= workBudget) {
+            return true;
+        }
+        return work <= 2 * workBudget ? functionPass.getCost() != Cost.EXPENSIVE
+                : functionPass.getCost() == Cost.REQUIRED;
+    }
+
+    private void addWork(ControlFlowGraph controlFlowGraph, String name, long work) {
+        passWork.merge(name, work, Long::sum);
+        long totalWork = functionWork.merge(controlFlowGraph, work, Long::sum);
+        if (workBudget > 0 && totalWork > workBudget && !throttledFunctions.containsKey(controlFlowGraph)) {
+            throttledFunctions.put(controlFlowGraph, name);
+        }
+    }
+
+    // the time of the analyses a pass asks for is counted for the analysis manager instead
+    private void addTime(String name, long startTime, long analysisStartTime) {
+        long time = System.nanoTime() - startTime - (analysisManager.getTime() - analysisStartTime);
+        passTimes.merge(name, time, Long::sum);
+        passRuns.merge(name, 1, Integer::sum);
+    }
+
+    private static String toMilliseconds(long nanoseconds) {
+        return String.format("%.3f", nanoseconds / 1e6);
+    }
+}
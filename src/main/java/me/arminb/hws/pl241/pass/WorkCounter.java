@@ -0,0 +1,32 @@
+package me.arminb.hws.pl241.pass;
+
+// Counts units of work done by the passes, like instructions visited and items taken from worklists. Unlike time it
+// doesn't depend on the machine, so budgets on it throttle the same functions on every run. The pass manager reads the
+// count before and after each pass to attribute the work to the pass and its function
+public class WorkCounter {
+    private static WorkCounter instance;
+
+    private long count;
+
+    public static WorkCounter getInstance() {
+        if (instance == null) {
+            instance = new WorkCounter();
+        }
+        return instance;
+    }
+
+    private WorkCounter() {
+    }
+
+    public void add() {
+        count++;
+    }
+
+    public void add(int units) {
+        count += units;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -7,15 +7,16 @@ import me.arminb.hws.pl241.frontend.Scanner;
 import me.arminb.hws.pl241.symbol.SymbolTable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Instruction {
-    private static Integer instructionCounter = 0;
     private Integer index;
     private OpCode opCode;
     private Result operand1;
     private Result operand2;
-    private List<Result> params; // for call instructions
+    private List<Result> params; // for call, select and bulk memory instructions
+    private OpCode comparison; // for select instructions
     private Integer affectedVariable; // for phi instructions
     private Integer phiBeforeValueListSize; // for phi instructions and resetting value lists
     private Instruction next;
@@ -27,16 +28,49 @@ public class Instruction {
         this.opCode = opCode;
         this.operand1 = operand1;
         this.operand2 = operand2;
-        this.index = instructionCounter++;
+        this.index = ControlFlowGraph.getCurrent().nextInstructionIndex();
         this.params = null;
         this.basicBlock = basicBlock;
         branchDestinationFor = new ArrayList<>();
         ControlFlowGraph.getCurrent().addInstruction(this);
-        basicBlock.addInstruction(this);
+        if (basicBlock != null) {
+            basicBlock.addInstruction(this);
+        }
+    }
+
+    // creates an instruction in the current CFG which is not part of any basic block yet. It can be placed using the
+    // insert methods of BasicBlock
+    public static Instruction create(OpCode opCode, Result operand1, Result operand2) {
+        return new Instruction(null, opCode, operand1, operand2);
+    }
+
+    // creates a select instruction in the current CFG which is not part of any basic block yet. It has the value the
+    // branch would go to: the first one if a conditional branch with the given comparison is taken for the condition
+    // and the second one otherwise
+    public static Instruction createSelect(OpCode comparison, Result condition, Result ifTaken, Result ifNotTaken) {
+        Instruction selectInstruction = create(OpCode.SELECT, null, null);
+        selectInstruction.setComparison(comparison);
+        selectInstruction.setParams(new ArrayList<>(Arrays.asList(condition, ifTaken, ifNotTaken)));
+        return selectInstruction;
     }
 
-    public static void resetInstructionCounter() {
-        instructionCounter = 0;
+    // creates a FILL instruction in the current CFG which is not part of any basic block yet. It is annotated with the
+    // array it stores to, like a STORE
+    public static Instruction createFill(Result address, Result value, Result count, Integer array) {
+        Instruction fillInstruction = create(OpCode.FILL, null, null);
+        fillInstruction.setAffectedVariable(array);
+        fillInstruction.setParams(new ArrayList<>(Arrays.asList(address, value, count)));
+        return fillInstruction;
+    }
+
+    // creates a COPY instruction in the current CFG which is not part of any basic block yet. It is annotated with the
+    // array it stores to, and operand1 is the selector of the array it loads from
+    public static Instruction createCopy(Result destination, Result source, Result count, Integer destinationArray,
+                                         Integer sourceArray) {
+        Instruction copyInstruction = create(OpCode.COPY, new Result(Result.Type.SELECTOR, sourceArray), null);
+        copyInstruction.setAffectedVariable(destinationArray);
+        copyInstruction.setParams(new ArrayList<>(Arrays.asList(destination, source, count)));
+        return copyInstruction;
     }
 
     private static Instruction getNewInstruction(BasicBlock basicBlock, OpCode opCode, Result operand1, Result operand2) {
@@ -142,10 +176,170 @@ public class Instruction {
         return getNewInstruction(OpCode.ADDA, operand1, operand2);
     }
 
+    public static Instruction check(Result index, Result bound) {
+        return getNewInstruction(OpCode.CHK, index, bound);
+    }
+
     public boolean isEmpty() {
         return opCode == null && operand1 == null && operand2 == null;
     }
 
+    // clears the instruction and turns it into an empty instruction
+    public void makeEmpty() {
+        opCode = null;
+        operand1 = null;
+        operand2 = null;
+        params = null;
+        comparison = null;
+        affectedVariable = null;
+        phiBeforeValueListSize = null;
+    }
+
+    // calls, selects and bulk memory instructions keep their value operands in params
+    public boolean hasParams() {
+        return opCode == OpCode.CALL || opCode == OpCode.SELECT || opCode == OpCode.FILL || opCode == OpCode.COPY;
+    }
+
+    public boolean isBranch() {
+        return opCode == OpCode.BRA || isConditionalBranch();
+    }
+
+    public boolean isConditionalBranch() {
+        return opCode == OpCode.BEQ || opCode == OpCode.BNE || opCode == OpCode.BGE || opCode == OpCode.BGT ||
+                opCode == OpCode.BLE || opCode == OpCode.BLT;
+    }
+
+    // computes an arithmetic instruction with constant operands, or returns null if that is not possible at compile
+    // time. Shift amounts are taken modulo 32 like in Java
+    public static Integer evaluate(OpCode opCode, int operand1, int operand2) {
+        switch (opCode) {
+            case NEG: return -operand1;
+            case ADD: return operand1 + operand2;
+            case SUB: return operand1 - operand2;
+            case MUL: return operand1 * operand2;
+            case DIV:
+                // division by zero is left to run time
+                return operand2 == 0 ? null : operand1 / operand2;
+            case CMP: return Integer.compare(operand1, operand2);
+            case LSH: return operand2 >= 0 ? operand1 << operand2 : operand1 >>> -operand2;
+            case ASH: return operand2 >= 0 ? operand1 << operand2 : operand1 >> -operand2;
+            case MULH: return (int) (((long) operand1 * operand2) >> 32);
+            default: return null;
+        }
+    }
+
+    // conditional branches compare the result of CMP, or any other value, with zero
+    public boolean isTaken(int condition) {
+        return isTaken(opCode, condition);
+    }
+
+    public static boolean isTaken(OpCode opCode, int condition) {
+        switch (opCode) {
+            case BRA: return true;
+            case BEQ: return condition == 0;
+            case BNE: return condition != 0;
+            case BLT: return condition < 0;
+            case BGE: return condition >= 0;
+            case BLE: return condition <= 0;
+            default: return condition > 0; // BGT
+        }
+    }
+
+    // the branch that is taken for a comparison with swapped operands
+    public static OpCode swapComparison(OpCode opCode) {
+        switch (opCode) {
+            case BLT: return OpCode.BGT;
+            case BGT: return OpCode.BLT;
+            case BLE: return OpCode.BGE;
+            case BGE: return OpCode.BLE;
+            default: return opCode;
+        }
+    }
+
+    // turns a conditional branch into an unconditional one to the same destination
+    public void changeToBranch() {
+        operand1 = operand2;
+        operand2 = null;
+        opCode = OpCode.BRA;
+    }
+
+    public Result getBranchDestination() {
+        if (opCode == OpCode.BRA) {
+            return operand1;
+        } else if (isConditionalBranch()) {
+            return operand2;
+        }
+        return null;
+    }
+
+    public void setBranchDestination(Result destination) {
+        if (opCode == OpCode.BRA) {
+            setOperand1(destination);
+        } else if (isConditionalBranch()) {
+            setOperand2(destination);
+        }
+    }
+
+    // returns the operands that are values (constants and results of other instructions). Branch destinations, call
+    // selectors and addresses are not included
+    public List<Result> getValueOperands() {
+        List<Result> retList = new ArrayList<>();
+        if (opCode == null) {
+            return retList;
+        }
+        if (hasParams()) {
+            retList.addAll(params);
+            return retList;
+        }
+        if (isValueOperand(operand1) && opCode != OpCode.BRA) {
+            retList.add(operand1);
+        }
+        if (isValueOperand(operand2) && !isConditionalBranch()) {
+            retList.add(operand2);
+        }
+        return retList;
+    }
+
+    private static boolean isValueOperand(Result operand) {
+        return operand != null && (operand.getType() == Result.Type.VALUE || operand.getType() == Result.Type.CONSTANT);
+    }
+
+    // replaces every value operand that refers to the result of the given instruction
+    public boolean replaceValueOperand(Integer instructionIndex, Result replacement) {
+        boolean replaced = false;
+        if (hasParams()) {
+            for (int i = 0; i < params.size(); i++) {
+                if (params.get(i).isValueOf(instructionIndex)) {
+                    params.set(i, replacement);
+                    replaced = true;
+                }
+            }
+            return replaced;
+        }
+        if (operand1 != null && operand1.isValueOf(instructionIndex) && opCode != OpCode.BRA) {
+            operand1 = replacement;
+            replaced = true;
+        }
+        if (operand2 != null && operand2.isValueOf(instructionIndex) && !isConditionalBranch()) {
+            operand2 = replacement;
+            replaced = true;
+        }
+        return replaced;
+    }
+
+    // phi instructions take operand1 from the first predecessor of their block and operand2 from the second one
+    public Result getPhiOperand(BasicBlock predecessor) {
+        return basicBlock.getPredecessorIndex(predecessor) == 0 ? operand1 : operand2;
+    }
+
+    public void setPhiOperand(BasicBlock predecessor, Result operand) {
+        if (basicBlock.getPredecessorIndex(predecessor) == 0) {
+            operand1 = operand;
+        } else {
+            operand2 = operand;
+        }
+    }
+
     public boolean hasNullOperands() {
         return operand1 == null || operand2 == null;
     }
@@ -170,6 +364,10 @@ public class Instruction {
         return basicBlock;
     }
 
+    public void setBasicBlock(BasicBlock basicBlock) {
+        this.basicBlock = basicBlock;
+    }
+
     public void setOperand1(Result operand1) {
         if (opCode == OpCode.BRA) {
             ControlFlowGraph.getCurrent().getInstruction(operand1.getValue()).getBranchDestinationFor().add(this);
@@ -218,6 +416,17 @@ public class Instruction {
             }
         } else if (opCode == OpCode.PHI) {
             retString.append(index + ": " + opCode + " " + operand1 + " " + operand2);
+        } else if (hasParams()) {
+            retString.append(index + ": " + opCode);
+            if (comparison != null) {
+                retString.append(" " + comparison);
+            }
+            for (Result param : params) {
+                retString.append(" " + param);
+            }
+            if (opCode == OpCode.COPY) {
+                retString.append(" from " + Scanner.getInstance().identifierToString(operand1.getValue()));
+            }
         } else {
             if (operand1 == null && operand2 == null) {
                 retString.append(index + ": " + opCode);
@@ -242,6 +451,14 @@ public class Instruction {
         this.params = params;
     }
 
+    public OpCode getComparison() {
+        return comparison;
+    }
+
+    public void setComparison(OpCode comparison) {
+        this.comparison = comparison;
+    }
+
     public void setOpCode(OpCode opCode) {
         this.opCode = opCode;
     }
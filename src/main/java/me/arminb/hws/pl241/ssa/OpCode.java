@@ -6,6 +6,9 @@ public enum OpCode {
     SUB,
     MUL,
     DIV,
+    LSH, // shifts operand1 left by operand2, or logically right if operand2 is negative
+    ASH, // shifts operand1 left by operand2, or arithmetically right if operand2 is negative
+    MULH, // high word of the 64 bit product of the operands
     CMP,
     ADDA,
     LOAD,
@@ -24,5 +27,10 @@ public enum OpCode {
     WRITE,
     WRITENL,
     CALL,
-    RET
+    RET,
+    CHK, // traps if operand1 is not in [0, operand2)
+    SELECT, // the second param if a branch with the comparison would be taken for the first one, else the third
+    // the bulk memory instructions do nothing if the number of words in their third param isn't positive
+    FILL, // stores the second param to that many words from the address in the first one on
+    COPY // copies that many words from the address in the second param on to the address in the first one on
 }
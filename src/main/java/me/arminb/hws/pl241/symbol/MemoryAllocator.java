@@ -3,7 +3,7 @@ package me.arminb.hws.pl241.symbol;
 import java.util.HashMap;
 
 public class MemoryAllocator {
-    private static final int WORD_SIZE = 4;
+    public static final int WORD_SIZE = 4;
     private static MemoryAllocator instance;
 
     private Integer globalWordCounter;
@@ -23,10 +23,12 @@ public class MemoryAllocator {
         return instance;
     }
 
+    // every symbol gets its own storage so that distinct symbols never alias. Arrays take all of their elements,
+    // params are placed above the frame pointer and locals below it
     public void allocate(Symbol symbol) {
         if (symbol.isGlobal()) {
             symbol.setRelativeBaseAddress(globalWordCounter * WORD_SIZE);
-            globalWordCounter++;
+            globalWordCounter += symbol.getSize();
         } else {
             // TODO think about the stack frame and you want to manage this
             HashMap<String, Integer> hashMapToUse;
@@ -39,8 +41,13 @@ public class MemoryAllocator {
                 hashMapToUse.put(symbol.getScope(), 0);
             }
             Integer currentLocalCounter = hashMapToUse.get(symbol.getScope());
-            symbol.setRelativeBaseAddress(currentLocalCounter);
-            hashMapToUse.put(symbol.getScope(), currentLocalCounter + 1);
+            if (symbol.isParam()) {
+                symbol.setRelativeBaseAddress(currentLocalCounter * WORD_SIZE);
+                hashMapToUse.put(symbol.getScope(), currentLocalCounter + 1);
+            } else {
+                symbol.setRelativeBaseAddress(-(currentLocalCounter + symbol.getSize()) * WORD_SIZE);
+                hashMapToUse.put(symbol.getScope(), currentLocalCounter + symbol.getSize());
+            }
         }
     }
 }
@@ -18,6 +18,7 @@ public class Symbol {
     private List<Result> valueList;
     private final Boolean isParam;
     private Integer relativeBaseAddress;
+    private boolean assigned; // true if the program stores to this variable anywhere
 
     public static Symbol variable(Integer identifier, Boolean isParam) {
         return new Symbol(identifier,
@@ -77,8 +78,21 @@ public class Symbol {
                 false);
     }
 
+    // a symbol with the same name and storage in another scope, used for the copies of functions. The copy keeps
+    // the place in the frame of this symbol, so nothing is allocated for it
+    public Symbol copy(String scope) {
+        return new Symbol(identifier, name, type, scope, dimensions, parameters, isParam, relativeBaseAddress);
+    }
+
     private Symbol(Integer identifier, String name, SymbolType type, String scope, List<Integer> dimensions,
                    List<Symbol> parameters, Boolean isParam) {
+        this(identifier, name, type, scope, dimensions, parameters, isParam, null);
+        // set up relative base address
+        MemoryAllocator.getInstance().allocate(this);
+    }
+
+    private Symbol(Integer identifier, String name, SymbolType type, String scope, List<Integer> dimensions,
+                   List<Symbol> parameters, Boolean isParam, Integer relativeBaseAddress) {
         this.identifier = new Integer(identifier);
         this.name = new String(name);
         this.type = type;
@@ -87,8 +101,7 @@ public class Symbol {
         this.parameters = Collections.unmodifiableList(parameters);
         this.valueList = new ArrayList<>();
         this.isParam = isParam;
-        // set up relative base address
-        MemoryAllocator.getInstance().allocate(this);
+        this.relativeBaseAddress = relativeBaseAddress;
     }
 
 
@@ -113,6 +126,15 @@ public class Symbol {
         return dimensions;
     }
 
+    // number of words needed to store this symbol
+    public Integer getSize() {
+        Integer size = 1;
+        for (Integer dimension: dimensions) {
+            size *= dimension;
+        }
+        return size;
+    }
+
     public List<Symbol> getParameters() {
         return parameters;
     }
@@ -142,11 +164,19 @@ public class Symbol {
     }
 
     public void resetValueListTo(Integer size) {
-        for (int i=0; i<valueList.size()-size; i++) {
+        while (valueList.size() > size) {
             valueList.remove(valueList.size()-1);
         }
     }
 
+    public boolean isAssigned() {
+        return assigned;
+    }
+
+    public void setAssigned() {
+        this.assigned = true;
+    }
+
     public void resetValueList() {
         valueList = new ArrayList<>();
     }
@@ -96,6 +96,35 @@ public class SymbolTable {
         }
     }
 
+    // symbols declared in the given scope, not including globals
+    public List<Symbol> getSymbols(String scope) {
+        List<Symbol> retList = new ArrayList<>();
+        if (symbols.containsKey(scope)) {
+            retList.addAll(symbols.get(scope).values());
+        }
+        return retList;
+    }
+
+    // variables that can be referenced in the given scope, i.e. its own variables and globals that are not hidden
+    public List<Symbol> getVisibleVariables(String scope) {
+        List<Symbol> retList = new ArrayList<>();
+        if (symbols.containsKey(scope)) {
+            for (Symbol symbol: symbols.get(scope).values()) {
+                if (symbol.isVariable()) {
+                    retList.add(symbol);
+                }
+            }
+        }
+        if (!scope.equals(ControlFlowGraph.getMain().getName()) && symbols.containsKey(ControlFlowGraph.getMain().getName())) {
+            for (Symbol symbol: symbols.get(ControlFlowGraph.getMain().getName()).values()) {
+                if (symbol.isVariable() && !contains(symbol.getIdentifier(), scope)) {
+                    retList.add(symbol);
+                }
+            }
+        }
+        return retList;
+    }
+
     public void print() {
         for (String scope : symbols.keySet()) {
             for (Integer identifier : symbols.get(scope).keySet()) {